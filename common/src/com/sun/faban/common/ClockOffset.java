@@ -0,0 +1,345 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.common;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The clock offset estimates the offset and skew of a remote clock against
+ * the local clock from round trip samples, the way NTP does. No clock ever
+ * gets set. Each sample reads the remote clock between two readings of the
+ * local clock. The samples with the shortest round trip are the least
+ * disturbed by network and scheduling delays, so the offset is taken from
+ * the minimum round trip sample of a sliding window. The skew, the drift of
+ * the remote clock against the local clock, is the slope between the
+ * minimum round trip samples of the older and the newer half of the window.
+ * Sampling can continue in the background so the estimate keeps following
+ * the drift during long runs.
+ */
+public class ClockOffset {
+
+    private static Logger logger =
+            Logger.getLogger(ClockOffset.class.getName());
+
+    /** The number of samples the estimate is based on. */
+    public static final int WINDOW = 64;
+
+    // The minimum time span, in ns, to estimate the skew.
+    private static final long MIN_SKEW_SPAN = 1000000000l;
+
+    // The maximum skew believed, 500ppm like NTP.
+    private static final double MAX_SKEW = 500e-6d;
+
+    private static volatile Long wallClockBase;
+
+    /**
+     * The source reads the remote clock, usually through a remote call.
+     */
+    public interface Source {
+
+        /**
+         * Reads the remote clock.
+         * @return The remote time, in nanosecs
+         * @throws IOException Error reading the remote clock
+         */
+        long currentTimeNanos() throws IOException;
+    }
+
+    /**
+     * The listener gets notified of each background sample.
+     */
+    public interface Listener {
+
+        /**
+         * Notifies the listener that the estimate has been updated.
+         * @param clock The clock offset that got updated
+         */
+        void offsetChanged(ClockOffset clock);
+    }
+
+    private final Source source;
+    private final boolean wallClock;
+
+    // The samples, in a ring buffer.
+    private final long[] localTimes = new long[WINDOW];
+    private final long[] offsets = new long[WINDOW];
+    private final long[] roundTrips = new long[WINDOW];
+    private int count = 0;
+    private int next = 0;
+
+    private volatile Estimate estimate = new Estimate(0l, 0l, 0d, -1l);
+    private volatile Thread sampler;
+    private volatile Listener listener;
+
+    /**
+     * Constructs a clock offset.
+     * @param source The source reading the remote clock
+     * @param wallClock Whether the local clock is the wall clock in nanosecs
+     *        as given by currentTimeNanos, otherwise System.nanoTime
+     */
+    public ClockOffset(Source source, boolean wallClock) {
+        this.source = source;
+        this.wallClock = wallClock;
+    }
+
+    /**
+     * Obtains the wall clock time in nanosecs. It has the resolution of
+     * System.nanoTime and is comparable to System.currentTimeMillis times
+     * 1,000,000. The relation of both clocks is established once, on the
+     * edge of a millisec.
+     * @return The wall clock time, in nanosecs
+     */
+    public static long currentTimeNanos() {
+        Long base = wallClockBase;
+        if (base == null)
+            synchronized (ClockOffset.class) {
+                base = wallClockBase;
+                if (base == null)
+                    wallClockBase = base = calibrateWallClock();
+            }
+        return System.nanoTime() + base;
+    }
+
+    /**
+     * Finds the nanosec time of a few millisec edges. The edge happens
+     * between the last read of the old millisec and the first read of the
+     * new one. We take the middle of the edge seen in the shortest time, as
+     * that is the least disturbed by scheduling.
+     * @return The wall clock time minus System.nanoTime, in nanosecs
+     */
+    private static long calibrateWallClock() {
+        long base = 0l;
+        long bestWindow = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            long before;
+            long after = System.nanoTime();
+            long millisBefore = System.currentTimeMillis();
+            long millis;
+            do {
+                before = after;
+                millis = System.currentTimeMillis();
+                after = System.nanoTime();
+            } while (millis == millisBefore);
+            long window = after - before;
+            if (window < bestWindow) {
+                bestWindow = window;
+                base = millis * 1000000l - (before + window / 2);
+            }
+        }
+        return base;
+    }
+
+    private long localTime() {
+        return wallClock ? currentTimeNanos() : System.nanoTime();
+    }
+
+    /**
+     * Takes one sample of the remote clock and updates the estimate.
+     * @return The round trip time of the sample, in nanosecs
+     * @throws IOException Error reading the remote clock
+     */
+    public synchronized long sample() throws IOException {
+        long before = localTime();
+        long remote = source.currentTimeNanos();
+        long after = localTime();
+        long roundTrip = after - before;
+        long localTime = before + roundTrip / 2;
+
+        localTimes[next] = localTime;
+        offsets[next] = remote - localTime;
+        roundTrips[next] = roundTrip;
+        next = (next + 1) % WINDOW;
+        if (count < WINDOW)
+            ++count;
+
+        // Find the minimum round trip samples, overall and per half.
+        int start = count < WINDOW ? 0 : next;
+        int half = count / 2;
+        int best = -1;
+        int older = -1;
+        int newer = -1;
+        for (int i = 0; i < count; i++) {
+            int idx = (start + i) % WINDOW;
+            if (best < 0 || roundTrips[idx] < roundTrips[best])
+                best = idx;
+            if (i < half) {
+                if (older < 0 || roundTrips[idx] < roundTrips[older])
+                    older = idx;
+            } else if (newer < 0 || roundTrips[idx] < roundTrips[newer]) {
+                newer = idx;
+            }
+        }
+        double skew = 0d;
+        if (older >= 0) {
+            long span = localTimes[newer] - localTimes[older];
+            if (span >= MIN_SKEW_SPAN) {
+                skew = (double) (offsets[newer] - offsets[older]) / span;
+                if (skew > MAX_SKEW)
+                    skew = MAX_SKEW;
+                else if (skew < -MAX_SKEW)
+                    skew = -MAX_SKEW;
+            }
+        }
+        estimate = new Estimate(localTimes[best], offsets[best], skew,
+                                roundTrips[best]);
+        return roundTrip;
+    }
+
+    /**
+     * Takes a burst of samples.
+     * @param samples The number of samples
+     * @param interval The time between samples, in millisecs
+     * @throws IOException Error reading the remote clock
+     * @throws InterruptedException Interrupted while sampling
+     */
+    public void sample(int samples, long interval)
+            throws IOException, InterruptedException {
+        for (int i = 0; i < samples; i++) {
+            if (i > 0)
+                Thread.sleep(interval);
+            sample();
+        }
+    }
+
+    /**
+     * Starts sampling in the background.
+     * @param interval The time between samples, in millisecs
+     */
+    public void start(final long interval) {
+        Thread t = new Thread("ClockOffset") {
+            public void run() {
+                while (sampler == this) {
+                    try {
+                        Thread.sleep(interval);
+                        sample();
+                        Listener l = listener;
+                        if (l != null)
+                            l.offsetChanged(ClockOffset.this);
+                    } catch (InterruptedException e) {
+                        break;
+                    } catch (IOException e) {
+                        logger.log(Level.FINE, "Error sampling remote clock.",
+                                   e);
+                    }
+                }
+            }
+        };
+        t.setDaemon(true);
+        stop();
+        sampler = t;
+        t.start();
+    }
+
+    /**
+     * Stops sampling in the background.
+     */
+    public void stop() {
+        Thread t = sampler;
+        sampler = null;
+        if (t != null)
+            t.interrupt();
+    }
+
+    /**
+     * Sets the listener notified of each background sample.
+     * @param listener The listener, or null for none
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Obtains the current offset of the remote clock.
+     * @return The remote time minus the local time, in nanosecs
+     */
+    public long getOffset() {
+        return getOffset(localTime());
+    }
+
+    /**
+     * Obtains the offset of the remote clock at a given local time.
+     * @param localTime The local time, in nanosecs
+     * @return The remote time minus the local time, in nanosecs
+     */
+    public long getOffset(long localTime) {
+        Estimate e = estimate;
+        return e.offset + Math.round(e.skew * (localTime - e.time));
+    }
+
+    /**
+     * Converts a local time to the remote time.
+     * @param localTime The local time, in nanosecs
+     * @return The remote time, in nanosecs
+     */
+    public long toRemote(long localTime) {
+        return localTime + getOffset(localTime);
+    }
+
+    /**
+     * Converts a remote time to the local time.
+     * @param remoteTime The remote time, in nanosecs
+     * @return The local time, in nanosecs
+     */
+    public long toLocal(long remoteTime) {
+        Estimate e = estimate;
+        return e.time + Math.round((remoteTime - e.offset - e.time) /
+                                   (1d + e.skew));
+    }
+
+    /**
+     * Obtains the estimated skew of the remote clock.
+     * @return The remote clock drift per local time unit
+     */
+    public double getSkew() {
+        return estimate.skew;
+    }
+
+    /**
+     * Obtains the round trip time of the sample the offset is based on.
+     * @return The round trip time in nanosecs, or -1 if not yet sampled
+     */
+    public long getRoundTrip() {
+        return estimate.roundTrip;
+    }
+
+    /**
+     * The estimate is an immutable snapshot so it can be read without
+     * locking while sampling continues.
+     */
+    private static class Estimate {
+        final long time;
+        final long offset;
+        final double skew;
+        final long roundTrip;
+
+        Estimate(long time, long offset, double skew, long roundTrip) {
+            this.time = time;
+            this.offset = offset;
+            this.skew = skew;
+            this.roundTrip = roundTrip;
+        }
+    }
+}
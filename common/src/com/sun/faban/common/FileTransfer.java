@@ -26,6 +26,9 @@ package com.sun.faban.common;
 import java.io.*;
 import java.util.logging.Logger;
 import java.util.logging.Level;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /**
  * The FileTransfer class represents a file to be transferred via RMI from
@@ -34,21 +37,25 @@ import java.util.logging.Level;
  * memory bloat. This is useful for transferring large files over RMI.
  * As this object gets serialized, deserialized, the file transfer happens
  * internally and the destination file gets created as a result of the
- * deserialization. The file size limit is Long.MAX_VALUE (64bit).
+ * deserialization. The file size limit is Long.MAX_VALUE (64bit).<p>
+ *
+ * Transfers can be compressed, which is worthwhile for text files such as
+ * logs over slow links. Each chunk then gets deflated separately.
  *
  * @author Akara Sucharitakul
  */
 public class FileTransfer implements Externalizable {
 
-    private static final long serialVersionUID = 20090812L;    
+    private static final long serialVersionUID = 20100315L;
 
-    private static final int MAX_BUFFER_SIZE = 8192;
+    private static final int MAX_BUFFER_SIZE = 65536;
     private static final Logger logger =
                             Logger.getLogger(FileTransfer.class.getName());
 
     private String src;
     private String dest;
     private long size; // Size only gets populated once file transfer happens.
+    private boolean compressed;
 
     private transient long transferSize;
     private transient byte[] buffer;
@@ -143,6 +150,22 @@ public class FileTransfer implements Externalizable {
         return size;
     }
 
+    /**
+     * Sets whether the file content gets compressed for the transfer.
+     * @param compressed Whether to compress the content
+     */
+    public void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+
+    /**
+     * Checks whether the file content gets compressed for the transfer.
+     * @return Whether the content is compressed
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
     /**
      * Obtains the size to be transferred on the sending side, or the size
      * really transferred on the receiving side.
@@ -159,7 +182,15 @@ public class FileTransfer implements Externalizable {
         out.writeObject(src);
         out.writeObject(dest);
         out.writeLong(size);
-        out.write(buffer);
+        out.writeBoolean(compressed);
+        Deflater deflater = null;
+        byte[] zBuffer = null;
+        if (compressed) {
+            deflater = new Deflater(Deflater.BEST_SPEED);
+            zBuffer = new byte[zBufferSize(
+                                Math.min(buffer.length, MAX_BUFFER_SIZE))];
+        }
+        writeChunk(out, buffer.length, deflater, zBuffer);
 
         // Then stream the rest, if any
         if (size > buffer.length) {
@@ -185,7 +216,7 @@ public class FileTransfer implements Externalizable {
                 } else if (chunkSize == 0) {
                     continue;
                 }
-                out.write(buffer, 0, chunkSize);
+                writeChunk(out, chunkSize, deflater, zBuffer);
                 remainder -= chunkSize;
             }
             if (dataIn != null)
@@ -197,6 +228,39 @@ public class FileTransfer implements Externalizable {
                 }
             buffer = null;
         }
+        if (deflater != null)
+            deflater.end();
+    }
+
+    /**
+     * Writes a chunk of the buffer, compressed if a deflater is given.
+     * A compressed chunk is preceded by its raw and compressed sizes.
+     */
+    private void writeChunk(ObjectOutput out, int length, Deflater deflater,
+                            byte[] zBuffer) throws IOException {
+        if (deflater == null) {
+            out.write(buffer, 0, length);
+            return;
+        }
+        // The buffer may be larger than a chunk if created from a buffer.
+        for (int offset = 0; offset < length; offset += MAX_BUFFER_SIZE) {
+            int chunkSize = Math.min(length - offset, MAX_BUFFER_SIZE);
+            deflater.reset();
+            deflater.setInput(buffer, offset, chunkSize);
+            deflater.finish();
+            int zLength = 0;
+            while (!deflater.finished())
+                zLength += deflater.deflate(zBuffer, zLength,
+                                            zBuffer.length - zLength);
+            out.writeInt(chunkSize);
+            out.writeInt(zLength);
+            out.write(zBuffer, 0, zLength);
+        }
+    }
+
+    // The deflated size never exceeds this, even for random content.
+    private static int zBufferSize(int length) {
+        return length + (length >> 3) + 64;
     }
 
     public void readExternal(ObjectInput in)
@@ -206,6 +270,7 @@ public class FileTransfer implements Externalizable {
         src = (String) in.readObject();
         dest = (String) in.readObject();
         size = in.readLong();
+        compressed = in.readBoolean();
 
         // Convert destination file name to OS path name
         dest = Utilities.convertPath(dest);
@@ -224,11 +289,22 @@ public class FileTransfer implements Externalizable {
         if (buffer == null)
             buffer = new byte[size < MAX_BUFFER_SIZE ? (int) size :
                                                         MAX_BUFFER_SIZE];
+        Inflater inflater = null;
+        byte[] zBuffer = null;
+        if (compressed) {
+            inflater = new Inflater();
+            zBuffer = new byte[zBufferSize(buffer.length)];
+        }
         long remainder = size;
         while (remainder > 0) {
-            int chunkSize =
-                    remainder < buffer.length ? (int) remainder : buffer.length;
-            chunkSize = in.read(buffer, 0, chunkSize);
+            int chunkSize;
+            if (inflater != null) {
+                chunkSize = readChunk(in, inflater, zBuffer);
+            } else {
+                chunkSize = remainder < buffer.length ?
+                                        (int) remainder : buffer.length;
+                chunkSize = in.read(buffer, 0, chunkSize);
+            }
             if (chunkSize < 0) {
                 break;
             } else if (chunkSize == 0) {
@@ -247,6 +323,8 @@ public class FileTransfer implements Externalizable {
             remainder -= chunkSize;
         }
         transferSize = size - remainder;
+        if (inflater != null)
+            inflater.end();
         if (dataOut != null) {
             try {
                 dataOut.flush();
@@ -263,4 +341,37 @@ public class FileTransfer implements Externalizable {
         }
         buffer = null;
     }
+
+    /**
+     * Reads a compressed chunk into the buffer.
+     * @return The raw size of the chunk
+     */
+    private int readChunk(ObjectInput in, Inflater inflater, byte[] zBuffer)
+            throws IOException {
+        int length = in.readInt();
+        int zLength = in.readInt();
+        if (length > buffer.length || zLength > zBuffer.length)
+            throw new IOException("Invalid chunk size " + length + '/' +
+                                  zLength + " transferring " + dest);
+        in.readFully(zBuffer, 0, zLength);
+        inflater.reset();
+        inflater.setInput(zBuffer, 0, zLength);
+        try {
+            int offset = 0;
+            while (offset < length && !inflater.finished()) {
+                int count = inflater.inflate(buffer, offset, length - offset);
+                if (count == 0 && inflater.needsInput())
+                    break;
+                offset += count;
+            }
+            if (offset != length)
+                throw new IOException("Truncated chunk transferring " + dest);
+        } catch (DataFormatException e) {
+            IOException ex = new IOException("Corrupt chunk transferring " +
+                                             dest);
+            ex.initCause(e);
+            throw ex;
+        }
+        return length;
+    }
 }
@@ -166,6 +166,19 @@ public interface Registry extends Remote {
      */
     public int getNumServices(String type) throws RemoteException;
 
+    /**
+     * Waits for services to get registered. The call returns as soon as
+     * any of the services is registered, so the caller gets notified of
+     * each registration without polling.
+     * @param names The public driverNames of the services
+     * @param timeout The maximum time to wait, in milliseconds
+     * @return The names of the services registered, or an empty array if
+     *         none got registered before the timeout
+     * @throws RemoteException A network error occurred
+     */
+    public String[] waitForServices(String[] names, long timeout)
+            throws RemoteException;
+
     /**
      * Kill is called to exit the RMI registry and Registry.
      * @throws RemoteException A network error occurred
@@ -28,6 +28,7 @@ import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.logging.Logger;
@@ -140,6 +141,7 @@ public class RegistryImpl extends UnicastRemoteObject implements Registry {
                 " on machine " + getCaller());
         if (servicesTable.get(name) == null) {
             servicesTable.put(name, service);
+            notifyAll();
             return true;
         } else {
             logger.fine("Failed registering. Service " + name +
@@ -198,6 +200,7 @@ public class RegistryImpl extends UnicastRemoteObject implements Registry {
         logger.fine("Registry: Registering " + name +
                 " on machine " + getCaller());
         servicesTable.put(name, service);
+        notifyAll();
     }
 
     /**
@@ -297,6 +300,34 @@ public class RegistryImpl extends UnicastRemoteObject implements Registry {
         return r;
     }
 
+    /**
+     * Waits for services to get registered. The call returns as soon as
+     * any of the services is registered.
+     * @param names The public driverNames of the services
+     * @param timeout The maximum time to wait, in milliseconds
+     * @return The names of the services registered, or an empty array if
+     *         none got registered before the timeout
+     */
+    public synchronized String[] waitForServices(String[] names,
+                                                 long timeout) {
+        long endTime = System.currentTimeMillis() + timeout;
+        ArrayList<String> registered = new ArrayList<String>(names.length);
+        for (;;) {
+            for (String name : names)
+                if (servicesTable.get(name) != null)
+                    registered.add(name);
+            long waitTime = endTime - System.currentTimeMillis();
+            if (registered.size() > 0 || waitTime <= 0)
+                break;
+            try {
+                wait(waitTime);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        return registered.toArray(new String[registered.size()]);
+    }
+
     /**
       * get all references to a type of services from Registry
       * The registry searches in its list of registered services
@@ -0,0 +1,81 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.common;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the ClockOffset class.
+ */
+public class ClockOffsetTest {
+
+    private static final long OFFSET = 5000000000l;
+
+    /**
+     * Tests that the offset is estimated from the minimum round trip.
+     * @throws Exception If the test fails
+     */
+    @Test
+    public void testOffset() throws Exception {
+        final Random random = new Random(1);
+        ClockOffset clock = new ClockOffset(new ClockOffset.Source() {
+            public long currentTimeNanos() throws IOException {
+                // Delay reading the remote clock unevenly, like the network.
+                int delay = random.nextInt(4);
+                if (delay > 0)
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException e) {
+                        throw new IOException(e.getMessage());
+                    }
+                return System.nanoTime() + OFFSET;
+            }
+        }, false);
+        assertEquals(-1l, clock.getRoundTrip());
+        clock.sample(20, 0);
+        long error = clock.getOffset() - OFFSET;
+        assertTrue("Offset error " + error + " ns", Math.abs(error) < 1000000l);
+        assertTrue(clock.getRoundTrip() < 1000000l);
+        assertEquals(0d, clock.getSkew(), 0d);
+
+        long now = System.nanoTime();
+        assertEquals(now, clock.toLocal(clock.toRemote(now)));
+    }
+
+    /**
+     * Tests that the wall clock in nanosecs follows the millisec clock.
+     */
+    @Test
+    public void testCurrentTimeNanos() {
+        long before = System.currentTimeMillis();
+        long nanos = ClockOffset.currentTimeNanos();
+        long after = System.currentTimeMillis();
+        assertTrue(nanos / 1000000l >= before - 1);
+        assertTrue(nanos / 1000000l <= after + 1);
+    }
+}
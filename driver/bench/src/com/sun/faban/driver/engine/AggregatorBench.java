@@ -0,0 +1,99 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import com.sun.faban.driver.util.PairwiseAggregator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures aggregating the metrics of all threads of an agent at the end
+ * of the run, for 1k to 100k threads. Holding the metrics of 100k threads
+ * takes more heap than a benchmark should need, so the threads share a
+ * small pool of distinct metrics. The work per thread is the same.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class AggregatorBench {
+
+    static final int POOL_SIZE = 64;
+
+    /** The number of agent threads. */
+    @Param({ "1000", "10000", "100000" })
+    public int threads;
+
+    Metrics[] pool = new Metrics[POOL_SIZE];
+    PairwiseAggregator<Metrics> aggregator;
+
+    /**
+     * Records some transactions to each metrics in the pool.
+     * @throws Exception If the fixture cannot be set up
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        MetricsBench recorder = new MetricsBench();
+        for (int i = 0; i < POOL_SIZE; i++) {
+            recorder.setUp();
+            recorder.thread.id = i;
+            pool[i] = recorder.metrics;
+        }
+        aggregator = new PairwiseAggregator<Metrics>(threads,
+                new PairwiseAggregator.Provider<Metrics>() {
+
+            public Metrics getMutableMetrics(int idx) {
+                return (Metrics) pool[idx % POOL_SIZE].clone();
+            }
+
+            public void add(Metrics instance, int idx) {
+                instance.add(pool[idx % POOL_SIZE]);
+            }
+
+            public Class<Metrics> getComponentClass() {
+                return Metrics.class;
+            }
+
+            public void recycle(Metrics metrics) {
+            }
+        });
+    }
+
+    /**
+     * Aggregates the metrics of all threads.
+     * @return The aggregate
+     */
+    @Benchmark
+    public Metrics collectStats() {
+        return aggregator.collectStats();
+    }
+}
@@ -0,0 +1,83 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import com.sun.faban.driver.BenchmarkDefinition;
+import com.sun.faban.driver.BenchmarkDriver;
+import com.sun.faban.driver.BenchmarkOperation;
+import com.sun.faban.driver.CycleType;
+import com.sun.faban.driver.FlatMix;
+import com.sun.faban.driver.NegativeExponential;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The driver used by the engine benchmarks. Its operations are never
+ * invoked, the benchmarks just select and record them.
+ */
+@BenchmarkDefinition (
+    name    = "Faban Engine Benchmark",
+    version = "1.0"
+)
+@BenchmarkDriver (
+    name             = "BenchDriver",
+    threadPerScale   = 1,
+    responseTimeUnit = TimeUnit.MILLISECONDS
+)
+@FlatMix (
+    operations = { "Op0", "Op1", "Op2", "Op3", "Op4" },
+    mix        = { 40, 25, 15, 12, 8 }
+)
+@NegativeExponential (
+    cycleType      = CycleType.THINKTIME,
+    cycleMean      = 100,
+    cycleDeviation = 5
+)
+public class BenchDriver {
+
+    /** Operation 0. */
+    @BenchmarkOperation(name = "Op0", max90th = 100)
+    public void doOp0() {
+    }
+
+    /** Operation 1. */
+    @BenchmarkOperation(name = "Op1", max90th = 100)
+    public void doOp1() {
+    }
+
+    /** Operation 2. */
+    @BenchmarkOperation(name = "Op2", max90th = 100)
+    public void doOp2() {
+    }
+
+    /** Operation 3. */
+    @BenchmarkOperation(name = "Op3", max90th = 100)
+    public void doOp3() {
+    }
+
+    /** Operation 4. */
+    @BenchmarkOperation(name = "Op4", max90th = 100)
+    public void doOp4() {
+    }
+}
@@ -0,0 +1,117 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import com.sun.faban.driver.RunControl;
+import com.sun.faban.driver.util.Timer;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.rmi.server.UnicastRemoteObject;
+
+/**
+ * Sets up just enough of an agent for the engine benchmarks to create
+ * agent threads with their metrics and contexts, without a master, a
+ * registry, or a run configuration file. The run is always in steady
+ * state.
+ */
+public class EngineFixture {
+
+    private static RunInfo runInfo;
+    private static AgentImpl agent;
+
+    /** The timer shared by all threads of the fixture. */
+    public static final Timer TIMER = new Timer();
+
+    /**
+     * Obtains the run info of the fixture, creating it on first use.
+     * @return The run info
+     * @throws Exception If the benchmark driver cannot be read
+     */
+    public static synchronized RunInfo getRunInfo() throws Exception {
+        if (runInfo == null) {
+            BenchmarkDefinition def =
+                    BenchmarkDefinition.read(BenchDriver.class.getName());
+            RunInfo.DriverConfig driverConfig =
+                    new RunInfo.DriverConfig(def.drivers[0]);
+            driverConfig.runControl = RunControl.TIME;
+            driverConfig.graphInterval = 10;
+            driverConfig.numThreads = 1;
+
+            Constructor<RunInfo> c = RunInfo.class.getDeclaredConstructor();
+            c.setAccessible(true);
+            runInfo = c.newInstance();
+            runInfo.driverConfig = driverConfig;
+            runInfo.rampUp = 60;
+            runInfo.stdyState = 600;
+            runInfo.rampDown = 60;
+            Field instance = RunInfo.class.getDeclaredField("instance");
+            instance.setAccessible(true);
+            instance.set(null, runInfo);
+
+            // The agent just holds the run state, it is never called.
+            agent = new AgentImpl(driverConfig.name, "0");
+            UnicastRemoteObject.unexportObject(agent, true);
+            agent.host = "bench";
+            agent.startTime = System.nanoTime();
+        }
+        return runInfo;
+    }
+
+    /**
+     * Creates a thread of the fixture. The thread is not started, it just
+     * carries the metrics and context the engine code records to. The
+     * context is bound to the calling thread.
+     * @param id The thread id
+     * @return The thread
+     * @throws Exception If the fixture cannot be set up
+     */
+    public static AgentThread newThread(int id) throws Exception {
+        getRunInfo();
+        AgentThread thread = AgentThread.getInstance(
+                runInfo.driverConfig.name, "0", id, BenchDriver.class,
+                TIMER, agent);
+        thread.driverContext = new DriverContext(thread, TIMER);
+        thread.startTimeSet = true;
+        thread.endRampUp = Long.MIN_VALUE;
+        thread.endStdyState = Long.MAX_VALUE;
+        thread.endRampDown = Long.MAX_VALUE;
+        return thread;
+    }
+
+    /**
+     * Creates a thread of the fixture and starts an operation on its
+     * context, as the transports see it when sending the request.
+     * @param op The operation index
+     * @return The context, bound to the calling thread
+     * @throws Exception If the fixture cannot be set up
+     */
+    public static DriverContext startOperation(int op) throws Exception {
+        AgentThread thread = newThread(0);
+        thread.currentOperation = op;
+        thread.driverContext.setInvokeTime(System.nanoTime());
+        thread.driverContext.recordStartTime();
+        return thread.driverContext;
+    }
+}
@@ -0,0 +1,117 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares calling driver operations through the ReflectiveInvoker, as
+ * used when faban.driver.reflectiveInvokers is set, with calling them
+ * through the generated invokers. Both a succeeding and a throwing
+ * operation are measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class InvokerBench {
+
+    /** The invoker, reflective or generated. */
+    @Param({ "reflective", "generated" })
+    public String invoker;
+
+    /** The operation, doOk or doFail. */
+    @Param({ "doOk", "doFail" })
+    public String operation;
+
+    /** The driver, it needs to be public for the generated invoker. */
+    public static class Driver {
+
+        /** Counts calls, just so the call does something. */
+        public int count;
+
+        /** An operation that succeeds. */
+        public void doOk() {
+            ++count;
+        }
+
+        /**
+         * An operation that fails.
+         * @throws Exception always
+         */
+        public void doFail() throws Exception {
+            ++count;
+            throw FAILURE;
+        }
+    }
+
+    static final Exception FAILURE = new Exception("Operation failed");
+
+    Driver driver = new Driver();
+    Invoker target;
+
+    /**
+     * Creates the invoker.
+     * @throws Exception If the operation is not found or no invoker
+     *                   can be generated
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Method m = Driver.class.getMethod(operation);
+        if ("reflective".equals(invoker)) {
+            target = Invoker.getReflectiveInstance(m);
+        } else {
+            target = Invoker.getInstance(m);
+            // Do not silently compare reflection with itself.
+            if (target.getClass() ==
+                    Invoker.getReflectiveInstance(m).getClass())
+                throw new IllegalStateException("No invoker generated for " +
+                                                m);
+        }
+    }
+
+    /**
+     * Calls the operation once.
+     * @return The error, or null if the call succeeded
+     */
+    @Benchmark
+    public Throwable invoke() {
+        try {
+            target.invoke(driver);
+            return null;
+        } catch (Throwable e) {
+            return e;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-transaction cost of recording to the metrics, and of
+ * adding one thread's metrics to another at the end of the run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MetricsBench {
+
+    AgentThread thread;
+    Metrics metrics;
+    DriverContext.TimingInfo timingInfo;
+    int txTypes;
+    int op = 0;
+
+    Metrics source;
+    Metrics sum;
+
+    /**
+     * Creates the thread and the metrics to record to.
+     * @throws Exception If the fixture cannot be set up
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        thread = EngineFixture.newThread(0);
+        metrics = thread.metrics;
+        timingInfo = thread.driverContext.timingInfo;
+        txTypes = thread.driverConfig.operations.length;
+
+        // A thread's worth of transactions to add.
+        for (int i = 0; i < 1000; i++)
+            recordTx();
+        source = (Metrics) metrics.clone();
+    }
+
+    /**
+     * Starts each iteration with a fresh sum so the counters cannot overflow.
+     */
+    @Setup(Level.Iteration)
+    public void resetSum() {
+        sum = (Metrics) source.clone();
+    }
+
+    /**
+     * Records a successful transaction and its think time, the way the
+     * agent thread does after each operation.
+     */
+    @Benchmark
+    public void recordTx() {
+        long now = System.nanoTime();
+        thread.currentOperation = op;
+        timingInfo.intendedInvokeTime = now - 2500000l;
+        timingInfo.invokeTime = now - 2000000l;
+        timingInfo.respondTime = now;
+        timingInfo.pauseTime = 0l;
+        metrics.recordTx();
+        metrics.recordDelayTime();
+        thread.previousOperation[0] = op;
+        thread.startTime[0] = timingInfo.invokeTime;
+        thread.endTime[0] = now;
+        if (++op == txTypes)
+            op = 0;
+    }
+
+    /**
+     * Adds a thread's metrics to the sum, the unit of work of the
+     * aggregation at the end of the run.
+     */
+    @Benchmark
+    public void add() {
+        sum.add(source);
+    }
+}
@@ -0,0 +1,151 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import com.sun.faban.driver.CycleType;
+import com.sun.faban.driver.FlatSequenceMix;
+import com.sun.faban.driver.MatrixMix;
+import com.sun.faban.driver.NegativeExponential;
+import com.sun.faban.driver.OperationSequence;
+import com.sun.faban.driver.Row;
+import com.sun.faban.driver.util.Random;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures selecting the next operation with each kind of mix, and
+ * obtaining the next think time from a negative exponential cycle. Each
+ * of 1k to 100k users has a selector and random of its own, and the
+ * users take turns, the way the threads of an agent do.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MixBench {
+
+    /**
+     * The benchmark driver with a matrix mix instead. The cycle is not
+     * inherited, so it is repeated here.
+     */
+    @MatrixMix (
+        operations = { "Op0", "Op1", "Op2", "Op3", "Op4" },
+        mix = { @Row({  0, 40, 30, 20, 10 }),
+                @Row({ 10,  0, 40, 30, 20 }),
+                @Row({ 20, 10,  0, 40, 30 }),
+                @Row({ 30, 20, 10,  0, 40 }),
+                @Row({ 40, 30, 20, 10,  0 }) }
+    )
+    @NegativeExponential (
+        cycleType      = CycleType.THINKTIME,
+        cycleMean      = 100,
+        cycleDeviation = 5
+    )
+    public static class MatrixDriver extends BenchDriver {
+    }
+
+    /**
+     * The benchmark driver with a flat sequence mix instead. The cycle is
+     * not inherited, so it is repeated here.
+     */
+    @FlatSequenceMix (
+        sequences = { @OperationSequence({ "Op0", "Op1" }),
+                      @OperationSequence({ "Op2", "Op3", "Op4" }),
+                      @OperationSequence({ "Op4", "Op0" }) },
+        mix = { 50, 30, 20 }
+    )
+    @NegativeExponential (
+        cycleType      = CycleType.THINKTIME,
+        cycleMean      = 100,
+        cycleDeviation = 5
+    )
+    public static class SequenceDriver extends BenchDriver {
+    }
+
+    /** The mix, flat, matrix, or flatSequence. */
+    @Param({ "flat", "matrix", "flatSequence" })
+    public String mix;
+
+    /** The number of users. */
+    @Param({ "1000", "10000", "100000" })
+    public int users;
+
+    Mix.Selector[] selectors;
+    Cycle cycle;
+    Random[] randoms;
+    int user = 0;
+
+    /**
+     * Creates the selectors of the mix and the think time cycle.
+     * @throws Exception If the mix cannot be created
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Class<?> driverClass;
+        if ("matrix".equals(mix))
+            driverClass = MatrixDriver.class;
+        else if ("flatSequence".equals(mix))
+            driverClass = SequenceDriver.class;
+        else
+            driverClass = BenchDriver.class;
+        Mix m = Mix.getMix(driverClass);
+        selectors = new Mix.Selector[users];
+        randoms = new Random[users];
+        for (int i = 0; i < users; i++) {
+            randoms[i] = new Random(4711l + i);
+            selectors[i] = m.selector(randoms[i]);
+        }
+        cycle = EngineFixture.getRunInfo().driverConfig.operations[0].cycle;
+    }
+
+    /**
+     * Selects the next operation of the next user.
+     * @return The operation index
+     */
+    @Benchmark
+    public int select() {
+        if (++user == users)
+            user = 0;
+        return selectors[user].select();
+    }
+
+    /**
+     * Obtains the next think time of the next user.
+     * @return The think time, in ns
+     */
+    @Benchmark
+    public long getDelay() {
+        if (++user == users)
+            user = 0;
+        return cycle.getDelay(randoms[user]);
+    }
+}
@@ -0,0 +1,192 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import com.sun.faban.driver.util.Timer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the thread-per-user execution model with the pooled execution
+ * model used by the UserScheduler. Each emulated user just waits for a
+ * number of negative exponential think times. Thread-per-user is run both
+ * with compensated sleeps and parked on the timer wheel. Each invocation
+ * runs all users through all their cycles, so the time beyond the think
+ * times is the scheduling overhead. The invocation returns the average
+ * wake-up lateness, in ns.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class UserSchedulerBench {
+
+    /** The number of emulated users. */
+    @Param({ "1000", "10000" })
+    public int users;
+
+    /** The execution model, sleep, wheel, or pooled. */
+    @Param({ "sleep", "wheel", "pooled" })
+    public String model;
+
+    /** The think time cycles of each user per invocation. */
+    @Param({ "20" })
+    public int cycles;
+
+    /** The mean think time, in ns. */
+    static final long MEAN_THINK = 10000000l;
+
+    Timer timer;
+    ExecutorService pool;
+    AtomicLong wakeups = new AtomicLong();
+    AtomicLong totalLateness = new AtomicLong();
+
+    /**
+     * Creates the timer and, for the pooled model, the carrier pool.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        timer = new Timer();
+        if ("pooled".equals(model))
+            pool = Executors.newFixedThreadPool(
+                    UserScheduler.defaultCarriers(users));
+    }
+
+    /**
+     * Stops the carrier pool and the timer wheel.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (pool != null)
+            pool.shutdown();
+        timer.shutdown();
+    }
+
+    /**
+     * Runs all users through their think time cycles.
+     * @return The average wake-up lateness, in ns
+     * @throws InterruptedException Interrupted waiting for the users
+     */
+    @Benchmark
+    public long run() throws InterruptedException {
+        wakeups.set(0);
+        totalLateness.set(0);
+        CountDownLatch done = new CountDownLatch(users);
+        for (int i = 0; i < users; i++) {
+            if (pool != null)
+                pool.execute(new PooledUser(i, done));
+            else
+                startThread(i, done);
+        }
+        done.await();
+        long count = wakeups.get();
+        return count == 0 ? 0l : totalLateness.get() / count;
+    }
+
+    void startThread(int id, final CountDownLatch done) {
+        final java.util.Random random = new java.util.Random(id);
+        final boolean wheel = "wheel".equals(model);
+        Thread t = new Thread() {
+            public void run() {
+                long wakeupTime = System.nanoTime();
+                for (int i = 0; i < cycles; i++) {
+                    wakeupTime += think(random);
+                    if (wheel)
+                        timer.wakeupAt(wakeupTime);
+                    else
+                        sleepUntil(wakeupTime);
+                    record(System.nanoTime() - wakeupTime);
+                }
+                done.countDown();
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * A user on the carrier pool. It reschedules itself on the timer wheel
+     * for each think time instead of holding a thread.
+     */
+    class PooledUser implements Runnable {
+
+        final java.util.Random random;
+        final CountDownLatch done;
+        long wakeupTime = System.nanoTime();
+        int cycle = 0;
+
+        PooledUser(int id, CountDownLatch done) {
+            random = new java.util.Random(id);
+            this.done = done;
+        }
+
+        public void run() {
+            if (cycle > 0)
+                record(System.nanoTime() - wakeupTime);
+            if (cycle++ < cycles) {
+                wakeupTime += think(random);
+                timer.getWheel().schedule(wakeupTime, this, pool);
+            } else {
+                done.countDown();
+            }
+        }
+    }
+
+    /**
+     * Sleeps the way Timer.wakeupAt used to before the timer wheel.
+     */
+    void sleepUntil(long wakeupTime) {
+        long sleepTime = wakeupTime - System.nanoTime() -
+                timer.getCompensation();
+        if (sleepTime > 0)
+            try {
+                Thread.sleep(sleepTime / 1000000l,
+                        (int) (sleepTime % 1000000l));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+    }
+
+    static long think(java.util.Random random) {
+        return (long) (-Math.log(1d - random.nextDouble()) * MEAN_THINK);
+    }
+
+    void record(long lateness) {
+        wakeups.incrementAndGet();
+        totalLateness.addAndGet(lateness);
+    }
+}
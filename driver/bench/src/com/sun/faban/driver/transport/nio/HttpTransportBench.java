@@ -0,0 +1,153 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.nio;
+
+import com.sun.faban.driver.HttpTransport;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the requests per second of the HTTP transport providers. Each
+ * benchmark thread reads the same URL in a loop, like a driver thread
+ * without think time. Without a URL, the benchmark serves a small page
+ * from an embedded HTTP server. Run with a CPU profiler, i.e. -prof stack,
+ * to compare the client CPU time per request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(200)
+public class HttpTransportBench {
+
+    /** The provider, by package under com.sun.faban.driver.transport. */
+    @Param({ "sunhttp.SunHttpTransport", "hc3.ApacheHC3Transport",
+             "nio.NioHttpTransport" })
+    public String provider;
+
+    /** The URL to read, empty for the embedded server. */
+    @Param({ "" })
+    public String url;
+
+    HttpServer server;
+    ExecutorService serverPool;
+    String target;
+
+    /**
+     * The transport of each benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class Client {
+        HttpTransport transport;
+
+        /**
+         * Creates the transport of the thread.
+         */
+        @Setup(Level.Trial)
+        public void setUp() {
+            transport = HttpTransport.newInstance();
+        }
+    }
+
+    /**
+     * Starts the embedded server, if needed, and selects the provider.
+     * @throws Exception If the server cannot be started or the URL read
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        target = url;
+        if (target.length() == 0) {
+            startServer();
+            target = "http://localhost:" + server.getAddress().getPort() +
+                     '/';
+        }
+        HttpTransport.setProvider("com.sun.faban.driver.transport." +
+                                  provider);
+        // Fail early if the provider cannot read the URL at all.
+        HttpTransport.newInstance().readURL(target);
+    }
+
+    /**
+     * Stops the embedded server.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (server != null) {
+            server.stop(0);
+            serverPool.shutdownNow();
+            server = null;
+        }
+    }
+
+    /**
+     * Reads the URL.
+     * @param client The transport of this thread
+     * @return The response size
+     * @throws IOException If the read fails
+     */
+    @Benchmark
+    public int readURL(Client client) throws IOException {
+        return client.transport.readURL(target);
+    }
+
+    private void startServer() throws IOException {
+        final byte[] page = new byte[4096];
+        for (int i = 0; i < page.length; i++)
+            page[i] = (byte) ('a' + i % 26);
+        server = HttpServer.create(new InetSocketAddress(0), 1024);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getRequestBody().close();
+                exchange.getResponseHeaders().set("Content-Type",
+                                                  "text/plain");
+                exchange.sendResponseHeaders(200, page.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(page);
+                out.close();
+            }
+        });
+        serverPool = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors() * 2);
+        server.setExecutor(serverPool);
+        server.start();
+    }
+}
@@ -0,0 +1,95 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.util;
+
+import com.sun.faban.driver.engine.DriverContext;
+import com.sun.faban.driver.engine.EngineFixture;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading a 1MB response through the TimedInputStream, both
+ * outside a driver thread and with the driver context recording the
+ * response time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TimedInputStreamBench {
+
+    static final int SIZE = 1024 * 1024;
+
+    /** Whether the reads are recorded by a driver context. */
+    @Param({ "false", "true" })
+    public boolean timed;
+
+    /** The read buffer size. */
+    @Param({ "512", "8192" })
+    public int bufferSize;
+
+    ByteArrayInputStream source = new ByteArrayInputStream(new byte[SIZE]);
+    byte[] buffer;
+    DriverContext ctx;
+
+    /**
+     * Binds the driver context to the benchmark thread, if timed.
+     * @throws Exception If the fixture cannot be set up
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        buffer = new byte[bufferSize];
+        if (timed) {
+            ctx = EngineFixture.startOperation(0);
+        } else {
+            DriverContext.detachContext();
+        }
+    }
+
+    /**
+     * Reads the whole response.
+     * @return The bytes read
+     * @throws IOException Never, reading from memory
+     */
+    @Benchmark
+    public int read() throws IOException {
+        source.reset();
+        TimedInputStream in = new TimedInputStream(source);
+        int total = 0;
+        int count;
+        while ((count = in.read(buffer)) > 0)
+            total += count;
+        return total;
+    }
+}
@@ -0,0 +1,77 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the random string generators drivers use to build request
+ * data.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RandomBench {
+
+    /** The maximum string length, the minimum is half of it. */
+    @Param({ "16", "256" })
+    public int length;
+
+    Random random = new Random(4711l);
+
+    /**
+     * Makes an alphanumeric string.
+     * @return The string
+     */
+    @Benchmark
+    public String makeAString() {
+        return random.makeAString(length / 2, length);
+    }
+
+    /**
+     * Makes a string of printable characters.
+     * @return The string
+     */
+    @Benchmark
+    public String makeCString() {
+        return random.makeCString(length / 2, length);
+    }
+
+    /**
+     * Makes a numeric string.
+     * @return The string
+     */
+    @Benchmark
+    public String makeNString() {
+        return random.makeNString(length / 2, length);
+    }
+}
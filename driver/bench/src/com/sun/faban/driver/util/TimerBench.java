@@ -0,0 +1,123 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the accuracy of Timer.wakeupAt. Each call sleeps for the given
+ * delay, so the sampled times less the delay are the wake-up lateness.
+ * The percentiles of the samples show the tail lateness. Meanwhile, 1k to
+ * 100k background threads wait on the same timer with think times like
+ * the threads of a large agent. Run with -Dfaban.timer.sleep=true to
+ * measure the compensated sleep instead of the timer wheel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(16)
+public class TimerBench {
+
+    /** The sleep time, in microseconds. */
+    @Param({ "100", "1000", "10000" })
+    public long delay;
+
+    /** The number of background threads waiting on the timer. */
+    @Param({ "0", "1000", "10000", "100000" })
+    public int threads;
+
+    /** The mean think time of the background threads, in ns. */
+    static final long MEAN_THINK = 1000000000l;
+
+    Timer timer;
+    Thread[] background;
+    volatile boolean stopped;
+
+    /**
+     * Starts the background threads, each waiting for random think times
+     * until stopped. The threads get small stacks, so 100k of them fit.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        timer = new Timer(); // A shut down timer does not use the wheel.
+        stopped = false;
+        background = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final java.util.Random random = new java.util.Random(i);
+            Thread t = new Thread(null, new Runnable() {
+                public void run() {
+                    try {
+                        while (!stopped)
+                            timer.wakeupAt(System.nanoTime() + (long)
+                                    (-Math.log(1d - random.nextDouble()) *
+                                     MEAN_THINK));
+                    } catch (RuntimeException e) {
+                        // Interrupted by tearDown.
+                    }
+                }
+            }, "Background-" + i, 64 * 1024);
+            t.setDaemon(true);
+            t.start();
+            background[i] = t;
+        }
+    }
+
+    /**
+     * Stops the background threads and the timer wheel, so the threads
+     * do not disturb the next trial.
+     * @throws InterruptedException Interrupted waiting for the threads
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        stopped = true;
+        timer.shutdown();
+        for (Thread t : background)
+            t.interrupt();
+        for (Thread t : background)
+            t.join();
+    }
+
+    /**
+     * Sleeps for the delay.
+     * @return The lateness, in ns
+     */
+    @Benchmark
+    public long wakeupAt() {
+        long wakeupTime = System.nanoTime() + delay * 1000l;
+        timer.wakeupAt(wakeupTime);
+        return System.nanoTime() - wakeupTime;
+    }
+}
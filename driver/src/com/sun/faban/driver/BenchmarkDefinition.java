@@ -50,8 +50,8 @@ public @interface BenchmarkDefinition {
 	Class<?>[] drivers() default { Object.class };
 
     /**
-     * Specifies whether this benchmark uses time or cycles to control the
-     * phases in the benchmark run.
+     * Specifies whether this benchmark uses time, cycles, or time with a
+     * target arrival rate to control the phases in the benchmark run.
      */
     RunControl runControl() default RunControl.TIME;
 
@@ -470,14 +470,17 @@ public class HttpTransport {
     }
 
     /**
-     * Method not implemented. Makes a POST request. Fetches the main page
-     * and all other image or resource pages based on the given URLs.
+     * Fetches the main page and then all image or other resource pages in
+     * parallel, like a browser does. The main page is fetched with a POST
+     * request if a post string is given, otherwise with a GET request.
+     * The whole page is timed as one operation.
      *
      * @param page The page URL
      * @param images The image or other resource URLs to fetch with page
-     * @param postRequest The post string
+     * @param postRequest The post string, or null for a GET request
      * @return The buffer of the main page
      * @throws IOException If an I/O error occurred
+     * @see com.sun.faban.driver.transport.util.PageFetcher
      */
 	public StringBuilder fetchURL(URL page, URL[] images, String postRequest)
             throws IOException {
@@ -740,4 +743,31 @@ public class HttpTransport {
                         com.sun.faban.driver.DriverContext.getContext();
         engine.setUploadSpeed(kbps);
     }
+
+    /**
+     * Sets the bandwidth group of this HTTP transport object. All users in
+     * the same group share the upload and download speed of the group.
+     *
+     * @param group The group name, or null for no group
+     * @see com.sun.faban.driver.transport.util.BandwidthShaper#setGroupSpeed
+     */
+    public void setBandwidthGroup(String group) {
+        com.sun.faban.driver.engine.DriverContext engine =
+                (com.sun.faban.driver.engine.DriverContext)
+                        com.sun.faban.driver.DriverContext.getContext();
+        engine.setBandwidthGroup(group);
+    }
+
+    /**
+     * Sets the latency added to each response received by this HTTP
+     * transport object, emulating a slow network.
+     *
+     * @param millis The latency, in milliseconds
+     */
+    public void setLatency(int millis) {
+        com.sun.faban.driver.engine.DriverContext engine =
+                (com.sun.faban.driver.engine.DriverContext)
+                        com.sun.faban.driver.DriverContext.getContext();
+        engine.setLatency(millis);
+    }
 }
@@ -25,7 +25,8 @@ package com.sun.faban.driver;
 
 /**
  * The RunControl Enumeration defines whether the benchmark run
- * is controlled by time or by the number of cycles.
+ * is controlled by time, by the number of cycles, or by time with
+ * a target arrival rate.
  */
 public enum RunControl {
 
@@ -33,5 +34,12 @@ public enum RunControl {
     TIME,
 
     /** The benchmark run is controlled by cycle. */
-    CYCLES
+    CYCLES,
+
+    /**
+     * The benchmark run is controlled by time. Operations are issued at
+     * a target arrival rate independent of the response time. The driver
+     * threads serve as the pool of workers handling the arrivals.
+     */
+    RATE
 }
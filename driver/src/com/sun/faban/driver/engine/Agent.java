@@ -56,6 +56,13 @@ public interface Agent extends Remote {
      */
     public int getId() throws RemoteException;
 
+    /**
+     * Obtains the master host this agent was told to connect to.
+     * @return The master host, or null if the master is in-process
+     * @throws RemoteException A network error occurred
+     */
+    public String getMasterHost() throws RemoteException;
+
     /**
      * Start all the driver threads.
      * @throws RemoteException A network error occurred
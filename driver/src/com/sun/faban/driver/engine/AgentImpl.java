@@ -23,13 +23,20 @@
  */
 package com.sun.faban.driver.engine;
 
+import com.sun.faban.common.ClockOffset;
 import com.sun.faban.common.RegistryLocator;
 import com.sun.faban.common.Utilities;
+import com.sun.faban.driver.RunControl;
 import com.sun.faban.driver.util.PairwiseAggregator;
 import com.sun.faban.driver.util.Timer;
+import com.sun.faban.driver.util.TimerWheel;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 import java.rmi.RMISecurityManager;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
@@ -56,6 +63,7 @@ public class AgentImpl extends UnicastRemoteObject
 	private static final long serialVersionUID = 1L;
 	static AgentImpl agentImpl;
     Master master;
+    String masterHost;
     RunInfo runInfo;
     int driverType;
     Timer timer;
@@ -78,6 +86,8 @@ public class AgentImpl extends UnicastRemoteObject
     CountDownLatch postRunLatch;
     private boolean runAborted = false;
     StatsCollector statsCollector;
+    UserScheduler userScheduler;
+    ArrivalQueue arrivals;
 
     // Time to wake up and switch the number of active threads.
     volatile long loadSwitchTime = 1l;
@@ -110,6 +120,7 @@ public class AgentImpl extends UnicastRemoteObject
         if (dotIdx > 0)
             host = host.substring(0, dotIdx);
 
+        masterHost = master;
         RegistryLocator.getRegistry(master).
                 reregister(agentType, agentName, this);
 
@@ -201,54 +212,59 @@ public class AgentImpl extends UnicastRemoteObject
     }
 
     /**
-     * Calibrates the time with the master.
-     * @throws RemoteException A network error occurred.
+     * Calibrates the time with the master. The clock offset to the master
+     * is estimated from the best of 25 round trips.
+     * @throws IOException A network error occurred.
+     * @throws InterruptedException Interrupted while sampling
      */
-    private void calibrateTime() throws RemoteException {
-        int tries = 25;
-        int minLatency = Integer.MAX_VALUE;
-        int offset = 0;
+    private void calibrateTime() throws IOException, InterruptedException {
+        ClockOffset masterClock = new ClockOffset(new ClockOffset.Source() {
+            public long currentTimeNanos() throws IOException {
+                Master m = master;
+                if (m == null)
+                    throw new IOException("Master no longer available.");
+                return m.nanoTime();
+            }
+        }, false);
 
         // Just in case we run into GC situations, the times can be nasty.
         // So we try 25 times to obtain the best.
-        for (int i = 0; i < tries; i++) {
-
-            // We really don't know when between t1 and t2 tm occurred.
-            // but if we assume it to be short enough, we can savely
-            // use the avg.
-            long t1 = System.currentTimeMillis();
-            long tm = master.currentTimeMillis();
-            long t2 = System.currentTimeMillis();
-
-            int latency  = (int) (t2 - t1);
-
-            // Capture the best latency.
-            if (latency < minLatency) {
-                minLatency = latency;
-                offset = (int) (t1 - tm);
-            }
-
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-            	logger.fine("Sleep Interrupted: " + e.getMessage());
-            }
-        }
+        masterClock.sample(25, 10);
 
-        if (minLatency > 10) {
+        double minLatency = masterClock.getRoundTrip() / 1000000d;
+        if (minLatency > 10d) {
             logger.log(Level.SEVERE, "This run may be invalid! Minimum " +
-                    "achieved roundtrip time to master is " + minLatency +
+                    "achieved roundtrip time to master is " +
+                    String.format("%.3f", minLatency) +
                     " ms. Latencies beyond 10ms are too high and will impact " +
                     "the accuracy of the run startup and steady state times " +
                     "across driver instances.");
         }
 
-        timer.adjustBaseTime(offset + minLatency / 2);
+        // Align once. The phase boundaries of the run are fixed from the
+        // aligned base time before the run starts.
+        timer.adjustBaseTime(masterClock);
+        logger.fine(String.format("%s: Clock offset to master %.3f ms, " +
+                "min roundtrip %.3f ms.", displayName,
+                masterClock.getOffset() / 1e6d, minLatency));
     }
 
     private void doPreRun() {
         numThreads = runInfo.agentInfo.threads;
         agentThreads = new AgentThread[numThreads];
+        userScheduler = null;
+        if (runInfo.pooledExecution) {
+            int carriers = runInfo.carrierThreads;
+            if (carriers <= 0)
+                carriers = UserScheduler.defaultCarriers(numThreads);
+            userScheduler = new UserScheduler(this, displayName, carriers);
+        }
+        arrivals = null;
+        if (runInfo.driverConfig.runControl == RunControl.RATE) {
+            RunInfo.DriverConfig driverConfig = runInfo.driverConfig;
+            arrivals = new ArrivalQueue(getAgentRate(driverConfig.arrivalRate),
+                    driverConfig.poissonArrivals, driverConfig.arrivalQueue);
+        }
         try {
             if (runInfo.agentInfo.startThreadNumber == 0 &&
                     runInfo.driverConfig.preRun != null) {
@@ -278,6 +294,16 @@ public class AgentImpl extends UnicastRemoteObject
         }
     }
 
+    /**
+     * Obtains this agent's share of the driver's arrival rate. The rate is
+     * split among the agents according to their scale.
+     * @param rate The arrival rate of the driver
+     * @return The arrival rate of this agent
+     */
+    double getAgentRate(double rate) {
+        return rate * runInfo.agentInfo.agentScale / runInfo.scale;
+    }
+
     /**
      * Starts the driver threads for this agent, possibly in it's own thread.
      * @see java.lang.Runnable#run()
@@ -312,7 +338,14 @@ public class AgentImpl extends UnicastRemoteObject
                 agentThreads[count] = AgentThread.getInstance(agentType,
                         agentId, globalThreadId,
                         runInfo.driverConfig.driverClass, timer, this);
-                agentThreads[count].start();
+
+                // Thread 0 blocks waiting for postRun, so it always
+                // needs its own thread.
+                if (userScheduler != null && (globalThreadId != 0 ||
+                        runInfo.driverConfig.postRun == null))
+                    userScheduler.start(agentThreads[count]);
+                else
+                    agentThreads[count].start();
 
                 // We ensure we catch up with the configured thread starting
                 // rate. If we fall short, we sleep less until we caught up.
@@ -360,6 +393,14 @@ public class AgentImpl extends UnicastRemoteObject
         return Integer.parseInt(agentId);
     }
 
+    /**
+     * Obtains the master host this agent was told to connect to.
+     * @return The master host, or null if the master is in-process
+     */
+    public String getMasterHost() {
+        return masterHost;
+    }
+
     /**
      * Contacts the master to abort the run. Don't kill until
      * master calls kill.
@@ -412,7 +453,11 @@ public class AgentImpl extends UnicastRemoteObject
         runInfo.benchStartTime = time;
         startTime = timer.toAbsNanos(time);
         runInfo.start = timer.toAbsMillis(time);
+        if (arrivals != null)
+            arrivals.start(startTime, runInfo.rampUp, runInfo.stdyState);
         timeSetLatch.countDown();
+        if (userScheduler != null)
+            userScheduler.startTimeSet();
         if (runInfo.runtimeStatsEnabled) {
             statsCollector = new StatsCollector();
         }
@@ -440,9 +485,13 @@ public class AgentImpl extends UnicastRemoteObject
                 }
 			}
 		}
+        if (userScheduler != null)
+            userScheduler.kill();
         // cleanup
         if (statsCollector != null)
             statsCollector.cancel();
+        if (timer != null)
+            timer.shutdown();
     }
 
     /**
@@ -529,6 +578,15 @@ public class AgentImpl extends UnicastRemoteObject
                         ": Error killing thread.", e);
             }
         }
+        if (userScheduler != null) {
+            int userCount = userScheduler.terminate();
+            if (userCount > 0 && !terminationLogged) {
+                logger.warning(displayName +
+                        ": Forcefully terminating benchmark run");
+                terminationLogged = true;
+            }
+            terminationCount += userCount;
+        }
         if (terminationCount > 0) {
 			logger.log(Level.WARNING, displayName + ": " + terminationCount +
                            " threads forcefully terminated.", t);
@@ -573,6 +631,8 @@ public class AgentImpl extends UnicastRemoteObject
      * Waits for all the threads to terminate.
      */
     public void join() {
+        if (userScheduler != null)
+            userScheduler.join();
         for (int i = agentThreads.length - 1; i > 0; i--) {
 			while(agentThreads[i] != null && agentThreads[i].isAlive()) {
 				try {
@@ -599,6 +659,15 @@ public class AgentImpl extends UnicastRemoteObject
         }
         if (statsCollector != null)
             statsCollector.cancel();
+
+        TimerWheel wheel = timer.peekWheel();
+        if (wheel != null)
+            logger.info(String.format("%s: Timer wheel dispatched %d " +
+                    "wake-ups, avg lateness %.3f ms, max lateness %.3f ms.",
+                    displayName, wheel.getWakeups(),
+                    wheel.getAvgLateness() / 1e6d,
+                    wheel.getMaxLateness() / 1e6d));
+        timer.shutdown();
     }
 
     /**
@@ -670,6 +739,9 @@ public class AgentImpl extends UnicastRemoteObject
 
         public ArrayList<RuntimeMetrics> pool = new ArrayList<RuntimeMetrics>();
 
+        // Consistent snapshot of the thread metrics to add.
+        private RuntimeMetrics snapshot = new RuntimeMetrics();
+
         public RuntimeMetrics getMutableMetrics(int idx) {
 
             RuntimeMetrics rtm;
@@ -684,7 +756,8 @@ public class AgentImpl extends UnicastRemoteObject
         }
 
         public void add(RuntimeMetrics instance, int idx) {
-            instance.add(agentThreads[idx].metrics);
+            snapshot.copy(agentThreads[idx].metrics);
+            instance.add(snapshot);
         }
 
         public Class getComponentClass() {
@@ -699,7 +772,7 @@ public class AgentImpl extends UnicastRemoteObject
 
     private class StatsCollector extends Thread {
 
-        long interval = runInfo.runtimeStatsInterval * 1000000000l;
+        long interval = Math.round(runInfo.runtimeStatsInterval * 1e9d);
         PairwiseAggregator<RuntimeMetrics> aggregator =
                 new PairwiseAggregator<RuntimeMetrics>(
                 agentThreads.length, new RuntimeMetricsProvider());
@@ -717,29 +790,104 @@ public class AgentImpl extends UnicastRemoteObject
             long duration = (runInfo.rampUp + runInfo.stdyState +
                                 runInfo.rampDown) * 1000000000l;
             RuntimeMetrics rtm = null;
-            while (!terminated) {
-                long wakeupTime = startTime + sequence * interval;
-                if (wakeupTime > startTime + duration)
-                    break;
-                try {
-                    timer.wakeupAt(wakeupTime);
-                    rtm = aggregator.collectStats();
-                    if (rtm == null)
-                        logger.warning("Null RuntimeStats");
+            RuntimeMetrics prev = null;
+            RuntimeStatsCodec codec = new RuntimeStatsCodec();
+            SocketChannel channel = null;
+            int failures = 0;
+            try {
+                while (!terminated) {
+                    long wakeupTime = startTime + sequence * interval;
+                    if (wakeupTime > startTime + duration)
+                        break;
                     try {
+                        timer.wakeupAt(wakeupTime);
+                        rtm = aggregator.collectStats();
+                        if (rtm == null)
+                            logger.warning("Null RuntimeStats");
                         rtm.timestamp = (int) ((System.nanoTime() - startTime) /
                                 1000000l);
                         rtm.sequence = sequence;
-                        master.updateMetrics(rtm);
-                    } catch (RemoteException e) {
-                        logger.log(Level.SEVERE, "Communication error " +
-                                "sending runtime metrics to master", e);
+
+                        // A new connection starts with the full state.
+                        if (channel == null) {
+                            channel = connect(codec);
+                            prev = null;
+                        }
+
+                        // Only send what changed since the last sequence.
+                        ByteBuffer frame = codec.encode(
+                                runInfo.agentInfo.agentNumber, rtm, prev);
+                        while (frame.hasRemaining())
+                            channel.write(frame);
+                        failures = 0;
+
+                        // The aggregator reuses rtm, so we keep a copy.
+                        if (prev == null) {
+                            prev = new RuntimeMetrics();
+                            prev.init(rtm.driverType, rtm.txTypes);
+                            prev.respHist = new Histogram[rtm.txTypes];
+                            for (int i = 0; i < rtm.txTypes; i++)
+                                prev.respHist[i] =
+                                        (Histogram) rtm.respHist[i].clone();
+                        }
+                        prev.copy(rtm);
+                        ++sequence;
+                    } catch (IOException e) {
+                        // Only log the first of consecutive failures loudly.
+                        logger.log(failures++ == 0 ? Level.WARNING :
+                                Level.FINE, "Communication error sending " +
+                                "runtime metrics to master. Reconnecting " +
+                                "at next interval.", e);
+                        close(channel);
+                        channel = null;
+                        ++sequence;
+                    } catch (Exception e) {
+                        logger.log(Level.WARNING, e.getMessage(), e);
                     }
-                    ++sequence;
-                } catch (Exception e) {
-                    logger.log(Level.WARNING, e.getMessage(), e);
                 }
+            } finally {
+                close(channel);
+            }
+        }
+
+        /**
+         * Connects to the stats receiver of the master and identifies
+         * this agent.
+         * @param codec The codec to encode the handshake
+         * @return The connected channel
+         * @throws IOException If the connection cannot be established
+         */
+        private SocketChannel connect(RuntimeStatsCodec codec)
+                throws IOException {
+            // We only get a master host if the master is remote.
+            // The master listens on the same address for local agents.
+            InetSocketAddress address = new InetSocketAddress(
+                    InetAddress.getByName(masterHost),
+                    runInfo.runtimeStatsPort);
+            SocketChannel channel = SocketChannel.open();
+            try {
+                channel.socket().setTcpNoDelay(true);
+                channel.socket().connect(address,
+                        (int) Math.max(interval / 1000000l, 1000l));
+                ByteBuffer handshake = codec.encodeHandshake(runInfo.runId,
+                        runInfo.runtimeStatsToken, driverType,
+                        runInfo.agentInfo.agentNumber);
+                while (handshake.hasRemaining())
+                    channel.write(handshake);
+            } catch (IOException e) {
+                close(channel);
+                throw e;
             }
+            return channel;
+        }
+
+        private void close(SocketChannel channel) {
+            if (channel != null)
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    logger.log(Level.FINE, e.getMessage(), e);
+                }
         }
 
         void cancel() {
@@ -30,7 +30,6 @@ import com.sun.faban.driver.ExpectedException;
 import com.sun.faban.driver.util.Random;
 import com.sun.faban.driver.util.Timer;
 
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -127,6 +126,23 @@ public abstract class AgentThread extends Thread {
     /** Constant value for specifying that the time is not set. */
     public static final long TIME_NOT_SET = Long.MIN_VALUE;
 
+    /**
+     * The outcome of preparing the next step of this thread. The steps
+     * are driven either by the thread's own loop or by the
+     * {@link UserScheduler} in pooled execution mode.
+     */
+    enum Step {
+        /** An operation is prepared and is due at the wakeup time. */
+        INVOKE,
+        /** Nothing to do until the wakeup time, then prepare again. */
+        IDLE,
+        /** The run has ended for this thread. */
+        END
+    }
+
+    /** The time the prepared step is due, in nanosecs. */
+    long wakeupTime = TIME_NOT_SET;
+
     /**
      * Factory method for instantiating the right type of AgentThread.
      * @param type The type of this agent
@@ -150,6 +166,8 @@ public abstract class AgentThread extends Thread {
 		}
                        break;
            case CYCLES : agentThread = new CycleThread();
+                       break;
+           case RATE : agentThread = new ArrivalThread();
         }
 
         agentThread.configure(type, agentId, id, driverClass, timer, agent);
@@ -200,26 +218,38 @@ public abstract class AgentThread extends Thread {
         try {
             setThreadState(RunState.INITIALIZING);
             doRun();
-        } catch (FatalException e) {
+        } catch (Throwable t) {
+            runFailed(t);
+        } finally {
+            postRun();
+        }
+    }
+
+    /**
+     * Handles an exception terminating the execution of this thread.
+     * @param t The exception
+     */
+    void runFailed(Throwable t) {
+        if (t instanceof FatalException) {
             // A fatal exception thrown by the driver is already caught
             // in the run methods and logged there.
             // A fatal exception otherwise thrown by the run
             // methods signals termination of this thread.
+            FatalException e = (FatalException) t;
             if (!e.wasLogged())  {
-                Throwable t = e.getCause();
-                if (t != null) {
-					logger.log(Level.SEVERE, name + ": " + t.getMessage(), t);
+                Throwable cause = e.getCause();
+                if (cause != null) {
+					logger.log(Level.SEVERE, name + ": " + cause.getMessage(),
+                            cause);
 				} else {
 					logger.log(Level.SEVERE, name + ": " + e.getMessage(), e);
 				}
                 e.setLogged();
                 agent.abortRun();
             }
-        } catch (Throwable t) {
+        } else {
             logger.log(Level.SEVERE, name + ": " + t.getMessage(), t);
             agent.abortRun();
-        } finally {
-            postRun();
         }
     }
 
@@ -232,7 +262,112 @@ public abstract class AgentThread extends Thread {
    	 * which is returned to the Agent via the getResult() method.
      * @see Metrics
      */
-    abstract void doRun();
+    void doRun() {
+        if (!initialize())
+            return; // Terminate this thread immediately
+
+        if (runInfo.simultaneousStart) {
+            waitStartTime();
+            initRunPeriods();
+        }
+
+        logger.fine(name + ": Start of run.");
+
+        // Loop until time or cycles are up
+        driverLoop:
+        while (!stopped) {
+            switch (prepareStep()) {
+                case IDLE : timer.wakeupAt(wakeupTime);
+                            continue driverLoop;
+                case END  : break driverLoop;
+            }
+            if (!executeStep())
+                break;
+        }
+        logger.fine(name + ": End of run.");
+    }
+
+    /**
+     * Instantiates the driver, runs the pre-run if needed, and notifies
+     * the agent about the successful start of this thread. Subclasses
+     * extend this method to set up their mix selectors.
+     * @return true if successful, false if this thread needs to terminate
+     */
+    boolean initialize() {
+        driverContext = new DriverContext(this, timer);
+
+        try {
+            driver = driverClass.newInstance();
+        } catch (Throwable t) {
+            Throwable cause = t.getCause();
+            while (cause != null) {
+                t = cause;
+                cause = t.getCause();
+            }
+            logger.log(Level.SEVERE, name +
+                    ": Error initializing driver object.", t);
+            agent.abortRun();
+            return false;
+        }
+
+        // Call the preRun.
+        preRun();
+
+        // Notify the agent that we have started successfully.
+        agent.threadStartLatch.countDown();
+        return true;
+    }
+
+    /**
+     * Calculates the ramp up, steady state, and ramp down periods once
+     * the start time is known.
+     */
+    abstract void initRunPeriods();
+
+    /**
+     * Selects the next operation and calculates its invoke time into
+     * wakeupTime. No blocking is allowed in this method.
+     * @return The kind of step prepared
+     */
+    abstract Step prepareStep();
+
+    /**
+     * Invokes and records the operation prepared by prepareStep.
+     * The invocation itself waits for the invoke time to arrive.
+     * @return true if the run continues, false if it ended for this thread
+     */
+    abstract boolean executeStep();
+
+    /**
+     * Creates the mix selector of this thread. The sampled transition trace
+     * of a matrix mix, if any, is attached to the metrics.
+     * @param mixId The mix, 0 for foreground and 1 for background
+     * @return The selector
+     */
+    Mix.Selector newSelector(int mixId) {
+        Mix.Selector s = driverConfig.mix[mixId].selector(random);
+        if (s instanceof MatrixMix.Selector) {
+            TransitionStats trace = ((MatrixMix.Selector) s).getTrace();
+            if (trace != null)
+                driverContext.attachMetrics(mixId == 0 ? "Mix Transitions" :
+                        "Background Mix Transitions", trace);
+        }
+        return s;
+    }
+
+    /**
+     * Invokes the operation on the driver.
+     * @param op The operation
+     * @return The exception thrown by the operation, or null on success
+     */
+    Throwable invoke(BenchmarkDefinition.Operation op) {
+        try {
+            op.invoker.invoke(driver);
+            return null;
+        } catch (Throwable e) {
+            return e;
+        }
+    }
 
     /**
      * Checks for a fatal exception. This is called from the invocation loop.
@@ -298,7 +433,7 @@ public abstract class AgentThread extends Thread {
         logger.log(level, message, e);
     }
 
-    private synchronized void setThreadState(RunState state) {
+    synchronized void setThreadState(RunState state) {
         threadState = state;
         notifyAll();
     }
@@ -344,7 +479,7 @@ public abstract class AgentThread extends Thread {
             setThreadState(RunState.PRE_RUN);
             logger.fine(name + ": Invoking preRun @OnceBefore");
             try {
-                invokePrePost(driverConfig.preRun.m);
+                invokePrePost(driverConfig.preRun);
             } catch (InterruptedIOException e) {
                 // Should not happen unless run is cancelled. And if so,
                 // we don't really care to redo this.
@@ -399,7 +534,7 @@ public abstract class AgentThread extends Thread {
             logger.fine(name + ": Invoking postRun @OnceAfter");
             do {
                 try {
-                    invokePrePost(driverConfig.postRun.m);
+                    invokePrePost(driverConfig.postRun);
                 } catch (InterruptedIOException e) {
                     interrupted = true;
                 }
@@ -409,25 +544,18 @@ public abstract class AgentThread extends Thread {
         setThreadState(RunState.ENDED);
     }
 
-    private void invokePrePost(Method m) throws InterruptedIOException {
+    private void invokePrePost(BenchmarkDefinition.DriverMethod dm)
+            throws InterruptedIOException {
         try {
-            m.invoke(driver);
-        } catch (InvocationTargetException e) {
-            Throwable cause = e.getCause();
-            if (cause == null) {
-				cause = e;
-			}
-            checkFatal(cause, m);
-            logger.log(Level.WARNING, name + "." + m.getName() + ": " +
+            dm.invoker.invoke(driver);
+        } catch (Throwable cause) {
+            checkFatal(cause, dm.m);
+            logger.log(Level.WARNING, name + "." + dm.m.getName() + ": " +
                     cause.getMessage(), cause);
             if (cause instanceof InterruptedIOException) {
 				throw (InterruptedIOException) cause;
 			}
-        } catch (IllegalAccessException e) {
-            logger.log(Level.SEVERE, name + "." + m.getName() + ": " +
-                    e.getMessage(), e);
         }
-
     }
 
     /**
@@ -0,0 +1,148 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import com.sun.faban.driver.util.Random;
+
+/**
+ * The AliasTable selects from a discrete distribution in constant time,
+ * using Vose's alias method. Each selection takes one random number, no
+ * matter how many entries there are. Only the entries with a non-zero
+ * probability are kept, so a sparse mix row only takes space for the
+ * operations it actually selects. The table is immutable and shared by
+ * the selectors of all threads.
+ */
+final class AliasTable {
+
+    private final int[] ops;       // Operation of each entry, null if all
+    private final double[] weights; // Normalized probability of each entry
+    private final double[] prob;   // Probability of not taking the alias
+    private final int[] alias;
+
+    /**
+     * Builds the alias table for a mix or mix row.
+     * @param mix The probabilities of each operation, need not be normalized
+     * @throws IllegalArgumentException If no probability is positive
+     */
+    AliasTable(double[] mix) {
+        int n = 0;
+        double total = 0d;
+        for (int i = 0; i < mix.length; i++)
+            if (mix[i] > 0d) {
+                ++n;
+                total += mix[i];
+            }
+        if (n == 0)
+            throw new IllegalArgumentException("No operation to select " +
+                    "from, all probabilities are zero.");
+
+        weights = new double[n];
+        if (n == mix.length) {
+            ops = null;
+            for (int i = 0; i < n; i++)
+                weights[i] = mix[i] / total;
+        } else {
+            ops = new int[n];
+            for (int i = 0, j = 0; i < mix.length; i++)
+                if (mix[i] > 0d) {
+                    ops[j] = i;
+                    weights[j++] = mix[i] / total;
+                }
+        }
+
+        // Pair each entry below the average with one above it, so each
+        // column of the table holds at most two entries.
+        prob = new double[n];
+        alias = new int[n];
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallCount = 0;
+        int largeCount = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n;
+            alias[i] = i;
+            if (scaled[i] < 1d)
+                small[smallCount++] = i;
+            else
+                large[largeCount++] = i;
+        }
+        while (smallCount > 0 && largeCount > 0) {
+            int less = small[--smallCount];
+            int more = large[--largeCount];
+            prob[less] = scaled[less];
+            alias[less] = more;
+            scaled[more] = (scaled[more] + scaled[less]) - 1d;
+            if (scaled[more] < 1d)
+                small[smallCount++] = more;
+            else
+                large[largeCount++] = more;
+        }
+        // The rest are full columns, up to rounding errors.
+        while (largeCount > 0)
+            prob[large[--largeCount]] = 1d;
+        while (smallCount > 0)
+            prob[small[--smallCount]] = 1d;
+    }
+
+    /**
+     * Selects the next entry.
+     * @param random The random value generator
+     * @return The entry index
+     */
+    int next(Random random) {
+        double val = random.drandom(0d, prob.length);
+        int i = (int) val;
+        if (i == prob.length) // The upper bound, in case it ever happens
+            --i;
+        return val - i < prob[i] ? i : alias[i];
+    }
+
+    /**
+     * Obtains the number of entries, the operations with a non-zero
+     * probability.
+     * @return The number of entries
+     */
+    int size() {
+        return prob.length;
+    }
+
+    /**
+     * Obtains the operation of an entry.
+     * @param entry The entry index
+     * @return The operation index
+     */
+    int op(int entry) {
+        return ops == null ? entry : ops[entry];
+    }
+
+    /**
+     * Obtains the normalized probability of an entry.
+     * @param entry The entry index
+     * @return The probability, between 0 and 1
+     */
+    double weight(int entry) {
+        return weights[entry];
+    }
+}
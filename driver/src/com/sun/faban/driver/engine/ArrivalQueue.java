@@ -0,0 +1,159 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import com.sun.faban.driver.util.Random;
+
+/**
+ * The ArrivalQueue generates the arrivals of a rate controlled run for
+ * one agent and hands them to the driver threads. Arrivals are generated
+ * lazily whenever a thread becomes free and claims the next arrival, so
+ * no generator thread is needed. An arrival due while no thread is free
+ * waits in a bounded queue. Arrivals overflowing the queue are dropped.<p>
+ *
+ * The arrival statistics are recorded into the metrics of the claiming
+ * thread and only cover arrivals due in steady state.
+ */
+class ArrivalQueue {
+
+    private Random random;
+    private boolean poisson;
+
+    // The interval between arrivals in ns, before and after the
+    // next rate switch.
+    private double interval;
+    private double nextInterval;
+    private long switchTime;
+    private boolean switching = false;
+
+    private long next;
+    private long stdyStart;
+    private long stdyEnd;
+
+    // The queue of due arrivals, as a ring buffer.
+    private long[] pending;
+    private int head = 0;
+    private int size = 0;
+
+    /**
+     * Constructs the arrival queue.
+     * @param rate The arrival rate, in arrivals/sec
+     * @param poisson Whether the arrivals are Poisson distributed
+     * @param queue The max. number of arrivals waiting for a thread
+     */
+    ArrivalQueue(double rate, boolean poisson, int queue) {
+        this.poisson = poisson;
+        interval = 1e9d / rate;
+        pending = new long[queue];
+        random = new Random(System.nanoTime() + hashCode());
+    }
+
+    /**
+     * Starts the arrivals at the start time of the run.
+     * @param startTime The start time, in ns
+     * @param rampUp The ramp up, in secs
+     * @param stdyState The steady state, in secs
+     */
+    synchronized void start(long startTime, int rampUp, int stdyState) {
+        stdyStart = startTime + rampUp * 1000000000l;
+        stdyEnd = stdyStart + stdyState * 1000000000l;
+        next = startTime + nextInterval(startTime);
+    }
+
+    /**
+     * Changes the arrival rate. The new rate applies to arrivals
+     * following the switch time.
+     * @param rate The new arrival rate, in arrivals/sec
+     * @param time The time the rate changes, in ns
+     */
+    synchronized void setRate(double rate, long time) {
+        if (switching) // Previous switch not reached yet.
+            interval = nextInterval;
+        nextInterval = 1e9d / rate;
+        switchTime = time;
+        switching = true;
+    }
+
+    /**
+     * Claims the next arrival for a thread that became free. The thread
+     * gets the oldest arrival waiting in the queue or the next arrival
+     * in the future if the queue is empty.
+     * @param now The current time, in ns
+     * @param metrics The metrics of the claiming thread
+     * @return The arrival time, in ns
+     */
+    synchronized long claim(long now, Metrics metrics) {
+        // Queue all arrivals due by now, dropping what does not fit.
+        while (next - now <= 0) {
+            boolean stdy = isSteadyState(next);
+            if (stdy)
+                ++metrics.arrivalCntStdy;
+            if (size < pending.length) {
+                pending[(head + size) % pending.length] = next;
+                ++size;
+            } else if (stdy) {
+                ++metrics.droppedCntStdy;
+            }
+            next += nextInterval(next);
+        }
+
+        long arrival;
+        if (size > 0) {
+            if (size > metrics.queueMax)
+                metrics.queueMax = size;
+            arrival = pending[head];
+            head = (head + 1) % pending.length;
+            --size;
+            if (isSteadyState(arrival))
+                ++metrics.queuedCntStdy;
+        } else {
+            arrival = next;
+            if (isSteadyState(arrival))
+                ++metrics.arrivalCntStdy;
+            next += nextInterval(next);
+        }
+        return arrival;
+    }
+
+    private boolean isSteadyState(long time) {
+        return time - stdyStart >= 0 && time - stdyEnd < 0;
+    }
+
+    private long nextInterval(long time) {
+        if (switching && time - switchTime >= 0) {
+            interval = nextInterval;
+            switching = false;
+        }
+        double delay = interval;
+        if (poisson) {
+            // Negative exponential inter-arrival times give a Poisson process.
+            double x = random.drandom(0d, 1d);
+            if (x == 0d)
+                x = Double.MIN_VALUE;
+            delay *= -Math.log(x);
+        }
+        long ns = Math.round(delay);
+        return ns > 0l ? ns : 1l;
+    }
+}
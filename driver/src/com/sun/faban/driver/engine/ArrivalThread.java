@@ -0,0 +1,75 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+/**
+ * A driver thread for rate controlled runs. Instead of following its own
+ * cycle or think times, the thread serves as a worker taking the next
+ * arrival from the agent's {@link ArrivalQueue} whenever it is free. The
+ * operation is selected from the mix and invoked at the arrival time.
+ * The run periods are the same as for time controlled runs.<p>
+ *
+ * The arrival time is the intended invoke time. If the thread gets an
+ * arrival that already waited in the queue, the wait shows up as
+ * wake-up lateness and in the response times from the intended start.
+ */
+public class ArrivalThread extends TimeThread {
+
+    // Poll interval for the start time, in ns.
+    private static final long START_POLL = 100000000l;
+
+    /**
+     * Claims the next arrival and selects the operation for it.
+     * @return The kind of step prepared
+     */
+    @Override
+    Step prepareStep() {
+        if (!startTimeSet) {
+            // Arrivals only start with the run. Until then, we idle.
+            if (agent.timeSetLatch.getCount() > 0) {
+                wakeupTime = System.nanoTime() + START_POLL;
+                return Step.IDLE;
+            }
+            startTimeSet = true;
+            initRunPeriods();
+        }
+
+        long arrival = agent.arrivals.claim(System.nanoTime(), metrics);
+        if (arrival >= endRampDown)
+            return Step.END;
+
+        // There is no delay between operations to be recorded.
+        previousOperation[mixId] = -1;
+        currentOperation = selector[0].select();
+
+        logger.finest(name + ": Invoking " +
+                driverConfig.operations[currentOperation].name +
+                " at time " + arrival + ". Ramp down ends at time " +
+                endRampDown + '.');
+
+        driverContext.setInvokeTime(arrival);
+        wakeupTime = arrival;
+        return Step.INVOKE;
+    }
+}
@@ -427,7 +427,7 @@ public class BenchmarkDefinition implements Serializable, Cloneable {
                 op.max90th = benchOp.max90th();
                 op.timing = benchOp.timing();
                 op.countToMetric = benchOp.countToMetric();
-                op.m = m;
+                op.setMethod(m);
                 operationMap.put(op.name, op);
             }
 		}
@@ -458,7 +458,7 @@ public class BenchmarkDefinition implements Serializable, Cloneable {
                 op.max90th = benchOp.max90th();
                 op.timing = benchOp.timing();
                 op.countToMetric = benchOp.countToMetric();
-                op.m = m;
+                op.setMethod(m);
                 operationList.add(op);
             }
 		}
@@ -476,7 +476,7 @@ public class BenchmarkDefinition implements Serializable, Cloneable {
 			if (m.isAnnotationPresent(OnceBefore.class)) {
                 if (driver.preRun == null) {
                     driver.preRun = new DriverMethod();
-                    driver.preRun.m = m;
+                    driver.preRun.setMethod(m);
                     driver.preRun.genericName = m.toGenericString();
                 } else {
                     throw new DefinitionException("Found more than one " +
@@ -486,7 +486,7 @@ public class BenchmarkDefinition implements Serializable, Cloneable {
             } else if (m.isAnnotationPresent(OnceAfter.class)) {
                 if (driver.postRun == null) {
                     driver.postRun = new DriverMethod();
-                    driver.postRun.m = m;
+                    driver.postRun.setMethod(m);
                     driver.postRun.genericName = m.toGenericString();
                 } else {
                     throw new DefinitionException("Found more than one " +
@@ -537,7 +537,7 @@ public class BenchmarkDefinition implements Serializable, Cloneable {
         // Then we check each operation and get the method from the map.
         for (Operation o : operations) {
 			if (o.m == null) {
-				o.m = methodMap.get(o.name);
+				o.setMethod(methodMap.get(o.name));
 			}
 		}
     }
@@ -553,7 +553,7 @@ public class BenchmarkDefinition implements Serializable, Cloneable {
             Method[] methods = driverClass.getMethods();
             for (Method m : methods) {
 				if (method.genericName.equals(m.toGenericString())) {
-                    method.m = m;
+                    method.setMethod(m);
                     break;
                 }
 			}
@@ -775,6 +775,16 @@ public class BenchmarkDefinition implements Serializable, Cloneable {
 
 		String genericName;
         transient Method m;
+        transient Invoker invoker;
+
+        /**
+         * Sets the method and its invoker.
+         * @param m The method
+         */
+        void setMethod(Method m) {
+            this.m = m;
+            invoker = m == null ? null : Invoker.getInstance(m);
+        }
 
         /**
          * Creates s shallow clone of this object.
@@ -806,6 +816,16 @@ public class BenchmarkDefinition implements Serializable, Cloneable {
         Cycle cycle;
 
         transient Method m;
+        transient Invoker invoker;
+
+        /**
+         * Sets the method and its invoker.
+         * @param m The method
+         */
+        void setMethod(Method m) {
+            this.m = m;
+            invoker = m == null ? null : Invoker.getInstance(m);
+        }
 
         /**
          * Creates an exact deep clone of this object.
@@ -23,7 +23,6 @@
  */
 package com.sun.faban.driver.engine;
 
-import java.lang.reflect.InvocationTargetException;
 import java.util.logging.Level;
 
 
@@ -55,39 +54,14 @@ public class CycleThread extends AgentThread {
     }
 
     /**
-     * Each thread executes in the doRun method until the benchmark time is up
-     * The main loop chooses a tx. type according to the mix specified in
-     * the parameter file and calls the appropriate transaction
-     * method to do the job.
-   	 * The stats for the entire run are stored in a Metrics object
-   	 * which is returned to the Agent via the getResult() method.
-     * @see Metrics
+     * Sets up the cycle counts and the mix selector after the common
+     * initialization.
+     * @return true if successful, false if this thread needs to terminate
      */
-	void doRun() {
-        driverContext = new DriverContext(this, timer);
-
-        try {
-            driver = driverClass.newInstance();
-        } catch (Throwable t) {
-            Throwable cause = t.getCause();
-            while (cause != null) {
-                t = cause;
-                cause = t.getCause();
-            }
-            logger.log(Level.SEVERE, name +
-                    ": Error initializing driver object.", t);
-            agent.abortRun();
-            return; // Terminate this thread immediately
-        }
-        // Call the preRun.
-        preRun();
-
-        // Notify the agent that we have started successfully.
-        agent.threadStartLatch.countDown();
-        
-        if (runInfo.simultaneousStart) {
-			waitStartTime();
-		}
+    @Override
+    boolean initialize() {
+        if (!super.initialize())
+            return false;
 
         // Calculate cycle counts
         endRampUp = runInfo.rampUp;
@@ -95,96 +69,101 @@ public class CycleThread extends AgentThread {
         endRampDown = endStdyState + runInfo.rampDown;
 
         selector = new Mix.Selector[1];
-        selector[0] = driverConfig.mix[0].selector(random);
-
-        logger.fine(name + ": Start of run.");
-
-        // Loop until cycles are up
-        driverLoop:
-        while (!stopped) {
-
-            // Save the previous operation
-            previousOperation[mixId] = currentOperation;
-            BenchmarkDefinition.Operation previousOp = null;
-            if (previousOperation[mixId] >= 0) {
-				previousOp = driverConfig.operations[currentOperation];
-			}
-
-            // Select the operation
-            currentOperation = selector[0].select();
-            BenchmarkDefinition.Operation op =
-                    driverConfig.operations[currentOperation];
+        selector[0] = newSelector(0);
+        return true;
+    }
 
-            driverContext.setInvokeTime(getInvokeTime(previousOp, mixId));
+    /**
+     * The run periods of cycle runs are cycle counts and do not depend on
+     * the start time. They are set at initialization.
+     */
+    void initRunPeriods() {
+    }
 
-            // Invoke the operation
-            try {
-                op.m.invoke(driver);
-                validateTimeCompletion(op);
-                checkRamp();
-                metrics.recordTx();
-                metrics.recordDelayTime();
-            } catch (InvocationTargetException e) {
-                // An invocation target exception is caused by another
-                // exception thrown by the operation directly.
-                Throwable cause = e.getCause();
-                checkFatal(cause, op);
-                checkRamp();
-                metrics.recordError();
-                logError(cause, op);
+    /**
+     * Selects the next operation and calculates its invoke time.
+     * @return The kind of step prepared
+     */
+    Step prepareStep() {
+        // Save the previous operation
+        previousOperation[mixId] = currentOperation;
+        BenchmarkDefinition.Operation previousOp = null;
+        if (previousOperation[mixId] >= 0) {
+            previousOp = driverConfig.operations[currentOperation];
+        }
 
-                // We have to fix up the invoke/respond times to have valid
-                // values and not -1.
+        // Select the operation
+        currentOperation = selector[0].select();
 
-                // In case of exception, invokeTime or even respondTime may
-                // still be -1.
-                DriverContext.TimingInfo timingInfo = driverContext.timingInfo;
+        wakeupTime = getInvokeTime(previousOp, mixId);
+        driverContext.setInvokeTime(wakeupTime);
+        return Step.INVOKE;
+    }
 
-                // The lastRespondTime may be set, though. if so, propagate
-                // it back to respondTime.
-                if (timingInfo.respondTime == TIME_NOT_SET &&
-                    timingInfo.lastRespondTime != TIME_NOT_SET) {
-                    logger.fine("Potential open request in operation " +
-                            op.m.getName() + ".");
-                    timingInfo.respondTime = timingInfo.lastRespondTime;
-                }
+    /**
+     * Invokes and records the operation prepared by prepareStep.
+     * @return true if the run continues, false if it ended for this thread
+     */
+    boolean executeStep() {
+        BenchmarkDefinition.Operation op =
+                driverConfig.operations[currentOperation];
+
+        // Invoke the operation
+        Throwable cause = invoke(op);
+        if (cause == null) {
+            validateTimeCompletion(op);
+            checkRamp();
+            metrics.recordTx();
+            metrics.recordDelayTime();
+        } else {
+            checkFatal(cause, op);
+            checkRamp();
+            metrics.recordError();
+            logError(cause, op);
+
+            // We have to fix up the invoke/respond times to have valid
+            // values and not -1.
+
+            // In case of exception, invokeTime or even respondTime may
+            // still be -1.
+            DriverContext.TimingInfo timingInfo = driverContext.timingInfo;
+
+            // The lastRespondTime may be set, though. if so, propagate
+            // it back to respondTime.
+            if (timingInfo.respondTime == TIME_NOT_SET &&
+                timingInfo.lastRespondTime != TIME_NOT_SET) {
+                logger.fine("Potential open request in operation " +
+                        op.m.getName() + ".");
+                timingInfo.respondTime = timingInfo.lastRespondTime;
+            }
 
-                // If it never waited, we'll see whether we can just use the
-                // previous start and end times.
-                if (timingInfo.invokeTime == TIME_NOT_SET) {
-                    long currentTime = System.nanoTime();
-                    if (currentTime < timingInfo.intendedInvokeTime) {
-                        timingInfo.invokeTime = startTime[mixId];
-                        timingInfo.respondTime = endTime[mixId];
-                    } else {
-                        // Too late, we'll need to use the real time
-                        // for both invoke and respond time.
-                        timingInfo.invokeTime = System.nanoTime();
-                        timingInfo.respondTime = timingInfo.invokeTime;
-                        // The delay time is invalid,
-                        // we cannot record in this case.
-                    }
-                } else if (timingInfo.respondTime == TIME_NOT_SET) {
-                    timingInfo.respondTime = timingInfo.invokeTime;
-                    metrics.recordDelayTime();
+            // If it never waited, we'll see whether we can just use the
+            // previous start and end times.
+            if (timingInfo.invokeTime == TIME_NOT_SET) {
+                long currentTime = System.nanoTime();
+                if (currentTime < timingInfo.intendedInvokeTime) {
+                    timingInfo.invokeTime = startTime[mixId];
+                    timingInfo.respondTime = endTime[mixId];
                 } else {
-                    metrics.recordDelayTime();
+                    // Too late, we'll need to use the real time
+                    // for both invoke and respond time.
+                    timingInfo.invokeTime = System.nanoTime();
+                    timingInfo.respondTime = timingInfo.invokeTime;
+                    // The delay time is invalid,
+                    // we cannot record in this case.
                 }
-            } catch (IllegalAccessException e) {
-                logger.log(Level.SEVERE, name + "." + op.m.getName() + ": "
-                        + e.getMessage(), e);
-                agent.abortRun();
-                return;
+            } else if (timingInfo.respondTime == TIME_NOT_SET) {
+                timingInfo.respondTime = timingInfo.invokeTime;
+                metrics.recordDelayTime();
+            } else {
+                metrics.recordDelayTime();
             }
+        }
 
-            startTime[mixId] = driverContext.timingInfo.invokeTime;
-            endTime[mixId] = driverContext.timingInfo.respondTime;
+        startTime[mixId] = driverContext.timingInfo.invokeTime;
+        endTime[mixId] = driverContext.timingInfo.respondTime;
 
-            if (cycleCount > endRampDown) {
-				break driverLoop;
-			}
-        }
-        logger.fine(name + ": End of run.");
+        return cycleCount <= endRampDown;
     }
 
     /**
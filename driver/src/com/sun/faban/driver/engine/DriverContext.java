@@ -39,6 +39,7 @@ import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 import java.io.File;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.logging.Logger;
@@ -55,6 +56,30 @@ import java.util.logging.Logger;
  */
 public class DriverContext extends com.sun.faban.driver.DriverContext {
 
+    /** Request phase index of the host name lookup. */
+    public static final int PHASE_DNS = 0;
+
+    /** Request phase index of the TCP connect. */
+    public static final int PHASE_CONNECT = 1;
+
+    /** Request phase index of the TLS handshake. */
+    public static final int PHASE_TLS = 2;
+
+    /**
+     * Request phase index of the time from the last request byte written
+     * to the first response byte read.
+     */
+    public static final int PHASE_TTFB = 3;
+
+    /**
+     * Request phase index of the time from the first to the last response
+     * byte read.
+     */
+    public static final int PHASE_TRANSFER = 4;
+
+    /** The number of request phases. */
+    public static final int PHASES = 5;
+
     /** Thread local used for obtaining the context. */
     private static ThreadLocal<DriverContext> localContext = new InheritableThreadLocal<DriverContext>();
 
@@ -93,6 +118,12 @@ public class DriverContext extends com.sun.faban.driver.DriverContext {
 	/** Desired download speed of this context */
 	private int kbpsDownload = -1;
 
+    /** The bandwidth group sharing the links of this context, if any. */
+    private String bandwidthGroup;
+
+    /** The latency added to each response of this context, in ns. */
+    private long latency = 0l;
+
     /**
      * Obtains the DriverContext associated with this thread.
      * @return the associated DriverContext
@@ -101,6 +132,15 @@ public class DriverContext extends com.sun.faban.driver.DriverContext {
         return localContext.get();
     }
 
+    /**
+     * Detaches the inherited DriverContext from the current thread. Helper
+     * threads started by a driver thread doing I/O on their own must detach
+     * the context so their I/O does not get recorded as the driver's.
+     */
+    public static void detachContext() {
+        localContext.remove();
+    }
+
     /**
      * Constructs a DriverContext. Called only from AgentThread.
      * @param thread The AgentThread used by this context
@@ -110,6 +150,19 @@ public class DriverContext extends com.sun.faban.driver.DriverContext {
         className = getClass().getName();
         agentThread = thread;
         this.timer = timer;
+        RunInfo runInfo = RunInfo.getInstance();
+        if (runInfo != null && runInfo.requestPhaseStats) {
+            timingInfo.phaseTimes = new long[PHASES];
+            Arrays.fill(timingInfo.phaseTimes, TIME_NOT_SET);
+        }
+        localContext.set(this);
+    }
+
+    /**
+     * Binds this context to the calling thread. This is used for switching
+     * contexts when emulated users run as tasks on shared carrier threads.
+     */
+    void bind() {
         localContext.set(this);
     }
 
@@ -528,6 +581,18 @@ public class DriverContext extends com.sun.faban.driver.DriverContext {
         return timer.toRelTime(agentThread.endRampUp);
     }
 
+    /**
+     * Checks whether a time span is in steady state. This method is not
+     * exposed through the interface and is only used by the transport
+     * facilities.
+     * @param start The start of the time span, in system nanotime
+     * @param end The end of the time span, in system nanotime
+     * @return True if the time span is in steady state, false otherwise
+     */
+    public boolean isSteadyState(long start, long end) {
+        return agentThread.isSteadyState(start, end);
+    }
+
     /**
      * Obtains the configured ramp up time.
      *
@@ -630,6 +695,18 @@ public class DriverContext extends com.sun.faban.driver.DriverContext {
      * @return The recorded time - system nanotime, or TIME_NOT_SET if not set
      */
     public long recordEndTime() {
+        return recordEndTime(System.nanoTime());
+    }
+
+    /**
+     * Records the end time of an operation at a given time. This is used by
+     * transports doing the I/O in a different thread, which take the time
+     * the last byte was read and hand it to the operation's thread. This
+     * method is not exposed through the interface.
+     * @param endTime The system nanotime the response was read
+     * @return The recorded time - system nanotime, or TIME_NOT_SET if not set
+     */
+    public long recordEndTime(long endTime) {
         long tstamp = TIME_NOT_SET;
         // Not in an operation, don't record time.
         if (agentThread.currentOperation != -1) {
@@ -649,7 +726,7 @@ public class DriverContext extends com.sun.faban.driver.DriverContext {
                             "be in the buffer from previous operation " +
                             name + ". Ignoring such input.");
                 } else {
-                    timingInfo.respondTime = tstamp = System.nanoTime();
+                    timingInfo.respondTime = tstamp = endTime;
                 }
             }
         }
@@ -670,6 +747,100 @@ public class DriverContext extends com.sun.faban.driver.DriverContext {
         timingInfo.respondTime = TIME_NOT_SET;
         timingInfo.lastRespondTime = TIME_NOT_SET;
         timingInfo.pauseTime = 0l;
+        if (timingInfo.phaseTimes != null) {
+            Arrays.fill(timingInfo.phaseTimes, TIME_NOT_SET);
+            timingInfo.lastWriteTime = TIME_NOT_SET;
+            timingInfo.lastReadTime = TIME_NOT_SET;
+            timingInfo.inPhase = false;
+        }
+    }
+
+    /**
+     * Starts timing a connection setup phase, like the host name lookup,
+     * the connect, or the TLS handshake. Reads and writes during the
+     * phase are not counted to the request phases. This method is not
+     * exposed through the interface and is only used by the transport
+     * facilities.
+     * @return The start time - system nanotime, or TIME_NOT_SET if the
+     *         request phases are not recorded
+     */
+    public long beginPhase() {
+        if (timingInfo.phaseTimes == null ||
+                agentThread.currentOperation == -1)
+            return TIME_NOT_SET;
+        timingInfo.inPhase = true;
+        return System.nanoTime();
+    }
+
+    /**
+     * Ends timing a connection setup phase started with beginPhase.
+     * This method is not exposed through the interface and is only used
+     * by the transport facilities.
+     * @param phase The phase index
+     * @param startTime The start time returned from beginPhase
+     */
+    public void endPhase(int phase, long startTime) {
+        if (startTime == TIME_NOT_SET)
+            return;
+        timingInfo.inPhase = false;
+        addPhaseTime(phase, System.nanoTime() - startTime);
+    }
+
+    /**
+     * Records the time of a request phase taken by the transport itself.
+     * This is used by transports doing the I/O in a different thread.
+     * This method is not exposed through the interface.
+     * @param phase The phase index
+     * @param startTime The system nanotime the phase started
+     * @param endTime The system nanotime the phase ended
+     */
+    public void recordPhase(int phase, long startTime, long endTime) {
+        if (timingInfo.phaseTimes == null ||
+                agentThread.currentOperation == -1 ||
+                startTime == 0l || endTime < startTime)
+            return;
+        addPhaseTime(phase, endTime - startTime);
+    }
+
+    /**
+     * Records that request bytes were written. This method is not
+     * exposed through the interface and is only used by the transport
+     * facilities.
+     */
+    public void recordWrite() {
+        if (timingInfo.phaseTimes == null || timingInfo.inPhase ||
+                agentThread.currentOperation == -1)
+            return;
+        timingInfo.lastWriteTime = System.nanoTime();
+        timingInfo.lastReadTime = TIME_NOT_SET;
+    }
+
+    /**
+     * Records that response bytes were read. The first read after a write
+     * ends the time to first byte, subsequent reads add to the transfer
+     * time. This method is not exposed through the interface and is only
+     * used by the transport facilities.
+     */
+    public void recordRead() {
+        if (timingInfo.phaseTimes == null || timingInfo.inPhase ||
+                agentThread.currentOperation == -1)
+            return;
+        long time = System.nanoTime();
+        if (timingInfo.lastReadTime != TIME_NOT_SET)
+            addPhaseTime(PHASE_TRANSFER, time - timingInfo.lastReadTime);
+        else if (timingInfo.lastWriteTime != TIME_NOT_SET)
+            addPhaseTime(PHASE_TTFB, time - timingInfo.lastWriteTime);
+        else // Read before write, ignored like in recordEndTime.
+            return;
+        timingInfo.lastReadTime = time;
+    }
+
+    private void addPhaseTime(int phase, long time) {
+        long[] phaseTimes = timingInfo.phaseTimes;
+        if (phaseTimes[phase] == TIME_NOT_SET)
+            phaseTimes[phase] = time;
+        else
+            phaseTimes[phase] += time;
     }
 
     /**
@@ -692,6 +863,21 @@ public class DriverContext extends com.sun.faban.driver.DriverContext {
 
         /** Pause Time. */
         public long pauseTime = 0l;
+
+        /**
+         * Time spent in each request phase, TIME_NOT_SET for phases not
+         * seen. Null if the request phases are not recorded.
+         */
+        public long[] phaseTimes;
+
+        /** Time the last request byte was written. */
+        long lastWriteTime = TIME_NOT_SET;
+
+        /** Time the last response byte was read, if after the write. */
+        long lastReadTime = TIME_NOT_SET;
+
+        /** Whether a connection setup phase is being timed. */
+        boolean inPhase = false;
     }
 
     /**
@@ -759,4 +945,46 @@ public class DriverContext extends com.sun.faban.driver.DriverContext {
     public int getDownloadSpeed() {
         return kbpsDownload;
     }
+
+    /**
+     * Sets the bandwidth group of the thread using this context. All threads
+     * in the same group share the group's upload and download speed, like
+     * users sharing a network link. This method is intended for use only
+     * by transport classes.
+     *
+     * @param group The group name, or null for no group
+     * @see com.sun.faban.driver.transport.util.BandwidthShaper
+     */
+    public void setBandwidthGroup(String group) {
+        bandwidthGroup = group;
+    }
+
+    /**
+     * Returns the bandwidth group of the thread using this context.
+     *
+     * @return The group name, or null if not in any group
+     */
+    public String getBandwidthGroup() {
+        return bandwidthGroup;
+    }
+
+    /**
+     * Sets the latency the transports add to each response received by
+     * the thread using this context. This method is intended for use only
+     * by transport classes.
+     *
+     * @param millis The latency, in milliseconds. 0 for no added latency
+     */
+    public void setLatency(int millis) {
+        latency = millis * 1000000l;
+    }
+
+    /**
+     * Returns the latency added to each response.
+     *
+     * @return The latency, in nanoseconds
+     */
+    public long getLatency() {
+        return latency;
+    }
 }
@@ -0,0 +1,161 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import static com.sun.faban.driver.engine.Metrics.*;
+
+/**
+ * The default histogram with fine and coarse buckets sized by the
+ * largest percentile limit. We use fine buckets for up to 1.5 times the
+ * limit and coarse buckets, 10 times the size, up to 5 times the limit.
+ * Anything beyond falls into the overflow bucket. This keeps the
+ * histogram at 370 buckets while retaining the accuracy around the
+ * percentile limits.
+ */
+public class FixedHistogram extends Histogram {
+
+    private static final long serialVersionUID = 1l;
+
+    /** Size of the fine response time bucket. */
+    long fineBucketSize;
+
+    /** Size of the coarse response time bucket. */
+    long coarseBucketSize;
+
+    /** Max fine response time. */
+    long fineMax;
+
+    /** Max coarse response time. */
+    long coarseMax;
+
+    private int[] counts = new int[RESPBUCKETS];
+
+    private long count = 0l;
+
+    private double overflowSum = 0d;
+
+    /**
+     * Constructs a fixed histogram.
+     * @param maxPctNanos The largest percentile limit, in ns
+     */
+    public FixedHistogram(long maxPctNanos) {
+        fineBucketSize = maxPctNanos / 200l;  // 20% of scale of 1000
+        fineMax = fineBucketSize * FINE_RESPBUCKETS;
+        coarseBucketSize = fineBucketSize * RESPBUCKET_SIZE_RATIO;
+
+        // The last coarse response bucket is used for overflow.
+        coarseMax = coarseBucketSize * (COARSE_RESPBUCKETS - 1) + fineMax;
+    }
+
+    /**
+     * Records a value into the histogram.
+     * @param value The value, in ns
+     */
+    public void record(long value) {
+        int bucket;
+        if (value < fineMax) {
+            bucket = (int) (value / fineBucketSize);
+        } else if (value < coarseMax) {
+            bucket = (int) (((value - fineMax) / coarseBucketSize) +
+                    FINE_RESPBUCKETS);
+        } else {
+            bucket = RESPBUCKETS - 1;
+            overflowSum += value;
+        }
+        ++counts[bucket];
+        ++count;
+    }
+
+    /**
+     * Adds the counts of another fixed histogram to this histogram.
+     * @param h The histogram to add
+     */
+    public void add(Histogram h) {
+        FixedHistogram f = (FixedHistogram) h;
+        for (int i = 0; i < RESPBUCKETS; i++)
+            counts[i] += f.counts[i];
+        count += f.count;
+        overflowSum += f.overflowSum;
+    }
+
+    /**
+     * Replaces the counts of this histogram with the counts of another
+     * fixed histogram.
+     * @param h The histogram to copy
+     */
+    public void copy(Histogram h) {
+        FixedHistogram f = (FixedHistogram) h;
+        System.arraycopy(f.counts, 0, counts, 0, RESPBUCKETS);
+        count = f.count;
+        overflowSum = f.overflowSum;
+    }
+
+    /**
+     * Obtains the total number of values recorded.
+     * @return The value count
+     */
+    public long getCount() {
+        return count;
+    }
+
+    int getBucketCount() {
+        return RESPBUCKETS;
+    }
+
+    long getCount(int bucket) {
+        return counts[bucket];
+    }
+
+    long getLowerBound(int bucket) {
+        if (bucket < FINE_RESPBUCKETS)
+            return bucket * fineBucketSize;
+        if (bucket < RESPBUCKETS)
+            return (bucket - FINE_RESPBUCKETS) * coarseBucketSize + fineMax;
+        return Long.MAX_VALUE;
+    }
+
+    double getOverflowSum() {
+        return overflowSum;
+    }
+
+    void addCount(int bucket, long count) {
+        counts[bucket] += count;
+        this.count += count;
+    }
+
+    void addOverflowSum(double sum) {
+        overflowSum += sum;
+    }
+
+    /**
+     * Makes a deep copy of this histogram.
+     * @return The copy of this histogram
+     */
+    @Override
+    public Object clone() {
+        FixedHistogram clone = (FixedHistogram) super.clone();
+        clone.counts = counts.clone();
+        return clone;
+    }
+}
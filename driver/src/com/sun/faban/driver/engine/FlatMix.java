@@ -44,6 +44,9 @@ public class FlatMix extends Mix {
 
 	double[] mix;
 
+    /** The alias table, built from the normalized mix when first used. */
+    private transient volatile AliasTable aliases;
+
     /**
      * Initializes this mix according to the annotation.
      *
@@ -134,6 +137,7 @@ public class FlatMix extends Mix {
         FlatMix clone = (FlatMix) super.clone();
         clone.mix = new double[mix.length];
         System.arraycopy(mix, 0, clone.mix, 0, mix.length);
+        clone.aliases = null;
         return clone;
     }
 
@@ -260,6 +264,7 @@ public class FlatMix extends Mix {
         for (int i = 0; i < mix.length; i++) {
 			mix[i] /= rowTotal;
 		}
+        aliases = null;
 
         // if (logger.isLoggable(Level.FINEST))
             getLogger().finest("normalize - after\n" + toString());
@@ -310,7 +315,10 @@ public class FlatMix extends Mix {
      * @return The selector to be used by the driver
      */
 	public Selector selector(Random random) {
-        return new Selector(random, mix);
+        AliasTable table = aliases;
+        if (table == null) // Racing threads just build the same table.
+            aliases = table = new AliasTable(mix);
+        return new Selector(random, table);
     }
 
     /**
@@ -319,15 +327,11 @@ public class FlatMix extends Mix {
     public static class Selector extends Mix.Selector {
 
         private Random random;
-        private double[] selectMix;
+        private AliasTable table;
 
-        Selector(Random random, double[] mix) {
+        Selector(Random random, AliasTable table) {
             this.random = random;
-            selectMix = new double[mix.length];
-            selectMix[0] = mix[0];
-            for (int i = 1; i < selectMix.length; i++) {
-                selectMix[i] = mix[i] + selectMix[i - 1];
-            }
+            this.table = table;
         }
 
         /**
@@ -336,13 +340,7 @@ public class FlatMix extends Mix {
          * @return The operation index selected to run next
          */
 		public int select() {
-            double val = random.drandom(0, 1);
-            for (int i = 0; i < selectMix.length; i++) {
-				if (val <= selectMix[i]) {
-					return i;
-				}
-			}
-            return -1;
+            return table.op(table.next(random));
         }
 
         /**
@@ -71,6 +71,9 @@ public class FlatSequenceMix extends Mix {
     double[] mix;
     double[] normalizedMix;
 
+    /** The alias table, built from the normalized mix when first used. */
+    private transient volatile AliasTable aliases;
+
     /**
      * Initializes this mix according to the annotation.
      *
@@ -198,6 +201,7 @@ public class FlatSequenceMix extends Mix {
         } else {
 			clone.operationSequences = null;
 		}
+        clone.aliases = null;
         return clone;
     }
 
@@ -240,6 +244,7 @@ public class FlatSequenceMix extends Mix {
         for (int i = 0; i < mix.length; i++) {
 			mix[i] /= rowTotal;
 		}
+        aliases = null;
 
         // if (logger.isLoggable(Level.FINEST))
         getLogger().finest("normalize - after\n" + toString());
@@ -294,7 +299,10 @@ public class FlatSequenceMix extends Mix {
      * @return The selector to be used by the driver
      */
 	public Selector selector(Random random) {
-        return new Selector(random, mix, operationSequences);
+        AliasTable table = aliases;
+        if (table == null) // Racing threads just build the same table.
+            aliases = table = new AliasTable(mix);
+        return new Selector(random, table, operationSequences);
     }
 
     /**
@@ -303,19 +311,16 @@ public class FlatSequenceMix extends Mix {
     public static class Selector extends Mix.Selector {
 
         private Random random;
-        private double[] selectMix;
+        private AliasTable table;
         private int curSequence;
         private int curIndex;
         private int[][] operationSequences;
 
-        Selector(Random random, double[] mix, int[][] operationSequences) {
+        Selector(Random random, AliasTable table,
+                 int[][] operationSequences) {
             this.operationSequences = operationSequences;
             this.random = random;
-            selectMix = new double[mix.length];
-            selectMix[0] = mix[0];
-            for (int i = 1; i < selectMix.length; i++) {
-                selectMix[i] = mix[i] + selectMix[i - 1];
-            }
+            this.table = table;
             // Resets the selector to starting position.
             reset();
         }
@@ -328,12 +333,7 @@ public class FlatSequenceMix extends Mix {
 		public int select() {
             if (curIndex == operationSequences[curSequence].length) {
                 curIndex = 0;
-                double val = random.drandom(0, 1);
-                for (curSequence = 0; curSequence < selectMix.length; curSequence++) {
-					if (val <= selectMix[curSequence]) {
-						break;
-					}
-				}
+                curSequence = table.op(table.next(random));
             }
             return operationSequences[curSequence][curIndex++];
         }
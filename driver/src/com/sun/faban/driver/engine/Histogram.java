@@ -0,0 +1,262 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import java.io.Serializable;
+
+/**
+ * The response time histogram backend used by Metrics and RuntimeMetrics.
+ * A histogram is a sequence of contiguous buckets, each covering the
+ * values from its lower bound up to the lower bound of the next bucket.
+ * The last bucket is the overflow bucket taking all values beyond the
+ * trackable range. The percentile, deviation, and flattening
+ * calculations are common to all layouts and are implemented here.
+ * Subclasses only need to implement the recording, the merging, and
+ * the bucket layout.<p>
+ *
+ * Recording a value must not allocate memory or use any locks. Each
+ * histogram instance is only updated by a single thread.
+ */
+public abstract class Histogram implements Serializable, Cloneable {
+
+    private static final long serialVersionUID = 1l;
+
+    /** The histogram type name for the fixed fine/coarse layout. */
+    public static final String FIXED = "fixed";
+
+    /** The histogram type name for the log-linear layout. */
+    public static final String LOG_LINEAR = "logLinear";
+
+    /**
+     * Creates an empty histogram of the type configured for the run.
+     * @param runInfo The run configuration
+     * @param maxPctNanos The largest configured percentile limit, in ns
+     * @return The new histogram
+     */
+    static Histogram getInstance(RunInfo runInfo, long maxPctNanos) {
+        if (LOG_LINEAR.equals(runInfo.histogramType))
+            return new LogLinearHistogram(runInfo.histogramDigits);
+        return new FixedHistogram(maxPctNanos);
+    }
+
+    /**
+     * Records a value into the histogram.
+     * @param value The value, in ns
+     */
+    public abstract void record(long value);
+
+    /**
+     * Adds the counts of another histogram of the same layout
+     * to this histogram.
+     * @param h The histogram to add
+     */
+    public abstract void add(Histogram h);
+
+    /**
+     * Replaces the counts of this histogram with the counts of another
+     * histogram of the same layout.
+     * @param h The histogram to copy
+     */
+    public abstract void copy(Histogram h);
+
+    /**
+     * Obtains the total number of values recorded.
+     * @return The value count
+     */
+    public abstract long getCount();
+
+    /**
+     * Obtains the number of buckets, including the overflow bucket.
+     * @return The number of buckets
+     */
+    abstract int getBucketCount();
+
+    /**
+     * Obtains the count of values recorded in a bucket.
+     * @param bucket The bucket index
+     * @return The count
+     */
+    abstract long getCount(int bucket);
+
+    /**
+     * Obtains the lower bound of a bucket. The lower bound of the bucket
+     * after the overflow bucket is Long.MAX_VALUE.
+     * @param bucket The bucket index
+     * @return The lower bound, in ns
+     */
+    abstract long getLowerBound(int bucket);
+
+    /**
+     * Obtains the sum of all values recorded in the overflow bucket.
+     * @return The overflow sum, in ns
+     */
+    abstract double getOverflowSum();
+
+    /**
+     * Adds a count to a bucket. This is used to apply the bucket deltas
+     * of a histogram of the same layout.
+     * @param bucket The bucket index
+     * @param count The count to add
+     */
+    abstract void addCount(int bucket, long count);
+
+    /**
+     * Adds to the sum of the values in the overflow bucket.
+     * @param sum The sum to add, in ns
+     */
+    abstract void addOverflowSum(double sum);
+
+    /**
+     * Obtains the largest value tracked without overflow.
+     * @return The lower bound of the overflow bucket, in ns
+     */
+    public long getMaxValue() {
+        return getLowerBound(getBucketCount() - 1);
+    }
+
+    /**
+     * Calculates the percentile value. Since the histogram only knows
+     * buckets, the upper bound of the bucket reaching the percentile
+     * is reported. If the percentile is in the overflow bucket,
+     * Long.MAX_VALUE is returned. The counts of a base histogram
+     * can be subtracted to get the percentile of only the values
+     * recorded since the base.
+     * @param pct The percentile, i.e. 90 for the 90th percentile
+     * @param base The base histogram, or null
+     * @return The percentile value, in ns
+     */
+    public long getPercentile(double pct, Histogram base) {
+        long count = getCount();
+        if (base != null)
+            count -= base.getCount();
+        long cntPct = (long) (count * (pct / 100d));
+        int buckets = getBucketCount();
+        long sum = 0l;
+        int bucket = 0;
+        for (; bucket < buckets; bucket++) {
+            sum += getCount(bucket);
+            if (base != null)
+                sum -= base.getCount(bucket);
+            if (sum >= cntPct)
+                break;
+        }
+        // We report the base of the next bucket.
+        return getLowerBound(bucket + 1);
+    }
+
+    /**
+     * Calculates the sum of the squared deviations from the average
+     * based on the bucket representative values. This is primarily used
+     * for cross-checking the more accurate variance algorithms.
+     * @param avg The average, in ns
+     * @param base The base histogram to subtract, or null
+     * @return The sum of the squared deviations
+     */
+    public double getSumDeviation2(double avg, Histogram base) {
+        double sumDev2 = 0d;
+        int overflowBucket = getBucketCount() - 1;
+        for (int bucket = 0; bucket <= overflowBucket; bucket++) {
+            long frequency = getCount(bucket);
+            if (base != null)
+                frequency -= base.getCount(bucket);
+            if (frequency == 0)
+                continue;
+            double dev;
+            if (bucket == overflowBucket) {
+                double overflowSum = getOverflowSum();
+                if (base != null)
+                    overflowSum -= base.getOverflowSum();
+                dev = overflowSum / frequency;
+            } else {
+                long lower = getLowerBound(bucket);
+                dev = lower + (getLowerBound(bucket + 1) - lower) / 2;
+            }
+            dev -= avg;
+            sumDev2 += dev * dev * frequency;
+        }
+        return sumDev2;
+    }
+
+    /**
+     * Flattens the histogram into linear buckets for plotting. The counts
+     * of buckets larger than the linear bucket size are spread evenly
+     * among the linear buckets they cover. The last linear bucket takes
+     * all values beyond the linear range, including the overflow.
+     * @param bucketSize The size of the linear buckets, in ns
+     * @param flat The linear buckets to fill
+     */
+    public void flatten(long bucketSize, int[] flat) {
+        int last = flat.length - 1;
+        int overflowBucket = getBucketCount() - 1;
+        for (int bucket = 0; bucket < overflowBucket; bucket++) {
+            long count = getCount(bucket);
+            if (count == 0)
+                continue;
+            long lower = getLowerBound(bucket);
+            long upper = getLowerBound(bucket + 1);
+            long idx = lower / bucketSize;
+            long n = (upper - lower) / bucketSize;
+            if (n <= 1 || idx >= last) {
+                flat[(int) (idx < last ? idx : last)] += count;
+                continue;
+            }
+            // Spread the count among the flat buckets.
+            // The lower buckets get the remainder.
+            long b = count / n;
+            long remainder = count % n;
+            for (long k = 0; k < n; k++) {
+                int i = (int) (idx + k < last ? idx + k : last);
+                flat[i] += b + (k < remainder ? 1 : 0);
+            }
+        }
+        flat[last] += getCount(overflowBucket);
+    }
+
+    /**
+     * Makes a deep copy of this histogram.
+     * @return The copy of this histogram
+     */
+    @Override
+    public Object clone() {
+        try {
+            return super.clone();
+        } catch (CloneNotSupportedException e) {
+            // This should not happen as we already implement cloneable.
+            return null;
+        }
+    }
+
+    /**
+     * Provides the bucket counts as a string.
+     * @return The string representing the histogram.
+     */
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder();
+        int buckets = getBucketCount();
+        for (int bucket = 0; bucket < buckets; bucket++)
+            b.append(' ').append(getCount(bucket));
+        return b.toString();
+    }
+}
@@ -0,0 +1,296 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import com.sun.faban.driver.FatalException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An invoker calls a driver method without reflection. For each public
+ * no-argument method of a public driver class, a small invoker class is
+ * generated calling the method directly. Exceptions thrown by the method
+ * pass through the invoker as they are, without being wrapped. Methods
+ * that cannot be called this way, or all methods if the system property
+ * faban.driver.reflectiveInvokers is set, are called by reflection,
+ * still passing the method's exceptions unwrapped.<p>
+ *
+ * This class is public only so the generated invokers, defined by their
+ * own class loader, can extend it.
+ */
+public abstract class Invoker {
+
+    private static final boolean REFLECTIVE =
+            Boolean.getBoolean("faban.driver.reflectiveInvokers");
+
+    private static final String SUPER_NAME =
+            "com/sun/faban/driver/engine/Invoker";
+
+    private static Logger logger = Logger.getLogger(Invoker.class.getName());
+
+    private static int generated = 0;
+
+    /**
+     * Constructs an invoker. Used by the generated subclasses.
+     */
+    protected Invoker() {
+    }
+
+    /**
+     * Calls the method on the driver.
+     * @param driver The driver instance
+     * @throws Throwable Whatever the method throws
+     */
+    public abstract void invoke(Object driver) throws Throwable;
+
+    /**
+     * Creates the invoker for a driver method. The invoker is not cached
+     * here, it is kept by the operation or driver method holding the
+     * method. So the generated class can be unloaded with the driver.
+     * @param m The driver method
+     * @return The invoker
+     */
+    static synchronized Invoker getInstance(Method m) {
+        Invoker invoker = null;
+        if (!REFLECTIVE && isDirectlyInvokable(m))
+            try {
+                invoker = generate(m);
+            } catch (Throwable e) {
+                logger.log(Level.WARNING, "Cannot generate invoker for " +
+                        m + ", using reflection.", e);
+            }
+        if (invoker == null)
+            invoker = new ReflectiveInvoker(m);
+        return invoker;
+    }
+
+    /**
+     * Creates an invoker calling the driver method by reflection.
+     * @param m The driver method
+     * @return The invoker
+     */
+    static Invoker getReflectiveInstance(Method m) {
+        return new ReflectiveInvoker(m);
+    }
+
+    private static boolean isDirectlyInvokable(Method m) {
+        Class<?> c = m.getDeclaringClass();
+        int mod = m.getModifiers();
+        return Modifier.isPublic(c.getModifiers()) && !c.isInterface() &&
+               Modifier.isPublic(mod) && !Modifier.isStatic(mod) &&
+               m.getParameterTypes().length == 0;
+    }
+
+    /**
+     * Generates and loads the invoker class for the method. The class
+     * is defined by a class loader of its own, with the loader of the driver
+     * class as parent.
+     * @param m The method
+     * @return The invoker
+     * @throws Exception If the invoker cannot be generated
+     */
+    private static Invoker generate(Method m) throws Exception {
+        String name = "com/sun/faban/driver/engine/GeneratedInvoker" +
+                (++generated);
+        byte[] classBytes = getClassBytes(name, m);
+        ClassLoader parent = m.getDeclaringClass().getClassLoader();
+        if (parent == null)
+            parent = Invoker.class.getClassLoader();
+        Class<?> c = new InvokerLoader(parent).define(name.replace('/', '.'),
+                                                      classBytes);
+        if (!Invoker.class.isAssignableFrom(c)) {
+            logger.fine("Driver class loader for " + m + " does not share " +
+                    "the Invoker class.");
+            return null;
+        }
+        return (Invoker) c.newInstance();
+    }
+
+    /**
+     * Creates the class file of the invoker. The invoke method just casts
+     * the driver to the declaring class and calls the method, dropping any
+     * return value.
+     * @param name The internal name of the invoker class
+     * @param m The method to call
+     * @return The class file bytes
+     * @throws IOException Never, writing to memory
+     */
+    static byte[] getClassBytes(String name, Method m) throws IOException {
+        String owner = m.getDeclaringClass().getName().replace('.', '/');
+        Class<?> returnType = m.getReturnType();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);  // minor version
+        out.writeShort(49); // major version, Java 5
+
+        // The constant pool.
+        out.writeShort(18);
+        utf8(out, name);                                  // 1
+        out.writeByte(7); out.writeShort(1);              // 2 this class
+        utf8(out, SUPER_NAME);                            // 3
+        out.writeByte(7); out.writeShort(3);              // 4 super class
+        utf8(out, owner);                                 // 5
+        out.writeByte(7); out.writeShort(5);              // 6 owner class
+        utf8(out, m.getName());                           // 7
+        utf8(out, "()" + descriptor(returnType));         // 8
+        out.writeByte(12); out.writeShort(7); out.writeShort(8); // 9
+        out.writeByte(10); out.writeShort(6); out.writeShort(9); // 10
+        utf8(out, "<init>");                              // 11
+        utf8(out, "()V");                                 // 12
+        out.writeByte(12); out.writeShort(11); out.writeShort(12); // 13
+        out.writeByte(10); out.writeShort(4); out.writeShort(13); // 14
+        utf8(out, "invoke");                              // 15
+        utf8(out, "(Ljava/lang/Object;)V");               // 16
+        utf8(out, "Code");                                // 17
+
+        out.writeShort(0x0031); // public final super
+        out.writeShort(2);
+        out.writeShort(4);
+        out.writeShort(0); // interfaces
+        out.writeShort(0); // fields
+        out.writeShort(2); // methods
+
+        // public <init>() { super(); }
+        out.writeShort(0x0001);
+        out.writeShort(11);
+        out.writeShort(12);
+        code(out, 1, 1, new byte[] {
+                0x2a,                     // aload_0
+                (byte) 0xb7, 0, 14,       // invokespecial Invoker.<init>
+                (byte) 0xb1               // return
+        });
+
+        // public void invoke(Object driver) { ((Owner) driver).m(); }
+        byte[] call = {
+                0x2b,                     // aload_1
+                (byte) 0xc0, 0, 6,        // checkcast owner
+                (byte) 0xb6, 0, 10,       // invokevirtual owner.m
+                0,                        // pop, pop2, or nop
+                (byte) 0xb1               // return
+        };
+        if (returnType == Long.TYPE || returnType == Double.TYPE)
+            call[7] = 0x58;
+        else if (returnType != Void.TYPE)
+            call[7] = 0x57;
+        out.writeShort(0x0001);
+        out.writeShort(15);
+        out.writeShort(16);
+        code(out, 2, 2, call);
+
+        out.writeShort(0); // class attributes
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void utf8(DataOutputStream out, String s)
+            throws IOException {
+        out.writeByte(1);
+        out.writeUTF(s);
+    }
+
+    private static void code(DataOutputStream out, int maxStack,
+                             int maxLocals, byte[] code) throws IOException {
+        out.writeShort(1);  // attribute count
+        out.writeShort(17); // Code
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // attributes
+    }
+
+    private static String descriptor(Class<?> c) {
+        if (c.isArray())
+            return c.getName().replace('.', '/');
+        if (c == Void.TYPE)
+            return "V";
+        if (c == Boolean.TYPE)
+            return "Z";
+        if (c == Byte.TYPE)
+            return "B";
+        if (c == Character.TYPE)
+            return "C";
+        if (c == Short.TYPE)
+            return "S";
+        if (c == Integer.TYPE)
+            return "I";
+        if (c == Long.TYPE)
+            return "J";
+        if (c == Float.TYPE)
+            return "F";
+        if (c == Double.TYPE)
+            return "D";
+        return 'L' + c.getName().replace('.', '/') + ';';
+    }
+
+    /** The class loader defining a generated invoker. */
+    private static class InvokerLoader extends ClassLoader {
+
+        InvokerLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] b) {
+            return defineClass(name, b, 0, b.length);
+        }
+    }
+
+    /** The invoker calling a method by reflection. */
+    private static class ReflectiveInvoker extends Invoker {
+
+        private Method m;
+
+        ReflectiveInvoker(Method m) {
+            this.m = m;
+            try {
+                m.setAccessible(true);
+            } catch (SecurityException e) {
+                logger.log(Level.FINE, "Cannot suppress access checks " +
+                        "for " + m, e);
+            }
+        }
+
+        public void invoke(Object driver) throws Throwable {
+            try {
+                m.invoke(driver);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                throw cause == null ? e : cause;
+            } catch (IllegalAccessException e) {
+                throw new FatalException("Cannot invoke " + m, e);
+            }
+        }
+    }
+}
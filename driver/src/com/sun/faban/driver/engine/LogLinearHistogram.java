@@ -0,0 +1,300 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * A log-linear histogram in the style of HdrHistogram. The value range
+ * is split into power of 2 magnitudes, each split linearly into enough
+ * sub-buckets to keep the configured number of significant decimal
+ * digits. So the relative error stays constant from nanoseconds to about
+ * an hour, which gives accurate high percentiles independent of the
+ * configured percentile limits.<p>
+ *
+ * The counts are kept in one long array per magnitude. Each array is
+ * allocated the first time a value of that magnitude is recorded, which
+ * happens only a few times per run. Recording is otherwise free of
+ * allocation. Only the used magnitudes are serialized.
+ */
+public class LogLinearHistogram extends Histogram {
+
+    private static final long serialVersionUID = 1l;
+
+    /** The highest value guaranteed to be tracked, about 73 minutes in ns. */
+    public static final long HIGHEST_VALUE = 1l << 42;
+
+    private int digits;
+    private int subBucketHalfCountMagnitude;
+    private int subBucketHalfCount;
+    private long subBucketMask;
+    private int leadingZeroCountBase;
+    private int length; // The number of counts, excluding overflow.
+
+    private transient long[][] counts;
+    private long count = 0l;
+    private long overflow = 0l;
+    private double overflowSum = 0d;
+
+    /**
+     * Constructs a log-linear histogram.
+     * @param digits The number of significant decimal digits, 1 to 5
+     */
+    public LogLinearHistogram(int digits) {
+        if (digits < 1 || digits > 5)
+            throw new IllegalArgumentException(
+                    "Significant digits must be between 1 and 5.");
+        this.digits = digits;
+        long largestSingleUnitValue = 2l;
+        for (int i = 0; i < digits; i++)
+            largestSingleUnitValue *= 10l;
+        int subBucketCountMagnitude = (int) Math.ceil(
+                Math.log(largestSingleUnitValue) / Math.log(2d));
+        subBucketHalfCountMagnitude = subBucketCountMagnitude - 1;
+        subBucketHalfCount = 1 << subBucketHalfCountMagnitude;
+        int subBucketCount = subBucketHalfCount << 1;
+        subBucketMask = subBucketCount - 1;
+        leadingZeroCountBase = 63 - subBucketHalfCountMagnitude;
+
+        // Find the number of magnitudes needed to cover the range.
+        int bucketsNeeded = 1;
+        long smallestUntrackable = subBucketCount;
+        while (smallestUntrackable <= HIGHEST_VALUE) {
+            smallestUntrackable <<= 1;
+            ++bucketsNeeded;
+        }
+        length = (bucketsNeeded + 1) * subBucketHalfCount;
+        counts = new long[bucketsNeeded + 1][];
+    }
+
+    /**
+     * Obtains the number of significant digits of this histogram.
+     * @return The significant digits
+     */
+    public int getDigits() {
+        return digits;
+    }
+
+    private int countsIndex(long value) {
+        int bucketIndex = leadingZeroCountBase -
+                Long.numberOfLeadingZeros(value | subBucketMask);
+        int subBucketIndex = (int) (value >>> bucketIndex);
+        return ((bucketIndex + 1) << subBucketHalfCountMagnitude) +
+                (subBucketIndex - subBucketHalfCount);
+    }
+
+    private long valueFromIndex(int index) {
+        int bucketIndex = (index >> subBucketHalfCountMagnitude) - 1;
+        int subBucketIndex = (index & (subBucketHalfCount - 1)) +
+                subBucketHalfCount;
+        if (bucketIndex < 0) {
+            subBucketIndex -= subBucketHalfCount;
+            bucketIndex = 0;
+        }
+        return ((long) subBucketIndex) << bucketIndex;
+    }
+
+    /**
+     * Records a value into the histogram.
+     * @param value The value, in ns
+     */
+    public void record(long value) {
+        ++count;
+        if (value < 0)
+            value = 0;
+        int index = countsIndex(value);
+        if (index >= length) {
+            ++overflow;
+            overflowSum += value;
+            return;
+        }
+        long[] chunk = counts[index >> subBucketHalfCountMagnitude];
+        if (chunk == null) {
+            chunk = new long[subBucketHalfCount];
+            counts[index >> subBucketHalfCountMagnitude] = chunk;
+        }
+        ++chunk[index & (subBucketHalfCount - 1)];
+    }
+
+    /**
+     * Adds the counts of another log-linear histogram with the same
+     * number of digits to this histogram.
+     * @param h The histogram to add
+     */
+    public void add(Histogram h) {
+        LogLinearHistogram l = (LogLinearHistogram) h;
+        for (int i = 0; i < counts.length; i++) {
+            long[] other = l.counts[i];
+            if (other == null)
+                continue;
+            if (counts[i] == null) {
+                counts[i] = other.clone();
+            } else {
+                long[] chunk = counts[i];
+                for (int j = 0; j < chunk.length; j++)
+                    chunk[j] += other[j];
+            }
+        }
+        count += l.count;
+        overflow += l.overflow;
+        overflowSum += l.overflowSum;
+    }
+
+    /**
+     * Replaces the counts of this histogram with the counts of another
+     * log-linear histogram with the same number of digits.
+     * @param h The histogram to copy
+     */
+    public void copy(Histogram h) {
+        LogLinearHistogram l = (LogLinearHistogram) h;
+        for (int i = 0; i < counts.length; i++) {
+            long[] other = l.counts[i];
+            if (other == null) {
+                if (counts[i] != null)
+                    java.util.Arrays.fill(counts[i], 0l);
+            } else if (counts[i] == null) {
+                counts[i] = other.clone();
+            } else {
+                System.arraycopy(other, 0, counts[i], 0, other.length);
+            }
+        }
+        count = l.count;
+        overflow = l.overflow;
+        overflowSum = l.overflowSum;
+    }
+
+    /**
+     * Obtains the total number of values recorded.
+     * @return The value count
+     */
+    public long getCount() {
+        return count;
+    }
+
+    int getBucketCount() {
+        return length + 1;
+    }
+
+    long getCount(int bucket) {
+        if (bucket == length)
+            return overflow;
+        long[] chunk = counts[bucket >> subBucketHalfCountMagnitude];
+        if (chunk == null)
+            return 0l;
+        return chunk[bucket & (subBucketHalfCount - 1)];
+    }
+
+    long getLowerBound(int bucket) {
+        if (bucket > length)
+            return Long.MAX_VALUE;
+        return valueFromIndex(bucket);
+    }
+
+    double getOverflowSum() {
+        return overflowSum;
+    }
+
+    void addCount(int bucket, long count) {
+        this.count += count;
+        if (bucket == length) {
+            overflow += count;
+            return;
+        }
+        long[] chunk = counts[bucket >> subBucketHalfCountMagnitude];
+        if (chunk == null) {
+            chunk = new long[subBucketHalfCount];
+            counts[bucket >> subBucketHalfCountMagnitude] = chunk;
+        }
+        chunk[bucket & (subBucketHalfCount - 1)] += count;
+    }
+
+    void addOverflowSum(double sum) {
+        overflowSum += sum;
+    }
+
+    /**
+     * Makes a deep copy of this histogram.
+     * @return The copy of this histogram
+     */
+    @Override
+    public Object clone() {
+        LogLinearHistogram clone = (LogLinearHistogram) super.clone();
+        clone.counts = new long[counts.length][];
+        for (int i = 0; i < counts.length; i++)
+            if (counts[i] != null)
+                clone.counts[i] = counts[i].clone();
+        return clone;
+    }
+
+    /**
+     * Writes only the used part of each used magnitude.
+     * @param out The object output stream
+     * @throws IOException Error writing the stream
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        for (int i = 0; i < counts.length; i++) {
+            long[] chunk = counts[i];
+            if (chunk == null)
+                continue;
+            int first = 0;
+            while (first < chunk.length && chunk[first] == 0l)
+                ++first;
+            if (first == chunk.length)
+                continue;
+            int last = chunk.length - 1;
+            while (chunk[last] == 0l)
+                --last;
+            out.writeInt(i);
+            out.writeInt(first);
+            out.writeInt(last);
+            for (int j = first; j <= last; j++)
+                out.writeLong(chunk[j]);
+        }
+        out.writeInt(-1);
+    }
+
+    /**
+     * Reads the used magnitudes written by writeObject.
+     * @param in The object input stream
+     * @throws IOException Error reading the stream
+     * @throws ClassNotFoundException Class of a serialized object not found
+     */
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        counts = new long[length / subBucketHalfCount][];
+        int i;
+        while ((i = in.readInt()) >= 0) {
+            int first = in.readInt();
+            int last = in.readInt();
+            long[] chunk = new long[subBucketHalfCount];
+            for (int j = first; j <= last; j++)
+                chunk[j] = in.readLong();
+            counts[i] = chunk;
+        }
+    }
+}
@@ -34,11 +34,11 @@ import java.rmi.RemoteException;
 public interface Master extends Remote {
 
     /**
-     * Obtain the master's time for time adjustment.
-     * @return The current time on the master
+     * Obtain the master's nanosec time for time adjustment.
+     * @return The current System.nanoTime on the master
      * @throws RemoteException A network error occurred
      */
-    long currentTimeMillis() throws RemoteException;
+    long nanoTime() throws RemoteException;
 
     /**
      * Notifies the master to terminate the run immediately.
@@ -47,14 +47,6 @@ public interface Master extends Remote {
      */
     void abortRun() throws RemoteException;
 
-    /**
-     * Updates the master with the latest runtime metrics so the
-     * master can dump out the stats accordingly.
-     * @param m The runtime metrics to update
-     * @throws java.rmi.RemoteException A network error occurred.
-     */
-    void updateMetrics(RuntimeMetrics m) throws RemoteException;
-
     /**
      * Obtains the current state of the master.
      * @return The current state of the master.
@@ -32,14 +32,22 @@ import com.sun.faban.driver.util.PairwiseAggregator;
 import com.sun.faban.driver.util.Timer;
 
 import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.rmi.ConnectException;
 import java.rmi.NotBoundException;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.security.SecureRandom;
 import java.util.*;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
@@ -155,7 +163,7 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
     /** The scheduler used in the master. */
     protected java.util.Timer scheduler;
 
-    StatsWriter statsWriter;
+    StatsReceiver statsReceiver;
 
     /**
      * Creates and exports a new Master.
@@ -244,6 +252,18 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
         agentThreads = new int[benchDef.drivers.length];
         remainderThreads = new int[benchDef.drivers.length];
 
+        // Start receiving runtime stats before the agents get configured
+        // so they know where to send them.
+        if (runInfo.runtimeStatsEnabled) {
+            try {
+                statsReceiver = new StatsReceiver();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Cannot receive runtime stats. " +
+                        "Disabling runtime stats.", e);
+                runInfo.runtimeStatsEnabled = false;
+            }
+        }
+
         scheduler = new java.util.Timer("Scheduler", false);
         try {
             int agentCnt = configure();
@@ -565,11 +585,25 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
 
         agentInfo.threads = this.agentThreads[driverToRun];
         agentInfo.agentScale = runInfo.scale;
+        setStatsPort(agentRefs[driverToRun][0]);
         agentRefs[driverToRun][0].configure(this, runInfo,
                 driverToRun, timer);
         agentRefs[driverToRun][0].startThreads();
     }
 
+    /**
+     * Tells the agent to be configured next where to send the runtime
+     * stats. The stats receiver listens on the interface the agent was
+     * told to reach the master on.
+     * @param agent The agent to be configured
+     * @throws RemoteException A network error occurred
+     */
+    private void setStatsPort(Agent agent) throws RemoteException {
+        if (statsReceiver != null)
+            runInfo.runtimeStatsPort =
+                    statsReceiver.listen(agent.getMasterHost());
+    }
+
     /**
      * Configures all agents for a driver type.
      * @param driverType The driver type id to configure
@@ -603,6 +637,7 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
 
                 for (; agentId < remainderThreads[driverType]; agentId++) {
                     runInfo.agentInfo.agentNumber = agentId;
+                    setStatsPort(refs[agentId]);
                     refs[agentId].configure(this, runInfo, driverType, timer);
                     runInfo.agentInfo.startThreadNumber += agentInfo.threads;
                 }
@@ -616,6 +651,7 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
 
             for (; agentId < refs.length && !runAborted; agentId++) {
                 runInfo.agentInfo.agentNumber = agentId;
+                setStatsPort(refs[agentId]);
                 refs[agentId].configure(this, runInfo, driverType, timer);
                 runInfo.agentInfo.startThreadNumber += agentInfo.threads;
             }
@@ -653,10 +689,6 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
 			waitForThreadStart();
 		}
         
-        // Start thread to dump stats for charting
-        if (runInfo.runtimeStatsEnabled)
-            statsWriter = new StatsWriter();
-
         // Leave plenty of time to notify all agents of the start time.
         setStartTime(estimateCommsTime() + timer.getTime());
 
@@ -689,10 +721,10 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
         TimerTask killAtEnd = null;
         final AtomicBoolean joining = new AtomicBoolean(false);
 
-        // In case of time control, we can wait and log more stats. We also
-        // know when the run should terminate and can force a kill. But in
-        // case of cycle control, we can only wait.
-        if (benchDef.runControl == RunControl.TIME) {
+        // In case of time or rate control, we can wait and log more stats.
+        // We also know when the run should terminate and can force a kill.
+        // But in case of cycle control, we can only wait.
+        if (benchDef.runControl != RunControl.CYCLES) {
             changeState(MasterState.RAMPUP);
             try {
                 Thread.sleep(runInfo.rampUp * 1000);
@@ -870,9 +902,9 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
 
         generateReports(resultsList);
 
-        // Tell StatsWriter to quit
-        if (statsWriter != null)
-            statsWriter.quit();
+        // Tell StatsReceiver to quit
+        if (statsReceiver != null)
+            statsReceiver.quit();
     }
 
     private class MetricsProvider
@@ -1160,153 +1192,375 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
         return buffer;
     }
 
-    public void updateMetrics(RuntimeMetrics m) {
-        if (statsWriter == null) {
-            logger.severe("Runtime stats disabled, yet agent is trying to " +
-                          "update runtime metrics. Please log this as a bug.");
-            return;
-        }
-        try {
-            statsWriter.queue.put(m);
-        } catch (InterruptedException e) {
-            logger.log(Level.WARNING,
-                    "Interrupted queueing runtime stats.", e);
+    /**
+     * Per driver state of the runtime stats. The histograms are merged
+     * as the agent frames come in. The counters are kept for each agent
+     * and only combined when dumping the stats.
+     */
+    private class DriverStats implements
+            PairwiseAggregator.Provider<RuntimeMetrics> {
+
+        RuntimeMetrics current;
+        RuntimeMetrics previous;
+        RuntimeMetrics[] agents;
+        Connection[] connections; // The connection each agent reports on.
+        PairwiseAggregator<RuntimeMetrics> aggregator;
+        ArrayList<RuntimeMetrics> pool = new ArrayList<RuntimeMetrics>();
+        long maxPctNanos;
+        int sequence = -1; // The sequence being collected.
+        int reported = 0;  // Agents reported the sequence.
+        int timestamp = 0;
+
+        DriverStats(int driverType, int txTypes) {
+            RunInfo.DriverConfig driverConfig =
+                    runInfo.driverConfigs[driverType];
+            double precision = driverConfig.responseTimeUnit.toNanos(1l);
+            maxPctNanos = Math.round(driverConfig.maxPercentile * precision);
+            current = newMetrics(driverType, txTypes);
+            agents = new RuntimeMetrics[driverConfig.numAgents];
+            for (int i = 0; i < agents.length; i++)
+                agents[i] = newMetrics(driverType, txTypes);
+            connections = new Connection[agents.length];
+            aggregator = new PairwiseAggregator<RuntimeMetrics>(
+                    agents.length, this);
         }
-    }
-
-    private class RuntimeMetricsProvider
-            implements PairwiseAggregator.Provider<RuntimeMetrics> {
 
-        public ArrayList<RuntimeMetrics> metrices =
-                new ArrayList<RuntimeMetrics>();
+        private RuntimeMetrics newMetrics(int driverType, int txTypes) {
+            RuntimeMetrics rtm = new RuntimeMetrics();
+            rtm.init(driverType, txTypes);
+            rtm.respHist = new Histogram[txTypes];
+            for (int i = 0; i < txTypes; i++)
+                rtm.respHist[i] = Histogram.getInstance(runInfo, maxPctNanos);
+            return rtm;
+        }
 
-        public void add(RuntimeMetrics m) {
-            metrices.add(m);
+        /**
+         * Makes the connection the one the agent reports on. Each
+         * connection starts with the full state of the agent, so all
+         * the agent reported before gets dropped.
+         * @param agent The agent number
+         * @param conn The new connection of the agent
+         */
+        void reconnect(int agent, Connection conn) {
+            agents[agent] = newMetrics(current.driverType, current.txTypes);
+            connections[agent] = conn;
         }
 
         public RuntimeMetrics getMutableMetrics(int idx) {
-            return metrices.get(idx);
+            RuntimeMetrics rtm;
+            int size = pool.size();
+            if (size > 0)
+                rtm = pool.remove(size - 1);
+            else
+                rtm = newMetrics(current.driverType, current.txTypes);
+            rtm.copy(agents[idx]);
+            return rtm;
         }
 
         public void add(RuntimeMetrics instance, int idx) {
-            instance.add(metrices.get(idx));
+            instance.add(agents[idx]);
         }
 
-
-        public Class getComponentClass() {
+        public Class<RuntimeMetrics> getComponentClass() {
             return RuntimeMetrics.class;
         }
 
         public void recycle(RuntimeMetrics r) {
+            pool.add(r);
         }
 
-        public int getSequence() {
-            if (metrices.size() == 0)
-                return -1;
-            else
-                return metrices.get(0).sequence;
-        }
-
-        public void reset() {
-            metrices.clear();
+        /**
+         * Combines the agent counters into the current stats.
+         */
+        void collect() {
+            if (agents.length == 1) {
+                current.copy(agents[0]);
+            } else {
+                current.copy(aggregator.collectStats());
+            }
+            current.sequence = sequence;
+            current.timestamp = timestamp;
         }
     }
 
-
-    private class StatsWriter extends Thread {
+    /**
+     * The StatsReceiver receives the runtime stats frames streamed by the
+     * agents over one persistent connection each and dumps the stats
+     * once all agents reported an interval. All connections are served
+     * by a single selector thread. The receiver only listens on the
+     * interfaces the agents were told to reach the master on, and only
+     * accepts connections identifying an agent of this run.
+     */
+    private class StatsReceiver extends Thread {
 
         boolean terminated = false;
-        LinkedBlockingQueue<RuntimeMetrics> queue =
-                new LinkedBlockingQueue<RuntimeMetrics>();
-
-        private StatsWriter() {
-            setName("StatsWriter");
+        Selector selector;
+        DriverStats[] stats = new DriverStats[benchDef.drivers.length];
+        HashMap<InetAddress, Integer> ports =
+                new HashMap<InetAddress, Integer>();
+        ConcurrentLinkedQueue<ServerSocketChannel> pending =
+                new ConcurrentLinkedQueue<ServerSocketChannel>();
+
+        private StatsReceiver() throws IOException {
+            selector = Selector.open();
+            runInfo.runtimeStatsToken = new SecureRandom().nextLong();
+            setName("StatsReceiver");
             setDaemon(true);
             start();
         }
 
-        @Override
-        public void run() {
-            int[] metricsCount = new int[agentRefs.length];
-            RuntimeMetrics[] previous = new RuntimeMetrics[agentRefs.length];
-            RuntimeMetrics[] current = new RuntimeMetrics[agentRefs.length];
-            RuntimeMetricsProvider[] providers =
-                    new RuntimeMetricsProvider[agentRefs.length];
-            ArrayList<PairwiseAggregator<RuntimeMetrics>> aggregators =
-                    new ArrayList<PairwiseAggregator<RuntimeMetrics>>(
-                    agentRefs.length);
-            for (int i = 0; i < agentRefs.length; i++) {
-                providers[i] = new RuntimeMetricsProvider();
-                aggregators.add(new PairwiseAggregator<RuntimeMetrics>(
-                        runInfo.driverConfigs[i].numAgents, providers[i]));
+        /**
+         * Starts listening on the address of the given host, unless
+         * already listening there.
+         * @param host The master host the agent connects to, or null
+         *             for the loopback interface
+         * @return The port listening
+         */
+        synchronized int listen(String host) {
+            InetAddress address = null;
+            try {
+                address = InetAddress.getByName(host);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Cannot resolve " + host +
+                        ". Receiving runtime stats on all interfaces.", e);
             }
-            while (!terminated) {
+            Integer port = ports.get(address);
+            if (port == null) {
+                ServerSocketChannel server;
                 try {
-                    RuntimeMetrics m = queue.poll(
-                            runInfo.runtimeStatsInterval + 1, TimeUnit.SECONDS);
-                    if (m == null) {
-                        continue;
+                    try {
+                        server = bind(address);
+                    } catch (IOException e) {
+                        // The address may not be local, i.e. behind a NAT.
+                        // The handshake still keeps strangers out.
+                        logger.log(Level.WARNING, "Cannot bind to " +
+                                address + ". Receiving runtime stats " +
+                                "on all interfaces.", e);
+                        server = bind(null);
                     }
-                    int type = m.driverType;
-                    int sequence = providers[type].getSequence();
-                    if (sequence < 0) { // Empty.
-                        providers[type].add(m);
-                        if (++metricsCount[type] >=
-                                runInfo.driverConfigs[type].numAgents) {
-                            current[type] = 
-                                    aggregators.get(type).collectStats();
-                            dumpStats(type, previous, current);
-                            providers[type].reset();
-                            previous[type] = current[type];
-                            current[type] = null;
-                            metricsCount[type] = 0;
-                        }
-                    } else {
-                        if (sequence == m.sequence) {
-                            providers[type].add(m);
-                            if (++metricsCount[type] >=
-                                    runInfo.driverConfigs[type].numAgents) {
-                                current[type] =
-                                        aggregators.get(type).collectStats();
-                                dumpStats(type, previous, current);
-                                providers[type].reset();
-                                previous[type] = current[type];
-                                current[type] = null;
-                                metricsCount[type] = 0;
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Cannot receive runtime " +
+                            "stats from agents connecting to " + host + '.',
+                            e);
+                    return 0;
+                }
+                port = server.socket().getLocalPort();
+                ports.put(address, port);
+                pending.add(server);
+                selector.wakeup();
+            }
+            return port;
+        }
+
+        private ServerSocketChannel bind(InetAddress address)
+                throws IOException {
+            ServerSocketChannel server = ServerSocketChannel.open();
+            try {
+                server.socket().bind(new InetSocketAddress(address, 0));
+                server.configureBlocking(false);
+            } catch (IOException e) {
+                server.close();
+                throw e;
+            }
+            return server;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!terminated) {
+                    ServerSocketChannel server;
+                    while ((server = pending.poll()) != null)
+                        server.register(selector, SelectionKey.OP_ACCEPT);
+                    selector.select();
+                    Iterator<SelectionKey> iter =
+                            selector.selectedKeys().iterator();
+                    while (iter.hasNext()) {
+                        SelectionKey key = iter.next();
+                        iter.remove();
+                        try {
+                            if (key.isAcceptable()) {
+                                SocketChannel channel = ((ServerSocketChannel)
+                                        key.channel()).accept();
+                                if (channel == null)
+                                    continue;
+                                channel.configureBlocking(false);
+                                channel.register(selector,
+                                        SelectionKey.OP_READ,
+                                        new Connection());
+                            } else if (key.isReadable()) {
+                                read(key);
                             }
-                        } else if (sequence < m.sequence) {
-                            logger.warning("Missing " + (runInfo.driverConfigs[
-                                    type].numAgents - metricsCount[type]) +
-                                    " runtime stats from " + benchDef.drivers[
-                                    type].name + ". Ignoring.");
-                            providers[type].add(m);
-                            metricsCount[type] = 1;
-                        } else {
-                            logger.warning("Received out-of-sequence runtime " +
-                                    "stats. Current: " +
-                                    current[type].sequence + ", received: " +
-                                    m.sequence + ". Ignoring.");
+                        } catch (IOException e) {
+                            logger.log(Level.WARNING, "Error receiving " +
+                                    "runtime stats from agent.", e);
+                            key.cancel();
+                            key.channel().close();
                         }
                     }
-                } catch (InterruptedException e) {
-                    logger.log(Level.FINER, "Interrupted waiting for runtime " +
-                            "metrics. Stats writer terminating!", e);
+                }
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Error receiving runtime stats. " +
+                        "Stats receiver terminating!", e);
+            } finally {
+                try {
+                    ServerSocketChannel server;
+                    while ((server = pending.poll()) != null)
+                        server.close();
+                    for (SelectionKey key : selector.keys())
+                        key.channel().close();
+                    selector.close();
+                } catch (IOException e) {
+                    logger.log(Level.FINE, e.getMessage(), e);
                 }
             }
         }
 
-        void dumpStats(int type, RuntimeMetrics[] previous,
-                                 RuntimeMetrics[] current) {
-            // Purchase\Manage\Browse (TxCnt=200\200\400) 90% Resp=0.5\0.6\0.6
-            // ^MMfg (TxCnt=200) 90% Resp=2.50
-            if (previous[type] == null)
+        private void read(SelectionKey key) throws IOException {
+            SocketChannel channel = (SocketChannel) key.channel();
+            Connection conn = (Connection) key.attachment();
+            ByteBuffer buffer = conn.buffer;
+            if (channel.read(buffer) < 0) {
+                key.cancel();
+                channel.close();
+                return;
+            }
+            buffer.flip();
+            while (buffer.remaining() >= 4) {
+                int length = buffer.getInt(buffer.position());
+                if (length < 0)
+                    throw new IOException("Invalid runtime stats frame " +
+                            "length " + length + '.');
+                if (buffer.remaining() - 4 < length)
+                    break;
+                buffer.position(buffer.position() + 4);
+                ByteBuffer frame = buffer.slice();
+                frame.limit(length);
+                if (conn.driverType < 0)
+                    handshake(frame, conn);
+                else
+                    process(frame, conn);
+                buffer.position(buffer.position() + length);
+            }
+            buffer.compact();
+
+            // Grow the buffer if a frame does not fit.
+            if (buffer.position() >= 4) {
+                int length = buffer.getInt(0) + 4;
+                if (length > buffer.capacity()) {
+                    ByteBuffer b = ByteBuffer.allocate(length);
+                    buffer.flip();
+                    b.put(buffer);
+                    conn.buffer = b;
+                }
+            }
+        }
+
+        private void handshake(ByteBuffer frame, Connection conn)
+                throws IOException {
+            try {
+                String runId = RuntimeStatsCodec.getString(frame);
+                long token = frame.getLong();
+                int type = (int) RuntimeStatsCodec.getVarint(frame);
+                int agent = (int) RuntimeStatsCodec.getVarint(frame);
+                if (token != runInfo.runtimeStatsToken || (runId == null ?
+                        runInfo.runId != null : !runId.equals(runInfo.runId)))
+                    throw new IOException("Rejected runtime stats " +
+                            "connection from run " + runId + '.');
+                if (type < 0 || type >= stats.length || agent < 0 ||
+                        agent >= runInfo.driverConfigs[type].numAgents)
+                    throw new IOException("Rejected runtime stats " +
+                            "connection from unknown agent " + type + '.' +
+                            agent + '.');
+                conn.driverType = type;
+                conn.agent = agent;
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Invalid runtime stats handshake.");
+            }
+        }
+
+        private void process(ByteBuffer frame, Connection conn)
+                throws IOException {
+            int type = (int) RuntimeStatsCodec.getVarint(frame);
+            int agent = (int) RuntimeStatsCodec.getVarint(frame);
+            int sequence = (int) RuntimeStatsCodec.getVarint(frame);
+            int timestamp = RuntimeStatsCodec.getSignedVarint(frame);
+            int txTypes = (int) RuntimeStatsCodec.getVarint(frame);
+            if (type != conn.driverType || agent != conn.agent)
+                throw new IOException("Agent " + conn.driverType + '.' +
+                        conn.agent + " sent runtime stats of agent " + type +
+                        '.' + agent + '.');
+            if (stats[type] == null)
+                stats[type] = new DriverStats(type, txTypes);
+            DriverStats s = stats[type];
+            if (txTypes != s.current.txTypes)
+                throw new IOException("Agent " + type + '.' + agent +
+                        " sent runtime stats of " + txTypes +
+                        " operations, expected " + s.current.txTypes + '.');
+
+            if (sequence > s.sequence) {
+                if (s.reported > 0) {
+                    logger.warning("Missing " + (s.agents.length -
+                            s.reported) + " runtime stats from " +
+                            benchDef.drivers[type].name +
+                            ". Reporting partial interval.");
+                    dumpStats(s);
+                }
+                s.sequence = sequence;
+                s.reported = 0;
+            }
+
+            // The first frame of a connection carries the full state.
+            // Frames still arriving on an older connection are stale.
+            if (conn.first) {
+                s.reconnect(agent, conn);
+                conn.first = false;
+            } else if (s.connections[agent] != conn) {
+                logger.fine("Dropped runtime stats of agent " + type + '.' +
+                        agent + " from a replaced connection.");
                 return;
+            }
+
+            // Late frames are merged, just counted to the next interval.
+            RuntimeStatsCodec.decode(frame, s.agents[agent]);
+            if (sequence == s.sequence) {
+                if (timestamp > s.timestamp)
+                    s.timestamp = timestamp;
+                if (++s.reported >= s.agents.length) {
+                    dumpStats(s);
+                    ++s.sequence;
+                    s.reported = 0;
+                }
+            } else {
+                logger.fine("Received late runtime stats. Current: " +
+                        s.sequence + ", received: " + sequence + '.');
+            }
+        }
+
+        private void dumpStats(DriverStats s) {
+            s.collect();
+            if (s.previous == null) {
+                s.previous = new RuntimeMetrics();
+                s.previous.init(s.current.driverType, s.current.txTypes);
+                s.previous.respHist = new Histogram[s.current.txTypes];
+                for (int i = 0; i < s.current.txTypes; i++)
+                    s.previous.respHist[i] =
+                            (Histogram) s.current.respHist[i].clone();
+            } else {
+                dumpStats(s.current.driverType, s.previous, s.current);
+            }
+            s.previous.copy(s.current);
+        }
 
-            double[][] s = current[type].getResults(runInfo, previous[type]);
+        void dumpStats(int type, RuntimeMetrics previous,
+                                 RuntimeMetrics current) {
+            // Purchase\Manage\Browse (TxCnt=200\200\400) 90% Resp=0.5\0.6\0.6
+            // ^MMfg (TxCnt=200) 90% Resp=2.50
+            double[][] s = current.getResults(runInfo, previous);
             StringBuilder b = new StringBuilder();
             Formatter formatter = new Formatter(b);
 
-            formatter.format("%.02f", current[type].timestamp / 1000d);
+            formatter.format("%.02f", current.timestamp / 1000d);
             b.append("s - ").append(benchDef.drivers[type].name).append(": ");
             b.append(benchDef.drivers[type].operations[0].name);
             for (int j = 1; j < benchDef.drivers[type].operations.length; j++) {
@@ -1334,17 +1588,28 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
 
         void quit() {
             terminated = true;
-            interrupt();
+            selector.wakeup();
         }
     }
 
     /**
-     * Obtain the master's time for time adjustment.
+     * The receive buffer and identity of a runtime stats connection.
+     * The identity is set once the agent passed the handshake.
+     */
+    private static class Connection {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        int driverType = -1;
+        int agent = -1;
+        boolean first = true;
+    }
+
+    /**
+     * Obtain the master's nanosec time for time adjustment.
      *
-     * @return The current time on the master
+     * @return The current System.nanoTime on the master
      */
-    public long currentTimeMillis() {
-        return System.currentTimeMillis();
+    public long nanoTime() {
+        return System.nanoTime();
     }
 
     /**
@@ -47,6 +47,19 @@ public class MatrixMix extends Mix {
 
 	double[][] mix;
 
+    /**
+     * The sampling interval of the transition trace, in selections.
+     * Tracing is off if 0.
+     */
+    static final int TRACE_INTERVAL =
+            Integer.getInteger("faban.mix.traceInterval", 0);
+
+    /**
+     * The alias tables of the rows, built from the normalized mix when
+     * first used. They only hold the transitions with a non-zero ratio.
+     */
+    private transient volatile AliasTable[] aliases;
+
     /**
      * Initializes this mix according to the annotation.
      *
@@ -131,6 +144,7 @@ public class MatrixMix extends Mix {
             clone.mix[i] = new double[mix[i].length];
             System.arraycopy(mix[i], 0, clone.mix[i], 0, mix[i].length);
         }
+        clone.aliases = null;
         return clone;
     }
 
@@ -292,6 +306,7 @@ public class MatrixMix extends Mix {
 				mix[i][j] /= rowTotal;
 			}
         }
+        aliases = null;
         // The following is called only to dump out the resulting mix info.
         // If the log level is not fine enough, we just do not calculate.
         // It is not necessary in the logic.
@@ -447,7 +462,17 @@ public class MatrixMix extends Mix {
      */
 	public Selector selector(Random random) {
         getLogger().finest("Get selector: " + toString());
-        Selector s = new Selector(random, mix);
+        AliasTable[] rows = aliases;
+        if (rows == null) { // Racing threads just build the same tables.
+            rows = new AliasTable[mix.length];
+            for (int i = 0; i < mix.length; i++)
+                rows[i] = new AliasTable(mix[i]);
+            aliases = rows;
+        }
+        TransitionStats trace = null;
+        if (TRACE_INTERVAL > 0)
+            trace = new TransitionStats(this, rows);
+        Selector s = new Selector(random, rows, trace);
         getLogger().finest(s.toString());
         return s;
     }
@@ -458,18 +483,22 @@ public class MatrixMix extends Mix {
     public static class Selector extends Mix.Selector {
         private int op = -1;
         private Random random;
-        private double[][] selectMix;
+        private AliasTable[] rows;
+        private TransitionStats trace;
+        private int traceCountdown = TRACE_INTERVAL;
 
-        Selector(Random random, double[][] mix) {
+        Selector(Random random, AliasTable[] rows, TransitionStats trace) {
             this.random = random;
-            selectMix = new double[mix.length][mix.length];
+            this.rows = rows;
+            this.trace = trace;
+        }
 
-            for (int i = 0; i < mix.length; i++) {
-                selectMix[i][0] = mix[i][0];
-                for (int j = 1; j < selectMix.length; j++) {
-                    selectMix[i][j] = mix[i][j] + selectMix[i][j - 1];
-                }
-            }
+        /**
+         * Obtains the sampled transition trace of this selector.
+         * @return The trace, or null if not tracing
+         */
+        TransitionStats getTrace() {
+            return trace;
         }
 
         /**
@@ -481,14 +510,13 @@ public class MatrixMix extends Mix {
             if (op == -1) { // first selection
                 op = 0;
             } else { // Any subsequent selection
-                double val = random.drandom(0, 1);
-                int i;
-                for (i = 0; i < selectMix.length; i++) {
-					if (val <= selectMix[op][i]) {
-						break;
-					}
-				}
-                op = i;
+                AliasTable row = rows[op];
+                int entry = row.next(random);
+                if (trace != null && --traceCountdown == 0) {
+                    traceCountdown = TRACE_INTERVAL;
+                    trace.record(op, entry);
+                }
+                op = row.op(entry);
             }
             return op;
         }
@@ -510,11 +538,13 @@ public class MatrixMix extends Mix {
 		public String toString() {
             StringBuffer buffer = new StringBuffer();
             buffer.append("MatrixMix.Selector\n");
-            for (int i = 0; i < selectMix.length; i++) {
-                buffer.append(selectMix[i][0]);
-                for (int j = 1; j < selectMix[i].length; j++) {
-                    buffer.append(", ");
-                    buffer.append(selectMix[i][j]);
+            for (int i = 0; i < rows.length; i++) {
+                AliasTable row = rows[i];
+                for (int j = 0; j < row.size(); j++) {
+                    if (j > 0)
+                        buffer.append(", ");
+                    buffer.append(row.op(j)).append(':');
+                    buffer.append(row.weight(j));
                 }
                 buffer.append('\n');
             }
@@ -83,19 +83,17 @@ public class Metrics implements Serializable, Cloneable,
     /** Number of delay time buckets in histogram. */
     public static final int DELAYBUCKETS = 100;
 
-    // We use double here to prevent cumulative errors
-
-    /** Size of the fine response time bucket. */
-    protected long fineRespBucketSize;  // Size of the fine and coarse
+    /** The names of the request phases, by phase index. */
+    public static final String[] PHASE_NAMES = { "DNS Lookup", "Connect",
+            "TLS Handshake", "Time to First Byte", "Transfer" };
 
-    /** Size of the coarse response time bucket. */
-    protected long coarseRespBucketSize; // response time buckets, in ns.
+    /** Size of each wake-up lateness bucket, in ns. */
+    public static final long WAKEUP_BUCKET_SIZE = 100000l;
 
-    /** Max fine response time. */
-    protected long fineRespHistMax;
+    // We use double here to prevent cumulative errors
 
-    /** Max coarse response time. */
-    protected long coarseRespHistMax;
+    /** Size of the fine response time bucket, used for the detail. */
+    protected long fineRespBucketSize;
 
     /** Size of each delay time bucket, in ns. */
     protected long delayBucketSize;
@@ -159,13 +157,6 @@ public class Metrics implements Serializable, Cloneable,
      */
     protected double[] respSumTotal;
 
-    /**
-     * Sum of high response times that fall into the overflow
-     * bucket. This is used for calculating the representative value
-     * for the overflow bucket to establish a reasonable standard deviation.
-     */
-    protected double[] hiRespSumStdy;
-
     /** Sum of squares of the deviation during steady state. */
     protected double[] sumSquaresStdy;
 
@@ -187,11 +178,71 @@ public class Metrics implements Serializable, Cloneable,
     /** Minimum delay times. */
     protected long[] delayMin;
 
+    /** Number of wake-ups recorded during steady state. */
+    protected int[] wakeupCntStdy;
+
+    /** Sum of wake-up lateness, actual vs. intended invoke time. */
+    protected long[] wakeupLateSum;
+
+    /** Maximum wake-up lateness. */
+    protected long[] wakeupLateMax;
+
+    /**
+     * Number of late starts, invocations later than the intended invoke
+     * time by more than the fine response time bucket.
+     */
+    protected int[] lateCntStdy;
+
+    /** Sum of response times measured from the intended invoke time. */
+    protected double[] intendedRespSumStdy;
+
+    /** Max. response time measured from the intended invoke time. */
+    protected long[] intendedRespMax;
+
+    /** Number of arrivals due in steady state, for rate controlled runs. */
+    protected int arrivalCntStdy;
+
+    /** Number of steady state arrivals dropped due to a full queue. */
+    protected int droppedCntStdy;
+
+    /** Number of steady state arrivals that had to wait for a thread. */
+    protected int queuedCntStdy;
+
+    /** Max. number of arrivals waiting for a thread at any time. */
+    protected int queueMax;
+
     /** Sum of cycle time (not think time) for little's law verification. */
     protected long cycleSum = 0;
 
     /** Response time histogram. */
-    protected int[][] respHist;
+    protected Histogram[] respHist;
+
+    /**
+     * Histogram of response times measured from the intended invoke time,
+     * null if not enabled.
+     */
+    protected Histogram[] intendedRespHist;
+
+    /**
+     * Sum of the request phase times during steady state, by operation
+     * and phase. Null if not enabled.
+     */
+    protected double[][] phaseSumStdy;
+
+    /** Sum of the request phase times total, by operation and phase. */
+    protected double[][] phaseSumTotal;
+
+    /** Max. request phase times, by operation and phase. */
+    protected long[][] phaseMax;
+
+    /**
+     * Histogram of the request phase times, by operation and phase. The
+     * count of each histogram is the number of operations seeing the phase.
+     */
+    protected Histogram[][] phaseHist;
+
+    /** Request phase times graph, by phase. */
+    protected long[][] phaseGraph;
 
     /** Histogram of actual delay times. */
     protected int[][] delayHist;
@@ -199,6 +250,9 @@ public class Metrics implements Serializable, Cloneable,
     /** Histogram of selected delay times. */
     protected int[][] targetedDelayHist;
 
+    /** Histogram of wake-up lateness. */
+    protected int[][] wakeupLateHist;
+
     /** Start time as absolute time, in ms. */
     protected long startTime;
 
@@ -256,6 +310,12 @@ public class Metrics implements Serializable, Cloneable,
 
     /** Reference to the thread associated with this metrics. */
     protected transient AgentThread thread;
+
+    /**
+     * Guards the stats read by the runtime stats collector against
+     * concurrent updates.
+     */
+    transient StatsEpoch epoch = new StatsEpoch();
     
     /**
      * Constructs a Metrics object for this agent thread.
@@ -287,7 +347,6 @@ public class Metrics implements Serializable, Cloneable,
         delayCntStdy = new int[txTypes];
         respSumStdy = new double[txTypes];
         respSumTotal = new double[txTypes];
-        hiRespSumStdy = new double[txTypes];
         sumSquaresStdy = new double[txTypes];
         sumSquaresTotal = new double[txTypes];
         respMax = new long[txTypes];
@@ -298,13 +357,17 @@ public class Metrics implements Serializable, Cloneable,
 			delayMin[i] = Integer.MAX_VALUE; // init to the largest number
 		}
         targetedDelaySum = new long[txTypes];
-        respHist = new int[txTypes][RESPBUCKETS];
+        wakeupCntStdy = new int[txTypes];
+        wakeupLateSum = new long[txTypes];
+        wakeupLateMax = new long[txTypes];
+        lateCntStdy = new int[txTypes];
         delayHist = new int[txTypes][DELAYBUCKETS];
         targetedDelayHist = new int[txTypes][DELAYBUCKETS];
+        wakeupLateHist = new int[txTypes][DELAYBUCKETS];
 
         // The actual run configuration is used in case it represents time.
         // This prevents us from over-allocating the thruput histogram.
-        if (driverConfig.runControl == RunControl.TIME) {
+        if (driverConfig.runControl != RunControl.CYCLES) {
 			graphBuckets = 1 + (runInfo.rampUp + runInfo.stdyState +
                     runInfo.rampDown) / driverConfig.graphInterval;
 		} else {
@@ -321,12 +384,30 @@ public class Metrics implements Serializable, Cloneable,
         double precision = driverConfig.responseTimeUnit.toNanos(1l);
         long maxPctNanos = Math.round(driverConfig.maxPercentile * precision);
         fineRespBucketSize = maxPctNanos / 200l;  // 20% of scale of 1000
-        fineRespHistMax = fineRespBucketSize * FINE_RESPBUCKETS;
-        coarseRespBucketSize = fineRespBucketSize * RESPBUCKET_SIZE_RATIO;
-
-        // The last coarse response bucket is used for overflow.
-        coarseRespHistMax = coarseRespBucketSize * (COARSE_RESPBUCKETS - 1) +
-                                                    fineRespHistMax;
+        respHist = new Histogram[txTypes];
+        for (int i = 0; i < txTypes; i++)
+            respHist[i] = Histogram.getInstance(runInfo, maxPctNanos);
+        if (runInfo.intendedTimeStats) {
+            intendedRespSumStdy = new double[txTypes];
+            intendedRespMax = new long[txTypes];
+            intendedRespHist = new Histogram[txTypes];
+            for (int i = 0; i < txTypes; i++)
+                intendedRespHist[i] =
+                        Histogram.getInstance(runInfo, maxPctNanos);
+        }
+        if (runInfo.requestPhaseStats) {
+            // The phases are far shorter than the response time limits,
+            // so they always use the log-linear histogram.
+            phaseSumStdy = new double[txTypes][DriverContext.PHASES];
+            phaseSumTotal = new double[txTypes][DriverContext.PHASES];
+            phaseMax = new long[txTypes][DriverContext.PHASES];
+            phaseHist = new Histogram[txTypes][DriverContext.PHASES];
+            for (int i = 0; i < txTypes; i++)
+                for (int j = 0; j < DriverContext.PHASES; j++)
+                    phaseHist[i][j] =
+                            new LogLinearHistogram(runInfo.histogramDigits);
+            phaseGraph = new long[DriverContext.PHASES][graphBuckets];
+        }
 
         double delayHistMax = driverConfig.operations[0].
                 cycle.getHistogramMax();
@@ -370,17 +451,18 @@ public class Metrics implements Serializable, Cloneable,
         if (thread.agent.startTime != Long.MIN_VALUE)
             elapsedTime = endTimeNanos - thread.agent.startTime;
 
+        int bucket = -1;
         if(elapsedTime > 0l) {
             if ((elapsedTime / graphBucketSize) >= graphBuckets) {
-                thruputGraph[txType][graphBuckets - 1]++;
-                respGraph[txType][graphBuckets - 1] += responseTime;
+                bucket = graphBuckets - 1;
             } else {
-                int bucket = (int) (elapsedTime / graphBucketSize);
-                thruputGraph[txType][bucket]++;
-                respGraph[txType][bucket] += responseTime;
+                bucket = (int) (elapsedTime / graphBucketSize);
             }
+            thruputGraph[txType][bucket]++;
+            respGraph[txType][bucket] += responseTime;
         }
 
+        epoch.beginUpdate();
         txCntTotal[txType]++;
         respSumTotal[txType] += responseTime;
         sumSquaresTotal[txType] = addSumSquare(sumSquaresTotal[txType], 
@@ -393,22 +475,72 @@ public class Metrics implements Serializable, Cloneable,
                 txCntStdy[txType], respSumStdy[txType], responseTime);
 
             // post in histogram of response times
-            int bucket;
-            if (responseTime < fineRespHistMax) {
-                bucket = (int) (responseTime / fineRespBucketSize);
-            } else if (responseTime < coarseRespHistMax) {
-                bucket = (int) (((responseTime - fineRespHistMax) /
-                        coarseRespBucketSize) + FINE_RESPBUCKETS);
-            } else {
-                bucket = RESPBUCKETS - 1;
-                hiRespSumStdy[txType] += responseTime;
-            }
-            respHist[txType][bucket]++;
+            respHist[txType].record(responseTime);
 
             if (responseTime > respMax[txType]) {
 				respMax[txType] = responseTime;
 			}
+
+            if (intendedRespHist != null)
+                recordIntendedTime(txType, timingInfo, responseTime);
         }
+        if (phaseHist != null)
+            recordPhaseTimes(txType, timingInfo, bucket);
+        epoch.endUpdate();
+    }
+
+    /**
+     * Records the time spent in each request phase of the operation, as
+     * captured by the timed transports. Phases the operation did not go
+     * through, like the connect on a reused connection, are not recorded.
+     * @param txType The operation type
+     * @param timingInfo The timing info of the current operation
+     * @param bucket The graph bucket, or -1 if not graphed
+     */
+    private void recordPhaseTimes(int txType,
+                                  DriverContext.TimingInfo timingInfo,
+                                  int bucket) {
+        long[] phaseTimes = timingInfo.phaseTimes;
+        for (int i = 0; i < DriverContext.PHASES; i++) {
+            long time = phaseTimes[i];
+            if (time == AgentThread.TIME_NOT_SET)
+                continue;
+            phaseSumTotal[txType][i] += time;
+            if (bucket >= 0)
+                phaseGraph[i][bucket] += time;
+            if (!thread.inRamp) {
+                phaseSumStdy[txType][i] += time;
+                phaseHist[txType][i].record(time);
+                if (time > phaseMax[txType][i])
+                    phaseMax[txType][i] = time;
+            }
+        }
+    }
+
+    /**
+     * Records the response time as measured from the intended invoke time.
+     * If the thread fell behind schedule, the time the operation should
+     * have already been running is added to the response time. This
+     * corrects for the coordinated omission of requests that a real user
+     * population would have sent while the thread was waiting.
+     * @param txType The operation type
+     * @param timingInfo The timing info of the current operation
+     * @param responseTime The response time from the actual invoke time
+     */
+    private void recordIntendedTime(int txType,
+                                    DriverContext.TimingInfo timingInfo,
+                                    long responseTime) {
+        long late = 0l;
+        if (timingInfo.intendedInvokeTime != AgentThread.TIME_NOT_SET) {
+            late = timingInfo.invokeTime - timingInfo.intendedInvokeTime;
+            if (late < 0)
+                late = 0;
+        }
+        long intendedResp = responseTime + late;
+        intendedRespSumStdy[txType] += intendedResp;
+        intendedRespHist[txType].record(intendedResp);
+        if (intendedResp > intendedRespMax[txType])
+            intendedRespMax[txType] = intendedResp;
     }
 
     /**
@@ -422,11 +554,13 @@ public class Metrics implements Serializable, Cloneable,
 
         int txType = thread.currentOperation;
 
+        epoch.beginUpdate();
         errCntTotal[txType]++;
 
         if (!thread.inRamp) {
             errCntStdy[txType]++;
 		}
+        epoch.endUpdate();
 
         if (thread.driverContext.timingInfo.respondTime !=
                 AgentThread.TIME_NOT_SET)
@@ -439,14 +573,16 @@ public class Metrics implements Serializable, Cloneable,
      */
     public void recordDelayTime() {
 
+        DriverContext.TimingInfo timingInfo =
+                thread.driverContext.timingInfo;
+
+        recordWakeupTime(timingInfo);
+
         int txType = thread.previousOperation[thread.mixId];
         if (txType < 0) {// First cycle, previous op is not there. Don't record.
             return;
 		}
 
-        DriverContext.TimingInfo timingInfo =
-                thread.driverContext.timingInfo;
-
         long actualDelayTime = -1l;
         long actualCycleTime = -1l;
 
@@ -510,6 +646,37 @@ public class Metrics implements Serializable, Cloneable,
         }
     }
 
+    /**
+     * Records how late the current operation got invoked compared to its
+     * intended invoke time. Early invocations count as not late.
+     * @param timingInfo The timing info of the current operation
+     */
+    private void recordWakeupTime(DriverContext.TimingInfo timingInfo) {
+        if (!thread.isSteadyState(timingInfo.intendedInvokeTime,
+                                  timingInfo.invokeTime)) {
+            return;
+        }
+        int txType = thread.currentOperation;
+        long late = timingInfo.invokeTime - timingInfo.intendedInvokeTime;
+        if (late < 0) {
+            late = 0;
+        }
+        ++wakeupCntStdy[txType];
+        wakeupLateSum[txType] += late;
+        if (late > fineRespBucketSize) {
+            ++lateCntStdy[txType];
+        }
+        if (late > wakeupLateMax[txType]) {
+            wakeupLateMax[txType] = late;
+        }
+        long bucket = late / WAKEUP_BUCKET_SIZE;
+        if (bucket >= DELAYBUCKETS) {
+            wakeupLateHist[txType][DELAYBUCKETS - 1]++;
+        } else {
+            wakeupLateHist[txType][(int) bucket]++;
+        }
+    }
+
     /**
      * Wraps up the metric for serialization/transportation and/or
      * further processing.
@@ -531,6 +698,12 @@ public class Metrics implements Serializable, Cloneable,
 
         // Add up the thread count
 		threadCnt += s.threadCnt;
+        arrivalCntStdy += s.arrivalCntStdy;
+        droppedCntStdy += s.droppedCntStdy;
+        queuedCntStdy += s.queuedCntStdy;
+        if (s.queueMax > queueMax) {
+            queueMax = s.queueMax;
+        }
 
         Logger logger = Logger.getLogger(getClass().getName());
         logger.finest("Adding cycleSum " + cycleSum + " and " + s.cycleSum);
@@ -553,9 +726,11 @@ public class Metrics implements Serializable, Cloneable,
             delayCntStdy[i] += s.delayCntStdy[i];
 			respSumStdy[i] += s.respSumStdy[i];
             respSumTotal[i] += s.respSumTotal[i];
-            hiRespSumStdy[i] += s.hiRespSumStdy[i];
 			delaySum[i] += s.delaySum[i];
 			targetedDelaySum[i] += s.targetedDelaySum[i];
+            wakeupCntStdy[i] += s.wakeupCntStdy[i];
+            wakeupLateSum[i] += s.wakeupLateSum[i];
+            lateCntStdy[i] += s.lateCntStdy[i];
 			if (s.respMax[i] > respMax[i]) {
 				respMax[i] = s.respMax[i];
 			}
@@ -565,11 +740,26 @@ public class Metrics implements Serializable, Cloneable,
 			if (s.delayMin[i] < delayMin[i]) {
 				delayMin[i] = s.delayMin[i];
 			}
+            if (s.wakeupLateMax[i] > wakeupLateMax[i]) {
+                wakeupLateMax[i] = s.wakeupLateMax[i];
+            }
+            if (intendedRespHist != null) {
+                intendedRespSumStdy[i] += s.intendedRespSumStdy[i];
+                if (s.intendedRespMax[i] > intendedRespMax[i])
+                    intendedRespMax[i] = s.intendedRespMax[i];
+                intendedRespHist[i].add(s.intendedRespHist[i]);
+            }
+            if (phaseHist != null)
+                for (int j = 0; j < DriverContext.PHASES; j++) {
+                    phaseSumStdy[i][j] += s.phaseSumStdy[i][j];
+                    phaseSumTotal[i][j] += s.phaseSumTotal[i][j];
+                    if (s.phaseMax[i][j] > phaseMax[i][j])
+                        phaseMax[i][j] = s.phaseMax[i][j];
+                    phaseHist[i][j].add(s.phaseHist[i][j]);
+                }
 
 			// sum up histogram buckets
-			for (int j = 0; j < RESPBUCKETS; j++) {
-				respHist[i][j] += s.respHist[i][j];
-			}
+			respHist[i].add(s.respHist[i]);
 			for (int j = 0; j < graphBuckets; j++) {
 				thruputGraph[i][j] += s.thruputGraph[i][j];
                 respGraph[i][j] += s.respGraph[i][j];
@@ -580,8 +770,16 @@ public class Metrics implements Serializable, Cloneable,
 			for (int j = 0; j < DELAYBUCKETS; j++) {
 				targetedDelayHist[i][j] += s.targetedDelayHist[i][j];
             }
+            for (int j = 0; j < DELAYBUCKETS; j++) {
+                wakeupLateHist[i][j] += s.wakeupLateHist[i][j];
+            }
         }
 
+        if (phaseGraph != null)
+            for (int i = 0; i < DriverContext.PHASES; i++)
+                for (int j = 0; j < graphBuckets; j++)
+                    phaseGraph[i][j] += s.phaseGraph[i][j];
+
         if (s.startTime < startTime) {
             startTime = s.startTime;
 		}
@@ -777,6 +975,7 @@ public class Metrics implements Serializable, Cloneable,
         Metrics clone = null;
         try {
             clone = (Metrics) super.clone();
+            clone.epoch = new StatsEpoch();
             clone.sumSquaresStdy = sumSquaresStdy.clone();
             clone.sumSquaresTotal = sumSquaresTotal.clone();
             clone.txCntStdy = txCntStdy.clone();
@@ -786,15 +985,44 @@ public class Metrics implements Serializable, Cloneable,
             clone.delayCntStdy = delayCntStdy.clone();
             clone.respSumStdy = respSumStdy.clone();
             clone.respSumTotal = respSumTotal.clone();
-            clone.hiRespSumStdy = hiRespSumStdy.clone();
             clone.respMax = respMax.clone();
             clone.delaySum = delaySum.clone();
             clone.targetedDelaySum = targetedDelaySum.clone();
             clone.delayMax = delayMax.clone();
             clone.delayMin = delayMin.clone();
-            clone.respHist = new int[respHist.length][];
+            clone.wakeupCntStdy = wakeupCntStdy.clone();
+            clone.wakeupLateSum = wakeupLateSum.clone();
+            clone.wakeupLateMax = wakeupLateMax.clone();
+            clone.lateCntStdy = lateCntStdy.clone();
+            if (intendedRespHist != null) {
+                clone.intendedRespSumStdy = intendedRespSumStdy.clone();
+                clone.intendedRespMax = intendedRespMax.clone();
+                clone.intendedRespHist = new Histogram[txTypes];
+                for (int i = 0; i < txTypes; i++)
+                    clone.intendedRespHist[i] =
+                            (Histogram) intendedRespHist[i].clone();
+            }
+            if (phaseHist != null) {
+                clone.phaseSumStdy = new double[txTypes][];
+                clone.phaseSumTotal = new double[txTypes][];
+                clone.phaseMax = new long[txTypes][];
+                clone.phaseHist = new Histogram[txTypes][];
+                for (int i = 0; i < txTypes; i++) {
+                    clone.phaseSumStdy[i] = phaseSumStdy[i].clone();
+                    clone.phaseSumTotal[i] = phaseSumTotal[i].clone();
+                    clone.phaseMax[i] = phaseMax[i].clone();
+                    clone.phaseHist[i] = new Histogram[DriverContext.PHASES];
+                    for (int j = 0; j < DriverContext.PHASES; j++)
+                        clone.phaseHist[i][j] =
+                                (Histogram) phaseHist[i][j].clone();
+                }
+                clone.phaseGraph = new long[DriverContext.PHASES][];
+                for (int i = 0; i < DriverContext.PHASES; i++)
+                    clone.phaseGraph[i] = phaseGraph[i].clone();
+            }
+            clone.respHist = new Histogram[respHist.length];
             for (int i = 0; i < respHist.length; i++) {
-                clone.respHist[i] = respHist[i].clone();
+                clone.respHist[i] = (Histogram) respHist[i].clone();
 			}
             clone.delayHist = new int[delayHist.length][];
             for (int i = 0; i < delayHist.length; i++) {
@@ -804,6 +1032,10 @@ public class Metrics implements Serializable, Cloneable,
             for (int i = 0; i < targetedDelayHist.length; i++) {
                 clone.targetedDelayHist[i] = targetedDelayHist[i].clone();
 			}
+            clone.wakeupLateHist = new int[wakeupLateHist.length][];
+            for (int i = 0; i < wakeupLateHist.length; i++) {
+                clone.wakeupLateHist[i] = wakeupLateHist[i].clone();
+			}
             clone.thruputGraph = new int[thruputGraph.length][];
             clone.respGraph = new long[respGraph.length][];
             for (int i = 0; i < thruputGraph.length; i++) {
@@ -880,9 +1112,7 @@ public class Metrics implements Serializable, Cloneable,
         /* Now print out the histogram data */
         for (int i = 0; i < txTypes; i++) {
             buffer.append(txNames[i]).append(" Response Times Histogram\n");
-            for (int j = 0; j < RESPBUCKETS; j++) {
-                buffer.append(' ').append(respHist[i][j]);
-			}
+            buffer.append(respHist[i]);
             buffer.append('\n');
             buffer.append(txNames[i]).append(" Throughput Graph\n");
             for (int j = 0; j < graphBuckets; j++) {
@@ -918,9 +1148,7 @@ public class Metrics implements Serializable, Cloneable,
         int sumTxCnt = 0;
         int sumFgTxCnt = 0;
         boolean success = true;
-        double avg, tavg;
         long respPct, resp99;
-        int sumtx, cntPct, cnt99;
         RunInfo runInfo = RunInfo.getInstance();
         Formatter formatter = new Formatter(buffer);
         double[] ckSD = null;
@@ -1085,30 +1313,13 @@ public class Metrics implements Serializable, Cloneable,
                     ckSD[i] = estimateStdev(i, result.avgResp[i], precision);
                 }
 
-                int k;
+                Histogram hist = respHist[i];
+                long histMax = hist.getMaxValue();
                 if (driver.percentiles.length > 0) {
                     for (int j = 0; j < driver.percentiles.length; j++) {
                         double pct = driver.percentiles[j];
-                        sumtx = 0;
-                        cntPct = (int)(txCntStdy[i] * (pct / 100d));
-                        k = 0;
-                        for (; k < respHist[i].length; k++) {
-                            sumtx += respHist[i][k];
-                            if (sumtx >= cntPct)	{	/* n% of tx. got */
-                                break;
-                            }
-                        }
-                        // We report the base of the next bucket.
-                        ++k;
-                        if (k < FINE_RESPBUCKETS)
-                            respPct = k * fineRespBucketSize;
-                        else if (k < RESPBUCKETS)
-                            respPct = (k - FINE_RESPBUCKETS) *
-                                    coarseRespBucketSize + fineRespHistMax;
-                        else // Report the overflow bucket.
-                             // Ensure no mistakes due to floating point errors.
-                            respPct =
-                                  2 * coarseRespBucketSize + coarseRespHistMax;
+                        // Overflow is reported as Long.MAX_VALUE.
+                        respPct = hist.getPercentile(pct, null);
 
                         double limit = driver.operations[i].percentileLimits[j];
                         String limitString = "";
@@ -1119,9 +1330,8 @@ public class Metrics implements Serializable, Cloneable,
                         space(16, buffer);
 
                         String indicator;
-                        if (respPct > coarseRespHistMax + coarseRespBucketSize){
-                            result.percentiles[i][j] =
-                                                coarseRespHistMax / precision;
+                        if (respPct > histMax) {
+                            result.percentiles[i][j] = histMax / precision;
                             indicator = "&gt; ";
                         } else {
                             result.percentiles[i][j] = respPct / precision;
@@ -1146,29 +1356,11 @@ public class Metrics implements Serializable, Cloneable,
                     space(16, buffer).append("<passed>").append(passPct).
                             append("</passed>\n");
                 } else {
-                    sumtx = 0;
-                    cntPct = (int)(txCntStdy[i] * .90d);
-                    k = 0;
-                    for (; k < respHist[i].length; k++) {
-                        sumtx += respHist[i][k];
-                        if (sumtx >= cntPct)	{	/* 90% of tx. got */
-                            break;
-                        }
-                    }
-                    // We report the base of the next bucket.
-                    ++k;
-                    if (k < FINE_RESPBUCKETS)
-                        respPct = k * fineRespBucketSize;
-                    else if (k < RESPBUCKETS)
-                        respPct = (k - FINE_RESPBUCKETS) *
-                                coarseRespBucketSize + fineRespHistMax;
-                    else // Report the overflow bucket.
-                         // Ensure no mistakes due to floating point errors.
-                        respPct = 2 * coarseRespBucketSize + coarseRespHistMax;
+                    respPct = hist.getPercentile(90d, null);
 
                     space(16, buffer);
-                    if (respPct > coarseRespHistMax + coarseRespBucketSize) {
-                        result.p90Resp[i] = coarseRespHistMax / precision;
+                    if (respPct > histMax) {
+                        result.p90Resp[i] = histMax / precision;
                         formatter.format("<p90th>&gt; %5.3f</p90th>\n",
                                          result.p90Resp[i]);
                     } else {
@@ -1184,30 +1376,12 @@ public class Metrics implements Serializable, Cloneable,
                             append("</passed>\n");
 
                     // 99th% hack for Berkeley.
-                    sumtx = 0;
-                    cnt99 = (int)(txCntStdy[i] * .99d);
-                    k = 0;
-                    for (; k < respHist[i].length; k++) {
-                        sumtx += respHist[i][k];
-                        if (sumtx >= cnt99)	{	/* 90% of tx. got */
-                            break;
-                        }
-                    }
-                    // We report the base of the next bucket.
-                    ++k;
-                    if (k < FINE_RESPBUCKETS)
-                        resp99 = k * fineRespBucketSize;
-                    else if (k < RESPBUCKETS)
-                        resp99 = (k - FINE_RESPBUCKETS) * coarseRespBucketSize +
-                                fineRespHistMax;
-                    else // Report the overflow bucket
-                    // Ensure no mistakes due to floating point errors.
-                        resp99 = 2 * coarseRespBucketSize + coarseRespHistMax;
+                    resp99 = hist.getPercentile(99d, null);
 
                     space(16, buffer);
-                    if (resp99 > coarseRespHistMax + coarseRespBucketSize)
+                    if (resp99 > histMax)
                         formatter.format("<p99th>&gt; %5.3f</p99th>\n",
-                                coarseRespHistMax / precision);
+                                histMax / precision);
                     else
                         formatter.format("<p99th>%5.3f</p99th>\n",
                                 resp99 / precision);
@@ -1238,62 +1412,17 @@ public class Metrics implements Serializable, Cloneable,
             logger.log(crosscheck, b.toString());
         }
 
-        space(8, buffer).append("<delayTimes>\n");
-        for (int i = 0; i < txNames.length; i++) {
-            
-            String nameModifier;
-            if (i < fgTxTypes) {
-                nameModifier = "";
-            } else {
-                nameModifier = " &amp;";
-            }
+        if (intendedRespHist != null)
+            printIntendedTimes(buffer, driver, fgTxTypes);
 
-            String typeString = null;
-            switch (driver.operations[i].cycle.cycleType) {
-                case CYCLETIME: typeString = "cycleTime"; break;
-                case THINKTIME: typeString = "thinkTime";
-            }
-            space(12, buffer).append("<operation name=\"").append(txNames[i]).
-                    append(nameModifier).append("\" type=\"").
-                    append(typeString).append("\">\n");
-            if (delayCntStdy[i] > 0) {
-                avg = delaySum[i] / (delayCntStdy[i] * 1e9d);
-                tavg =  targetedDelaySum[i] / (delayCntStdy[i] * 1e9d);
-                space(16, buffer);
-                formatter.format("<targetedAvg>%.3f</targetedAvg>\n",tavg);
-                space(16, buffer);
-                formatter.format("<actualAvg>%.3f</actualAvg>\n", avg);
-                space(16, buffer);
-                formatter.format("<min>%.3f</min>\n", delayMin[i]/1e9d);
-                space(16, buffer);
-                formatter.format("<max>%.3f</max>\n", delayMax[i]/1e9d);
-
-                boolean passDelay = true;
+        if (phaseHist != null)
+            printPhaseTimes(buffer, driver, fgTxTypes);
 
-                // Make sure we're not dealing with the 0 think time case.
-                // We cannot check a deviation on 0 think time.
-                if (driver.operations[i].cycle.cycleType == CycleType.CYCLETIME
-                        || tavg > 0.001d) {
-                    passDelay = (Math.abs(avg - tavg)/tavg <=
-                            driver.operations[i].cycle.cycleDeviation /100d);
-				}
-
-                space(16, buffer);
-                buffer.append("<passed>").append(passDelay).
-                        append("</passed>\n");
-                if (!passDelay) {
-                    success = false;
-				}
-            } else {
-                space(16, buffer).append("<targetedAvg/>\n");
-                space(16, buffer).append("<actualAvg/>\n");
-                space(16, buffer).append("<min/>\n");
-                space(16, buffer).append("<max/>\n");
-                space(16, buffer).append("<passed/>\n");
-            }
-            space(12, buffer).append("</operation>\n");
+        if (runInfo.driverConfigs[driverType].runControl == RunControl.RATE) {
+            printArrivals(buffer, sumTxCnt);
+        } else if (!printDelayTimes(buffer, driver, fgTxTypes)) {
+            success = false;
         }
-        space(8, buffer).append("</delayTimes>\n");
 
         if (metricAttachments != null) {
             Set<Map.Entry<String, CustomMetrics>> entries =
@@ -1409,6 +1538,245 @@ public class Metrics implements Serializable, Cloneable,
         return success;
     }
 
+    /**
+     * Prints the cycle and think time statistics.
+     * @param buffer The buffer to print into
+     * @param driver The driver definition
+     * @param fgTxTypes The number of foreground operations
+     * @return Whether the delay times are within the allowed deviation
+     */
+    private boolean printDelayTimes(StringBuilder buffer,
+                                    BenchmarkDefinition.Driver driver,
+                                    int fgTxTypes) {
+        Formatter formatter = new Formatter(buffer);
+        boolean success = true;
+        double avg, tavg;
+
+        space(8, buffer).append("<delayTimes>\n");
+        for (int i = 0; i < txNames.length; i++) {
+            
+            String nameModifier;
+            if (i < fgTxTypes) {
+                nameModifier = "";
+            } else {
+                nameModifier = " &amp;";
+            }
+
+            String typeString = null;
+            switch (driver.operations[i].cycle.cycleType) {
+                case CYCLETIME: typeString = "cycleTime"; break;
+                case THINKTIME: typeString = "thinkTime";
+            }
+            space(12, buffer).append("<operation name=\"").append(txNames[i]).
+                    append(nameModifier).append("\" type=\"").
+                    append(typeString).append("\">\n");
+            if (delayCntStdy[i] > 0) {
+                avg = delaySum[i] / (delayCntStdy[i] * 1e9d);
+                tavg =  targetedDelaySum[i] / (delayCntStdy[i] * 1e9d);
+                space(16, buffer);
+                formatter.format("<targetedAvg>%.3f</targetedAvg>\n",tavg);
+                space(16, buffer);
+                formatter.format("<actualAvg>%.3f</actualAvg>\n", avg);
+                space(16, buffer);
+                formatter.format("<min>%.3f</min>\n", delayMin[i]/1e9d);
+                space(16, buffer);
+                formatter.format("<max>%.3f</max>\n", delayMax[i]/1e9d);
+
+                boolean passDelay = true;
+
+                // Make sure we're not dealing with the 0 think time case.
+                // We cannot check a deviation on 0 think time.
+                if (driver.operations[i].cycle.cycleType == CycleType.CYCLETIME
+                        || tavg > 0.001d) {
+                    passDelay = (Math.abs(avg - tavg)/tavg <=
+                            driver.operations[i].cycle.cycleDeviation /100d);
+				}
+
+                space(16, buffer);
+                buffer.append("<passed>").append(passDelay).
+                        append("</passed>\n");
+                if (!passDelay) {
+                    success = false;
+				}
+            } else {
+                space(16, buffer).append("<targetedAvg/>\n");
+                space(16, buffer).append("<actualAvg/>\n");
+                space(16, buffer).append("<min/>\n");
+                space(16, buffer).append("<max/>\n");
+                space(16, buffer).append("<passed/>\n");
+            }
+            space(12, buffer).append("</operation>\n");
+        }
+        space(8, buffer).append("</delayTimes>\n");
+        return success;
+    }
+
+    /**
+     * Prints the arrival statistics of rate controlled runs.
+     * @param buffer The buffer to print into
+     * @param sumTxCnt The number of successful operations in steady state
+     */
+    private void printArrivals(StringBuilder buffer, int sumTxCnt) {
+        RunInfo runInfo = RunInfo.getInstance();
+        Formatter formatter = new Formatter(buffer);
+        int sumErrCnt = 0;
+        for (int i = 0; i < txTypes; i++)
+            sumErrCnt += errCntStdy[i];
+
+        space(8, buffer).append("<arrivals>\n");
+        if (!runInfo.variableLoad) {
+            space(12, buffer);
+            formatter.format("<targetRate>%.03f</targetRate>\n",
+                    runInfo.driverConfigs[driverType].arrivalRate);
+        }
+        space(12, buffer);
+        formatter.format("<offeredRate>%.03f</offeredRate>\n",
+                arrivalCntStdy / (double) runInfo.stdyState);
+        space(12, buffer);
+        formatter.format("<achievedRate>%.03f</achievedRate>\n",
+                (sumTxCnt + sumErrCnt) / (double) runInfo.stdyState);
+        space(12, buffer).append("<dropped>").append(droppedCntStdy).
+                append("</dropped>\n");
+        space(12, buffer).append("<queued>").append(queuedCntStdy).
+                append("</queued>\n");
+        space(12, buffer).append("<maxQueue>").append(queueMax).
+                append("</maxQueue>\n");
+        space(8, buffer).append("</arrivals>\n");
+    }
+
+    /**
+     * Prints the response times measured from the intended invoke time,
+     * the late starts, and the total schedule drift. These are for
+     * information only and do not affect the pass/fail criteria.
+     * @param buffer The buffer to print into
+     * @param driver The driver definition
+     * @param fgTxTypes The number of foreground operations
+     */
+    private void printIntendedTimes(StringBuilder buffer,
+                                    BenchmarkDefinition.Driver driver,
+                                    int fgTxTypes) {
+        Formatter formatter = new Formatter(buffer);
+        double precision = driver.responseTimeUnit.toNanos(1l);
+        String responseTimeUnit = driver.responseTimeUnit.toString().
+                toLowerCase();
+
+        space(8, buffer).append("<intendedResponseTimes unit=\"").
+                append(responseTimeUnit).append("\">\n");
+        for (int i = 0; i < txNames.length; i++) {
+            String nameModifier;
+            if (i < fgTxTypes) {
+                nameModifier = "";
+            } else {
+                nameModifier = " &amp;";
+            }
+            space(12, buffer);
+            formatter.format("<operation name=\"%s%s\">\n",
+                             txNames[i], nameModifier);
+            if (txCntStdy[i] > 0) {
+                Histogram hist = intendedRespHist[i];
+                long histMax = hist.getMaxValue();
+                space(16, buffer);
+                formatter.format("<avg>%5.3f</avg>\n",
+                        (intendedRespSumStdy[i] / txCntStdy[i]) / precision);
+                space(16, buffer);
+                formatter.format("<max>%5.3f</max>\n",
+                        intendedRespMax[i] / precision);
+                double[] pcts = driver.percentiles;
+                if (pcts.length == 0) // Old format
+                    pcts = new double[] { 90d, 99d };
+                for (int j = 0; j < pcts.length; j++) {
+                    long respPct = hist.getPercentile(pcts[j], null);
+                    String indicator = "";
+                    if (respPct > histMax) {
+                        respPct = histMax;
+                        indicator = "&gt; ";
+                    }
+                    space(16, buffer);
+                    if (driver.percentiles.length > 0) {
+                        String pctSuffix = driver.pctSuffix[j];
+                        if (pctSuffix == null)
+                            pctSuffix = getSuffix(driver.pctString[j]);
+                        formatter.format("<percentile nth=\"%s\" " +
+                                "suffix=\"%s\">%s%5.3f</percentile>\n",
+                                driver.pctString[j], pctSuffix, indicator,
+                                respPct / precision);
+                    } else {
+                        formatter.format("<p%.0fth>%s%5.3f</p%.0fth>\n",
+                                pcts[j], indicator, respPct / precision,
+                                pcts[j]);
+                    }
+                }
+            } else {
+                space(16, buffer).append("<avg/>\n");
+                space(16, buffer).append("<max/>\n");
+            }
+            space(16, buffer).append("<lateStarts>").append(lateCntStdy[i]).
+                    append("</lateStarts>\n");
+            space(16, buffer);
+            formatter.format("<drift>%.3f</drift>\n", wakeupLateSum[i] / 1e9d);
+            space(12, buffer).append("</operation>\n");
+        }
+        space(8, buffer).append("</intendedResponseTimes>\n");
+    }
+
+    /**
+     * Prints the time the operations spent in each request phase. Only
+     * the phases seen by an operation are listed, with the number of
+     * operations seeing the phase. These are for information only.
+     * @param buffer The buffer to print into
+     * @param driver The driver definition
+     * @param fgTxTypes The number of foreground operations
+     */
+    private void printPhaseTimes(StringBuilder buffer,
+                                 BenchmarkDefinition.Driver driver,
+                                 int fgTxTypes) {
+        Formatter formatter = new Formatter(buffer);
+        double precision = driver.responseTimeUnit.toNanos(1l);
+        String responseTimeUnit = driver.responseTimeUnit.toString().
+                toLowerCase();
+
+        space(8, buffer).append("<requestPhases unit=\"").
+                append(responseTimeUnit).append("\">\n");
+        for (int i = 0; i < txNames.length; i++) {
+            String nameModifier;
+            if (i < fgTxTypes) {
+                nameModifier = "";
+            } else {
+                nameModifier = " &amp;";
+            }
+            space(12, buffer);
+            formatter.format("<operation name=\"%s%s\">\n",
+                             txNames[i], nameModifier);
+            for (int j = 0; j < DriverContext.PHASES; j++) {
+                Histogram hist = phaseHist[i][j];
+                long count = hist.getCount();
+                if (count == 0l)
+                    continue;
+                long p90 = hist.getPercentile(90d, null);
+                String indicator = "";
+                if (p90 > hist.getMaxValue()) {
+                    p90 = hist.getMaxValue();
+                    indicator = "&gt; ";
+                }
+                space(16, buffer);
+                formatter.format("<phase name=\"%s\" count=\"%d\">\n",
+                                 PHASE_NAMES[j], count);
+                space(20, buffer);
+                formatter.format("<avg>%5.3f</avg>\n",
+                        (phaseSumStdy[i][j] / count) / precision);
+                space(20, buffer);
+                formatter.format("<p90th>%s%5.3f</p90th>\n", indicator,
+                        p90 / precision);
+                space(20, buffer);
+                formatter.format("<max>%5.3f</max>\n",
+                        phaseMax[i][j] / precision);
+                space(16, buffer).append("</phase>\n");
+            }
+            space(12, buffer).append("</operation>\n");
+        }
+        space(8, buffer).append("</requestPhases>\n");
+    }
+
     private String getSuffix(String pct) {
         String suffix;
         // When we have decimals, suffix is th
@@ -1442,36 +1810,9 @@ public class Metrics implements Serializable, Cloneable,
      */
     private double estimateStdev(int type, double avg, double precision) {
                         // Overall standard deviation, for checking only.
-        double sumDev2 = 0d;
-        for (int j = 0; j < respHist[type].length; j++) {
-            if (respHist[type][j] == 0) {
-                continue;
-            }
-            long bucketRep = getBucketRepValue(j);
-            double dev;
-            if (bucketRep == Long.MIN_VALUE) {
-                dev = hiRespSumStdy[type] / respHist[type][j];
-            } else {
-                dev = bucketRep;
-            }
-            dev = dev / precision - avg;
-            sumDev2 += dev * dev * respHist[type][j];
-        }
-        return Math.sqrt(sumDev2 / txCntStdy[type]);
-    }
-
-    private long getBucketRepValue(int bucketId) {
-        long resp;
-        if (bucketId < Metrics.FINE_RESPBUCKETS) {
-            resp = bucketId * fineRespBucketSize + (fineRespBucketSize/2);
-        } else if (bucketId < Metrics.RESPBUCKETS) {
-            resp = (bucketId - Metrics.FINE_RESPBUCKETS) *
-                    coarseRespBucketSize + fineRespHistMax +
-                    (coarseRespBucketSize/2);
-        } else {
-            resp = Long.MIN_VALUE;
-        }
-        return resp;
+        double sumDev2 = respHist[type].getSumDeviation2(avg * precision,
+                                                         null);
+        return Math.sqrt(sumDev2 / txCntStdy[type]) / precision;
     }
 
 
@@ -1523,69 +1864,26 @@ public class Metrics implements Serializable, Cloneable,
     }
 
     /**
-     * The respHist, or response histogram has a special structure:
-     * The lower buckets are fine-grained buckets. The higher buckets
-     * are coarse-grained bucket covering 10x as much time. It is done this
-     * way to save memory (from 1000 entries per thread per operation, down to
-     * 370 entries). For low response times, we care a lot about the exact
-     * response time and therefore we use fine-grained buckets. For large
-     * response times we just want to know the ballpark, but not the exact
-     * number. So it does not make sense to keep the same bucket size
-     * throughout. We use fine granularity below 1.5x largest set 90th% and
-     * coarse granularity for anything beyond that.
+     * The respHist, or response histogram may have buckets of varying
+     * sizes to save memory. For low response times, we care a lot about
+     * the exact response time and therefore we use fine-grained buckets.
+     * For large response times we just want to know the ballpark.
      *
      * Now, we need to flatten the response time histogram into a flat one
-     * before plotting. We do this, here. We'll end up with more entries, but
-     * we really don't care since this is one copy, once per run at report time.
+     * using the fine bucket size before plotting. The flat histogram covers
+     * up to 5x the largest percentile limit, just like the fixed histogram.
+     * The last bucket gets all response times beyond. We'll end up with more
+     * entries, but we really don't care since this is one copy, once per run
+     * at report time.
+     * @return The flat response time histogram
      */
-    private void flattenRespHist() {
-        int limit = getBucketLimit(respHist);
-
-        // If all buckets are used, the last one does not get extrapolated
-        // as it has the data of that bucket and beyond.
-        boolean spareLastBucket = false;
-        if (limit == respHist[0].length)
-            spareLastBucket = true;
-
-        if (limit > FINE_RESPBUCKETS) {
-            int size;
-            if (spareLastBucket) {
-                --limit;
-                size = (COARSE_RESPBUCKETS - 1) * RESPBUCKET_SIZE_RATIO +
+    private int[][] flattenRespHist() {
+        int size = (COARSE_RESPBUCKETS - 1) * RESPBUCKET_SIZE_RATIO +
                                                         FINE_RESPBUCKETS + 1;
-            } else {
-                size = (limit - FINE_RESPBUCKETS) * RESPBUCKET_SIZE_RATIO +
-                                                        FINE_RESPBUCKETS;
-            }
-            int[][] respHist = new int[txTypes][size];
-            for (int i = 0; i < txTypes; i++) {
-
-                // Copy the fine buckets unchanged.
-                System.arraycopy(this.respHist[i], 0, respHist[i], 0,
-                                 FINE_RESPBUCKETS);
-
-                for (int j = FINE_RESPBUCKETS; j < limit; j++) {
-                    int count = this.respHist[i][j];
-                    // Spread the count among all 10 flat buckets.
-                    int base = count / RESPBUCKET_SIZE_RATIO;
-                    int remainder = count % RESPBUCKET_SIZE_RATIO;
-                    int baseIdx = (j - FINE_RESPBUCKETS) *
-                                    RESPBUCKET_SIZE_RATIO + FINE_RESPBUCKETS;
-                    int k = 9;
-                    // The higher buckets get the base
-                    for (; k >= remainder; k--)
-                        respHist[i][baseIdx + k] = base;
-                    // The lower remaining buckets get the base + 1
-                    ++base;
-                    for (; k >= 0; k--)
-                        respHist[i][baseIdx + k] = base;
-                }
-                if (spareLastBucket)
-                    // Just copy the last bucket.
-                    respHist[i][size - 1] = this.respHist[i][limit];
-            }
-            this.respHist = respHist;
-        }
+        int[][] flat = new int[txTypes][size];
+        for (int i = 0; i < txTypes; i++)
+            respHist[i].flatten(fineRespBucketSize, flat[i]);
+        return flat;
     }
 
     /**
@@ -1600,8 +1898,6 @@ public class Metrics implements Serializable, Cloneable,
         String responseTimeUnit = driver.responseTimeUnit.toString().
                 toLowerCase();
 
-        flattenRespHist();
-
         printGraph(b, "Throughput", graphBucketSize,
                 "%.0f", "%.2f", thruputGraph, graphBucketSize);
 
@@ -1611,7 +1907,11 @@ public class Metrics implements Serializable, Cloneable,
 
         printHistogram(b, "Frequency Distribution of Response Times (" +
                 responseTimeUnit + ")", fineRespBucketSize / precision, "%.5f",
-                respHist);
+                flattenRespHist());
+
+        if (phaseGraph != null)
+            printPhaseGraph(b, "Request Phase Times (" + responseTimeUnit +
+                    ")", graphBucketSize, precision);
 
         printHistogram(b, "Frequency Distribution of Cycle/Think Times " +
                 "(seconds)", delayBucketSize / 1e9d, "%.3f", delayHist);
@@ -1619,6 +1919,10 @@ public class Metrics implements Serializable, Cloneable,
         printHistogram(b, "Frequency Distribution of Targeted Cycle/Think " +
                 "Times (seconds)", delayBucketSize / 1e9d, "%.3f",
                 targetedDelayHist);
+
+        printHistogram(b, "Frequency Distribution of Wake-up Lateness " +
+                "(seconds)", WAKEUP_BUCKET_SIZE / 1e9d, "%.4f",
+                wakeupLateHist);
     }
 
     @SuppressWarnings("boxing")
@@ -1710,6 +2014,57 @@ public class Metrics implements Serializable, Cloneable,
         b.append('\n');
     }
 
+    /**
+     * Prints the average time per operation spent in each request phase
+     * over time, for all operations.
+     * @param b The buffer
+     * @param label The section label
+     * @param unit The graph interval, in seconds
+     * @param precision The nanoseconds per response time unit
+     */
+    @SuppressWarnings("boxing")
+    private void printPhaseGraph(StringBuilder b, String label, double unit,
+                                 double precision) {
+
+        int bucketLimit = graphBuckets;
+        if (RunInfo.getInstance().driverConfigs[driverType].
+                runControl == RunControl.CYCLES) {
+            bucketLimit = getBucketLimit(thruputGraph);
+		}
+
+        // Data header
+        b.append("Section: ").append(driverName).append(' ').append(label).
+                append('\n');
+        b.append("Display: Line\n");
+
+        TextTable table = new TextTable(bucketLimit,
+                                        DriverContext.PHASES + 1);
+
+        // The X axis headers and column headers, or legends
+        table.setHeader(0, "Time (s)");
+        for (int j = 0; j < DriverContext.PHASES; j++) {
+            table.setHeader(j + 1, PHASE_NAMES[j]);
+		}
+
+        // The X axis and the data
+        for (int i = 0; i < bucketLimit; i++) {
+            table.setField(i, 0, String.format("%.0f", unit * i));
+            int txCnt = 0;
+            for (int j = 0; j < txTypes; j++) {
+                txCnt += thruputGraph[j][i];
+            }
+            for (int j = 0; j < DriverContext.PHASES; j++) {
+                double data = 0d;
+                if (txCnt != 0) {
+                    data = phaseGraph[j][i] / (precision * txCnt);
+				}
+                table.setField(i, j + 1, String.format("%.6f", data));
+            }
+        }
+        table.format(b);
+        b.append('\n');
+    }
+
     @SuppressWarnings("boxing")
     private void printHistogram(StringBuilder b, String label, double unit,
                                 String unitFormat, int[][] histogram) {
@@ -97,6 +97,15 @@ public class RunInfo implements Serializable {
      * Milliseconds between thread start.
      */
     public int msBetweenThreadStart = 200;
+
+    /**
+     * Whether the emulated users run as scheduled tasks on a small pool
+     * of carrier threads instead of one thread each.
+     */
+    public boolean pooledExecution = false;
+
+    /** Number of carrier threads for pooled execution, 0 for default. */
+    public int carrierThreads = 0;
   
     /** The benchmark start time, relative to the timer. */
     public int benchStartTime = Integer.MAX_VALUE;
@@ -107,14 +116,38 @@ public class RunInfo implements Serializable {
     /** The maximum run time, used only for cycle runs. */
     public int maxRunTime = 6;  // 6 hrs
 
+    /** The response time histogram type, fixed or logLinear. */
+    public String histogramType = Histogram.FIXED;
+
+    /** Significant digits of the logLinear histogram. */
+    public int histogramDigits = 2;
+
+    /**
+     * Whether response times are also reported from the intended
+     * invoke time, correcting for coordinated omission.
+     */
+    public boolean intendedTimeStats = false;
+
+    /**
+     * Whether the time of each request phase, from host name lookup to
+     * response transfer, is captured by the timed transports and reported.
+     */
+    public boolean requestPhaseStats = false;
+
     /** The time interval for graphing. */
     public int graphInterval = 10; // 30 seconds
 
     /** Whether the runtime stats are enabled. */
     public boolean runtimeStatsEnabled = false;
 
-    /** Interval for runtime stats. */
-    public int runtimeStatsInterval = 10;
+    /** Interval for runtime stats, in secs. May be below a second. */
+    public double runtimeStatsInterval = 10d;
+
+    /** The port the master receives the runtime stats on. */
+    public int runtimeStatsPort;
+
+    /** The token agents identify themselves with to the stats receiver. */
+    public long runtimeStatsToken;
 
     /** The current driver config object. */
     public DriverConfig driverConfig;
@@ -299,6 +332,15 @@ public class RunInfo implements Serializable {
         /** Driver level variable load file. */
         public String variableLoadFile;
 
+        /** Target arrival rate of rate controlled runs, in ops/sec. */
+        public double arrivalRate = -1d;
+
+        /** Whether the arrivals are Poisson distributed or constant. */
+        public boolean poissonArrivals = true;
+
+        /** Max. arrivals queued per agent waiting for a free thread. */
+        public int arrivalQueue = 1000;
+
         /** Property element of the configuration DOM tree. */
         public Element properties;
 
@@ -460,7 +502,9 @@ public class RunInfo implements Serializable {
             // We can add more providers here.
             SUN ("com.sun.faban.driver.transport.sunhttp.SunHttpTransport"),
 
-            APACHE3 ("com.sun.faban.driver.transport.hc3.ApacheHC3Transport");
+            APACHE3 ("com.sun.faban.driver.transport.hc3.ApacheHC3Transport"),
+
+            NIO ("com.sun.faban.driver.transport.nio.NioHttpTransport");
 
 
             final String providerClass;
@@ -1083,6 +1127,26 @@ public class RunInfo implements Serializable {
                 }
 			}
 
+            v = xp.evaluate("fd:threadStart/fd:pooled", runConfigNode);
+            if (v != null && v.length() > 0) {
+				try {
+                    runInfo.pooledExecution = relaxedParseBoolean(v);
+                } catch (NumberFormatException e) {
+                    throw new ConfigurationException(
+                            "<pooled> must be true or false.");
+                }
+			}
+
+            v = xp.evaluate("fd:threadStart/fd:carriers", runConfigNode);
+            if (v != null && v.length() > 0) {
+				try {
+                    runInfo.carrierThreads = Integer.parseInt(v);
+                } catch (NumberFormatException e) {
+                    throw new ConfigurationException(
+                            "<carriers> must be an integer.");
+                }
+			}
+
             v = xp.evaluate("fd:stats/fd:maxRunTime", runConfigNode);
             if (v!= null && v.length() > 0) {
 				try {
@@ -1093,6 +1157,52 @@ public class RunInfo implements Serializable {
                 }
 			}
 
+            v = xp.evaluate("fd:stats/fd:histogram", runConfigNode);
+            if (v != null && v.length() > 0) {
+                v = v.trim();
+                if (Histogram.FIXED.equalsIgnoreCase(v))
+                    runInfo.histogramType = Histogram.FIXED;
+                else if (Histogram.LOG_LINEAR.equalsIgnoreCase(v))
+                    runInfo.histogramType = Histogram.LOG_LINEAR;
+                else
+                    throw new ConfigurationException(
+                            "<histogram> must be fixed or logLinear.");
+			}
+
+            v = xp.evaluate("fd:stats/fd:histogram/@digits", runConfigNode);
+            if (v != null && v.length() > 0) {
+				try {
+                    runInfo.histogramDigits = Integer.parseInt(v);
+                } catch (NumberFormatException e) {
+                    throw new ConfigurationException(
+                            "<histogram digits=...> must be an integer.");
+                }
+                if (runInfo.histogramDigits < 1 ||
+                        runInfo.histogramDigits > 5)
+                    throw new ConfigurationException(
+                            "<histogram digits=...> must be between 1 and 5.");
+			}
+
+            v = xp.evaluate("fd:stats/fd:intendedTime", runConfigNode);
+            if (v != null && v.length() > 0) {
+				try {
+                    runInfo.intendedTimeStats = relaxedParseBoolean(v);
+                } catch (NumberFormatException e) {
+                    throw new ConfigurationException(
+                            "<intendedTime> must be true or false.");
+                }
+			}
+
+            v = xp.evaluate("fd:stats/fd:requestPhases", runConfigNode);
+            if (v != null && v.length() > 0) {
+				try {
+                    runInfo.requestPhaseStats = relaxedParseBoolean(v);
+                } catch (NumberFormatException e) {
+                    throw new ConfigurationException(
+                            "<requestPhases> must be true or false.");
+                }
+			}
+
             v = xp.evaluate("fd:stats/fd:interval", runConfigNode);
             if (v!= null && v.length() > 0) {
 				try {
@@ -1116,11 +1226,14 @@ public class RunInfo implements Serializable {
             v = xp.evaluate("fd:runtimeStats/fd:interval", runConfigNode);
             if (v != null && v.length() > 0) {
 				try {
-                    runInfo.runtimeStatsInterval = Integer.parseInt(v);
+                    runInfo.runtimeStatsInterval = Double.parseDouble(v);
                 } catch (NumberFormatException e) {
                     throw new ConfigurationException(
-                            "<interval> must be an integer.");
+                            "<interval> must be a number.");
                 }
+                if (runInfo.runtimeStatsInterval <= 0d)
+                    throw new ConfigurationException(
+                            "<runtimeStats><interval> must be positive.");
 			}
 
             runInfo.driverConfigs = new DriverConfig[benchDef.drivers.length];
@@ -1220,6 +1333,53 @@ public class RunInfo implements Serializable {
                 }
 
 
+                if (driverConfig.runControl == RunControl.RATE) {
+                    v = xp.evaluate("fd:arrivals/fd:rate", driverConfigNode);
+                    if (v != null && v.length() > 0) {
+                        try {
+                            driverConfig.arrivalRate = Double.parseDouble(v);
+                        } catch (NumberFormatException e) {
+                            throw new ConfigurationException(
+                                    "<arrivals><rate> must be a number.");
+                        }
+                    }
+                    if (driverConfig.arrivalRate <= 0d) {
+                        throw new ConfigurationException("Rate controlled " +
+                                "runs need a positive <arrivals><rate>.");
+                    }
+                    if (driverConfig.mix[1] != null) {
+                        throw new ConfigurationException("Rate controlled " +
+                                "runs do not support a background mix. " +
+                                "Remove the background mix of driver " +
+                                driverConfig.name + '.');
+                    }
+                    v = xp.evaluate("fd:arrivals/fd:distribution",
+                            driverConfigNode);
+                    if (v != null && v.length() > 0) {
+                        v = v.trim();
+                        if ("poisson".equalsIgnoreCase(v))
+                            driverConfig.poissonArrivals = true;
+                        else if ("constant".equalsIgnoreCase(v))
+                            driverConfig.poissonArrivals = false;
+                        else
+                            throw new ConfigurationException("<arrivals>" +
+                                    "<distribution> must be poisson or " +
+                                    "constant.");
+                    }
+                    v = xp.evaluate("fd:arrivals/fd:queue", driverConfigNode);
+                    if (v != null && v.length() > 0) {
+                        try {
+                            driverConfig.arrivalQueue = Integer.parseInt(v);
+                        } catch (NumberFormatException e) {
+                            throw new ConfigurationException(
+                                    "<arrivals><queue> must be an integer.");
+                        }
+                        if (driverConfig.arrivalQueue < 0)
+                            throw new ConfigurationException(
+                                    "<arrivals><queue> must not be negative.");
+                    }
+                }
+
                 driverConfig.rootElement = rootElement;
                 driverConfig.properties = (Element) xp.evaluate("fd:properties",
                         driverConfigNode, XPathConstants.NODE);
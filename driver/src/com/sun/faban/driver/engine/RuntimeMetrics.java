@@ -31,14 +31,15 @@ import java.util.logging.Logger;
 
 /**
  * The runtime metrics is used for communicating runtime stats from
- * the agents to the master.
+ * the agents to the master. The agents only send the changes between
+ * subsequent runtime metrics, encoded by the RuntimeStatsCodec.
  *
  * @author akara
  */
 public class RuntimeMetrics implements Serializable, 
         PairwiseAggregator.Aggregable<RuntimeMetrics> {
 
-    private static final long serialVersionUID = 33009l;
+    private static final long serialVersionUID = 33010l;
 
     /** Index for current thruput label. */
     public static final int C_THRUPUT = 0;
@@ -67,10 +68,19 @@ public class RuntimeMetrics implements Serializable,
     /** Index for overall 90th% response time label. */
     public static final int O_RESP90 = 8;
 
+    /**
+     * Index for the first current request phase time label. The request
+     * phase times per operation follow in the order of the phases. They
+     * are only reported if the request phases are recorded.
+     */
+    public static final int C_PHASES = 9;
+
     /** The output labels for the runtime metrics. */
     public static final String[] LABELS = { "CThru", "OThru", "CErr",
                                             "CResp", "OResp", "CSD",
-                                            "OSD", "C90%Resp", "O90%Resp"};
+                                            "OSD", "C90%Resp", "O90%Resp",
+                                            "CDNS", "CConn", "CTLS",
+                                            "CTTFB", "CXfer"};
 
 
     int sequence = 0; // The sequence number of this runtime stats.
@@ -85,18 +95,6 @@ public class RuntimeMetrics implements Serializable,
 
     int txTypes; // The tx types for the current metrics.
 
-    /** Size of the fine response time buckets. */
-    protected long fineRespBucketSize;  // Size of the fine and coarse
-
-    /** Size of the coarse response time buckets. */
-    protected long coarseRespBucketSize; // response time buckets, in ns.
-
-    /** Max fine response time. */
-    protected long fineRespHistMax;
-
-    /** Max coarse response time. */
-    protected long coarseRespHistMax;
-
 	/**
      * Number of successful transactions during steady state.
      * This is used for final reporting and in-flight reporting of averages.
@@ -127,9 +125,6 @@ public class RuntimeMetrics implements Serializable,
     /** Sum of response times total. */
     protected double[] respSumTotal;
 
-    /** Sum of the overflow response time. */
-    protected double[] hiRespSumStdy;
-
     /** The sum squares of the deviations in steady state. */
     protected double[] sumSquaresStdy;
 
@@ -137,7 +132,13 @@ public class RuntimeMetrics implements Serializable,
     protected double[] sumSquaresTotal;
 
     /** Response time histogram. */
-    protected int[][] respHist;
+    protected Histogram[] respHist;
+
+    /**
+     * Sum of the request phase times total, by operation and phase.
+     * Null if the request phases are not recorded.
+     */
+    protected double[][] phaseSumTotal;
 
     /**
      * Only classes in this package can instantiate the RuntimeMetrics.
@@ -145,83 +146,103 @@ public class RuntimeMetrics implements Serializable,
     RuntimeMetrics() {
     }
 
+    /**
+     * Allocates the counters of this RuntimeMetrics. The histograms are
+     * left to the caller.
+     * @param driverType The driver type
+     * @param txTypes The number of operations
+     */
+    void init(int driverType, int txTypes) {
+        this.driverType = driverType;
+        this.txTypes = txTypes;
+
+        txCntStdy = new int[txTypes];
+        txCntTotal = new int[txTypes];
+        errCntStdy = new int[txTypes];
+        errCntTotal = new int[txTypes];
+        respSumStdy = new double[txTypes];
+        respSumTotal = new double[txTypes];
+        sumSquaresStdy = new double[txTypes];
+        sumSquaresTotal = new double [txTypes];
+    }
+
     /**
      * Copies the necessary members of Metrics into this RuntimeMetrics.
+     * The metrics may be updated by its thread while copying. The copy
+     * is retried until it is consistent.
      * @param m The metrics to copy
      */
     public void copy(Metrics m) {
         if (txCntTotal == null) { // Needs initialization
-            driverType = m.driverType;
-            txTypes = m.txCntTotal.length;
-            fineRespBucketSize = m.fineRespBucketSize;
-            coarseRespBucketSize = m.coarseRespBucketSize;
-            fineRespHistMax = m.fineRespHistMax;
-            coarseRespHistMax = m.coarseRespHistMax;
-
-            txCntStdy = new int[txTypes];
-            txCntTotal = new int[txTypes];
-            errCntStdy = new int[txTypes];
-            errCntTotal = new int[txTypes];
-            respSumStdy = new double[txTypes];
-            respSumTotal = new double[txTypes];
-            hiRespSumStdy = new double[txTypes];
-            sumSquaresStdy = new double[txTypes];
-            sumSquaresTotal = new double [txTypes];
-            respHist = new int[txTypes][m.respHist[0].length];
+            init(m.driverType, m.txCntTotal.length);
+            respHist = new Histogram[txTypes];
+            for (int i = 0; i < txTypes; i++)
+                respHist[i] = (Histogram) m.respHist[i].clone();
         }
 
-        for (int i = 0; i < txTypes; i++) {
-            // Add the sum squares before adding the count and response sum.
-            // The values of count and sum have to be unchanged at this point.
-            sumSquaresStdy[i] = m.sumSquaresStdy[i];
-            sumSquaresTotal[i] = m.sumSquaresTotal[i];
-            txCntStdy[i] = m.txCntStdy[i];
-            txCntTotal[i] = m.txCntTotal[i];
-            errCntStdy[i] = m.errCntStdy[i];
-            errCntTotal[i] = m.errCntTotal[i];
-            respSumStdy[i] = m.respSumStdy[i];
-            respSumTotal[i] = m.respSumTotal[i];
-            hiRespSumStdy[i] = m.hiRespSumStdy[i];
-            for (int j = 0; j < m.respHist[i].length; j++)
-                respHist[i][j] = m.respHist[i][j];
-        }
+        int epoch;
+        do {
+            epoch = m.epoch.beginRead();
+            for (int i = 0; i < txTypes; i++) {
+                sumSquaresStdy[i] = m.sumSquaresStdy[i];
+                sumSquaresTotal[i] = m.sumSquaresTotal[i];
+                txCntStdy[i] = m.txCntStdy[i];
+                txCntTotal[i] = m.txCntTotal[i];
+                errCntStdy[i] = m.errCntStdy[i];
+                errCntTotal[i] = m.errCntTotal[i];
+                respSumStdy[i] = m.respSumStdy[i];
+                respSumTotal[i] = m.respSumTotal[i];
+                respHist[i].copy(m.respHist[i]);
+            }
+            if (m.phaseSumTotal != null) {
+                if (phaseSumTotal == null)
+                    phaseSumTotal = new double[txTypes][DriverContext.PHASES];
+                for (int i = 0; i < txTypes; i++)
+                    System.arraycopy(m.phaseSumTotal[i], 0, phaseSumTotal[i],
+                                     0, DriverContext.PHASES);
+            }
+        } while (!m.epoch.validate(epoch));
     }
 
     /**
-     * Adds a metrics to this RuntimeMetrics.
-     * @param m The metrics to add
+     * Copies another RuntimeMetrics into this RuntimeMetrics. The
+     * histograms are only copied if both have histograms.
+     * @param m The runtime metrics to copy
      */
-    public void add(Metrics m) {
-
-        for (int i = 0; i < txTypes; i++) {
-            // Add the sum squares before adding the count and response sum.
-            // The values of count and sum have to be unchanged at this point.
-            sumSquaresStdy[i] = Metrics.addSumSquare(
-                    sumSquaresStdy[i], txCntStdy[i], respSumStdy[i],
-                    m.sumSquaresStdy[i], m.txCntStdy[i], m.respSumStdy[i]);
-            sumSquaresTotal[i] = Metrics.addSumSquare(
-                    sumSquaresTotal[i], txCntTotal[i], respSumTotal[i],
-                    m.sumSquaresTotal[i], m.txCntTotal[i], m.respSumTotal[i]);
-            txCntStdy[i] += m.txCntStdy[i];
-            txCntTotal[i] += m.txCntTotal[i];
-            errCntStdy[i] += m.errCntStdy[i];
-            errCntTotal[i] += m.errCntTotal[i];
-            respSumStdy[i] += m.respSumStdy[i];
-            respSumTotal[i] += m.respSumTotal[i];
-            hiRespSumStdy[i] += m.hiRespSumStdy[i];
-            for (int j = 0; j < m.respHist[i].length; j++)
-                respHist[i][j] += m.respHist[i][j];
+    void copy(RuntimeMetrics m) {
+        sequence = m.sequence;
+        timestamp = m.timestamp;
+        System.arraycopy(m.txCntStdy, 0, txCntStdy, 0, txTypes);
+        System.arraycopy(m.txCntTotal, 0, txCntTotal, 0, txTypes);
+        System.arraycopy(m.errCntStdy, 0, errCntStdy, 0, txTypes);
+        System.arraycopy(m.errCntTotal, 0, errCntTotal, 0, txTypes);
+        System.arraycopy(m.respSumStdy, 0, respSumStdy, 0, txTypes);
+        System.arraycopy(m.respSumTotal, 0, respSumTotal, 0, txTypes);
+        System.arraycopy(m.sumSquaresStdy, 0, sumSquaresStdy, 0, txTypes);
+        System.arraycopy(m.sumSquaresTotal, 0, sumSquaresTotal, 0, txTypes);
+        if (respHist != null && m.respHist != null)
+            for (int i = 0; i < txTypes; i++)
+                respHist[i].copy(m.respHist[i]);
+        if (m.phaseSumTotal != null) {
+            if (phaseSumTotal == null)
+                phaseSumTotal = new double[txTypes][DriverContext.PHASES];
+            for (int i = 0; i < txTypes; i++)
+                System.arraycopy(m.phaseSumTotal[i], 0, phaseSumTotal[i], 0,
+                                 DriverContext.PHASES);
         }
     }
 
     /**
-     * Adds a metrics to this RuntimeMetrics.
+     * Adds a metrics to this RuntimeMetrics. The histograms are only
+     * added if both have histograms.
      * @param m The metrics to add
      */
     public void add(RuntimeMetrics m) {
         if (m.timestamp > timestamp)
             timestamp = m.timestamp;
-        
+        if (m.phaseSumTotal != null && phaseSumTotal == null)
+            phaseSumTotal = new double[txTypes][DriverContext.PHASES];
+
         for (int i = 0; i < txTypes; i++) {
             // Add the sum squares before adding the count and response sum.
             // The values of count and sum have to be unchanged at this point.
@@ -237,9 +258,11 @@ public class RuntimeMetrics implements Serializable,
             errCntTotal[i] += m.errCntTotal[i];
             respSumStdy[i] += m.respSumStdy[i];
             respSumTotal[i] += m.respSumTotal[i];
-            hiRespSumStdy[i] += m.hiRespSumStdy[i];
-            for (int j = 0; j < m.respHist[i].length; j++)
-                respHist[i][j] += m.respHist[i][j];
+            if (respHist != null && m.respHist != null)
+                respHist[i].add(m.respHist[i]);
+            if (m.phaseSumTotal != null)
+                for (int j = 0; j < DriverContext.PHASES; j++)
+                    phaseSumTotal[i][j] += m.phaseSumTotal[i][j];
         }
     }
 
@@ -273,22 +296,9 @@ public class RuntimeMetrics implements Serializable,
         for (int i = 1; i < txTypes; i++) {
             b.append('/').append(respSumTotal[i]);
         }
-        b.append("\nhiRespSumStdy:").append(hiRespSumStdy[0]);
-        for (int i = 1; i < txTypes; i++) {
-            b.append('/').append(hiRespSumStdy[i]);
-        }
-        b.append("\nrespHist:").append('[').append(respHist[0][0]);
-
-        for (int j = 1; j < respHist[0].length; j++) {
-            b.append(',').append(respHist[0][j]);            
-        }
-        b.append(']');
+        b.append("\nrespHist:").append('[').append(respHist[0]).append(" ]");
         for (int i = 1; i < respHist.length; i++) {
-            b.append("/[").append(respHist[i][0]);
-            for (int j = 1; j < respHist[i].length; j++) {
-                b.append(',').append(respHist[i][j]);
-            }
-            b.append(']');
+            b.append("/[").append(respHist[i]).append(" ]");
         }
         return b.toString();
     }
@@ -296,6 +306,7 @@ public class RuntimeMetrics implements Serializable,
     /**
      * Synthesizes and provides the results from this runtime stats. The 
      * results are first indexed by the stat type, then by the tx type.
+     * The request phase times are only included if recorded.
      * @param runInfo The RunInfo for this benchmark run
      * @param prev The previous RuntimeMetrics
      * @return The synthesized results
@@ -326,7 +337,10 @@ public class RuntimeMetrics implements Serializable,
         else
             timeElapsed = Integer.MIN_VALUE;
 
-        double[][] s = new double[LABELS.length][txTypes];
+        int labels = LABELS.length;
+        if (phaseSumTotal == null || prev.phaseSumTotal == null)
+            labels = C_PHASES;
+        double[][] s = new double[labels][txTypes];
 
         // Initialize results to NaN;
         for (int i = 0; i < s.length; i++) {
@@ -353,6 +367,12 @@ public class RuntimeMetrics implements Serializable,
                 s[C_RESP][i] = (respSumTotal[i] - prev.respSumTotal[i]) /
                         (nTx * precision);
             }
+            // Current avg request phase times per tx (last n secs)
+            if (labels > C_PHASES && nTx > 0) {
+                for (int j = 0; j < DriverContext.PHASES; j++)
+                    s[C_PHASES + j][i] = (phaseSumTotal[i][j] -
+                            prev.phaseSumTotal[i][j]) / (nTx * precision);
+            }
 
             if (logger.isLoggable(Level.FINER)) {
                 double p2 = precision * precision;
@@ -386,56 +406,26 @@ public class RuntimeMetrics implements Serializable,
                                precision;
 
                 // Current 90th% response time (last n secs)
-                int sumtx, cnt90, j;
+                long maxResp = respHist[i].getMaxValue();
+                long resp90;
                 if (txCntStdy[i] > prev.txCntStdy[i]) {
-                    sumtx = 0;
-                    cnt90 = (int) ((txCntStdy[i] - prev.txCntStdy[i]) * .90d);
-                    j = 0;
-                    for (; j < respHist[i].length; j++) {
-                        sumtx += respHist[i][j] - prev.respHist[i][j];
-                        if (sumtx >= cnt90) {	/* 90% of tx. got */
-                            break;
-                        }
-                    }
-                    // We report the base of the next bucket.
-                    ++j;
-                    s[C_RESP90][i] = getBucketValue(j) / precision;
+                    resp90 = respHist[i].getPercentile(90d, prev.respHist[i]);
+                    if (resp90 > maxResp) // Overflow
+                        resp90 = maxResp;
+                    s[C_RESP90][i] = resp90 / precision;
                 }
 
                 // Overall 90th% response time
-                sumtx = 0;
-                cnt90 = (int) (txCntStdy[i] * .90d);
-                j = 0;
-                for (; j < respHist[i].length; j++) {
-                    sumtx += respHist[i][j];
-                    if (sumtx >= cnt90) {	/* 90% of tx. got */
-                        break;
-                    }
-                }
-                // We report the base of the next bucket.
-                ++j;
-                s[O_RESP90][i] = getBucketValue(j) / precision;
+                resp90 = respHist[i].getPercentile(90d, null);
+                if (resp90 > maxResp) // Overflow
+                    resp90 = maxResp;
+                s[O_RESP90][i] = resp90 / precision;
 
                 if (logger.isLoggable(crosscheck)) {
                     // Overall standard deviation check from histogram
-                    double sumDev2 = 0d;
-                    for (j = 0; j < respHist[i].length; j++) {
-                        int frequency = respHist[i][j] - prev.respHist[i][j];
-                        if (frequency == 0) {
-                            continue;
-                        }
-                        long bucketRep = getBucketRepValue(j);
-                        double dev;
-                        if (bucketRep == Long.MIN_VALUE) {
-                            dev = (hiRespSumStdy[i] - prev.hiRespSumStdy[i]) /
-                                    frequency;
-                        } else {
-                            dev = bucketRep;
-                        }
-                        dev = dev / precision - s[C_RESP][i];
-                        sumDev2 += dev * dev * frequency;
-                    }
-                    ckSD[i] = Math.sqrt(sumDev2 / nTx);
+                    double sumDev2 = respHist[i].getSumDeviation2(
+                            s[C_RESP][i] * precision, prev.respHist[i]);
+                    ckSD[i] = Math.sqrt(sumDev2 / nTx) / precision;
                 }
             }
         }
@@ -454,31 +444,4 @@ public class RuntimeMetrics implements Serializable,
 
         return s;
     }
-
-    private long getBucketValue(int bucketId) {
-        long resp;
-        if (bucketId < Metrics.FINE_RESPBUCKETS) {
-            resp = bucketId * fineRespBucketSize;
-        } else if (bucketId < Metrics.RESPBUCKETS) {
-            resp = (bucketId - Metrics.FINE_RESPBUCKETS) *
-                    coarseRespBucketSize + fineRespHistMax;
-        } else {
-            resp = coarseRespHistMax + coarseRespBucketSize;
-        }
-        return resp;
-    }
-
-    private long getBucketRepValue(int bucketId) {
-        long resp;
-        if (bucketId < Metrics.FINE_RESPBUCKETS) {
-            resp = bucketId * fineRespBucketSize + (fineRespBucketSize/2);
-        } else if (bucketId < Metrics.RESPBUCKETS) {
-            resp = (bucketId - Metrics.FINE_RESPBUCKETS) *
-                    coarseRespBucketSize + fineRespHistMax +
-                    (coarseRespBucketSize/2);
-        } else {
-            resp = Long.MIN_VALUE;
-        }
-        return resp;
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,320 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The RuntimeStatsCodec encodes the runtime stats the agents stream to
+ * the master. Each frame only carries what changed since the previous
+ * frame of the same agent. Counters and histogram buckets are sent as
+ * varint deltas. The sums are sent as full values, and only if changed,
+ * so the sum of squares can still be combined accurately on the master.
+ * A frame is laid out as follows:<ul>
+ * <li>The length of the rest of the frame, as a 4 byte int.</li>
+ * <li>The driver type, agent number, sequence, timestamp, and number
+ *     of operations, as varints.</li>
+ * <li>For each operation, a flag byte telling which parts follow.</li>
+ * <li>The deltas of the steady state and total tx and error counts.</li>
+ * <li>The steady state and total response time sums and sum squares.</li>
+ * <li>The changed histogram buckets, each as the distance from the
+ *     previous changed bucket and the count delta, terminated by 0.</li>
+ * <li>The delta of the histogram overflow sum.</li>
+ * <li>The total request phase time sums, if recorded and changed.</li>
+ * </ul>
+ * Each connection starts with a handshake frame carrying the run id,
+ * the run's token, the driver type, and the agent number. The master
+ * drops connections that do not identify an agent of the current run.
+ * The first frame after the handshake carries the full state of the
+ * agent, so frames lost with a broken connection do not lose counts.
+ */
+class RuntimeStatsCodec {
+
+    private static final int COUNTS = 1;
+    private static final int SUMS = 2;
+    private static final int HIST = 4;
+    private static final int OVERFLOW = 8;
+    private static final int PHASES = 16;
+
+    private ByteBuffer buffer = ByteBuffer.allocate(8192);
+
+    /**
+     * Encodes the changes of the runtime metrics of an agent since the
+     * previous frame into a frame.
+     * @param agent The agent number
+     * @param current The current runtime metrics of the agent
+     * @param prev The runtime metrics of the previous frame, or null
+     * @return The frame, ready to be written
+     */
+    ByteBuffer encode(int agent, RuntimeMetrics current, RuntimeMetrics prev) {
+        buffer.clear();
+        buffer.position(4);
+        putVarint(current.driverType);
+        putVarint(agent);
+        putVarint(current.sequence);
+        putVarint(zigzag(current.timestamp));
+        putVarint(current.txTypes);
+
+        for (int i = 0; i < current.txTypes; i++) {
+            Histogram hist = current.respHist[i];
+            Histogram base = prev == null ? null : prev.respHist[i];
+            int flags = 0;
+            if (prev == null) {
+                if (current.txCntTotal[i] > 0 || current.errCntTotal[i] > 0)
+                    flags = COUNTS | SUMS;
+                if (hist.getCount() > 0)
+                    flags |= HIST;
+                if (hist.getOverflowSum() != 0d)
+                    flags |= OVERFLOW;
+                if (current.phaseSumTotal != null &&
+                        (flags & COUNTS) != 0)
+                    flags |= PHASES;
+            } else {
+                if (current.txCntTotal[i] != prev.txCntTotal[i] ||
+                        current.errCntTotal[i] != prev.errCntTotal[i] ||
+                        current.txCntStdy[i] != prev.txCntStdy[i] ||
+                        current.errCntStdy[i] != prev.errCntStdy[i])
+                    flags = COUNTS;
+                if (current.respSumTotal[i] != prev.respSumTotal[i] ||
+                        current.sumSquaresTotal[i] !=
+                        prev.sumSquaresTotal[i])
+                    flags |= SUMS;
+                if (hist.getCount() != base.getCount())
+                    flags |= HIST;
+                if (hist.getOverflowSum() != base.getOverflowSum())
+                    flags |= OVERFLOW;
+                if (current.phaseSumTotal != null &&
+                        (prev.phaseSumTotal == null || !Arrays.equals(
+                        current.phaseSumTotal[i], prev.phaseSumTotal[i])))
+                    flags |= PHASES;
+            }
+            ensure(1);
+            buffer.put((byte) flags);
+
+            if ((flags & COUNTS) != 0) {
+                if (prev == null) {
+                    putVarint(current.txCntStdy[i]);
+                    putVarint(current.txCntTotal[i]);
+                    putVarint(current.errCntStdy[i]);
+                    putVarint(current.errCntTotal[i]);
+                } else {
+                    putVarint(current.txCntStdy[i] - prev.txCntStdy[i]);
+                    putVarint(current.txCntTotal[i] - prev.txCntTotal[i]);
+                    putVarint(current.errCntStdy[i] - prev.errCntStdy[i]);
+                    putVarint(current.errCntTotal[i] - prev.errCntTotal[i]);
+                }
+            }
+            if ((flags & SUMS) != 0) {
+                ensure(32);
+                buffer.putDouble(current.respSumStdy[i]);
+                buffer.putDouble(current.respSumTotal[i]);
+                buffer.putDouble(current.sumSquaresStdy[i]);
+                buffer.putDouble(current.sumSquaresTotal[i]);
+            }
+            if ((flags & HIST) != 0) {
+                int buckets = hist.getBucketCount();
+                int last = -1;
+                for (int j = 0; j < buckets; j++) {
+                    long delta = hist.getCount(j);
+                    if (base != null)
+                        delta -= base.getCount(j);
+                    if (delta != 0l) {
+                        putVarint(j - last);
+                        putVarint(delta);
+                        last = j;
+                    }
+                }
+                putVarint(0);
+            }
+            if ((flags & OVERFLOW) != 0) {
+                double delta = hist.getOverflowSum();
+                if (base != null)
+                    delta -= base.getOverflowSum();
+                ensure(8);
+                buffer.putDouble(delta);
+            }
+            if ((flags & PHASES) != 0) {
+                ensure(8 * DriverContext.PHASES);
+                for (int j = 0; j < DriverContext.PHASES; j++)
+                    buffer.putDouble(current.phaseSumTotal[i][j]);
+            }
+        }
+        buffer.putInt(0, buffer.position() - 4);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Encodes the handshake frame an agent sends first on each connection.
+     * @param runId The run id
+     * @param token The runtime stats token of the run
+     * @param driverType The driver type
+     * @param agent The agent number
+     * @return The frame, ready to be written
+     */
+    ByteBuffer encodeHandshake(String runId, long token, int driverType,
+                               int agent) {
+        buffer.clear();
+        buffer.position(4);
+        putString(runId);
+        ensure(8);
+        buffer.putLong(token);
+        putVarint(driverType);
+        putVarint(agent);
+        buffer.putInt(0, buffer.position() - 4);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Applies the operation data of a frame to the counters and histograms
+     * of the agent. The frame header must already be read.
+     * @param frame The frame, positioned after the header
+     * @param agent The runtime metrics of the agent
+     */
+    static void decode(ByteBuffer frame, RuntimeMetrics agent) {
+        Histogram[] hists = agent.respHist;
+        for (int i = 0; i < agent.txTypes; i++) {
+            int flags = frame.get();
+            if ((flags & COUNTS) != 0) {
+                agent.txCntStdy[i] += getVarint(frame);
+                agent.txCntTotal[i] += getVarint(frame);
+                agent.errCntStdy[i] += getVarint(frame);
+                agent.errCntTotal[i] += getVarint(frame);
+            }
+            if ((flags & SUMS) != 0) {
+                agent.respSumStdy[i] = frame.getDouble();
+                agent.respSumTotal[i] = frame.getDouble();
+                agent.sumSquaresStdy[i] = frame.getDouble();
+                agent.sumSquaresTotal[i] = frame.getDouble();
+            }
+            if ((flags & HIST) != 0) {
+                int bucket = -1;
+                int gap;
+                while ((gap = (int) getVarint(frame)) != 0) {
+                    bucket += gap;
+                    hists[i].addCount(bucket, getVarint(frame));
+                }
+            }
+            if ((flags & OVERFLOW) != 0)
+                hists[i].addOverflowSum(frame.getDouble());
+            if ((flags & PHASES) != 0) {
+                if (agent.phaseSumTotal == null)
+                    agent.phaseSumTotal =
+                            new double[agent.txTypes][DriverContext.PHASES];
+                for (int j = 0; j < DriverContext.PHASES; j++)
+                    agent.phaseSumTotal[i][j] = frame.getDouble();
+            }
+        }
+    }
+
+    /**
+     * Reads an unsigned varint from the buffer.
+     * @param in The buffer
+     * @return The value
+     */
+    static long getVarint(ByteBuffer in) {
+        long value = 0l;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    /**
+     * Reads a zigzag encoded signed int from the buffer.
+     * @param in The buffer
+     * @return The value
+     */
+    static int getSignedVarint(ByteBuffer in) {
+        long v = getVarint(in);
+        return (int) ((v >>> 1) ^ -(v & 1l));
+    }
+
+    /**
+     * Reads a string, prefixed by its length, from the buffer.
+     * @param in The buffer
+     * @return The string, or null if a null string was written
+     */
+    static String getString(ByteBuffer in) {
+        int length = (int) getVarint(in) - 1;
+        if (length < 0)
+            return null;
+        if (length > in.remaining())
+            throw new BufferUnderflowException();
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long zigzag(int value) {
+        return ((long) value << 1) ^ (value >> 31);
+    }
+
+    private void putVarint(long value) {
+        ensure(10);
+        while ((value & ~0x7fl) != 0l) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private void putString(String value) {
+        if (value == null) {
+            putVarint(0);
+            return;
+        }
+        byte[] bytes;
+        try {
+            bytes = value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        putVarint(bytes.length + 1);
+        ensure(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() < bytes) {
+            ByteBuffer b = ByteBuffer.allocate(Math.max(
+                    buffer.capacity() * 2, buffer.position() + bytes));
+            buffer.flip();
+            b.put(buffer);
+            buffer = b;
+        }
+    }
+}
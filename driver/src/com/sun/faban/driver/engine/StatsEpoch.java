@@ -0,0 +1,84 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+/**
+ * The StatsEpoch lets the stats collector take consistent snapshots of
+ * the stats a single thread keeps updating, without locks. The updating
+ * thread makes the epoch odd before and even again after each update.
+ * The collector copies the stats and retries if the epoch was odd or
+ * changed while copying. The updating thread never waits and only pays
+ * for a few volatile accesses per update.<p>
+ *
+ * Only one thread may update at any time. Any number of snapshots may
+ * be taken, but only from one thread at a time.
+ */
+class StatsEpoch {
+
+    private volatile int epoch = 0;
+
+    // Written by the reader only to order its copy before the validation.
+    private volatile int fence;
+
+    /**
+     * Marks the start of an update. Called by the updating thread.
+     */
+    void beginUpdate() {
+        int e = epoch + 1;
+        epoch = e;
+        // Reading the epoch back keeps the following updates from being
+        // seen before the odd epoch.
+        if (epoch != e)
+            throw new IllegalStateException("Concurrent stats update.");
+    }
+
+    /**
+     * Marks the end of an update. Called by the updating thread.
+     */
+    void endUpdate() {
+        epoch = epoch + 1;
+    }
+
+    /**
+     * Starts reading a snapshot. Waits for an update in progress to end.
+     * @return The epoch to validate the snapshot with
+     */
+    int beginRead() {
+        int e;
+        while (((e = epoch) & 1) != 0)
+            Thread.yield();
+        return e;
+    }
+
+    /**
+     * Validates a snapshot. The snapshot is consistent only if no update
+     * happened since beginRead.
+     * @param e The epoch returned from beginRead
+     * @return Whether the snapshot is consistent
+     */
+    boolean validate(int e) {
+        fence = e; // Orders the reads of the copy before reading the epoch.
+        return epoch == e;
+    }
+}
@@ -25,7 +25,6 @@ package com.sun.faban.driver.engine;
 
 import com.sun.faban.driver.FatalException;
 
-import java.lang.reflect.InvocationTargetException;
 import java.util.logging.Level;
 
 
@@ -57,200 +56,172 @@ public class TimeThread extends AgentThread {
     }
 
     /**
-     * Each thread executes in the doRun method until the benchmark time is up
-     * The main loop chooses a tx. type according to the mix specified in
-     * the parameter file and calls the appropriate transaction
-     * method to do the job.
-   	 * The stats for the entire run are stored in a Metrics object
-   	 * which is returned to the Agent via the getResult() method.
-     * @see Metrics
+     * Sets up the mix selector after the common initialization.
+     * @return true if successful, false if this thread needs to terminate
      */
-	void doRun() {
+    @Override
+    boolean initialize() {
+        if (!super.initialize())
+            return false;
+        selector = new Mix.Selector[1];
+        selector[0] = newSelector(0);
+        return true;
+    }
 
-        driverContext = new DriverContext(this, timer);
+    /**
+     * Calculates the ramp up, steady state, and ramp down periods once
+     * the start time is known.
+     */
+    void initRunPeriods() {
+        // Calculate time periods
+        // Note that the time periods are in secs, need to convert
+        endRampUp = agent.startTime + runInfo.rampUp * 1000000000l;
+        endStdyState = endRampUp + runInfo.stdyState * 1000000000l;
+        endRampDown = endStdyState + runInfo.rampDown * 1000000000l;
+    }
 
-        try {
-            driver = driverClass.newInstance();
-        } catch (Throwable t) {
-            Throwable cause = t.getCause();
-            while (cause != null) {
-                t = cause;
-                cause = t.getCause();
+    /**
+     * Selects the next operation and calculates its invoke time.
+     * @return The kind of step prepared
+     */
+    Step prepareStep() {
+        if (runInfo.variableLoad) {
+            if (id >= agent.runningThreads) {
+                logger.log(Level.FINE, "Current load level: (" +
+                        agent.runningThreads + ") Thread " + id +
+                        " sleeping.");
+                wakeupTime = agent.loadSwitchTime;
+                // Reset ops and don't record first cycle
+                currentOperation = -1;
+                previousOperation[0] = -1;
+                return Step.IDLE;
             }
-            logger.log(Level.SEVERE, name +
-                    ": Error initializing driver object.", t);
-            agent.abortRun();
-            return; // Terminate this thread immediately
         }
 
-        // Call the preRun.
-        preRun();
-
-        // Notify the agent that we have started successfully.
-        agent.threadStartLatch.countDown();
-
-        selector = new Mix.Selector[1];
-        selector[0] = driverConfig.mix[0].selector(random);
-
-        if (runInfo.simultaneousStart) {
-            waitStartTime();
+        if (!runInfo.simultaneousStart && !startTimeSet &&
+                agent.timeSetLatch.getCount() == 0) {
+            startTimeSet = true;
+            initRunPeriods();
+        }
 
-            // Calculate time periods
-            // Note that the time periods are in secs, need to convert
-            endRampUp = agent.startTime + runInfo.rampUp * 1000000000l;
-            endStdyState = endRampUp + runInfo.stdyState * 1000000000l;
-            endRampDown = endStdyState + runInfo.rampDown * 1000000000l;
+        // Save the previous operation
+        previousOperation[mixId] = currentOperation;
+        BenchmarkDefinition.Operation previousOp = null;
+        if (previousOperation[mixId] >= 0) {
+            previousOp = driverConfig.operations[currentOperation];
         }
 
-        logger.fine(name + ": Start of run.");
+        // Select the operation
+        currentOperation = selector[0].select();
+        BenchmarkDefinition.Operation op =
+                driverConfig.operations[currentOperation];
 
-        // Loop until time or cycles are up
-        driverLoop:
-        while (!stopped) {
+        // The invoke time is based on the delay after the previous op.
+        // so we need to use previous op for calculating and recording.
+        long invokeTime = getInvokeTime(previousOp, mixId);
 
-            if (runInfo.variableLoad) {
-                if (id >= agent.runningThreads) {
-                    logger.log(Level.FINE, "Current load level: (" +
-                            agent.runningThreads + ") Thread " + id +
-                            " sleeping.");
-                    timer.wakeupAt(agent.loadSwitchTime);
-                    // Reset ops and don't record first cycle
-                    currentOperation = -1;
-                    previousOperation[0] = -1;
-                    continue;
-                }
-            }
+        // endRampDown is only valid if start time is set.
+        // If the start time of next tx is beyond the end
+        // of the ramp down, just stop right here.
+        if (startTimeSet && invokeTime >= endRampDown) {
+            return Step.END;
+        }
 
-            if (!runInfo.simultaneousStart && !startTimeSet &&
-                    agent.timeSetLatch.getCount() == 0) {
-                startTimeSet = true;
+        logger.finest(name + ": Invoking " + op.name + " at time " +
+                invokeTime + ". Ramp down ends at time " +
+                endRampDown + '.');
 
-                // Calculate time periods
-                // Note that the time periods are in secs, need to convert
-                endRampUp = agent.startTime + runInfo.rampUp * 1000000000l;
-                endStdyState = endRampUp + runInfo.stdyState * 1000000000l;
-                endRampDown = endStdyState + runInfo.rampDown * 1000000000l;
-            }
+        driverContext.setInvokeTime(invokeTime);
+        wakeupTime = invokeTime;
+        return Step.INVOKE;
+    }
 
-            // Save the previous operation
-            previousOperation[mixId] = currentOperation;
-            BenchmarkDefinition.Operation previousOp = null;
-            if (previousOperation[mixId] >= 0) {
-                previousOp = driverConfig.operations[currentOperation];
+    /**
+     * Invokes and records the operation prepared by prepareStep.
+     * @return true if the run continues, false if it ended for this thread
+     */
+    boolean executeStep() {
+        BenchmarkDefinition.Operation op =
+                driverConfig.operations[currentOperation];
+
+        // Invoke the operation
+        if (id == 0)
+            logger.finest("Invoking " + op.name + " at " +
+                    System.nanoTime());
+        Throwable cause = invoke(op);
+        if (cause == null) {
+            if (id == 0)
+                logger.finest("Returned from " + op.name + " (OK) at " +
+                        System.nanoTime());
+            validateTimeCompletion(op);
+            if (id == 0) {
+                DriverContext.TimingInfo t = driverContext.timingInfo;
+                logger.finest("Invoke: " + t.invokeTime + ", Respond: " +
+                        t.respondTime + ", Pause: " + t.pauseTime);
             }
-
-            // Select the operation
-            currentOperation = selector[0].select();
-            BenchmarkDefinition.Operation op =
-                    driverConfig.operations[currentOperation];
-
-            // The invoke time is based on the delay after the previous op.
-            // so we need to use previous op for calculating and recording.
-            long invokeTime = getInvokeTime(previousOp, mixId);
-
-            // endRampDown is only valid if start time is set.
-            // If the start time of next tx is beyond the end
-            // of the ramp down, just stop right here.
-            if (startTimeSet && invokeTime >= endRampDown) {
-                break driverLoop;
+            checkRamp();
+            metrics.recordTx();
+            metrics.recordDelayTime();
+        } else {
+            if (id == 0)
+                logger.finest("Returned from " + op.name + " (Err) at " +
+                        System.nanoTime());
+            checkFatal(cause, op);
+
+            // We have to fix up the invoke/respond times to have valid
+            // values and not TIME_NOT_SET.
+
+            // In case of exception, invokeTime or even respondTime may
+            // still be TIME_NOT_SET.
+            DriverContext.TimingInfo timingInfo =
+                    driverContext.timingInfo;
+
+            // The lastRespondTime may be set, though. if so, propagate
+            // it back to respondTime.
+            if (timingInfo.respondTime == TIME_NOT_SET &&
+                    timingInfo.lastRespondTime != TIME_NOT_SET) {
+                logger.fine("Potential open request in operation " +
+                        op.m.getName() + ".");
+                timingInfo.respondTime = timingInfo.lastRespondTime;
             }
 
-            logger.finest(name + ": Invoking " + op.name + " at time " +
-                    invokeTime + ". Ramp down ends at time " +
-                    endRampDown + '.');
-
-            driverContext.setInvokeTime(invokeTime);
-
-            // Invoke the operation
-            try {
-                if (id == 0)
-                    logger.finest("Invoking " + op.name + " at " +
-                            System.nanoTime());
-                op.m.invoke(driver);
-                if (id == 0)
-                    logger.finest("Returned from " + op.name + " (OK) at " +
-                            System.nanoTime());
-                validateTimeCompletion(op);
-                if (id == 0) {
-                    DriverContext.TimingInfo t = driverContext.timingInfo;
-                    logger.finest("Invoke: " + t.invokeTime + ", Respond: " +
-                            t.respondTime + ", Pause: " + t.pauseTime);
-                }
-                checkRamp();
-                metrics.recordTx();
-                metrics.recordDelayTime();
-            } catch (InvocationTargetException e) {
-                if (id == 0)
-                    logger.finest("Returned from " + op.name + " (Err) at " +
-                            System.nanoTime());
-                // An invocation target exception is caused by another
-                // exception thrown by the operation directly.
-                Throwable cause = e.getCause();
-                checkFatal(cause, op);
-
-                // We have to fix up the invoke/respond times to have valid
-                // values and not TIME_NOT_SET.
-
-                // In case of exception, invokeTime or even respondTime may
-                // still be TIME_NOT_SET.
-                DriverContext.TimingInfo timingInfo =
-                        driverContext.timingInfo;
-
-                // The lastRespondTime may be set, though. if so, propagate
-                // it back to respondTime.
-                if (timingInfo.respondTime == TIME_NOT_SET &&
-                        timingInfo.lastRespondTime != TIME_NOT_SET) {
-                    logger.fine("Potential open request in operation " +
-                            op.m.getName() + ".");
-                    timingInfo.respondTime = timingInfo.lastRespondTime;
-                }
-
-                // If it never waited, we'll see whether we can just use the
-                // previous start and end times.
-                if (timingInfo.invokeTime == TIME_NOT_SET) {
-                    long currentTime = System.nanoTime();
-                    if (currentTime < timingInfo.intendedInvokeTime) {
-                        // No time change, no need to checkRamp
-                        metrics.recordError();
-                        logError(cause, op);
-                        continue driverLoop;
-                    }
-                    // Too late, we'll need to use the real time
-                    // for both invoke and respond time.
-                    timingInfo.invokeTime = System.nanoTime();
-                    timingInfo.respondTime = timingInfo.invokeTime;
-                    checkRamp();
-                    metrics.recordError();
-                    logError(cause, op);
-                    // The delay time is invalid,
-                    // we cannot record in this case.
-                } else if (timingInfo.respondTime == TIME_NOT_SET) {
-                    timingInfo.respondTime = System.nanoTime();
-                    checkRamp();
-                    metrics.recordError();
-                    logError(cause, op);
-                    metrics.recordDelayTime();
-                } else { // All times are there
-                    checkRamp();
+            // If it never waited, we'll see whether we can just use the
+            // previous start and end times.
+            if (timingInfo.invokeTime == TIME_NOT_SET) {
+                long currentTime = System.nanoTime();
+                if (currentTime < timingInfo.intendedInvokeTime) {
+                    // No time change, no need to checkRamp
                     metrics.recordError();
                     logError(cause, op);
-                    metrics.recordDelayTime();
+                    return true;
                 }
-            } catch (IllegalAccessException e) {
-                logger.log(Level.SEVERE, name + "." + op.m.getName() +
-                        ": " + e.getMessage(), e);
-                agent.abortRun();
-                return;
+                // Too late, we'll need to use the real time
+                // for both invoke and respond time.
+                timingInfo.invokeTime = System.nanoTime();
+                timingInfo.respondTime = timingInfo.invokeTime;
+                checkRamp();
+                metrics.recordError();
+                logError(cause, op);
+                // The delay time is invalid,
+                // we cannot record in this case.
+            } else if (timingInfo.respondTime == TIME_NOT_SET) {
+                timingInfo.respondTime = System.nanoTime();
+                checkRamp();
+                metrics.recordError();
+                logError(cause, op);
+                metrics.recordDelayTime();
+            } else { // All times are there
+                checkRamp();
+                metrics.recordError();
+                logError(cause, op);
+                metrics.recordDelayTime();
             }
+        }
 
-            startTime[mixId] = driverContext.timingInfo.invokeTime;
-            endTime[mixId] = driverContext.timingInfo.respondTime;
+        startTime[mixId] = driverContext.timingInfo.invokeTime;
+        endTime[mixId] = driverContext.timingInfo.respondTime;
 
-            if (startTimeSet && endTime[mixId] >= endRampDown) {
-                break driverLoop;
-            }
-        }
-        logger.fine(name + ": End of run.");
+        return !startTimeSet || endTime[mixId] < endRampDown;
     }
 
     /**
@@ -0,0 +1,143 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import com.sun.faban.common.TableModel;
+import com.sun.faban.driver.CustomTableMetrics;
+
+/**
+ * The TransitionStats count a sample of the transitions selected by a
+ * matrix mix, so the achieved transition ratios can be checked against
+ * the targets and the allowed deviation. Only the transitions with a
+ * non-zero target are counted, as no other transitions are selected.
+ * The stats are collected if the system property faban.mix.traceInterval
+ * is set to the sampling interval, in selections.
+ */
+class TransitionStats implements CustomTableMetrics {
+
+    private static final long serialVersionUID = 1L;
+
+    private String[] names;
+    private int[][] ops;
+    private double[][] targets;
+    private double deviation;
+    private long[][] counts;
+
+    /**
+     * Creates the stats for the rows of a matrix mix.
+     * @param mix The mix
+     * @param rows The alias tables of the rows
+     */
+    TransitionStats(MatrixMix mix, AliasTable[] rows) {
+        names = new String[mix.operations.length];
+        for (int i = 0; i < names.length; i++)
+            names[i] = mix.operations[i].name;
+        deviation = mix.deviation;
+        ops = new int[rows.length][];
+        targets = new double[rows.length][];
+        counts = new long[rows.length][];
+        for (int i = 0; i < rows.length; i++) {
+            int size = rows[i].size();
+            ops[i] = new int[size];
+            targets[i] = new double[size];
+            counts[i] = new long[size];
+            for (int j = 0; j < size; j++) {
+                ops[i][j] = rows[i].op(j);
+                targets[i][j] = rows[i].weight(j);
+            }
+        }
+    }
+
+    private TransitionStats() {
+    }
+
+    /**
+     * Records a transition.
+     * @param from The operation transitioned from
+     * @param entry The alias table entry selected from the row
+     */
+    void record(int from, int entry) {
+        ++counts[from][entry];
+    }
+
+    /**
+     * Aggregates the stats from another thread with the current one.
+     * @param other The stats from another thread
+     */
+    public void add(CustomTableMetrics other) {
+        long[][] otherCounts = ((TransitionStats) other).counts;
+        for (int i = 0; i < counts.length; i++)
+            for (int j = 0; j < counts[i].length; j++)
+                counts[i][j] += otherCounts[i][j];
+    }
+
+    /**
+     * The metrics need to be cloneable and not throw any exceptions.
+     * @return The TransitionStats clone
+     */
+    public Object clone() {
+        TransitionStats clone = new TransitionStats();
+        clone.names = names;
+        clone.ops = ops;
+        clone.targets = targets;
+        clone.deviation = deviation;
+        clone.counts = new long[counts.length][];
+        for (int i = 0; i < counts.length; i++)
+            clone.counts[i] = counts[i].clone();
+        return clone;
+    }
+
+    /**
+     * Obtains the achieved versus the targeted transition ratios of
+     * each operation sampled.
+     * @return The result table
+     */
+    public TableModel getResults() {
+        TableModel table = new TableModel(6);
+        table.setHeader(0, "From");
+        table.setHeader(1, "To");
+        table.setHeader(2, "Samples");
+        table.setHeader(3, "Targeted Mix");
+        table.setHeader(4, "Actual Mix");
+        table.setHeader(5, "Passed");
+        for (int i = 0; i < counts.length; i++) {
+            long total = 0l;
+            for (int j = 0; j < counts[i].length; j++)
+                total += counts[i][j];
+            if (total == 0l)
+                continue;
+            for (int j = 0; j < counts[i].length; j++) {
+                double actual = (double) counts[i][j] / total;
+                Comparable[] row = table.newRow();
+                row[0] = names[i];
+                row[1] = names[ops[i][j]];
+                row[2] = counts[i][j];
+                row[3] = String.format("%.2f%%", 100d * targets[i][j]);
+                row[4] = String.format("%.2f%%", 100d * actual);
+                row[5] = 100d * Math.abs(actual - targets[i][j]) <= deviation;
+            }
+        }
+        return table;
+    }
+}
@@ -0,0 +1,316 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import com.sun.faban.driver.util.TimerWheel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The UserScheduler runs the emulated users of an agent as tasks on a
+ * small pool of carrier threads instead of giving each user its own
+ * thread. A user is only bound to a carrier while it is actually
+ * executing an operation. While it waits for its next invoke time,
+ * it is just an entry in the timer wheel holding no thread at all.
+ * This allows driving a much larger number of users from a single
+ * agent JVM.<p>
+ *
+ * Since the operations themselves are blocking, the number of carrier
+ * threads limits the number of operations in flight at any time. If the
+ * carriers are saturated, operations will start late and this will show
+ * in the wake-up lateness statistics of the run.
+ */
+class UserScheduler {
+
+    private AgentImpl agent;
+    private Logger logger;
+    private ExecutorService carriers;
+    private List<UserTask> users = new ArrayList<UserTask>();
+    private List<UserTask> pending = new ArrayList<UserTask>();
+    private int running = 0;
+    private boolean startTimeSet = false;
+
+    /**
+     * Constructs a scheduler for the given agent.
+     * @param agent The agent owning the users
+     * @param displayName The agent display name, used for naming carriers
+     * @param carrierCount The number of carrier threads
+     */
+    UserScheduler(AgentImpl agent, final String displayName,
+                  int carrierCount) {
+        this.agent = agent;
+        logger = Logger.getLogger(getClass().getName());
+        carriers = Executors.newFixedThreadPool(carrierCount,
+                new ThreadFactory() {
+                    int count = 0;
+
+                    public synchronized Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, displayName + ".carrier." +
+                                count++);
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        logger.info(displayName + ": Running users on " + carrierCount +
+                " carrier threads.");
+    }
+
+    /**
+     * Calculates the default number of carrier threads, based on the
+     * number of processors available.
+     * @param users The number of users to run
+     * @return The number of carrier threads
+     */
+    static int defaultCarriers(int users) {
+        int carriers = Math.max(16,
+                Runtime.getRuntime().availableProcessors() * 4);
+        if (carriers > users)
+            carriers = users;
+        return carriers;
+    }
+
+    /**
+     * Starts running the given user. The user must not be started as a
+     * thread at the same time.
+     * @param user The user to run
+     */
+    void start(AgentThread user) {
+        UserTask task = new UserTask(user);
+        synchronized (this) {
+            users.add(task);
+            ++running;
+        }
+        carriers.execute(task);
+    }
+
+    /**
+     * Notifies the scheduler that the run start time is set. All users
+     * waiting for the simultaneous start get scheduled at the start time.
+     */
+    void startTimeSet() {
+        UserTask[] waiting;
+        synchronized (this) {
+            startTimeSet = true;
+            waiting = pending.toArray(new UserTask[pending.size()]);
+            pending.clear();
+        }
+        for (UserTask task : waiting)
+            if (task.startAtStartTime())
+                carriers.execute(task);
+    }
+
+    /**
+     * Waits for all users to finish and shuts down the carriers.
+     */
+    void join() {
+        synchronized (this) {
+            while (running > 0)
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    logger.log(Level.FINE, e.getMessage(), e);
+                }
+        }
+        carriers.shutdown();
+    }
+
+    /**
+     * Stops all users. Users currently not executing an operation are
+     * scheduled immediately so they finish without waiting for their
+     * next invoke time.
+     */
+    void kill() {
+        UserTask[] tasks;
+        synchronized (this) {
+            tasks = users.toArray(new UserTask[users.size()]);
+            pending.clear();
+        }
+        for (UserTask task : tasks) {
+            if (task.finished)
+                continue;
+            task.user.stopped = true;
+            if (task.carrier == null)
+                carriers.execute(task);
+        }
+    }
+
+    /**
+     * Forcefully terminates the users that have not finished, logging
+     * the stack of the carrier for users stuck in an operation.
+     * @return The number of users terminated
+     */
+    int terminate() {
+        UserTask[] tasks;
+        synchronized (this) {
+            tasks = users.toArray(new UserTask[users.size()]);
+        }
+        int terminationCount = 0;
+        for (UserTask task : tasks) {
+            if (task.finished)
+                continue;
+            ++terminationCount;
+            Thread carrier = task.carrier;
+            if (carrier != null) {
+                Throwable t = new Throwable("Stack of non-terminating user.");
+                t.setStackTrace(carrier.getStackTrace());
+                logger.log(Level.FINE, task.user.name +
+                        ": User not Terminated. " +
+                        "Dumping stack and force termination.", t);
+            }
+        }
+        kill();
+        for (UserTask task : tasks) {
+            Thread carrier = task.carrier;
+            if (carrier != null)
+                carrier.interrupt();
+        }
+        return terminationCount;
+    }
+
+    /**
+     * Schedules a task to run on a carrier at the given time.
+     * @param task The task to schedule
+     * @param time The time to run the task, in nanosecs
+     */
+    private void schedule(UserTask task, long time) {
+        TimerWheel wheel = agent.timer.getWheel();
+        // Once the timer is shut down the run is over, drop the task.
+        if (wheel != null)
+            wheel.schedule(time, task, carriers);
+    }
+
+    /**
+     * The task representing a single user. Each run of the task executes
+     * the steps of the user that are due and reschedules itself for the
+     * next step.
+     */
+    private class UserTask implements Runnable {
+
+        AgentThread user;
+        volatile Thread carrier;
+        volatile boolean finished = false;
+        boolean initialized = false;
+        boolean prepared = false;
+
+        UserTask(AgentThread user) {
+            this.user = user;
+        }
+
+        public synchronized void run() {
+            if (finished)
+                return;
+            carrier = Thread.currentThread();
+            try {
+                if (!initialized) {
+                    initialized = true;
+                    user.setThreadState(AgentThread.RunState.INITIALIZING);
+                    if (!user.initialize()) {
+                        finish();
+                        return;
+                    }
+                    user.logger.fine(user.name + ": Start of run.");
+                    if (user.runInfo.simultaneousStart) {
+                        synchronized (UserScheduler.this) {
+                            if (!startTimeSet) {
+                                pending.add(this);
+                                return;
+                            }
+                        }
+                        if (!startAtStartTime())
+                            return;
+                    }
+                } else {
+                    user.driverContext.bind();
+                }
+
+                while (!user.stopped) {
+                    if (!prepared) {
+                        AgentThread.Step step = user.prepareStep();
+                        if (step == AgentThread.Step.END)
+                            break;
+                        if (step == AgentThread.Step.IDLE) {
+                            schedule(this, user.wakeupTime);
+                            return;
+                        }
+                        prepared = true;
+                    }
+                    if (user.wakeupTime > System.nanoTime()) {
+                        schedule(this, user.wakeupTime);
+                        return;
+                    }
+                    prepared = false;
+                    if (!user.executeStep())
+                        break;
+                }
+                user.logger.fine(user.name + ": End of run.");
+                finish();
+            } catch (Throwable t) {
+                user.runFailed(t);
+                finish();
+            } finally {
+                carrier = null;
+                Thread.interrupted(); // Don't leak interrupts to the carrier.
+            }
+        }
+
+        /**
+         * Sets up the run periods once the start time is known and
+         * schedules this user at the start time.
+         * @return true if the start time already passed and the user
+         *         needs to continue right away, false if scheduled
+         */
+        boolean startAtStartTime() {
+            user.startTimeSet = true;
+            user.initRunPeriods();
+            long delay = agent.startTime - System.nanoTime();
+            if (delay <= 0) {
+                user.logger.severe(user.name + ": Start time is set " +
+                        (-delay) + " nanosecs too late. Please file a bug.");
+                agent.abortRun();
+                return true;
+            }
+            schedule(this, agent.startTime);
+            return false;
+        }
+
+        private void finish() {
+            try {
+                user.postRun();
+            } catch (Throwable t) {
+                user.runFailed(t);
+            }
+            finished = true;
+            synchronized (UserScheduler.this) {
+                --running;
+                UserScheduler.this.notifyAll();
+            }
+        }
+    }
+}
@@ -58,10 +58,20 @@ public class VariableLoadHandlerThread extends Thread {
 			while(agent.runInfo.variableLoadHandler.hasNext()) {
 				VariableLoadHandler.VariableLoad load =
                         agent.runInfo.variableLoadHandler.next();
-				agent.runningThreads = load.threadCount;
-                agent.loadSwitchTime += load.runTime * 1000000000l;
-                logger.log(Level.INFO, "Active threads: " + load.threadCount +
+                // Rate controlled runs vary the arrival rate of the driver
+                // instead of the active threads.
+                if (agent.arrivals != null) {
+                    agent.arrivals.setRate(agent.getAgentRate(
+                            load.threadCount), agent.loadSwitchTime);
+                    logger.log(Level.INFO, "Arrival rate: " + load.threadCount +
                                        " next " + load.runTime + " seconds.");
+                } else {
+                    agent.runningThreads = load.threadCount;
+                    logger.log(Level.INFO, "Active threads: " +
+                            load.threadCount + " next " + load.runTime +
+                            " seconds.");
+                }
+                agent.loadSwitchTime += load.runTime * 1000000000l;
                 agent.timer.wakeupAt(agent.loadSwitchTime);
 			}
 		} catch(InterruptedException e) {
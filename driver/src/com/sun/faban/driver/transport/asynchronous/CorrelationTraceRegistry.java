@@ -0,0 +1,256 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.asynchronous;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.jms.Message;
+
+import com.sun.faban.driver.DriverContext;
+import com.sun.faban.driver.util.RoundTripStats;
+
+/**
+ * The {@link CorrelationTraceRegistry} correlates responses to requests
+ * through a map of the outstanding traces by correlation id, shared by all
+ * registries in the JVM. The response completes its trace right from
+ * {@link #acknowledge(String, Object)}, waking up the waiting thread.
+ * There are no polling threads and no global locks. The waiting thread
+ * times out by itself.<p>
+ *
+ * Responses must be delivered to a listener in the JVM that sent the
+ * request. Responses arriving after the request timed out are dropped.
+ * The round trip times are reported in the {@link RoundTripStats},
+ * attached to the driver metrics as "Asynchronous Round Trips".
+ *
+ * @param <T> result
+ * @param <K> message
+ */
+public class CorrelationTraceRegistry<T, K extends Message>
+        implements TraceRegistry<T, K> {
+
+    private static AtomicLong traceCounter = new AtomicLong(100000);
+
+    private static ConcurrentHashMap<String, PendingTrace<?, ?>> pending =
+            new ConcurrentHashMap<String, PendingTrace<?, ?>>();
+
+    private static AtomicLong droppedResponses = new AtomicLong();
+
+    private static Logger logger =
+            Logger.getLogger(CorrelationTraceRegistry.class.getName());
+
+    private DriverContext context;
+    private RoundTripStats stats;
+
+    /**
+     * Constructs a {@link CorrelationTraceRegistry}.
+     * @param ctx The driver context of the thread using the registry
+     */
+    public CorrelationTraceRegistry(DriverContext ctx) {
+        this.context = ctx;
+    }
+
+    /**
+     * Registers the payload as outstanding, setting the JMSCorrelationID if
+     * not set. The round trip time is measured from here.
+     * @param payload The message payload
+     * @return trace A trace object
+     * @throws DyeingException If the correlation id cannot be set or is
+     *         already outstanding
+     * @see com.sun.faban.driver.transport.asynchronous.TraceRegistry#registerAndDye(java.lang.Object)
+     */
+    public Trace<K> registerAndDye(K payload) throws DyeingException {
+        String correlationId;
+        try {
+            correlationId = payload.getJMSCorrelationID();
+            if (correlationId == null) {
+                correlationId = context.getDriverName() + ":" +
+                        context.getAgentId() + ":" +
+                        Long.toString(traceCounter.incrementAndGet());
+                payload.setJMSCorrelationID(correlationId);
+            }
+        } catch (Exception e) {
+            throw new DyeingException(e);
+        }
+        PendingTrace<T, K> trace = new PendingTrace<T, K>(correlationId,
+                                                          payload);
+        if (pending.putIfAbsent(correlationId, trace) != null)
+            throw new DyeingException("Correlation id " + correlationId +
+                                      " is already outstanding");
+        return trace;
+    }
+
+    /**
+     * Completes the trace of the response, if still outstanding.
+     * @see com.sun.faban.driver.transport.asynchronous.TraceRegistry#acknowledge(java.lang.String, java.lang.Object)
+     */
+    @SuppressWarnings("unchecked")
+    public void acknowledge(String traceId, T response)
+            throws MissingDyeException {
+        if (traceId == null || traceId.length() == 0)
+            throw new MissingDyeException();
+        PendingTrace<T, K> trace = (PendingTrace<T, K>) pending.remove(traceId);
+        if (trace == null) {
+            logger.fine("Dropped response " + traceId + ", " +
+                    droppedResponses.incrementAndGet() + " dropped so far.");
+            return;
+        }
+        trace.complete(response);
+    }
+
+    /**
+     * Drops the trace from the outstanding traces without recording it.
+     * The trace must have been returned by {@link #registerAndDye(Message)}
+     * of a CorrelationTraceRegistry.
+     * @see com.sun.faban.driver.transport.asynchronous.TraceRegistry#cancel(com.sun.faban.driver.transport.asynchronous.Trace)
+     */
+    public void cancel(Trace<K> trace) {
+        PendingTrace<?, ?> t = (PendingTrace<?, ?>) trace;
+        pending.remove(t.id, t);
+    }
+
+    /**
+     * Waits for the response of the trace, which must have been returned by
+     * {@link #registerAndDye(Message)} of a CorrelationTraceRegistry.
+     * @return The response, or null if it did not arrive in time
+     * @see com.sun.faban.driver.transport.asynchronous.TraceRegistry#waitForCompletion(com.sun.faban.driver.transport.asynchronous.Trace, int, java.util.concurrent.TimeUnit)
+     */
+    @SuppressWarnings("unchecked")
+    public T waitForCompletion(Trace<K> trace, int time, TimeUnit unit)
+            throws InterruptedException {
+        PendingTrace<T, K> t = (PendingTrace<T, K>) trace;
+        try {
+            if (!t.done.await(time, unit)) {
+                // Unless the response came in just now, it is too late.
+                if (pending.remove(t.id, t)) {
+                    record(t);
+                    return null;
+                }
+                t.done.await();
+            }
+        } catch (InterruptedException e) {
+            pending.remove(t.id, t);
+            throw e;
+        }
+        record(t);
+        return t.response;
+    }
+
+    private void record(PendingTrace<T, K> trace) {
+        com.sun.faban.driver.engine.DriverContext engine =
+                (com.sun.faban.driver.engine.DriverContext) context;
+        long endTime = trace.done.getCount() == 0 ? trace.ackTime :
+                       System.nanoTime();
+        if (!engine.isSteadyState(trace.sendTime, endTime))
+            return;
+        if (stats == null) {
+            stats = new RoundTripStats();
+            context.attachMetrics("Asynchronous Round Trips", stats);
+        }
+        if (trace.done.getCount() == 0)
+            stats.record(trace.ackTime - trace.sendTime);
+        else
+            stats.recordTimeout();
+    }
+
+    /**
+     * @see com.sun.faban.driver.transport.asynchronous.TraceRegistry#isComplete(com.sun.faban.driver.transport.asynchronous.Trace)
+     */
+    public boolean isComplete(Trace<K> trace) {
+        return ((PendingTrace<?, ?>) trace).done.getCount() == 0;
+    }
+
+    /**
+     * Provides the round trip stats of this registry, collected in steady
+     * state.
+     * @return The RoundTripStats, or null if none collected
+     * @see com.sun.faban.driver.transport.asynchronous.TraceRegistry#compileResults(int, java.util.concurrent.TimeUnit)
+     */
+    public Object compileResults(int time, TimeUnit unit) {
+        return stats;
+    }
+
+    private static final Set<Partition> SUPPORTED_PARTITIONS =
+            new HashSet<Partition>();
+    static {
+        Collections.addAll(SUPPORTED_PARTITIONS, Partition.THREAD,
+                           Partition.JVM);
+    }
+
+    /**
+     * @see com.sun.faban.driver.transport.asynchronous.TraceRegistry#getPartitionTolerance()
+     */
+    public Set<Partition> getPartitionTolerance() {
+        return SUPPORTED_PARTITIONS;
+    }
+
+    /**
+     * @see com.sun.faban.driver.transport.asynchronous.TraceRegistry#isSafe(com.sun.faban.driver.transport.asynchronous.Partition)
+     */
+    public boolean isSafe(Partition partition) {
+        return SUPPORTED_PARTITIONS.contains(partition);
+    }
+
+    /** An outstanding trace, completed by the response. */
+    private static final class PendingTrace<T, K> implements Trace<K> {
+
+        final String id;
+        final K msg;
+        final long sendTime = System.nanoTime();
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile long ackTime;
+        volatile T response;
+
+        PendingTrace(String id, K msg) {
+            this.id = id;
+            this.msg = msg;
+        }
+
+        void complete(T response) {
+            ackTime = System.nanoTime();
+            this.response = response;
+            done.countDown();
+        }
+
+        /**
+         * @see com.sun.faban.driver.transport.asynchronous.Trace#getIdentifier()
+         */
+        public String getIdentifier() {
+            return id;
+        }
+
+        /**
+         * @see com.sun.faban.driver.transport.asynchronous.Trace#getPayload()
+         */
+        public K getPayload() {
+            return msg;
+        }
+    }
+}
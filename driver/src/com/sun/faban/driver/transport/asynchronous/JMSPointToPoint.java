@@ -26,7 +26,11 @@ import com.sun.faban.driver.DriverContext;
  * assumes that the message may not be delivered back to the same thread, jvm, or host
  * that originated the request.
  * 
- * A global cache is implemented that provide the mechanism to coordinate responses.
+ * Responses are correlated to the requests by the trace registry, completing the
+ * waiting request right from {@link #onMessage(Message)}.  By default, a
+ * {@link CorrelationTraceRegistry} is used, which requires the responses to be
+ * delivered to the JVM sending the request.  A {@link MessageCacheTraceRegistry}
+ * coordinates responses through a global cache instead.
  * 
  * @author Noah Campbell
  * @param <T> response
@@ -47,7 +51,7 @@ public class JMSPointToPoint<T> implements AsynchronousTransport<T, Message>, Me
 	// background task management and tracking
 	
 	/**
-	 * Construct a {@link JMSPointToPoint} object.
+	 * Construct a {@link JMSPointToPoint} object using a {@link CorrelationTraceRegistry}.
 	 * 
 	 * 
 	 * @param ctx 
@@ -57,12 +61,26 @@ public class JMSPointToPoint<T> implements AsynchronousTransport<T, Message>, Me
 	 * @throws RegistryConfigurationException 
 	 */
 	public JMSPointToPoint(DriverContext ctx, MessageProducer producer, MessageConsumer consumer) throws JMSException, RegistryConfigurationException {   
+		this(ctx, producer, consumer, new CorrelationTraceRegistry<T, Message>(ctx));
+	}
+
+	/**
+	 * Construct a {@link JMSPointToPoint} object using the given trace registry.
+	 * 
+	 * @param ctx 
+	 * @param producer 
+	 * @param consumer 
+	 * @param registry The registry correlating the responses
+	 * @throws JMSException 
+	 */
+	public JMSPointToPoint(DriverContext ctx, MessageProducer producer, MessageConsumer consumer,
+			TraceRegistry<T, Message> registry) throws JMSException {
 
 		assert producer != null;
 		assert consumer != null;
 		assert ctx != null;
 		
-		this.traceRegistry = new MessageCacheTraceRegistry<T, Message>(ctx);
+		this.traceRegistry = registry;
 		
 		this.context = ctx;
 		
@@ -101,12 +119,18 @@ public class JMSPointToPoint<T> implements AsynchronousTransport<T, Message>, Me
 	private T sendMessage(Message msg, int time, TimeUnit unit) throws JMSException,
 			InterruptedException, ExecutionException, DyeingException {
 		
-		Trace<Message> trace = traceRegistry.registerAndDye(msg);
-		
+		// Register after the start time, which may wait for the intended start.
 		context.recordTime();
-		producer.send(msg);
-		
-		Thread.yield(); // we'll be lucky if the message is ready right after it sent so give another thread a chance.
+		Trace<Message> trace = traceRegistry.registerAndDye(msg);
+		try {
+			producer.send(msg);
+		} catch (JMSException e) {
+			traceRegistry.cancel(trace);
+			throw e;
+		} catch (RuntimeException e) {
+			traceRegistry.cancel(trace);
+			throw e;
+		}
 		
 		T result = traceRegistry.waitForCompletion(trace, time, unit);
 		context.recordTime();
@@ -55,9 +55,10 @@ public class MessageCacheTraceRegistry<T, K extends Message> implements TraceReg
 	public MessageCacheTraceRegistry(DriverContext ctx) throws RegistryConfigurationException {
 		this.context = ctx;
 		
-		scheduler = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors() * 4);
-		
 		synchronized (MessageCacheTraceRegistry.class) {
+			if(scheduler == null) {
+				scheduler = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors() * 4);
+			}
 			if(responseCacheManager == null) {
 				InputStream ehcacheConfig= getClass().getResourceAsStream("/ehcache.xml");
 				if(ehcacheConfig == null) {
@@ -127,6 +128,13 @@ public class MessageCacheTraceRegistry<T, K extends Message> implements TraceReg
 		}
 	}
 
+	/**
+	 * Nothing is kept for a trace until its response arrives.
+	 * @see com.sun.faban.driver.transport.asynchronous.TraceRegistry#cancel(com.sun.faban.driver.transport.asynchronous.Trace)
+	 */
+	public void cancel(Trace<K> trace) {
+	}
+
 	/**
 	 * @see com.sun.faban.driver.transport.asynchronous.TraceRegistry#waitForCompletion(com.sun.faban.driver.transport.asynchronous.Trace, int, java.util.concurrent.TimeUnit)
 	 */
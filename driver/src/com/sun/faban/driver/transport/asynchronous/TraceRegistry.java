@@ -34,6 +34,14 @@ public interface TraceRegistry<T, K> {
 	 */
 	void acknowledge(String traceId, T response) throws MissingDyeException;
 	
+	/**
+	 * {@link #cancel(Trace)} drops a trace that will never get a response,
+	 * i.e. because sending the payload failed.
+	 * 
+	 * @param trace The corresponding trace returned from {@link #registerAndDye(Object)}.
+	 */
+	void cancel(Trace<K> trace);
+	
 	/**
 	 * {@link #waitForCompletion(Trace, int, TimeUnit)} provides a method for the caller
 	 * to wait for a result for a specified period of time.
@@ -27,6 +27,7 @@ import com.sun.faban.driver.transport.util.TimedSocketWrapper;
 import org.apache.commons.httpclient.params.HttpConnectionParams;
 import org.apache.commons.httpclient.protocol.SecureProtocolSocketFactory;
 
+import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import java.io.IOException;
 import java.net.InetAddress;
@@ -48,10 +49,13 @@ public class AboveTimedSSLSocketFactory implements SecureProtocolSocketFactory {
     public Socket createSocket(String host, int port, InetAddress localAddress,
                                int localPort) throws IOException {
 
-        Socket socket = new TimedSocketWrapper(sslFactory.createSocket());
-        InetSocketAddress endpoint = new InetSocketAddress(host, port);
+        SSLSocket sslSocket = (SSLSocket) sslFactory.createSocket();
+        Socket socket = new TimedSocketWrapper(sslSocket);
+        InetSocketAddress endpoint =
+                InetSocketAddress.createUnresolved(host, port);
         socket.bind(new InetSocketAddress(localAddress, localPort));
         socket.connect(endpoint);
+        TimedSSLFactories.handshake(sslSocket);
         return socket;
     }
 
@@ -65,18 +69,24 @@ public class AboveTimedSSLSocketFactory implements SecureProtocolSocketFactory {
         if (timeout <= 0) {
             return createSocket(host, port, localAddress, localPort);
         } else {
-            Socket socket = new TimedSocketWrapper(sslFactory.createSocket());
-            InetSocketAddress endpoint = new InetSocketAddress(host, port);
+            SSLSocket sslSocket = (SSLSocket) sslFactory.createSocket();
+            Socket socket = new TimedSocketWrapper(sslSocket);
+            InetSocketAddress endpoint =
+                    InetSocketAddress.createUnresolved(host, port);
             socket.bind(new InetSocketAddress(localAddress, localPort));
             socket.connect(endpoint, timeout);
+            TimedSSLFactories.handshake(sslSocket);
             return socket;
         }
     }
 
     public Socket createSocket(String host, int port) throws IOException {
-        Socket socket = new TimedSocketWrapper(sslFactory.createSocket());
-        InetSocketAddress endpoint = new InetSocketAddress(host, port);
+        SSLSocket sslSocket = (SSLSocket) sslFactory.createSocket();
+        Socket socket = new TimedSocketWrapper(sslSocket);
+        InetSocketAddress endpoint =
+                InetSocketAddress.createUnresolved(host, port);
         socket.connect(endpoint);
+        TimedSSLFactories.handshake(sslSocket);
         return socket;
     }
 
@@ -87,7 +97,10 @@ public class AboveTimedSSLSocketFactory implements SecureProtocolSocketFactory {
         // Starting the timer at this point is the most accurate we can do
         // with an existing socket - so the time includes createSocket.
         TimedSocketWrapper wrapper = new TimedSocketWrapper();
-        wrapper.setSocket(sslFactory.createSocket(socket, host, port, close));
+        SSLSocket sslSocket = (SSLSocket)
+                sslFactory.createSocket(socket, host, port, close);
+        wrapper.setSocket(sslSocket);
+        TimedSSLFactories.handshake(sslSocket);
         return wrapper;
     }
 
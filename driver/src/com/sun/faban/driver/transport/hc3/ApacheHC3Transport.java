@@ -24,6 +24,8 @@
 package com.sun.faban.driver.transport.hc3;
 
 import com.sun.faban.driver.HttpTransport;
+import com.sun.faban.driver.transport.util.PageFetcher;
+import com.sun.faban.driver.transport.util.StreamMatcher;
 import org.apache.commons.httpclient.*;
 import org.apache.commons.httpclient.cookie.CookiePolicy;
 import org.apache.commons.httpclient.methods.*;
@@ -103,8 +105,25 @@ public class ApacheHC3Transport extends HttpTransport {
     /** A cache for already-compiled regex patterns. */
     private HashMap<String, Pattern> patternCache;
 
+    /** Whether matchURL matches the response stream without keeping it. */
+    private boolean streamingMatch =
+            Boolean.getBoolean("faban.http.match.streaming");
+
+    /** The matcher for streaming matches, created on first use. */
+    private StreamMatcher streamMatcher;
+
+    /** The regex the next fetched response gets matched against. */
+    private String matchRegex;
+
+    /** The regex and result of the last streaming match, if any. */
+    private String streamedRegex;
+    private boolean streamedMatch;
+
     private boolean followRedirects = false;
 
+    /** The fetcher for pages with resources, created on first use. */
+    private PageFetcher pageFetcher;
+
     private HashSet<String> texttypes;
 
     /**
@@ -148,6 +167,30 @@ public class ApacheHC3Transport extends HttpTransport {
         followRedirects = follow;
     }
 
+    /**
+     * Sets the matchURL methods to match the response while reading it,
+     * without decoding the response into the response buffer. This saves
+     * memory and time with large responses. Literal regular expressions
+     * are matched against the bytes without decoding. After a streaming
+     * match, getResponseBuffer() does not hold the response and
+     * getContentSize() returns the size in bytes. Streaming matches can
+     * be enabled for all transports by the system property
+     * faban.http.match.streaming.
+     * @param streaming Whether to match the response stream
+     * @see com.sun.faban.driver.transport.util.StreamMatcher
+     */
+    public void setStreamingMatch(boolean streaming) {
+        streamingMatch = streaming;
+    }
+
+    /**
+     * Checks whether the matchURL methods match the response stream.
+     * @return True if streaming matches are used, false otherwise
+     */
+    public boolean isStreamingMatch() {
+        return streamingMatch;
+    }
+
     /**
      * Add a MIME type to the list of text types. If the response is of this
      * type the fetchULR() methods will return the response data.
@@ -532,16 +575,7 @@ public class ApacheHC3Transport extends HttpTransport {
      */
     public StringBuilder fetchURL(String url, Map<String, String> headers)
             throws IOException {
-        GetMethod method = new GetMethod(url);
-        method.setFollowRedirects(followRedirects);
-        setHeaders(method, headers);
-        try {
-            responseCode = hc.executeMethod(method);
-            buildResponseHeaders(method);
-            return fetchResponse(method);
-        } finally {
-            method.releaseConnection();
-        }
+        return execute(newGet(url, headers));
     }
 
     /**
@@ -601,17 +635,7 @@ public class ApacheHC3Transport extends HttpTransport {
     public StringBuilder fetchURL(String url, String postRequest,
                                   Map<String, String> headers)
             throws IOException {
-        PostMethod method = new PostMethod(url);
-        method.setFollowRedirects(followRedirects);
-        setHeaders(method, headers);
-        setParameters(method, postRequest);
-        try {
-            responseCode = hc.executeMethod(method);
-            buildResponseHeaders(method);
-            return fetchResponse(method);
-        } finally {
-            method.releaseConnection();
-        }
+        return execute(newPost(url, postRequest, headers));
     }
 
     /**
@@ -673,20 +697,7 @@ public class ApacheHC3Transport extends HttpTransport {
      */
     public StringBuilder fetchURL(String url, List<Part> parts,
                        Map<String, String> headers) throws IOException {
-
-        Part[] partsArray = parts.toArray(new Part[parts.size()]);
-        PostMethod method = new PostMethod(url);
-        method.setFollowRedirects(followRedirects);
-        setHeaders(method, headers);
-        method.setRequestEntity(new MultipartRequestEntity(
-                partsArray, method.getParams()));
-        try {
-            responseCode = hc.executeMethod(method);
-            buildResponseHeaders(method);
-            return fetchResponse(method);
-        } finally {
-            method.releaseConnection();
-        }
+        return execute(newPost(url, parts, headers));
     }
 
     /**
@@ -770,19 +781,23 @@ public class ApacheHC3Transport extends HttpTransport {
     */
 
     /**
-     * Method not implemented. Makes a POST request. Fetches the main page
-     * and all other image or resource pages based on the given URLs.
+     * Fetches the main page and then all image or other resource pages in
+     * parallel, like a browser does. The main page is fetched with a POST
+     * request if a post string is given, otherwise with a GET request.
+     * The whole page is timed as one operation.
      *
      * @param page The page URL
      * @param images The image or other resource URLs to fetch with page
-     * @param postRequest The post string
+     * @param postRequest The post string, or null for a GET request
      * @return The buffer of the main page
      * @throws java.io.IOException If an I/O error occurred
+     * @see com.sun.faban.driver.transport.util.PageFetcher
      */
 	public StringBuilder fetchURL(URL page, URL[] images, String postRequest)
             throws IOException {
-        // TODO: implement method
-        return null;
+        if (pageFetcher == null)
+            pageFetcher = new PageFetcher(this);
+        return pageFetcher.fetch(page, images, postRequest);
     }
 
     /**
@@ -803,6 +818,65 @@ public class ApacheHC3Transport extends HttpTransport {
         return fetchURL(new URL(page), imgURLs, postRequest);
     }
 
+    private GetMethod newGet(String url, Map<String, String> headers) {
+        GetMethod method = new GetMethod(url);
+        method.setFollowRedirects(followRedirects);
+        setHeaders(method, headers);
+        return method;
+    }
+
+    private PostMethod newPost(String url, String postRequest,
+                               Map<String, String> headers)
+            throws UnsupportedEncodingException {
+        PostMethod method = new PostMethod(url);
+        method.setFollowRedirects(followRedirects);
+        setHeaders(method, headers);
+        setParameters(method, postRequest);
+        return method;
+    }
+
+    private PostMethod newPost(String url, List<Part> parts,
+                               Map<String, String> headers) {
+        Part[] partsArray = parts.toArray(new Part[parts.size()]);
+        PostMethod method = new PostMethod(url);
+        method.setFollowRedirects(followRedirects);
+        setHeaders(method, headers);
+        method.setRequestEntity(new MultipartRequestEntity(
+                partsArray, method.getParams()));
+        return method;
+    }
+
+    private StringBuilder execute(HttpMethod method) throws IOException {
+        try {
+            responseCode = hc.executeMethod(method);
+            buildResponseHeaders(method);
+            return fetchResponse(method);
+        } finally {
+            method.releaseConnection();
+        }
+    }
+
+    /**
+     * Executes the request and matches the regular expression against
+     * the response. With streaming matches, the response is matched while
+     * it is read.
+     * @param method The request
+     * @param regex The regular expression to match
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException If the request fails
+     */
+    private boolean match(HttpMethod method, String regex)
+            throws IOException {
+        if (streamingMatch)
+            matchRegex = regex;
+        try {
+            execute(method);
+        } finally {
+            matchRegex = null;
+        }
+        return matchResponse(regex);
+    }
+
     private StringBuilder fetchResponse(HttpMethod method) throws IOException {
         Header contentTypeHdr = method.getResponseHeader("content-type");
         String contentType = null;
@@ -822,9 +896,23 @@ public class ApacheHC3Transport extends HttpTransport {
                 }
             }
         }
+        String regex = matchRegex;
+        matchRegex = null;
+        streamedRegex = null;
         if (contentType != null && (contentType.startsWith("text/") ||
                                     texttypes.contains(contentType))) {
             InputStream is = method.getResponseBodyAsStream();
+            if (regex != null) {
+                if (streamMatcher == null)
+                    streamMatcher = new StreamMatcher(byteReadBuffer);
+                streamedMatch = is != null &&
+                                streamMatcher.match(is, regex, encoding);
+                streamedRegex = regex;
+                contentSize = is == null ? 0 : streamMatcher.getContentSize();
+                if (is != null)
+                    is.close();
+                return null;
+            }
             if (is != null) {
                 Reader reader = new InputStreamReader(is, encoding);
 
@@ -853,6 +941,7 @@ public class ApacheHC3Transport extends HttpTransport {
      * @throws java.io.IOException
      */
     private int readResponse(HttpMethod method) throws IOException {
+        streamedRegex = null;
         int totalLength = 0;
         InputStream in = method.getResponseBodyAsStream();
         if (in != null) {
@@ -871,7 +960,7 @@ public class ApacheHC3Transport extends HttpTransport {
      * Obtains the size of the last read page or resource. The result is in
      * bytes for non-decoded content and in characters for decoded content.
      * All binary content is not decoded. Text content is decoded only using
-     * the fetch or match commands.
+     * the fetch or match commands, unless matched as a stream.
      * @return The size, in bytes, of the last page read
      */
     public int getContentSize() {
@@ -897,6 +986,7 @@ public class ApacheHC3Transport extends HttpTransport {
      * @throws java.io.IOException
      */
     public StringBuilder fetchResponseData(Reader reader) throws IOException {
+        streamedRegex = null;
         int totalLength = 0;
         int length = reader.read(charReadBuffer, 0, charReadBuffer.length);
         if (length > 0)
@@ -915,10 +1005,14 @@ public class ApacheHC3Transport extends HttpTransport {
 
     /**
      * Maches the regular expression against the data in the current buffer.
+     * Right after a streaming match, the result of that match is returned
+     * for the same regular expression.
      * @param regex The regular expression to match
      * @return True if the match succeeds, false otherwise
      */
     public boolean matchResponse(String regex) {
+        if (regex.equals(streamedRegex))
+            return streamedMatch;
         if (patternCache == null)
             patternCache = new HashMap<String, Pattern>();
         Pattern pattern = patternCache.get(regex);
@@ -965,8 +1059,7 @@ public class ApacheHC3Transport extends HttpTransport {
      * @throws java.io.IOException
      */
     public boolean matchURL(String url, String regex) throws IOException {
-        fetchURL(url);
-        return matchResponse(regex);
+        return match(newGet(url, null), regex);
     }
 
     /**
@@ -980,8 +1073,7 @@ public class ApacheHC3Transport extends HttpTransport {
      */
     public boolean matchURL(String url, String regex, Map<String, String> headers)
             throws IOException {
-        fetchURL(url, headers);
-        return matchResponse(regex);
+        return match(newGet(url, headers), regex);
     }
 
     /**
@@ -993,8 +1085,7 @@ public class ApacheHC3Transport extends HttpTransport {
      * @throws java.io.IOException
      */
     public boolean matchURL(URL url, String regex) throws IOException {
-        fetchURL(url);
-        return matchResponse(regex);
+        return match(newGet(url.toString(), null), regex);
     }
 
     /**
@@ -1008,8 +1099,7 @@ public class ApacheHC3Transport extends HttpTransport {
      */
     public boolean matchURL(URL url, String regex, Map<String, String> headers)
             throws IOException {
-        fetchURL(url, headers);
-        return matchResponse(regex);
+        return match(newGet(url.toString(), headers), regex);
     }
 
     /**
@@ -1023,8 +1113,7 @@ public class ApacheHC3Transport extends HttpTransport {
      */
     public boolean matchURL(URL url, String postRequest, String regex)
             throws IOException {
-        fetchURL(url, postRequest);
-        return matchResponse(regex);
+        return match(newPost(url.toString(), postRequest, null), regex);
     }
 
     /**
@@ -1039,8 +1128,7 @@ public class ApacheHC3Transport extends HttpTransport {
      */
     public boolean matchURL(URL url, String postRequest, String regex,
                             Map<String, String> headers) throws IOException {
-        fetchURL(url, postRequest, headers);
-        return matchResponse(regex);
+        return match(newPost(url.toString(), postRequest, headers), regex);
     }
 
     /**
@@ -1054,8 +1142,7 @@ public class ApacheHC3Transport extends HttpTransport {
      */
     public boolean matchURL(String url, String postRequest, String regex)
             throws IOException {
-        fetchURL(url, postRequest);
-        return matchResponse(regex);
+        return match(newPost(url, postRequest, null), regex);
     }
 
     /**
@@ -1070,8 +1157,7 @@ public class ApacheHC3Transport extends HttpTransport {
      */
     public boolean matchURL(String url, String postRequest, String regex,
                             Map<String, String> headers) throws IOException {
-        fetchURL(url, postRequest, headers);
-        return matchResponse(regex);
+        return match(newPost(url, postRequest, headers), regex);
     }
 
     /**
@@ -1087,9 +1173,7 @@ public class ApacheHC3Transport extends HttpTransport {
      */
     public boolean matchURL(String url, List<Part> parts, String regex,
                        Map<String, String> headers) throws IOException {
-
-        fetchURL(url, parts, headers);
-        return matchResponse(regex);
+        return match(newPost(url, parts, headers), regex);
     }
 
     /**
@@ -1104,8 +1188,7 @@ public class ApacheHC3Transport extends HttpTransport {
      */
     public boolean matchURL(URL url, List<Part> parts, String regex)
             throws IOException {
-        fetchURL(url.toString(), parts, null);
-        return matchResponse(regex);
+        return match(newPost(url.toString(), parts, null), regex);
     }
 
     /**
@@ -1120,8 +1203,7 @@ public class ApacheHC3Transport extends HttpTransport {
      */
     public boolean matchURL(String url, List<Part> parts, String regex)
             throws IOException {
-        fetchURL(url, parts, null);
-        return matchResponse(regex);
+        return match(newPost(url, parts, null), regex);
     }
 
     /**
@@ -1137,8 +1219,7 @@ public class ApacheHC3Transport extends HttpTransport {
      */
     public boolean matchURL(URL url, List<Part> parts, String regex,
                        Map<String, String> headers) throws IOException {
-        fetchURL(url.toString(), parts, headers);
-        return matchResponse(regex);
+        return match(newPost(url.toString(), parts, headers), regex);
     }
 
     /**
@@ -26,6 +26,7 @@ package com.sun.faban.driver.transport.hc3;
 import org.apache.commons.httpclient.params.HttpConnectionParams;
 import org.apache.commons.httpclient.protocol.SecureProtocolSocketFactory;
 
+import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import java.io.IOException;
 import java.net.InetAddress;
@@ -48,9 +49,9 @@ public class BelowTimedSSLSocketFactory implements SecureProtocolSocketFactory {
 
     public Socket createSocket(String host, int port, InetAddress localAddress,
                                int localPort) throws IOException {
-        return sslFactory.createSocket(
+        return TimedSSLFactories.handshake((SSLSocket) sslFactory.createSocket(
                 new TimedSocket(host, port, localAddress, localPort),
-                host, port, true);
+                host, port, true));
     }
 
     public Socket createSocket(String host, int port, InetAddress localAddress,
@@ -65,21 +66,25 @@ public class BelowTimedSSLSocketFactory implements SecureProtocolSocketFactory {
         } else {
             TimedSocket socket = new TimedSocket();
             socket.bind(new InetSocketAddress(localAddress, localPort));
-            socket.connect(new InetSocketAddress(host, port), timeout);
-            return sslFactory.createSocket(socket, host, port, true);
+            socket.connect(InetSocketAddress.createUnresolved(host, port),
+                           timeout);
+            return TimedSSLFactories.handshake((SSLSocket)
+                    sslFactory.createSocket(socket, host, port, true));
         }
     }
 
     public Socket createSocket(String host, int port) throws IOException {
-        return sslFactory.createSocket(new TimedSocket(host, port),
-                                            host, port, true);
+        return TimedSSLFactories.handshake((SSLSocket)
+                sslFactory.createSocket(new TimedSocket(host, port),
+                                        host, port, true));
     }
 
     public Socket createSocket(Socket socket, String host, int port,
                                boolean close)
             throws IOException, UnknownHostException {
         if (socket instanceof TimedSocket)
-            return sslFactory.createSocket(socket, host, port, close);
+            return TimedSSLFactories.handshake((SSLSocket)
+                    sslFactory.createSocket(socket, host, port, close));
         else
             throw new IllegalStateException(
                     "Socket to use must already be a timed socket.");
@@ -23,8 +23,12 @@
  */
 package com.sun.faban.driver.transport.hc3;
 
+import com.sun.faban.driver.engine.AgentThread;
+import com.sun.faban.driver.engine.DriverContext;
 import org.apache.commons.httpclient.protocol.SecureProtocolSocketFactory;
 
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
@@ -74,6 +78,29 @@ public enum TimedSSLFactories {
         return ABOVE;
     }
 
+    /**
+     * Runs the TLS handshake of a newly created SSL socket if the request
+     * phases are recorded, recording the handshake time. Otherwise the
+     * handshake is left to the first read or write, as usual.
+     * @param socket The SSL socket
+     * @return The socket
+     * @throws IOException If the handshake fails
+     */
+    static SSLSocket handshake(SSLSocket socket) throws IOException {
+        DriverContext ctx = DriverContext.getContext();
+        if (ctx == null)
+            return socket;
+        long phaseStart = ctx.beginPhase();
+        if (phaseStart == AgentThread.TIME_NOT_SET)
+            return socket;
+        try {
+            socket.startHandshake();
+        } finally {
+            ctx.endPhase(DriverContext.PHASE_TLS, phaseStart);
+        }
+        return socket;
+    }
+
     SecureProtocolSocketFactory getInstance() {
         SecureProtocolSocketFactory instance = null;
         try {
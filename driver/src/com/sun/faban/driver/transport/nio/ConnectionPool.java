@@ -0,0 +1,97 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.nio;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The pool of idle keep-alive connections of this agent, by server. The
+ * connection used last is reused first, as it is the least likely to be
+ * closed by the server. The pool does not need a limit, it never holds more
+ * connections than the agent has threads making requests.
+ */
+class ConnectionPool {
+
+    private static final ConnectionPool instance = new ConnectionPool();
+
+    private ConcurrentHashMap<String, LinkedList<HttpConnection>> idle =
+            new ConcurrentHashMap<String, LinkedList<HttpConnection>>();
+
+    /**
+     * Obtains the connection pool of this agent.
+     * @return The connection pool
+     */
+    static ConnectionPool getInstance() {
+        return instance;
+    }
+
+    /**
+     * Obtains an idle connection to the server, or opens a new one.
+     * @param host The host name
+     * @param port The port
+     * @param reuse Whether an idle connection may be used
+     * @return The connection
+     * @throws IOException If a new connection cannot be established
+     */
+    HttpConnection acquire(String host, int port, boolean reuse)
+            throws IOException {
+        String address = host + ':' + port;
+        if (reuse) {
+            LinkedList<HttpConnection> connections = idle.get(address);
+            if (connections != null)
+                for (;;) {
+                    HttpConnection connection;
+                    synchronized (connections) {
+                        connection = connections.isEmpty() ? null :
+                                connections.removeFirst();
+                    }
+                    if (connection == null)
+                        break;
+                    if (connection.channel.isOpen())
+                        return connection;
+                }
+        }
+        return new HttpConnection(address, host, port);
+    }
+
+    /**
+     * Returns a connection to the pool after a complete response.
+     * @param connection The connection
+     */
+    void release(HttpConnection connection) {
+        LinkedList<HttpConnection> connections = idle.get(connection.address);
+        if (connections == null) {
+            connections = new LinkedList<HttpConnection>();
+            LinkedList<HttpConnection> old =
+                    idle.putIfAbsent(connection.address, connections);
+            if (old != null)
+                connections = old;
+        }
+        synchronized (connections) {
+            connections.addFirst(connection);
+        }
+    }
+}
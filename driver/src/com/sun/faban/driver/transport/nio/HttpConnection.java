@@ -0,0 +1,105 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.nio;
+
+import com.sun.faban.driver.engine.AgentThread;
+import com.sun.faban.driver.engine.DriverContext;
+import com.sun.faban.driver.transport.util.TimedSocket;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A keep-alive connection to an HTTP server. The connection is opened by
+ * the operation's thread and then handed to the reactor in non-blocking
+ * mode. It serves one exchange at a time.
+ */
+class HttpConnection {
+
+    /** The connect timeout in milliseconds, same as TimedSocket. */
+    static final int CONNECT_TIMEOUT = 30000;
+
+    /** The address of the server, as host:port. */
+    final String address;
+
+    /** The channel to the server. */
+    final SocketChannel channel;
+
+    /** The selection key, set and used by the reactor only. */
+    SelectionKey key;
+
+    /** The current exchange, null while idle. */
+    volatile HttpExchange exchange;
+
+    /** The number of responses read from this connection. */
+    int responses;
+
+    /**
+     * Opens a connection to the server. The connect blocks the calling
+     * thread for at most CONNECT_TIMEOUT, just like with the other
+     * transports.
+     * @param address The address of the server, as host:port
+     * @param host The host name
+     * @param port The port
+     * @throws IOException If the connection cannot be established
+     * @throws java.net.SocketTimeoutException If the connect times out
+     */
+    HttpConnection(String address, String host, int port) throws IOException {
+        this.address = address;
+        channel = SocketChannel.open();
+        try {
+            channel.socket().setTcpNoDelay(true);
+            InetSocketAddress endpoint =
+                    new InetSocketAddress(TimedSocket.lookup(host), port);
+            DriverContext ctx = DriverContext.getContext();
+            long phaseStart = AgentThread.TIME_NOT_SET;
+            if (ctx != null)
+                phaseStart = ctx.beginPhase();
+            try {
+                channel.socket().connect(endpoint, CONNECT_TIMEOUT);
+            } finally {
+                if (ctx != null)
+                    ctx.endPhase(DriverContext.PHASE_CONNECT, phaseStart);
+            }
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes the connection. Any registration with the reactor's selector
+     * gets cancelled as well.
+     */
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing to do if closing fails.
+        }
+    }
+}
@@ -0,0 +1,395 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.nio;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * One HTTP request and its response. The operation's thread fills in the
+ * request, submits the exchange to the reactor, and waits. The reactor
+ * writes the request, parses the response as it arrives and wakes up the
+ * waiting thread once the last byte is read. An exchange is reused for all
+ * requests of a transport.
+ */
+class HttpExchange {
+
+    /**
+     * The read timeout in milliseconds, same as TimedSocket. The exchange
+     * times out if no response bytes arrive for this long.
+     */
+    static final int READ_TIMEOUT = 30000;
+
+    // The states of the response parser.
+    private static final int STATUS = 0;
+    private static final int HEADERS = 1;
+    private static final int BODY = 2;
+    private static final int CHUNK_SIZE = 3;
+    private static final int CHUNK_DATA = 4;
+    private static final int CHUNK_END = 5;
+    private static final int TRAILERS = 6;
+    private static final int BODY_TO_EOF = 7;
+    private static final int DONE = 8;
+
+    /** The request bytes, headers and body. */
+    ByteBuffer request;
+
+    /** The content types to keep the body for, null to discard the body. */
+    Set<String> textTypes;
+
+    /** The response code. */
+    int responseCode;
+
+    /** The response headers, with case-insensitive names. */
+    Map<String, List<String>> headers;
+
+    /** The content type without parameters, or null if not given. */
+    String contentType;
+
+    /** The charset given with the content type, or null if not given. */
+    String charset;
+
+    /** Whether the connection can be reused after this response. */
+    boolean keepAlive;
+
+    /** The body, if kept. Only the first bodyLength bytes are valid. */
+    byte[] body;
+
+    /** The number of body bytes read, kept or not. */
+    int bodyLength;
+
+    /** Whether the body is text and kept. */
+    boolean textBody;
+
+    /**
+     * The number of bytes read for this response, including headers.
+     * Written by the reactor only and read by the waiting thread to
+     * detect progress.
+     */
+    volatile int responseBytes;
+
+    /** The system nanotime the last byte of the request was written. */
+    long sentTime;
+
+    /** The system nanotime the first byte of the response was read. */
+    long firstByteTime;
+
+    /** The system nanotime the last byte of the response was read. */
+    long endTime;
+
+    private int state;
+    private StringBuilder line = new StringBuilder(128);
+    private String version;
+    private String lastHeader;
+    private long remaining;
+    private IOException error;
+    private boolean done;
+
+    /**
+     * Constructs an exchange.
+     * @param bufferSize The initial size of the body buffer
+     */
+    HttpExchange(int bufferSize) {
+        body = new byte[bufferSize];
+    }
+
+    /**
+     * Prepares the exchange for the next request. The headers map is
+     * replaced, not cleared, as it is handed out with the response.
+     */
+    void reset() {
+        responseCode = 0;
+        headers = new TreeMap<String, List<String>>(
+                                            String.CASE_INSENSITIVE_ORDER);
+        contentType = null;
+        charset = null;
+        keepAlive = false;
+        bodyLength = 0;
+        textBody = false;
+        responseBytes = 0;
+        sentTime = 0l;
+        firstByteTime = 0l;
+        endTime = 0l;
+        state = STATUS;
+        line.setLength(0);
+        version = null;
+        lastHeader = null;
+        remaining = 0l;
+        error = null;
+        done = false;
+        request.rewind();
+    }
+
+    /**
+     * Parses the response bytes in the buffer. Called by the reactor only.
+     * @param buffer The buffer holding the bytes just read
+     * @return True if the response is complete, false if more is expected
+     * @throws IOException If the response is malformed
+     */
+    boolean parse(ByteBuffer buffer) throws IOException {
+        byte[] bytes = buffer.array();
+        int pos = buffer.arrayOffset() + buffer.position();
+        int limit = buffer.arrayOffset() + buffer.limit();
+        responseBytes += limit - pos;
+        while (pos < limit && state != DONE) {
+            switch (state) {
+                case BODY:
+                case CHUNK_DATA:
+                    int length = (int) Math.min(remaining, limit - pos);
+                    consume(bytes, pos, length);
+                    pos += length;
+                    remaining -= length;
+                    if (remaining == 0l)
+                        state = state == BODY ? DONE : CHUNK_END;
+                    break;
+                case BODY_TO_EOF:
+                    consume(bytes, pos, limit - pos);
+                    pos = limit;
+                    break;
+                default:
+                    // All other states are line-based.
+                    while (pos < limit) {
+                        byte b = bytes[pos++];
+                        if (b == '\n') {
+                            int end = line.length();
+                            if (end > 0 && line.charAt(end - 1) == '\r')
+                                line.setLength(end - 1);
+                            parseLine();
+                            line.setLength(0);
+                            break;
+                        }
+                        line.append((char) (b & 0xff));
+                    }
+            }
+        }
+        buffer.position(pos - buffer.arrayOffset());
+        return state == DONE;
+    }
+
+    /**
+     * Handles the end of the stream. Responses without a length end here.
+     * @return True if this completes the response, false if the response
+     *         is cut short
+     */
+    boolean endOfStream() {
+        if (state == BODY_TO_EOF) {
+            state = DONE;
+            return true;
+        }
+        return false;
+    }
+
+    private void parseLine() throws IOException {
+        switch (state) {
+            case STATUS:
+                // Skip empty lines some servers leave before the status.
+                if (line.length() == 0)
+                    return;
+                parseStatus();
+                state = HEADERS;
+                break;
+            case HEADERS:
+                if (line.length() == 0)
+                    endHeaders();
+                else
+                    parseHeader();
+                break;
+            case CHUNK_SIZE:
+                int end = line.indexOf(";");
+                if (end < 0)
+                    end = line.length();
+                try {
+                    remaining = Long.parseLong(line.substring(0, end).trim(),
+                                               16);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid chunk size: " + line);
+                }
+                state = remaining == 0l ? TRAILERS : CHUNK_DATA;
+                break;
+            case CHUNK_END:
+                state = CHUNK_SIZE;
+                break;
+            case TRAILERS:
+                if (line.length() == 0)
+                    state = DONE;
+                break;
+        }
+    }
+
+    private void parseStatus() throws IOException {
+        int space = line.indexOf(" ");
+        if (space < 0 || !line.toString().startsWith("HTTP/"))
+            throw new IOException("Invalid HTTP status line: " + line);
+        version = line.substring(0, space);
+        int codeEnd = line.indexOf(" ", space + 1);
+        if (codeEnd < 0)
+            codeEnd = line.length();
+        try {
+            responseCode = Integer.parseInt(
+                                    line.substring(space + 1, codeEnd));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid HTTP status line: " + line);
+        }
+    }
+
+    private void parseHeader() throws IOException {
+        char first = line.charAt(0);
+        if ((first == ' ' || first == '\t') && lastHeader != null) {
+            // Folded header, continue the last value.
+            List<String> values = headers.get(lastHeader);
+            values.set(0, values.get(0) + ' ' + line.toString().trim());
+            return;
+        }
+        int colon = line.indexOf(":");
+        if (colon <= 0)
+            throw new IOException("Invalid HTTP header: " + line);
+        String name = line.substring(0, colon).trim();
+        String value = line.substring(colon + 1).trim();
+        List<String> values = headers.get(name);
+        if (values == null) {
+            values = new ArrayList<String>(1);
+            headers.put(name, values);
+        }
+        // Latest value first, the same order HttpURLConnection reports.
+        values.add(0, value);
+        lastHeader = name;
+    }
+
+    private void endHeaders() throws IOException {
+        if (responseCode >= 100 && responseCode < 200) {
+            // Interim response, the real one follows.
+            headers.clear();
+            lastHeader = null;
+            state = STATUS;
+            return;
+        }
+        String connection = getHeader("Connection");
+        if ("HTTP/1.0".equals(version))
+            keepAlive = "keep-alive".equalsIgnoreCase(connection);
+        else
+            keepAlive = !"close".equalsIgnoreCase(connection);
+
+        String type = getHeader("Content-Type");
+        if (type != null) {
+            String[] params = type.split(";");
+            contentType = params[0].trim();
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("charset=")) {
+                    charset = param.substring(8);
+                    break;
+                }
+            }
+            textBody = textTypes != null && (contentType.startsWith("text/") ||
+                                             textTypes.contains(contentType));
+        }
+
+        String length = getHeader("Content-Length");
+        if (responseCode == 204 || responseCode == 304) {
+            state = DONE;
+        } else if ("chunked".equalsIgnoreCase(
+                                        getHeader("Transfer-Encoding"))) {
+            state = CHUNK_SIZE;
+        } else if (length != null) {
+            try {
+                remaining = Long.parseLong(length);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid Content-Length: " + length);
+            }
+            state = remaining == 0l ? DONE : BODY;
+        } else {
+            keepAlive = false;
+            state = BODY_TO_EOF;
+        }
+    }
+
+    private String getHeader(String name) {
+        List<String> values = headers.get(name);
+        if (values == null)
+            return null;
+        return values.get(0);
+    }
+
+    private void consume(byte[] bytes, int offset, int length) {
+        if (textBody) {
+            if (bodyLength + length > body.length) {
+                byte[] newBody = new byte[Math.max(body.length * 2,
+                                                   bodyLength + length)];
+                System.arraycopy(body, 0, newBody, 0, bodyLength);
+                body = newBody;
+            }
+            System.arraycopy(bytes, offset, body, bodyLength, length);
+        }
+        bodyLength += length;
+    }
+
+    /**
+     * Completes the exchange and wakes up the waiting thread.
+     * @param e The error, or null if the response was read completely
+     */
+    synchronized void complete(IOException e) {
+        error = e;
+        done = true;
+        notifyAll();
+    }
+
+    /**
+     * Waits for the exchange to complete. The wait times out if no
+     * response bytes arrive within READ_TIMEOUT. The caller is expected
+     * to close the connection on timeout.
+     * @throws IOException If the exchange failed
+     * @throws SocketTimeoutException If the response does not progress
+     * @throws InterruptedIOException If the waiting thread got interrupted
+     */
+    synchronized void await() throws IOException {
+        int lastBytes = responseBytes;
+        long deadline = System.currentTimeMillis() + READ_TIMEOUT;
+        while (!done) {
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0l) {
+                if (responseBytes == lastBytes)
+                    throw new SocketTimeoutException(
+                                    "Timed out waiting for HTTP response.");
+                lastBytes = responseBytes;
+                deadline = System.currentTimeMillis() + READ_TIMEOUT;
+                continue;
+            }
+            try {
+                wait(wait);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException(
+                                "Interrupted waiting for HTTP response.");
+            }
+        }
+        if (error != null)
+            throw error;
+    }
+}
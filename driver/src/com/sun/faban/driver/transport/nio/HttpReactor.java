@@ -0,0 +1,187 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.nio;
+
+import com.sun.faban.driver.HttpTransport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The reactor does all network I/O of the NIO transport in this agent on a
+ * single selector thread. Submitted exchanges get their request written
+ * right away, mostly without waiting for the selector. The response is read
+ * and parsed as it arrives, into one shared read buffer. The time of the
+ * last byte read is handed to the operation's thread with the response.
+ */
+class HttpReactor extends Thread {
+
+    private static HttpReactor instance;
+
+    private Logger logger = Logger.getLogger(getClass().getName());
+    private Selector selector;
+    private ConcurrentLinkedQueue<HttpConnection> submitted =
+            new ConcurrentLinkedQueue<HttpConnection>();
+    private ByteBuffer readBuffer =
+            ByteBuffer.allocate(Math.max(HttpTransport.BUFFER_SIZE, 65536));
+
+    /**
+     * Obtains the reactor of this agent, starting it if needed.
+     * @return The reactor
+     * @throws IOException If the selector cannot be opened
+     */
+    static synchronized HttpReactor getInstance() throws IOException {
+        if (instance == null) {
+            instance = new HttpReactor(Selector.open());
+            instance.start();
+        }
+        return instance;
+    }
+
+    private HttpReactor(Selector selector) {
+        super("HttpReactor");
+        this.selector = selector;
+        setDaemon(true);
+    }
+
+    /**
+     * Submits the connection's exchange for writing the request and
+     * reading the response.
+     * @param connection The connection with the exchange set
+     */
+    void submit(HttpConnection connection) {
+        submitted.add(connection);
+        selector.wakeup();
+    }
+
+    /**
+     * The selector loop.
+     */
+    @Override
+    public void run() {
+        for (;;) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Selector failed.", e);
+                continue;
+            }
+            HttpConnection connection;
+            while ((connection = submitted.poll()) != null)
+                start(connection);
+            Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+            while (iter.hasNext()) {
+                SelectionKey key = iter.next();
+                iter.remove();
+                connection = (HttpConnection) key.attachment();
+                try {
+                    if (key.isWritable())
+                        write(connection);
+                    else if (key.isReadable())
+                        read(connection);
+                } catch (CancelledKeyException e) {
+                    fail(connection, new IOException("Connection closed."));
+                } catch (IOException e) {
+                    fail(connection, e);
+                }
+            }
+        }
+    }
+
+    private void start(HttpConnection connection) {
+        try {
+            if (connection.key == null)
+                connection.key = connection.channel.register(selector, 0,
+                                                             connection);
+            write(connection);
+        } catch (CancelledKeyException e) {
+            fail(connection, new IOException("Connection closed."));
+        } catch (IOException e) {
+            fail(connection, e);
+        }
+    }
+
+    private void write(HttpConnection connection) throws IOException {
+        HttpExchange exchange = connection.exchange;
+        if (exchange == null) // Abandoned by the waiting thread.
+            return;
+        ByteBuffer request = exchange.request;
+        connection.channel.write(request);
+        // Wait for the selector only if the socket buffer is full.
+        if (request.hasRemaining()) {
+            connection.key.interestOps(SelectionKey.OP_WRITE);
+        } else {
+            exchange.sentTime = System.nanoTime();
+            connection.key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    private void read(HttpConnection connection) throws IOException {
+        HttpExchange exchange = connection.exchange;
+        if (exchange == null) // Abandoned by the waiting thread.
+            return;
+        readBuffer.clear();
+        int length = connection.channel.read(readBuffer);
+        long time = System.nanoTime();
+        if (length > 0 && exchange.firstByteTime == 0l)
+            exchange.firstByteTime = time;
+        boolean complete;
+        if (length < 0) {
+            complete = exchange.endOfStream();
+            if (!complete) {
+                fail(connection, new IOException(
+                        "Connection closed before end of response."));
+                return;
+            }
+        } else {
+            readBuffer.flip();
+            complete = exchange.parse(readBuffer);
+            // Data past the response, the connection is out of sync.
+            if (complete && readBuffer.hasRemaining())
+                exchange.keepAlive = false;
+        }
+        if (complete) {
+            connection.key.interestOps(0);
+            ++connection.responses;
+            exchange.endTime = time;
+            connection.exchange = null;
+            exchange.complete(null);
+        }
+    }
+
+    private void fail(HttpConnection connection, IOException e) {
+        HttpExchange exchange = connection.exchange;
+        connection.exchange = null;
+        connection.close();
+        if (exchange != null)
+            exchange.complete(e);
+    }
+}
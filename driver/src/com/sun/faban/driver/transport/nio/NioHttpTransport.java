@@ -0,0 +1,1037 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.nio;
+
+import com.sun.faban.driver.HttpTransport;
+import com.sun.faban.driver.engine.DriverContext;
+import com.sun.faban.driver.transport.sunhttp.ThreadCookieHandler;
+import com.sun.faban.driver.transport.util.PageFetcher;
+import com.sun.faban.driver.transport.util.Throttle;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The NioHttpTransport provides the HttpTransport services using
+ * non-blocking NIO channels. All network I/O of an agent is done by a single
+ * reactor thread, over keep-alive connections pooled per server. The
+ * operation's thread only builds the request and waits for the response,
+ * which makes this transport well suited for drivers with many threads
+ * making small requests. Use
+ * HttpTransport.setProvider("com.sun.faban.driver.transport.nio.NioHttpTransport")
+ * to select this transport.<p>
+ * The timing follows the other transports. The start time is recorded just
+ * before the request is handed to the reactor, which writes it right away.
+ * The end time is the time the reactor read the last byte of the response.
+ * This transport only supports HTTP, not HTTPS. The method names follow the
+ * same convention as the HttpTransport.
+ *
+ * @see com.sun.faban.driver.HttpTransport
+ */
+public class NioHttpTransport extends HttpTransport {
+
+    private static final int MAX_REDIRECTS = 20;
+
+    private static final String USER_AGENT =
+            "Java/" + System.getProperty("java.version");
+
+    private static final String ACCEPT =
+            "text/html, image/gif, image/jpeg, *; q=.2, */*; q=.2";
+
+    /** The main appendable buffer for the total results. */
+    private StringBuilder charBuffer;
+
+    /** The response code of the last response. */
+    private int responseCode;
+
+    /** The response headers of the last response. */
+    private Map<String, List<String>> responseHeader =
+            Collections.emptyMap();
+
+    /** The content size of the last read page. */
+    private int contentSize;
+
+    /** The char used for the reads in fetch* methods. */
+    private char[] charReadBuffer = new char[BUFFER_SIZE];
+
+    /** A cache for already-compiled regex patterns. */
+    private HashMap<String, Pattern> patternCache;
+
+    /** Reference to the thread local cookie handler. */
+    private ThreadCookieHandler cookieHandler;
+
+    private boolean followRedirects = false;
+
+    /** The fetcher for pages with resources, created on first use. */
+    private PageFetcher pageFetcher;
+
+    private HashSet<String> texttypes;
+
+    /** The request buffer, reused for all requests. */
+    private RequestBuffer requestBuffer = new RequestBuffer();
+
+    /** The exchange, reused for all requests. */
+    private HttpExchange exchange = new HttpExchange(BUFFER_SIZE);
+
+    private ConnectionPool pool = ConnectionPool.getInstance();
+
+    private HttpReactor reactor;
+
+    private DriverContext ctx;
+
+    private Throttle throttle;
+
+    /**
+     * Constructs a new NioHttpTransport object.
+     */
+    public NioHttpTransport() {
+    	texttypes = new HashSet<String>();
+        texttypes.add("application/json");
+        cookieHandler = ThreadCookieHandler.newInstance();
+    }
+
+    /**
+     * Sets the http connections managed by this transport to follow or
+     * not follow HTTP redirects.
+     * @param follow True if HTTP redirects should be automatically followed,
+     *        false otherwise
+     */
+    public void setFollowRedirects(boolean follow) {
+        followRedirects = follow;
+    }
+
+    /**
+     * Add a MIME type to the list of text types. If the response is of this
+     * type the fetchULR() methods will return the response data.
+     *
+     * @param texttype The content type of a HTTP response that contains text.
+     */
+    public void addTextType(String texttype) {
+    	texttypes.add(texttype);
+    }
+
+    /**
+     * Checks whether the connections managed by this transport follows
+     * redirects or not.
+     * @return True if redirects are followed, false otherwise
+     */
+    public boolean isFollowRedirects() {
+        return followRedirects;
+    }
+
+    /**
+     * Initializes or re-initializes the buffer.
+     * @param size The size of the buffer
+     */
+    private void reInitBuffer(int size) {
+        if (charBuffer == null)
+            charBuffer = new StringBuilder(size);
+        else
+            charBuffer.setLength(0);
+    }
+
+    /**
+     * Obtains the reference of the current response buffer.
+     * @return The response buffer
+     */
+    public StringBuilder getResponseBuffer() {
+        return charBuffer;
+    }
+
+    /**
+     * Reads data from the URL and discards it, keeping just the size of the
+     * total read. This is useful for ensuring receival of binary or text
+     * data that do not need further analysis.
+     * @param url The URL to read from
+     * @param headers The request headers
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(URL url, Map<String, String> headers)
+            throws IOException {
+        execute(url, headers, null, null, false);
+        return contentSize;
+    }
+
+    /**
+     * Reads data from the URL and discards it, keeping just the size of the
+     * total read. This is useful for ensuring receival of binary or text
+     * data that do not need further analysis.
+     * @param url The URL to read from
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(URL url) throws IOException {
+        return readURL(url, (Map<String, String>) null);
+    }
+
+    /**
+     * Reads data from the URL and discards it, keeping just the size of the
+     * total read. This is useful for ensuring receival of binary or text
+     * data that do not need further analysis.
+     * @param url The URL to read from
+     * @param headers The request headers
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(String url, Map<String, String> headers)
+            throws IOException {
+        return readURL(new URL(url), headers);
+    }
+
+    /**
+     * Reads data from the URL and discards it, keeping just the size of the
+     * total read. This is useful for ensuring receival of binary or text
+     * data that do not need further analysis.
+     * @param url The URL to read from
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(String url) throws IOException {
+        return readURL(new URL(url));
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and discards the data,
+     * keeping just the size of the total read. This is useful for ensuring
+     * receival of binary or text data that do not need further analysis.
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(URL url, String postRequest) throws IOException {
+        return readURL(url, postRequest, null);
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and discards the data,
+     * keeping just the size of the total read. This is useful for ensuring
+     * receival of binary or text data that do not need further analysis.
+     * Note that the POST request will be URL encoded.
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @param headers The request headers
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(URL url, String postRequest, Map<String, String> headers)
+            throws IOException {
+        execute(url, headers, "application/x-www-form-urlencoded",
+                postRequest.getBytes("UTF-8"), false);
+        return contentSize;
+    }
+
+    /**
+     * Makes a POST request to the URL without encoding the data (the
+     * header type is application/octet-stream).
+     *
+     * @param url The URL to read from
+     * @param postRequest The binary data to send
+     * @param headers The request headers
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(URL url, byte[] postRequest, Map<String, String> headers)
+            throws IOException {
+        execute(url, headers, "application/octet-stream", postRequest, false);
+        return contentSize;
+    }
+
+    /**
+     * Makes a POST request to the URL without encoding the data (the
+     * header type is application/octet-stream).
+     *
+     * @param url The URL to read from
+     * @param postRequest The binary data to send
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(String url, byte[] postRequest) throws IOException {
+        return readURL(new URL(url), postRequest, null);
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and discards the data,
+     * keeping just the size of the total read. This is useful for ensuring
+     * receival of binary or text data that do not need further analysis.
+     *
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(String url, String postRequest) throws IOException {
+        return readURL(new URL(url), postRequest);
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and discards the data,
+     * keeping just the size of the total read. This is useful for ensuring
+     * receival of binary or text data that do not need further analysis.
+     *
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @param headers The request headers
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(String url, String postRequest,
+                       Map<String, String> headers) throws IOException {
+        return readURL(new URL(url), postRequest, headers);
+    }
+
+    /**
+     * Reads data from the URL and returns the data read. Note that this
+     * method only works with text data as it does the byte-to-char
+     * conversion. This method will return null for responses with binary
+     * MIME types. The addTextType(String) method is used to register
+     * additional MIME types as text types.
+     *
+     * @param url The URL to read from
+     * @param headers The request headers
+     * @return The StringBuilder buffer containing the resulting document
+     * @throws IOException
+     * @see #addTextType(String)
+     * @see #getContentSize()
+     */
+    public StringBuilder fetchURL(URL url, Map<String, String> headers)
+            throws IOException {
+        execute(url, headers, null, null, true);
+        return decodeResponse();
+    }
+
+    /**
+     * Reads data from the URL and returns the data read. Note that this
+     * method only works with text data as it does the byte-to-char
+     * conversion. This method will return null for responses with binary
+     * MIME types. The addTextType(String) method is used to register
+     * additional MIME types as text types. Use getContentSize()
+     * to obtain the bytes of binary data read.
+     *
+     * @param url The URL to read from
+     * @return The StringBuilder buffer containing the resulting document
+     * @throws IOException
+     * @see #addTextType(String)
+     * @see #getContentSize()
+     */
+    public StringBuilder fetchURL(URL url) throws IOException {
+        return fetchURL(url, (Map<String, String>) null);
+    }
+
+    /**
+     * Reads data from the URL and returns the data read. Note that this
+     * method only works with text data as it does the byte-to-char
+     * conversion. This method will return null for responses with binary
+     * MIME types. The addTextType(String) method is used to register
+     * additional MIME types as text types. Use getContentSize()
+     * to obtain the bytes of binary data read.
+     *
+     * @param url The URL to read from
+     * @param headers The request headers
+     * @return The StringBuilder buffer containing the resulting document
+     * @throws IOException
+     * @see #addTextType(String)
+     * @see #getContentSize()
+     */
+    public StringBuilder fetchURL(String url, Map<String, String> headers)
+            throws IOException {
+        return fetchURL(new URL(url), headers);
+    }
+
+    /**
+     * Reads data from the URL and returns the data read. Note that this
+     * method only works with text data as it does the byte-to-char
+     * conversion. This method will return null for responses with binary
+     * MIME types. The addTextType(String) method is used to register
+     * additional MIME types as text types. Use getContentSize()
+     * to obtain the bytes of binary data read.
+     *
+     * @param url The URL to read from
+     * @return The StringBuilder buffer containing the resulting document
+     * @throws IOException
+     * @see #addTextType(String)
+     * @see #getContentSize()
+     */
+    public StringBuilder fetchURL(String url) throws IOException {
+        return fetchURL(new URL(url));
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and returns the data
+     * read. Note that this method only works with text data as it does the
+     * byte-to-char conversion. This method will return null for responses
+     * with binary MIME types. The addTextType(String) method is used to
+     * register additional MIME types as text types. Use getContentSize()
+     * to obtain the bytes of binary data read.
+     *
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @return The StringBuilder buffer containing the resulting document
+     * @throws IOException
+     * @see #addTextType(String)
+     * @see #getContentSize()
+     */
+    public StringBuilder fetchURL(String url, String postRequest)
+            throws IOException {
+        return fetchURL(new URL(url), postRequest);
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and returns the data
+     * read. Note that this method only works with text data as it does the
+     * byte-to-char conversion. This method will return null for responses
+     * with binary MIME types. The addTextType(String) method is used to
+     * register additional MIME types as text types. Use getContentSize()
+     * to obtain the bytes of binary data read.
+     *
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @param headers The request headers
+     * @return The StringBuilder buffer containing the resulting document
+     * @throws IOException
+     * @see #addTextType(String)
+     * @see #getContentSize()
+     */
+    public StringBuilder fetchURL(String url, String postRequest,
+                                  Map<String, String> headers)
+            throws IOException {
+        return fetchURL(new URL(url), postRequest, headers);
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and returns the data
+     * read. Note that this method only works with text data as it does the
+     * byte-to-char conversion. This method will return null for responses
+     * with binary MIME types. The addTextType(String) method is used to
+     * register additional MIME types as text types. Use getContentSize()
+     * to obtain the bytes of binary data read.
+     *
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @param headers The request headers
+     * @return The StringBuilder buffer containing the resulting document
+     * @throws IOException
+     * @see #addTextType(String)
+     * @see #getContentSize()
+     */
+    public StringBuilder fetchURL(URL url, String postRequest,
+                                  Map<String, String> headers)
+            throws IOException {
+        execute(url, headers, "application/x-www-form-urlencoded",
+                postRequest.getBytes("UTF-8"), true);
+        return decodeResponse();
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and returns the data
+     * read. Note that this method only works with text data as it does the
+     * byte-to-char conversion. This method will return null for responses
+     * with binary MIME types. The addTextType(String) method is used to
+     * register additional MIME types as text types. Use getContentSize()
+     * to obtain the bytes of binary data read.
+     *
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @return The StringBuilder buffer containing the resulting document
+     * @throws IOException
+     * @see #addTextType(String)
+     * @see #getContentSize()
+     */
+    public StringBuilder fetchURL(URL url, String postRequest)
+            throws IOException {
+        return fetchURL(url, postRequest, null);
+    }
+
+    /**
+     * Fetches the main page and then all image or other resource pages in
+     * parallel, like a browser does. The main page is fetched with a POST
+     * request if a post string is given, otherwise with a GET request.
+     * The whole page is timed as one operation.
+     *
+     * @param page The page URL
+     * @param images The image or other resource URLs to fetch with page
+     * @param postRequest The post string, or null for a GET request
+     * @return The buffer of the main page
+     * @throws IOException If an I/O error occurred
+     * @see com.sun.faban.driver.transport.util.PageFetcher
+     */
+	public StringBuilder fetchURL(URL page, URL[] images, String postRequest)
+            throws IOException {
+        if (pageFetcher == null)
+            pageFetcher = new PageFetcher(this);
+        return pageFetcher.fetch(page, images, postRequest);
+    }
+
+    /**
+     * Makes a POST request, fetches the main page and all other image or
+     * resource pages.
+     *
+     * @param page The page URL
+     * @param images The image or other resource URLs to fetch with page
+     * @param postRequest The post string
+     * @return The buffer of the main page
+     * @throws IOException If an I/O error occurred
+     */
+    public StringBuilder fetchPage(String page, String[] images,
+                                  String postRequest) throws IOException {
+        URL[] imgURLs = new URL[images.length];
+        for (int i = 0; i < imgURLs.length; i++)
+            imgURLs[i] = new URL(images[i]);
+        return fetchURL(new URL(page), imgURLs, postRequest);
+    }
+
+    /**
+     * Makes the request and reads the response, following redirects if
+     * enabled. The response code, headers, and content size are kept.
+     * The body is kept in the exchange if it is text and keepText is set.
+     * @param url The URL
+     * @param headers The request headers, or null
+     * @param postType The default content type of the post data
+     * @param postData The post data, or null for a GET request
+     * @param keepText Whether to keep the body of text responses
+     * @throws IOException If the request fails
+     */
+    private void execute(URL url, Map<String, String> headers,
+                         String postType, byte[] postData, boolean keepText)
+            throws IOException {
+        for (int redirects = 0;; redirects++) {
+            if (!"http".equalsIgnoreCase(url.getProtocol()))
+                throw new IOException("Protocol " + url.getProtocol() +
+                        " not supported by the NIO transport. Use the " +
+                        "Sun or Apache transport instead.");
+            exchange.request = requestBuffer.build(url, headers, postType,
+                                                   postData);
+            exchange.textTypes = keepText ? texttypes : null;
+            exchange(url);
+
+            responseCode = exchange.responseCode;
+            responseHeader = exchange.headers;
+            contentSize = exchange.bodyLength;
+            try {
+                cookieHandler.put(url.toURI(), responseHeader);
+            } catch (URISyntaxException e) {
+                IOException ex = new IOException("Invalid URL " + url);
+                ex.initCause(e);
+                throw ex;
+            }
+
+            if (!followRedirects || redirects >= MAX_REDIRECTS ||
+                    responseCode < 300 || responseCode > 307 ||
+                    responseCode == 304 || responseCode == 305 ||
+                    responseCode == 306)
+                return;
+            List<String> location = responseHeader.get("Location");
+            if (location == null)
+                return;
+            url = new URL(url, location.get(0));
+            // Only 307 repeats the post, as HttpURLConnection does.
+            if (responseCode != 307) {
+                postType = null;
+                postData = null;
+            }
+        }
+    }
+
+    /**
+     * Exchanges the request with the server. A request failing on a reused
+     * connection without any response is retried once on a new connection,
+     * as the server may have closed the idle connection.
+     * @param url The URL
+     * @throws IOException If the request fails
+     */
+    private void exchange(URL url) throws IOException {
+        if (reactor == null)
+            reactor = HttpReactor.getInstance();
+        if (ctx == null) {
+            ctx = DriverContext.getContext();
+            if (ctx != null)
+                throttle = new Throttle(ctx);
+        }
+        String host = url.getHost();
+        int port = url.getPort();
+        if (port == -1)
+            port = url.getDefaultPort();
+        for (boolean reuse = true;; reuse = false) {
+            // Record the start before acquiring the connection so that
+            // any connect happens after the wait for the intended start
+            // and counts into the response time.
+            long startTime = 0l;
+            if (ctx != null) {
+                ctx.recordStartTime();
+                startTime = System.nanoTime();
+            }
+            HttpConnection connection = pool.acquire(host, port, reuse);
+            boolean reused = connection.responses > 0;
+            exchange.reset();
+            connection.exchange = exchange;
+            reactor.submit(connection);
+            try {
+                exchange.await();
+            } catch (InterruptedIOException e) {
+                // Interrupted or timed out, the connection is unusable.
+                connection.exchange = null;
+                connection.close();
+                throw e;
+            } catch (IOException e) {
+                if (reused && exchange.responseBytes == 0)
+                    continue;
+                throw e;
+            }
+            if (ctx != null) {
+                ctx.recordEndTime(exchange.endTime);
+                ctx.recordPhase(DriverContext.PHASE_TTFB, exchange.sentTime,
+                                exchange.firstByteTime);
+                ctx.recordPhase(DriverContext.PHASE_TRANSFER,
+                                exchange.firstByteTime, exchange.endTime);
+                throttle(startTime);
+            }
+            if (exchange.keepAlive)
+                pool.release(connection);
+            else
+                connection.close();
+            return;
+        }
+    }
+
+    /**
+     * Holds back the thread if the upload or download speed is limited,
+     * until the time the request and response would take at that speed.
+     * The end time is recorded again in case of a limited download.
+     * @param startTime The time the request started, in system nanotime
+     */
+    private void throttle(long startTime) {
+        if (throttle.isThrottled(Throttle.UP))
+            throttle.throttle(exchange.request.limit(), startTime,
+                              Throttle.UP);
+        if (throttle.isThrottled(Throttle.DOWN)) {
+            throttle.throttle(exchange.responseBytes, startTime,
+                              Throttle.DOWN);
+            ctx.recordEndTime();
+        }
+    }
+
+    /**
+     * Decodes the text response kept in the exchange into the buffer.
+     * @return The buffer, or null if the response is not text
+     * @throws IOException If the charset is not supported
+     */
+    private StringBuilder decodeResponse() throws IOException {
+        if (!exchange.textBody)
+            return null;
+        String encoding = exchange.charset;
+        if (encoding == null)
+            encoding = "ISO-8859-1";
+        Charset charset;
+        try {
+            charset = Charset.forName(encoding);
+        } catch (IllegalCharsetNameException e) {
+            throw new UnsupportedEncodingException(encoding);
+        } catch (UnsupportedCharsetException e) {
+            throw new UnsupportedEncodingException(encoding);
+        }
+        reInitBuffer(exchange.bodyLength);
+        charBuffer.append(charset.decode(
+                ByteBuffer.wrap(exchange.body, 0, exchange.bodyLength)));
+        contentSize = charBuffer.length();
+        return charBuffer;
+    }
+
+    /**
+     * Obtains the size of the last read page or resource. The result is in
+     * bytes for non-decoded content and in characters for decoded content.
+     * All binary content is not decoded. Text content is decoded only using
+     * the fetch or match commands.
+     * @return The size, in bytes, of the last page read
+     */
+    public int getContentSize() {
+        return contentSize;
+    }
+
+    /**
+     * Fetches the data from the stream, converts to char, and returns it as
+     * a StringBuilder.
+     * @param stream The stream to read from
+     * @return The resulting data
+     * @throws IOException
+     */
+    public StringBuilder fetchResponseData(InputStream stream)
+            throws IOException {
+        return fetchResponseData(new InputStreamReader(stream));
+    }
+
+    /**
+     * Fetches the data from the reader and returns it as a StringBuilder.
+     * @param reader The reader to read from
+     * @return The resulting data
+     * @throws IOException
+     */
+    public StringBuilder fetchResponseData(Reader reader) throws IOException {
+        int totalLength = 0;
+        int length = reader.read(charReadBuffer, 0, charReadBuffer.length);
+        if (length > 0)
+            reInitBuffer(length);
+        else
+            reInitBuffer(2048);
+
+        while (length != -1) {
+            totalLength += length;
+            charBuffer.append(charReadBuffer, 0, length);
+            length = reader.read(charReadBuffer, 0, charReadBuffer.length);
+        }
+        contentSize = totalLength;
+        return charBuffer;
+    }
+
+    /**
+     * Maches the regular expression against the data in the current buffer.
+     * @param regex The regular expression to match
+     * @return True if the match succeeds, false otherwise
+     */
+    public boolean matchResponse(String regex) {
+        if (charBuffer == null)
+            return false;
+        if (patternCache == null)
+            patternCache = new HashMap<String, Pattern>();
+        Pattern pattern = patternCache.get(regex);
+        if (pattern == null) {
+            pattern = Pattern.compile(regex);
+            patternCache.put(regex, pattern);
+        }
+        Matcher matcher = pattern.matcher(charBuffer);
+        return matcher.find();
+    }
+
+    /**
+     * Matches the regular expression against the data read from the stream.
+     * @param stream The source of the data
+     * @param regex The regular expression to match
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchResponse(InputStream stream, String regex)
+            throws IOException {
+        fetchResponseData(stream);
+        return matchResponse(regex);
+    }
+
+    /**
+     * Matches the regular expression against the data read from the reader.
+     * @param reader The source of the data
+     * @param regex The regular expression to match
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchResponse(Reader reader, String regex)
+            throws IOException {
+        fetchResponseData(reader);
+        return matchResponse(regex);
+    }
+
+    /**
+     * Matches the regular expression against the response fetched from the
+     * URL.
+     * @param url The source of the data
+     * @param regex THe regular expression to match
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchURL(String url, String regex) throws IOException {
+        fetchURL(url);
+        return matchResponse(regex);
+    }
+
+    /**
+     * Matches the regular expression against the response fetched from the
+     * URL.
+     * @param url The source of the data
+     * @param regex The regular expression to match
+     * @param headers The request headers
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchURL(String url, String regex, Map<String, String> headers)
+            throws IOException {
+        fetchURL(url, headers);
+        return matchResponse(regex);
+    }
+
+    /**
+     * Matches the regular expression against the response fetched from the
+     * URL.
+     * @param url The source of the data
+     * @param regex The regular expression to match
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchURL(URL url, String regex) throws IOException {
+        fetchURL(url);
+        return matchResponse(regex);
+    }
+
+    /**
+     * Matches the regular expression against the response fetched from the
+     * URL.
+     * @param url The source of the data
+     * @param regex The regular expression to match
+     * @param headers The request headers
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchURL(URL url, String regex, Map<String, String> headers)
+            throws IOException {
+        fetchURL(url, headers);
+        return matchResponse(regex);
+    }
+
+    /**
+     * Mathces the regular expression against the response fetched from the
+     * post request made to the URL.
+     * @param url The source of the data
+     * @param postRequest The post request string
+     * @param regex The regular expression to match
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchURL(URL url, String postRequest, String regex)
+            throws IOException {
+        fetchURL(url, postRequest);
+        return matchResponse(regex);
+    }
+
+    /**
+     * Mathces the regular expression against the response fetched from the
+     * post request made to the URL.
+     * @param url The source of the data
+     * @param postRequest The post request string
+     * @param regex The regular expression to match
+     * @param headers The request headers
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchURL(URL url, String postRequest, String regex,
+                            Map<String, String> headers) throws IOException {
+        fetchURL(url, postRequest, headers);
+        return matchResponse(regex);
+    }
+
+    /**
+     * Mathces the regular expression against the response fetched from the
+     * post request made to the URL.
+     * @param url The source of the data
+     * @param postRequest The post request string
+     * @param regex The regular expression to match
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchURL(String url, String postRequest, String regex)
+            throws IOException {
+        fetchURL(url, postRequest);
+        return matchResponse(regex);
+    }
+
+    /**
+     * Mathces the regular expression against the response fetched from the
+     * post request made to the URL.
+     * @param url The source of the data
+     * @param postRequest The post request string
+     * @param regex The regular expression to match
+     * @param headers The request headers
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchURL(String url, String postRequest, String regex,
+                            Map<String, String> headers) throws IOException {
+        fetchURL(url, postRequest, headers);
+        return matchResponse(regex);
+    }
+
+    /**
+     * Obtains the list of cookie values by the name of the cookies.
+     * @param name The cookie name
+     * @return An array of non-duplicating cookie values.
+     */
+    public String[] getCookieValuesByName(String name) {
+        return cookieHandler.getCookieValuesByName(name);
+    }
+
+    /**
+     * Obtains the header fields of the last request's response.
+     * @param name The response header field of interest
+     * @return An array of response header values, empty if not present
+     */
+    public String[] getResponseHeader(String name) {
+        List<String> values = responseHeader.get(name);
+        if (values == null)
+            return new String[0];
+        String[] v = new String[values.size()];
+        return values.toArray(v);
+    }
+
+    /**
+     * Utility class to get responseHeaders as a string.  The formatting is
+     * not localized
+     *
+     * @return responseHeaders
+     */
+    public String dumpResponseHeaders() {
+        StringBuilder s = new StringBuilder();
+        for (Map.Entry<String, List<String>> entry :
+                responseHeader.entrySet()) {
+            String name = entry.getKey();
+            for (String value : entry.getValue()) {
+                s.append(name);
+                s.append(": ");
+                s.append(value);
+                s.append('\n');
+            }
+        }
+        return s.toString();
+    }
+
+    /**
+     * Obtains the response code of the previous request.
+     * @return responseCode The response code
+     */
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    /**
+     * The buffer the requests are built in. The buffer grows as needed and
+     * is reused for all requests of the transport.
+     */
+    private class RequestBuffer {
+
+        private byte[] buf = new byte[1024];
+        private int count;
+
+        /**
+         * Builds the request.
+         * @param url The URL
+         * @param headers The request headers, or null
+         * @param postType The default content type of the post data
+         * @param postData The post data, or null for a GET request
+         * @return The request, ready for writing
+         * @throws IOException If the URL is invalid
+         */
+        ByteBuffer build(URL url, Map<String, String> headers,
+                         String postType, byte[] postData)
+                throws IOException {
+            count = 0;
+            String file = url.getFile();
+            if (file.length() == 0)
+                file = "/";
+            line(postData == null ? "GET " : "POST ", file, " HTTP/1.1");
+            boolean hasHost = false, hasLanguage = false, hasAgent = false,
+                    hasAccept = false, hasType = false;
+            if (headers != null)
+                for (Map.Entry<String, String> entry : headers.entrySet()) {
+                    String name = entry.getKey();
+                    if ("Host".equalsIgnoreCase(name))
+                        hasHost = true;
+                    else if ("Accept-Language".equalsIgnoreCase(name))
+                        hasLanguage = true;
+                    else if ("User-Agent".equalsIgnoreCase(name))
+                        hasAgent = true;
+                    else if ("Accept".equalsIgnoreCase(name))
+                        hasAccept = true;
+                    else if ("Content-Type".equalsIgnoreCase(name))
+                        hasType = true;
+                    else if ("Content-Length".equalsIgnoreCase(name))
+                        continue;
+                    line(name, ": ", entry.getValue());
+                }
+            if (!hasHost) {
+                int port = url.getPort();
+                if (port == -1 || port == url.getDefaultPort())
+                    line("Host: ", url.getHost(), "");
+                else
+                    line("Host: ", url.getHost(), ":" + port);
+            }
+            if (!hasLanguage)
+                line("Accept-Language: ", "en-us,en;q=0.5", "");
+            if (!hasAgent)
+                line("User-Agent: ", USER_AGENT, "");
+            if (!hasAccept)
+                line("Accept: ", ACCEPT, "");
+            Map<String, List<String>> cookies;
+            try {
+                cookies = cookieHandler.get(url.toURI(),
+                        Collections.<String, List<String>>emptyMap());
+            } catch (URISyntaxException e) {
+                IOException ex = new IOException("Invalid URL " + url);
+                ex.initCause(e);
+                throw ex;
+            }
+            for (Map.Entry<String, List<String>> entry : cookies.entrySet())
+                for (String value : entry.getValue())
+                    line(entry.getKey(), ": ", value);
+            if (postData != null) {
+                if (!hasType)
+                    line("Content-Type: ", postType, "");
+                line("Content-Length: ", String.valueOf(postData.length), "");
+            }
+            line("", "", "");
+            if (postData != null) {
+                ensure(postData.length);
+                System.arraycopy(postData, 0, buf, count, postData.length);
+                count += postData.length;
+            }
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+
+        private void line(String s1, String s2, String s3) {
+            ensure(s1.length() + s2.length() + s3.length() + 2);
+            append(s1);
+            append(s2);
+            append(s3);
+            buf[count++] = '\r';
+            buf[count++] = '\n';
+        }
+
+        private void append(String s) {
+            int length = s.length();
+            for (int i = 0; i < length; i++)
+                buf[count++] = (byte) s.charAt(i);
+        }
+
+        private void ensure(int length) {
+            if (count + length > buf.length) {
+                byte[] newBuf = new byte[Math.max(buf.length * 2,
+                                                  count + length)];
+                System.arraycopy(buf, 0, newBuf, 0, count);
+                buf = newBuf;
+            }
+        }
+    }
+}
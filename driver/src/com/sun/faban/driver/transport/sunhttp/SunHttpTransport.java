@@ -25,6 +25,7 @@
 package com.sun.faban.driver.transport.sunhttp;
 
 import com.sun.faban.driver.HttpTransport;
+import com.sun.faban.driver.transport.util.PageFetcher;
 
 import java.io.*;
 import java.net.HttpURLConnection;
@@ -103,6 +104,9 @@ public class SunHttpTransport extends HttpTransport {
 
     private boolean followRedirects = false;
 
+    /** The fetcher for pages with resources, created on first use. */
+    private PageFetcher pageFetcher;
+
     private HashSet<String> texttypes;
 
     /**
@@ -568,19 +572,23 @@ public class SunHttpTransport extends HttpTransport {
     */
 
     /**
-     * Method not implemented. Makes a POST request. Fetches the main page
-     * and all other image or resource pages based on the given URLs.
+     * Fetches the main page and then all image or other resource pages in
+     * parallel, like a browser does. The main page is fetched with a POST
+     * request if a post string is given, otherwise with a GET request.
+     * The whole page is timed as one operation.
      *
      * @param page The page URL
      * @param images The image or other resource URLs to fetch with page
-     * @param postRequest The post string
+     * @param postRequest The post string, or null for a GET request
      * @return The buffer of the main page
      * @throws IOException If an I/O error occurred
+     * @see com.sun.faban.driver.transport.util.PageFetcher
      */
 	public StringBuilder fetchURL(URL page, URL[] images, String postRequest)
             throws IOException {
-        // TODO: implement method
-        return null;
+        if (pageFetcher == null)
+            pageFetcher = new PageFetcher(this);
+        return pageFetcher.fetch(page, images, postRequest);
     }
 
     /**
@@ -0,0 +1,304 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.util;
+
+import com.sun.faban.driver.engine.DriverContext;
+import com.sun.faban.driver.util.BandwidthStats;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The bandwidth shaper limits the upload and download speed of the
+ * transports in this agent. The speed is limited at three levels, each
+ * with a token bucket for each direction:
+ * <ol>
+ *   <li>The user, set by HttpTransport.setDownloadSpeed/setUploadSpeed.</li>
+ *   <li>The bandwidth group, shared by all users set to the group by
+ *       HttpTransport.setBandwidthGroup. The group speed is set by
+ *       setGroupSpeed, typically from the driver's initialization.</li>
+ *   <li>The agent, shared by all users of the agent. The agent speed is
+ *       set by setAgentSpeed or the system properties
+ *       faban.bandwidth.upload and faban.bandwidth.download.</li>
+ * </ol>
+ * All speeds are in kilobytes per second. Speeds of 0 or less are
+ * unlimited.<p>
+ *
+ * Users take credit from the shared group and agent buckets in grants
+ * worth GRANT_TIME at the bucket speed, so the shared buckets are not
+ * locked on every read. The debt of a user is paid by sleeping once it
+ * exceeds MIN_SLEEP, not on each read. Both times are set in microsecs by
+ * the system properties faban.bandwidth.grantTime and
+ * faban.bandwidth.minSleep. Users can also get a latency added to each
+ * response by HttpTransport.setLatency.<p>
+ *
+ * The achieved speed of each group and of all shaped users is reported
+ * in the BandwidthStats, attached to the driver metrics as "Bandwidth".
+ *
+ * @see com.sun.faban.driver.util.BandwidthStats
+ */
+public class BandwidthShaper {
+
+    /** The time worth of credit granted by a shared bucket, in ns. */
+    public static final long GRANT_TIME =
+            Long.getLong("faban.bandwidth.grantTime", 5000l) * 1000l;
+
+    /** The debt a user needs to accumulate before sleeping, in ns. */
+    public static final long MIN_SLEEP =
+            Long.getLong("faban.bandwidth.minSleep", 1000l) * 1000l;
+
+    private static BandwidthShaper instance = new BandwidthShaper();
+
+    private Bucket[] agent = new Bucket[2];
+
+    private ConcurrentHashMap<String, Bucket[]> groups =
+            new ConcurrentHashMap<String, Bucket[]>();
+
+    private Map<DriverContext, Link> links =
+            new WeakHashMap<DriverContext, Link>();
+
+    private BandwidthShaper() {
+        agent[Throttle.UP] = new Bucket(
+                Integer.getInteger("faban.bandwidth.upload", -1));
+        agent[Throttle.DOWN] = new Bucket(
+                Integer.getInteger("faban.bandwidth.download", -1));
+    }
+
+    /**
+     * Obtains the bandwidth shaper of this agent.
+     * @return The bandwidth shaper
+     */
+    public static BandwidthShaper getInstance() {
+        return instance;
+    }
+
+    /**
+     * Sets the speed shared by all users of this agent.
+     * @param uploadKbps The upload speed, in kilobytes per second
+     * @param downloadKbps The download speed, in kilobytes per second
+     */
+    public void setAgentSpeed(int uploadKbps, int downloadKbps) {
+        agent[Throttle.UP].setSpeed(uploadKbps);
+        agent[Throttle.DOWN].setSpeed(downloadKbps);
+    }
+
+    /**
+     * Sets the speed shared by all users of a bandwidth group in this
+     * agent. Each agent limits its own users to this speed.
+     * @param group The group name
+     * @param uploadKbps The upload speed, in kilobytes per second
+     * @param downloadKbps The download speed, in kilobytes per second
+     */
+    public void setGroupSpeed(String group, int uploadKbps, int downloadKbps) {
+        Bucket[] buckets = getGroup(group);
+        buckets[Throttle.UP].setSpeed(uploadKbps);
+        buckets[Throttle.DOWN].setSpeed(downloadKbps);
+    }
+
+    private Bucket[] getGroup(String group) {
+        Bucket[] buckets = groups.get(group);
+        if (buckets == null) {
+            buckets = new Bucket[] { new Bucket(-1), new Bucket(-1) };
+            Bucket[] old = groups.putIfAbsent(group, buckets);
+            if (old != null)
+                buckets = old;
+        }
+        return buckets;
+    }
+
+    /**
+     * Obtains the link of a user, shared by all streams of the user. The
+     * link does not refer to the context, so the link is dropped together
+     * with the context of a user.
+     * @param ctx The context of the user
+     * @return The link
+     */
+    synchronized Link getLink(DriverContext ctx) {
+        Link link = links.get(ctx);
+        if (link == null) {
+            link = new Link();
+            links.put(ctx, link);
+        }
+        return link;
+    }
+
+    /**
+     * A token bucket, implemented as the virtual scheduling form of the
+     * generic cell rate algorithm. The bucket holds up to GRANT_TIME worth
+     * of credit.
+     */
+    static class Bucket {
+
+        volatile int kbps;
+        private double nanosPerByte;
+        private long readyTime = 0l; // The time all credit is paid.
+
+        Bucket(int kbps) {
+            setSpeed(kbps);
+        }
+
+        synchronized void setSpeed(int kbps) {
+            this.kbps = kbps;
+            if (kbps > 0)
+                nanosPerByte = 1e9d / (kbps * 1024d);
+        }
+
+        boolean isLimited() {
+            return kbps > 0;
+        }
+
+        /**
+         * Takes bytes from the bucket.
+         * @param bytes The number of bytes
+         * @param now The current time
+         * @return The time the bytes are paid for
+         */
+        synchronized long acquire(long bytes, long now) {
+            if (readyTime - now < 0)
+                readyTime = now;
+            readyTime += (long) (bytes * nanosPerByte);
+            return readyTime - GRANT_TIME;
+        }
+    }
+
+    /**
+     * The link of one user, used by all streams of the user. The user's
+     * context is passed in on each call, the link must not keep it.
+     */
+    class Link {
+
+        private Bucket[] user = { new Bucket(-1), new Bucket(-1) };
+        private String groupName;
+        private Bucket[] group;
+
+        // Credit granted by the shared buckets and the time it is paid.
+        private long[] credit = new long[2];
+        private long[] grantTime = new long[2];
+
+        private boolean sent = false;
+        private BandwidthStats stats;
+
+        /**
+         * Obtains the group buckets of the user.
+         * @param ctx The context of the user
+         * @return The group buckets, or null if not in a group
+         */
+        private Bucket[] group(DriverContext ctx) {
+            String name = ctx.getBandwidthGroup();
+            if (name != groupName) {
+                groupName = name;
+                group = name == null ? null : getGroup(name);
+            }
+            return group;
+        }
+
+        private int userSpeed(DriverContext ctx, int direction) {
+            if (direction == Throttle.UP)
+                return ctx.getUploadSpeed();
+            return ctx.getDownloadSpeed();
+        }
+
+        /**
+         * Checks whether transfers in the given direction are shaped.
+         * @param ctx The context of the user
+         * @param direction The direction, up or down
+         * @return Whether the transfers are shaped
+         */
+        boolean isShaped(DriverContext ctx, int direction) {
+            if (ctx.getLatency() > 0 || userSpeed(ctx, direction) > 0 ||
+                    agent[direction].isLimited())
+                return true;
+            Bucket[] g = group(ctx);
+            return g != null && g[direction].isLimited();
+        }
+
+        /**
+         * Takes the bytes transferred from all buckets of the user.
+         * @param ctx The context of the user
+         * @param bytes The bytes transferred
+         * @param startTime The time the transfer started
+         * @param direction The direction, up or down
+         * @return The time the user must wait for
+         */
+        synchronized long acquire(DriverContext ctx, int bytes,
+                                  long startTime, int direction) {
+            long now = System.nanoTime();
+            long readyTime = now;
+
+            int kbps = userSpeed(ctx, direction);
+            Bucket u = user[direction];
+            if (kbps != u.kbps)
+                u.setSpeed(kbps);
+            if (kbps > 0)
+                readyTime = Math.max(readyTime, u.acquire(bytes, startTime));
+
+            Bucket[] g = group(ctx);
+            Bucket gb = g == null || !g[direction].isLimited() ?
+                        null : g[direction];
+            Bucket ab = agent[direction].isLimited() ? agent[direction] : null;
+            if (gb != null || ab != null) {
+                if (credit[direction] < bytes) {
+                    int slowest = Integer.MAX_VALUE;
+                    if (gb != null)
+                        slowest = gb.kbps;
+                    if (ab != null && ab.kbps < slowest)
+                        slowest = ab.kbps;
+                    long grant = Math.max(bytes - credit[direction],
+                                    slowest * 1024l * GRANT_TIME / 1000000000l);
+                    long paid = now;
+                    if (gb != null)
+                        paid = Math.max(paid, gb.acquire(grant, now));
+                    if (ab != null)
+                        paid = Math.max(paid, ab.acquire(grant, now));
+                    grantTime[direction] = Math.max(grantTime[direction],
+                                                    paid);
+                    credit[direction] += grant;
+                }
+                credit[direction] -= bytes;
+                readyTime = Math.max(readyTime, grantTime[direction]);
+            }
+
+            // The latency delays the first response bytes after a request.
+            if (direction == Throttle.DOWN && sent && ctx.getLatency() > 0)
+                readyTime = Math.max(readyTime, now + ctx.getLatency());
+            sent = direction == Throttle.UP;
+
+            if (ctx.isSteadyState(now, now))
+                record(ctx, bytes, direction, gb, ab);
+            return readyTime;
+        }
+
+        private void record(DriverContext ctx, int bytes, int direction,
+                            Bucket gb, Bucket ab) {
+            if (stats == null) {
+                stats = new BandwidthStats(ctx.getAgentId(),
+                                           ctx.getSteadyState());
+                ctx.attachMetrics("Bandwidth", stats);
+            }
+            stats.record(groupName, direction, bytes,
+                         gb == null ? -1 : gb.kbps, ab == null ? -1 : ab.kbps);
+        }
+    }
+}
@@ -0,0 +1,311 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.util;
+
+import com.sun.faban.driver.HttpTransport;
+import com.sun.faban.driver.engine.DriverContext;
+import com.sun.faban.driver.util.PageResourceStats;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The page fetcher loads a page the way a browser does. The main document
+ * is fetched first by the calling thread, using the transport owning the
+ * fetcher. The embedded resources are then fetched in parallel, each over
+ * a connection of its own. Like a browser, at most CONNECTIONS resources
+ * of a page are fetched at a time, and at most CONNECTIONS_PER_HOST from
+ * the same host. The limits can be changed by the system properties
+ * faban.http.page.connections and faban.http.page.connectionsPerHost.<p>
+ *
+ * With automatic timing, the whole page is timed as one operation, from
+ * the first byte written for the main document to the last byte read of
+ * the last resource. The size and latency of each resource is collected
+ * in PageResourceStats, attached to the driver metrics as "Page Resources".
+ * Like with the MultipleTransport, the resources do not share the cookies
+ * of the main transport.<p>
+ *
+ * The resources are fetched by helper threads, each using a transport of
+ * the owner's provider. The helper threads are created as needed and
+ * exit after being idle for IDLE_TIMEOUT seconds.
+ *
+ * @see com.sun.faban.driver.util.PageResourceStats
+ */
+public class PageFetcher {
+
+    /** The max number of resources of a page fetched in parallel. */
+    public static final int CONNECTIONS =
+            Integer.getInteger("faban.http.page.connections", 8);
+
+    /** The max number of resources fetched in parallel from one host. */
+    public static final int CONNECTIONS_PER_HOST =
+            Integer.getInteger("faban.http.page.connectionsPerHost", 6);
+
+    /** The seconds a helper thread waits for work before it exits. */
+    public static final int IDLE_TIMEOUT = 60;
+
+    private static Logger logger =
+            Logger.getLogger(PageFetcher.class.getName());
+
+    private HttpTransport owner;
+    private PageResourceStats stats;
+
+    private ReentrantLock lock = new ReentrantLock();
+    private Condition workAvailable = lock.newCondition();
+    private Condition workDone = lock.newCondition();
+
+    // All guarded by the lock.
+    private LinkedList<Resource> pending = new LinkedList<Resource>();
+    private HashMap<String, Integer> hostFetches =
+            new HashMap<String, Integer>();
+    private int helpers = 0;
+    private int idleHelpers = 0;
+
+    /**
+     * The resources of a page not fetched yet. Fetches of a page given up
+     * on by an interrupt only count down their own page.
+     */
+    private static class Page {
+        int outstanding;
+    }
+
+    /** A resource to fetch, and the result of the fetch. */
+    private static class Resource {
+        Page page;
+        URL url;
+        String host;
+        int size;
+        long startTime;
+        long endTime;
+        Throwable error;
+    }
+
+    /**
+     * Constructs a page fetcher.
+     * @param owner The transport fetching the main document
+     */
+    public PageFetcher(HttpTransport owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * Fetches the page and all its resources.
+     * @param page The page URL
+     * @param resources The resource URLs, or null
+     * @param postRequest The post string, or null for a GET request
+     * @return The buffer of the main page, or null if it is not text
+     * @throws IOException If the page or any of its resources failed
+     */
+    public StringBuilder fetch(URL page, URL[] resources, String postRequest)
+            throws IOException {
+        StringBuilder buffer;
+        if (postRequest == null)
+            buffer = owner.fetchURL(page);
+        else
+            buffer = owner.fetchURL(page, postRequest);
+        if (resources == null || resources.length == 0)
+            return buffer;
+
+        Resource[] fetches = new Resource[resources.length];
+        Page p = new Page();
+        lock.lock();
+        try {
+            for (int i = 0; i < resources.length; i++) {
+                Resource r = new Resource();
+                r.page = p;
+                r.url = resources[i];
+                r.host = r.url.getHost() + ':' + r.url.getPort();
+                fetches[i] = r;
+                pending.add(r);
+            }
+            p.outstanding = fetches.length;
+            int needed = Math.min(CONNECTIONS, fetches.length) - helpers;
+            for (int i = 0; i < needed; i++)
+                startHelper();
+            workAvailable.signalAll();
+            while (p.outstanding > 0)
+                try {
+                    workDone.await();
+                } catch (InterruptedException e) {
+                    // Leave the fetches still in progress to the helpers.
+                    pending.clear();
+                    throw new InterruptedIOException(
+                            "Interrupted fetching resources of " + page);
+                }
+        } finally {
+            lock.unlock();
+        }
+
+        long endTime = 0l;
+        Throwable error = null;
+        int failed = 0;
+        for (Resource r : fetches) {
+            if (r.error != null) {
+                if (error == null)
+                    error = r.error;
+                ++failed;
+            } else if (r.endTime > endTime) {
+                endTime = r.endTime;
+            }
+        }
+        DriverContext ctx = DriverContext.getContext();
+        if (ctx != null) {
+            if (endTime != 0l)
+                ctx.recordEndTime(endTime);
+            if (error == null && ctx.isTxSteadyState())
+                record(ctx, fetches);
+        }
+        if (error != null) {
+            IOException e = new IOException("Failed fetching " + failed +
+                    " of " + fetches.length + " resources of " + page);
+            e.initCause(error);
+            throw e;
+        }
+        return buffer;
+    }
+
+    private void record(DriverContext ctx, Resource[] fetches) {
+        if (stats == null) {
+            stats = new PageResourceStats();
+            ctx.attachMetrics("Page Resources", stats);
+        }
+        for (Resource r : fetches)
+            stats.record(r.url.getHost() + r.url.getPath(), r.size,
+                         r.endTime - r.startTime);
+    }
+
+    /**
+     * Starts a helper thread. Must be called holding the lock.
+     */
+    private void startHelper() {
+        Thread helper = new Thread() {
+            @Override
+            public void run() {
+                helper();
+            }
+        };
+        helper.setName("PageFetcher-" + helpers);
+        helper.setDaemon(true);
+        ++helpers;
+        helper.start();
+    }
+
+    /**
+     * The helper loop, fetching resources until idle for too long.
+     */
+    private void helper() {
+        DriverContext.detachContext();
+        HttpTransport transport;
+        try {
+            // Create the transport on this thread, for thread-bound state.
+            transport = owner.getClass().newInstance();
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Cannot create transport for " +
+                    "fetching page resources.", e);
+            lock.lock();
+            try {
+                --helpers;
+            } finally {
+                lock.unlock();
+            }
+            return;
+        }
+        for (;;) {
+            Resource r;
+            lock.lock();
+            try {
+                long idle = TimeUnit.SECONDS.toNanos(IDLE_TIMEOUT);
+                while ((r = next()) == null) {
+                    if (idle <= 0l) {
+                        --helpers;
+                        return;
+                    }
+                    ++idleHelpers;
+                    try {
+                        idle = workAvailable.awaitNanos(idle);
+                    } catch (InterruptedException e) {
+                        idle = 0l;
+                    } finally {
+                        --idleHelpers;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            r.startTime = System.nanoTime();
+            try {
+                r.size = transport.readURL(r.url);
+            } catch (Throwable e) {
+                // Any failure must still be accounted for below, or the
+                // user thread waits for this resource forever.
+                r.error = e;
+            }
+            r.endTime = System.nanoTime();
+
+            lock.lock();
+            try {
+                Integer count = hostFetches.get(r.host);
+                if (count == 1)
+                    hostFetches.remove(r.host);
+                else
+                    hostFetches.put(r.host, count - 1);
+                // A slot for this host is free, others may be waiting on it.
+                if (!pending.isEmpty() && idleHelpers > 0)
+                    workAvailable.signal();
+                if (--r.page.outstanding == 0)
+                    workDone.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Takes the first pending resource from a host without too many
+     * fetches in progress. Must be called holding the lock.
+     * @return The resource, or null if none can be fetched now
+     */
+    private Resource next() {
+        for (Iterator<Resource> iter = pending.iterator(); iter.hasNext();) {
+            Resource r = iter.next();
+            Integer count = hostFetches.get(r.host);
+            if (count == null || count < CONNECTIONS_PER_HOST) {
+                iter.remove();
+                hostFetches.put(r.host, count == null ? 1 : count + 1);
+                return r;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,373 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The stream matcher matches a regular expression against a response
+ * while reading it, without keeping the response. The response is read
+ * to the end in any case, so the connection can be reused.<p>
+ *
+ * Regular expressions that are plain literals, or alternatives of
+ * literals such as "Welcome|Logout", are matched against the raw bytes
+ * using an Aho-Corasick automaton. The response does not get decoded at
+ * all. This is done for UTF-8 and single byte encodings, where the
+ * encoded literal only matches at character boundaries. All other
+ * expressions and encodings are matched against a sliding window of the
+ * decoded text. Matches spanning more than WINDOW characters, set by
+ * the system property faban.http.match.window, may not be found. Anchors
+ * and look-behinds see the start of the window, not the response.<p>
+ *
+ * The compiled expressions are immutable and shared by all matchers.
+ * Each matcher is used by a single transport and is not thread safe.
+ */
+public class StreamMatcher {
+
+    /** The number of decoded characters kept between reads. */
+    public static final int WINDOW =
+            Integer.getInteger("faban.http.match.window", 4096);
+
+    /** The compiled literals or patterns, by charset and regex. */
+    private static ConcurrentHashMap<String, Object> compiled =
+            new ConcurrentHashMap<String, Object>();
+
+    private byte[] buffer;
+    private CharBuffer window;
+    private CharsetDecoder decoder;
+    private int contentSize;
+
+    /**
+     * Constructs a stream matcher.
+     * @param buffer The byte buffer to read into, may be shared with other
+     *        reads of the transport
+     */
+    public StreamMatcher(byte[] buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Obtains the number of bytes read by the last match.
+     * @return The size, in bytes, of the last response matched
+     */
+    public int getContentSize() {
+        return contentSize;
+    }
+
+    /**
+     * Reads the stream to the end and matches the regular expression
+     * against the decoded content. The stream is not closed.
+     * @param in The stream to read from
+     * @param regex The regular expression to match
+     * @param encoding The character encoding of the stream
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException If there is an error reading the stream
+     */
+    public boolean match(InputStream in, String regex, String encoding)
+            throws IOException {
+        Charset charset = Charset.forName(encoding);
+        String key = charset.name() + '\n' + regex;
+        Object c = compiled.get(key);
+        if (c == null) {
+            c = compile(regex, charset);
+            compiled.putIfAbsent(key, c);
+        }
+        contentSize = 0;
+        boolean matched;
+        if (c instanceof Literals)
+            matched = match(in, (Literals) c);
+        else
+            matched = match(in, (Pattern) c, charset);
+
+        // Drain the rest of the response.
+        if (matched)
+            for (int length = in.read(buffer); length != -1;
+                 length = in.read(buffer))
+                contentSize += length;
+        return matched;
+    }
+
+    private boolean match(InputStream in, Literals literals)
+            throws IOException {
+        int state = 0;
+        for (int length = in.read(buffer); length != -1;
+             length = in.read(buffer)) {
+            contentSize += length;
+            for (int i = 0; i < length; i++) {
+                state = literals.next(state, buffer[i]);
+                if (literals.output[state])
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean match(InputStream in, Pattern pattern, Charset charset)
+            throws IOException {
+        if (decoder == null || !decoder.charset().equals(charset))
+            decoder = charset.newDecoder().
+                    onMalformedInput(CodingErrorAction.REPLACE).
+                    onUnmappableCharacter(CodingErrorAction.REPLACE);
+        else
+            decoder.reset();
+        if (window == null)
+            window = CharBuffer.allocate(WINDOW + buffer.length);
+        window.clear();
+        ByteBuffer bytes = ByteBuffer.wrap(buffer);
+        bytes.limit(0);
+        Matcher matcher = pattern.matcher(window);
+        boolean eof = false;
+        for (;;) {
+            if (!eof) {
+                bytes.compact();
+                int length = in.read(buffer, bytes.position(),
+                                     bytes.remaining());
+                if (length == -1) {
+                    eof = true;
+                } else {
+                    bytes.position(bytes.position() + length);
+                    contentSize += length;
+                }
+                bytes.flip();
+            }
+            CoderResult result = decoder.decode(bytes, window, eof);
+            boolean done = eof && !result.isOverflow();
+            if (done)
+                decoder.flush(window);
+
+            // Scan when the window is full, keeping the tail for matches
+            // spanning the next read.
+            if (window.hasRemaining() && !done)
+                continue;
+            window.flip();
+            matcher.reset(window);
+            if (matcher.find())
+                return true;
+            if (done)
+                return false;
+            int keep = Math.min(WINDOW, window.limit());
+            window.position(window.limit() - keep);
+            window.compact();
+        }
+    }
+
+    /**
+     * Compiles the regular expression to literals if possible, or to
+     * a pattern otherwise.
+     * @param regex The regular expression
+     * @param charset The charset of the content to match
+     * @return The Literals or Pattern to match
+     */
+    static Object compile(String regex, Charset charset) {
+        String[] literals = parseLiterals(regex);
+        if (literals != null && isByteMatchable(charset)) {
+            CharsetEncoder encoder = charset.newEncoder();
+            byte[][] words = new byte[literals.length][];
+            for (int i = 0; i < literals.length && words != null; i++) {
+                if (!encoder.canEncode(literals[i]))
+                    words = null;
+                else
+                    words[i] = literals[i].getBytes(charset);
+            }
+            if (words != null)
+                return new Literals(words);
+        }
+        return Pattern.compile(regex);
+    }
+
+    /**
+     * Checks whether byte matches of encoded text only happen at character
+     * boundaries for the given charset.
+     * @param charset The charset
+     * @return True if the content can be matched as bytes
+     */
+    private static boolean isByteMatchable(Charset charset) {
+        if ("UTF-8".equals(charset.name()))
+            return true;
+        if (!charset.canEncode())
+            return false;
+        return charset.newEncoder().maxBytesPerChar() == 1f &&
+               charset.newDecoder().maxCharsPerByte() == 1f;
+    }
+
+    /**
+     * Parses a regular expression that matches only literal strings.
+     * Escaped punctuation and \Q..\E quotes are literals, alternatives are
+     * separated by '|'. Anything else, including character classes and
+     * flags, makes the expression a real regular expression.
+     * @param regex The regular expression
+     * @return The literals, or null if not a literal expression
+     */
+    static String[] parseLiterals(String regex) {
+        ArrayList<String> literals = new ArrayList<String>();
+        StringBuilder b = new StringBuilder();
+        int length = regex.length();
+        for (int i = 0; i < length; i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (++i >= length)
+                    return null;
+                c = regex.charAt(i);
+                if (c == 'Q') {
+                    int end = regex.indexOf("\\E", i + 1);
+                    if (end < 0)
+                        end = length;
+                    b.append(regex, i + 1, end);
+                    i = end + 1;
+                } else if (Character.isLetterOrDigit(c) || c > 127) {
+                    return null;
+                } else {
+                    b.append(c);
+                }
+            } else if (c == '|') {
+                if (b.length() == 0)
+                    return null;
+                literals.add(b.toString());
+                b.setLength(0);
+            } else if (".^$?*+()[]{}".indexOf(c) >= 0) {
+                return null;
+            } else {
+                b.append(c);
+            }
+        }
+        if (b.length() == 0)
+            return null;
+        literals.add(b.toString());
+        return literals.toArray(new String[literals.size()]);
+    }
+
+    /**
+     * An Aho-Corasick automaton over bytes. The transitions of the root
+     * are kept in a full table, all other transitions are sparse.
+     */
+    static class Literals {
+
+        int[] rootNext = new int[256];
+        byte[][] labels;
+        int[][] targets;
+        int[] fail;
+        boolean[] output;
+        int states;
+
+        Literals(byte[][] words) {
+            int max = 1;
+            for (byte[] word : words)
+                max += word.length;
+            labels = new byte[max][];
+            targets = new int[max][];
+            fail = new int[max];
+            output = new boolean[max];
+            states = 1;
+            labels[0] = new byte[0];
+            targets[0] = new int[0];
+
+            // Build the trie.
+            for (byte[] word : words) {
+                int state = 0;
+                for (byte b : word) {
+                    int next = child(state, b);
+                    if (next < 0) {
+                        next = states++;
+                        labels[next] = new byte[0];
+                        targets[next] = new int[0];
+                        addChild(state, b, next);
+                    }
+                    state = next;
+                }
+                output[state] = true;
+            }
+
+            // Set the failure links breadth first.
+            LinkedList<Integer> queue = new LinkedList<Integer>();
+            for (int t : targets[0])
+                queue.add(t);
+            while (!queue.isEmpty()) {
+                int s = queue.removeFirst();
+                for (int i = 0; i < labels[s].length; i++) {
+                    byte b = labels[s][i];
+                    int t = targets[s][i];
+                    int f = fail[s];
+                    while (f != 0 && child(f, b) < 0)
+                        f = fail[f];
+                    int g = child(f, b);
+                    fail[t] = g >= 0 && g != t ? g : 0;
+                    output[t] |= output[fail[t]];
+                    queue.add(t);
+                }
+            }
+
+            for (int i = 0; i < labels[0].length; i++)
+                rootNext[labels[0][i] & 0xff] = targets[0][i];
+        }
+
+        private void addChild(int state, byte b, int next) {
+            int n = labels[state].length;
+            byte[] l = new byte[n + 1];
+            int[] t = new int[n + 1];
+            System.arraycopy(labels[state], 0, l, 0, n);
+            System.arraycopy(targets[state], 0, t, 0, n);
+            l[n] = b;
+            t[n] = next;
+            labels[state] = l;
+            targets[state] = t;
+        }
+
+        private int child(int state, byte b) {
+            byte[] l = labels[state];
+            for (int i = 0; i < l.length; i++)
+                if (l[i] == b)
+                    return targets[state][i];
+            return -1;
+        }
+
+        /**
+         * Moves the automaton to the next state.
+         * @param state The current state
+         * @param b The byte read
+         * @return The next state
+         */
+        int next(int state, byte b) {
+            while (state != 0) {
+                int t = child(state, b);
+                if (t >= 0)
+                    return t;
+                state = fail[state];
+            }
+            return rootNext[b & 0xff];
+        }
+    }
+}
@@ -26,9 +26,13 @@ package com.sun.faban.driver.transport.util;
 import com.sun.faban.driver.engine.DriverContext;
 
 /**
- * A helper class to provide throttling on sockets
+ * A helper class to provide throttling on sockets. The throttle takes the
+ * bytes transferred from the user's link in the BandwidthShaper and holds
+ * back the thread once the user is ahead of the allowed speed by more
+ * than BandwidthShaper.MIN_SLEEP.
  *
  * @author Scott Oaks
+ * @see BandwidthShaper
  */
 public class Throttle {
     public static final int UP = 0;
@@ -36,16 +40,7 @@ public class Throttle {
 
 	private DriverContext ctx;
 
-	/* Time it should take to process 1 byte */
-    private double[] desiredNanoPerByte = new double[2];
-
-	/* Last timing value user */
-    private int[] lastSpeed = new int[2];
-
-	/* Amount of time we need to sleep but haven't yet (because we
-	 * can't sleep for really short nano-second measured periods of time)
-	 */
-	private long[] pendingNanoSleep = new long[2];
+	private BandwidthShaper.Link link;
 
     /**
      * Constructs a throttle.
@@ -53,8 +48,7 @@ public class Throttle {
      */
 	public Throttle(DriverContext ctx) {
 		this.ctx = ctx;
-		checkForChange(UP);
-		checkForChange(DOWN);
+		link = BandwidthShaper.getInstance().getLink(ctx);
 	}
 
     /**
@@ -63,53 +57,20 @@ public class Throttle {
      * @return Whether the bandwidth is throttled
      */
 	public boolean isThrottled(int direction) {
-		return lastSpeed[direction] > 0;
+		return link.isShaped(ctx, direction);
 	}
 
     /**
      * The throttle sleeps until the calculated time for the request has
-     * expired, before continuing with subsequent I/O.
+     * expired, before continuing with subsequent I/O. Short debts are
+     * carried over to the next transfer instead.
      * @param bytes The size of the data sent/received
-     * @param startTime The start time of the send/receive
+     * @param startTime The start time of the send/receive, in system nanotime
      * @param direction The direction, up or down
      */
 	public void throttle(int bytes, long startTime, int direction) {
-		checkForChange(direction);
-		double expectedTime = bytes * desiredNanoPerByte[direction];
-        long wakeupTime = startTime + (long) expectedTime +
-                        pendingNanoSleep[direction];
-        ctx.wakeupAt(wakeupTime);
-        // If slept too long, the pendingNanoSleep will go negative.
-        // If it wakes up too early, the pendingNanoSleep will go positive
-        // needing to add a little more delay to the subsequent sleep.
-        pendingNanoSleep[direction] = wakeupTime - System.nanoTime();
-	}
-
-	private void checkForChange(int direction) {
-        int last;
-	    if (direction == UP)
-			last = ctx.getUploadSpeed();
-        else
-            last = ctx.getDownloadSpeed();
-
-        if (last != lastSpeed[direction]) {
-            desiredNanoPerByte[direction] = calcNanoPerByte(last);
-            lastSpeed[direction] = last;
-        }
-	}
-
-	private double calcNanoPerByte(int kbps) {
-        /*  
-         * Convert the given unit (kilobytes per second) to
-         * the amount of time (in nanoseconds) it takes to
-         * read/write one byte
-         */  
-        if (kbps < 0)
-			return -1;
-        else {
-            double bytesPerNano = kbps * 1024   // bytes/second
-                        / 1000000000.;          // bytes/nano
-            return 1. / bytesPerNano;
-        }               
+		long readyTime = link.acquire(ctx, bytes, startTime, direction);
+        if (readyTime - System.nanoTime() >= BandwidthShaper.MIN_SLEEP)
+            ctx.wakeupAt(readyTime);
 	}
 }
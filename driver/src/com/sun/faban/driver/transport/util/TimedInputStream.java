@@ -105,11 +105,12 @@ public class TimedInputStream extends FilterInputStream {
         if (ctx != null) {
             isThrottled = throttle.isThrottled(Throttle.DOWN);
             if (isThrottled)
-	    	    startReadAt = ctx.getNanoTime();
+	    	    startReadAt = System.nanoTime();
         }
         int b = super.read();
         if (ctx != null && b != -1) {
             ctx.recordEndTime();
+            ctx.recordRead();
 			if (isThrottled)
 	    		throttle.throttle(1, startReadAt, Throttle.DOWN);
         }
@@ -166,11 +167,12 @@ public class TimedInputStream extends FilterInputStream {
         if (ctx != null) {
             isThrottled = throttle.isThrottled(Throttle.DOWN);
             if (isThrottled)
-                startReadAt = ctx.getNanoTime();
+                startReadAt = System.nanoTime();
         }
         int bytes = super.read(b, off, len);
         if (ctx != null && bytes > 0) {
             ctx.recordEndTime();
+            ctx.recordRead();
             if (isThrottled)
                 throttle.throttle(bytes, startReadAt, Throttle.DOWN);
         }
@@ -76,9 +76,11 @@ public class TimedOutputStream extends FilterOutputStream {
             isThrottled = throttle.isThrottled(Throttle.UP);
             startWriteAt = ctx.recordStartTime();
             if (isThrottled && startWriteAt == TIME_NOT_SET)
-                startWriteAt = ctx.getNanoTime();
+                startWriteAt = System.nanoTime();
         }
         super.write(b);
+        if (ctx != null)
+            ctx.recordWrite();
 		if (isThrottled)
 			throttle.throttle(1, startWriteAt, Throttle.UP);
     }
@@ -131,6 +133,8 @@ public class TimedOutputStream extends FilterOutputStream {
                 startWriteAt = System.nanoTime();
         }
         out.write(b, off, len);
+        if (ctx != null && len > 0)
+            ctx.recordWrite();
         if (isThrottled)
             throttle.throttle(len, startWriteAt, Throttle.UP);
     }
@@ -23,6 +23,7 @@
  */
 package com.sun.faban.driver.transport.util;
 
+import com.sun.faban.driver.engine.AgentThread;
 import com.sun.faban.driver.engine.DriverContext;
 
 import java.io.IOException;
@@ -202,7 +203,7 @@ public class TimedSocket extends Socket {
      * @see SecurityManager#checkConnect
      */
     public TimedSocket(String host, int port) throws UnknownHostException, IOException {
-        super(host, port);
+        super(lookup(host), port);
     }
 
     /**
@@ -231,7 +232,7 @@ public class TimedSocket extends Socket {
      * @since JDK1.1
      */
     public TimedSocket(String host, int port, InetAddress localAddr, int localPort) throws IOException {
-        super(host, port, localAddr, localPort);
+        super(lookup(host), port, localAddr, localPort);
     }
 
     /**
@@ -285,14 +286,60 @@ public class TimedSocket extends Socket {
 
         // Here we intercept the connect and capture the start time.
         DriverContext ctx = DriverContext.getContext();
-        if (ctx != null)
+        endpoint = resolve(endpoint);
+        long phaseStart = AgentThread.TIME_NOT_SET;
+        if (ctx != null) {
             ctx.recordStartTime();
+            phaseStart = ctx.beginPhase();
+        }
         if (timeout <= 0)
             timeout = 30000; // 30 second connect timeout.
-        super.connect(endpoint, timeout);
+        try {
+            super.connect(endpoint, timeout);
+        } finally {
+            if (ctx != null)
+                ctx.endPhase(DriverContext.PHASE_CONNECT, phaseStart);
+        }
         setSoTimeout(30000); // 30 second socket read timeout.
     }
 
+    /**
+     * Looks up the address of a host, recording the time of the lookup
+     * as the DNS request phase of the current operation.
+     * @param host The host name, or null for the loopback address
+     * @return The address of the host
+     * @throws UnknownHostException If the host cannot be resolved
+     */
+    public static InetAddress lookup(String host) throws UnknownHostException {
+        DriverContext ctx = DriverContext.getContext();
+        if (ctx == null)
+            return InetAddress.getByName(host);
+        long phaseStart = ctx.beginPhase();
+        try {
+            return InetAddress.getByName(host);
+        } finally {
+            ctx.endPhase(DriverContext.PHASE_DNS, phaseStart);
+        }
+    }
+
+    /**
+     * Resolves an unresolved socket address, recording the time of the
+     * lookup. Resolved addresses are returned as is.
+     * @param endpoint The socket address
+     * @return The resolved socket address
+     * @throws UnknownHostException If the host cannot be resolved
+     */
+    public static SocketAddress resolve(SocketAddress endpoint)
+            throws UnknownHostException {
+        if (endpoint instanceof InetSocketAddress) {
+            InetSocketAddress address = (InetSocketAddress) endpoint;
+            if (address.isUnresolved())
+                endpoint = new InetSocketAddress(
+                        lookup(address.getHostName()), address.getPort());
+        }
+        return endpoint;
+    }
+
     /**
      * Returns an input stream for this socket.
      * <p/>
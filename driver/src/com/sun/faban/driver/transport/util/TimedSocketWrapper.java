@@ -23,6 +23,7 @@
  */
 package com.sun.faban.driver.transport.util;
 
+import com.sun.faban.driver.engine.AgentThread;
 import com.sun.faban.driver.engine.DriverContext;
 
 import java.io.IOException;
@@ -758,11 +759,20 @@ public class TimedSocketWrapper extends Socket {
             throws IOException {
         // Here we intercept the connect and capture the start time.
         DriverContext ctx = DriverContext.getContext();
-        if (ctx != null)
+        endpoint = TimedSocket.resolve(endpoint);
+        long phaseStart = AgentThread.TIME_NOT_SET;
+        if (ctx != null) {
             ctx.recordStartTime();
+            phaseStart = ctx.beginPhase();
+        }
         if (timeout <= 0)
             timeout = 30000; // 30 second connect timeout.
-        delegate.connect(endpoint, timeout);
+        try {
+            delegate.connect(endpoint, timeout);
+        } finally {
+            if (ctx != null)
+                ctx.endPhase(DriverContext.PHASE_CONNECT, phaseStart);
+        }
         delegate.setSoTimeout(30000); // 30 second socket read timeout.
     }
 
@@ -0,0 +1,189 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+import com.sun.faban.driver.CustomMetrics;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The BandwidthStats collects the bytes transferred in steady state by
+ * the users shaped by the BandwidthShaper, for each bandwidth group and
+ * for all users. The achieved speed is reported against the configured
+ * speed, summed up over all agents. The achieved speed assumes a time
+ * based steady state.
+ *
+ * @see com.sun.faban.driver.transport.util.BandwidthShaper
+ */
+public class BandwidthStats implements CustomMetrics {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String ALL = "All shaped users";
+
+    private static final String[] DIRECTIONS = { "upload", "download" };
+
+    private int agentId;
+    private int steadyState;
+
+    private LinkedHashMap<String, Group> groups =
+            new LinkedHashMap<String, Group>();
+
+    /** The stats of one group. */
+    static class Group implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        int users = 1;
+        long[] bytes = new long[2];
+
+        /** The configured speed of each agent, -1 if not limited. */
+        HashMap<Integer, int[]> speeds = new HashMap<Integer, int[]>();
+
+        Group copy() {
+            Group g = new Group();
+            g.users = users;
+            g.bytes = bytes.clone();
+            for (Map.Entry<Integer, int[]> entry : speeds.entrySet())
+                g.speeds.put(entry.getKey(), entry.getValue().clone());
+            return g;
+        }
+    }
+
+    /**
+     * Constructs the stats of one user.
+     * @param agentId The id of the agent
+     * @param steadyState The steady state time, in seconds
+     */
+    public BandwidthStats(int agentId, int steadyState) {
+        this.agentId = agentId;
+        this.steadyState = steadyState;
+    }
+
+    /**
+     * Records a transfer of the user.
+     * @param group The bandwidth group of the user, or null if none
+     * @param direction The direction, 0 for upload or 1 for download
+     * @param bytes The bytes transferred
+     * @param groupKbps The speed configured for the group
+     * @param agentKbps The speed configured for the agent
+     */
+    public void record(String group, int direction, int bytes, int groupKbps,
+                       int agentKbps) {
+        record(ALL, direction, bytes, agentKbps);
+        if (group != null)
+            record(group, direction, bytes, groupKbps);
+    }
+
+    private void record(String name, int direction, int bytes, int kbps) {
+        Group g = groups.get(name);
+        if (g == null) {
+            g = new Group();
+            g.speeds.put(agentId, new int[] { -1, -1 });
+            groups.put(name, g);
+        }
+        g.bytes[direction] += bytes;
+        g.speeds.get(agentId)[direction] = kbps;
+    }
+
+    /**
+     * Aggregates the BandwidthStats from another source or thread with
+     * the current one.
+     * @param other The stats from another source
+     */
+    public void add(CustomMetrics other) {
+        BandwidthStats o = (BandwidthStats) other;
+        for (Map.Entry<String, Group> entry : o.groups.entrySet()) {
+            Group og = entry.getValue();
+            Group g = groups.get(entry.getKey());
+            if (g == null) {
+                groups.put(entry.getKey(), og.copy());
+                continue;
+            }
+            g.users += og.users;
+            for (int i = 0; i < 2; i++)
+                g.bytes[i] += og.bytes[i];
+            for (Map.Entry<Integer, int[]> speed : og.speeds.entrySet()) {
+                int[] s = g.speeds.get(speed.getKey());
+                if (s == null) {
+                    g.speeds.put(speed.getKey(), speed.getValue().clone());
+                } else {
+                    for (int i = 0; i < 2; i++)
+                        s[i] = Math.max(s[i], speed.getValue()[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * The metrics need to be cloneable and not throw any exceptions.
+     * @return The BandwidthStats clone
+     */
+    public Object clone() {
+        BandwidthStats o = new BandwidthStats(agentId, steadyState);
+        for (Map.Entry<String, Group> entry : groups.entrySet())
+            o.groups.put(entry.getKey(), entry.getValue().copy());
+        return o;
+    }
+
+    /**
+     * Obtains the results of this BandwidthStats as to be reported.
+     * @return The result elements for each group.
+     */
+    public Element[] getResults() {
+        Element[] e = new Element[groups.size()];
+        int i = 0;
+        for (Map.Entry<String, Group> entry : groups.entrySet()) {
+            Group g = entry.getValue();
+            StringBuilder b = new StringBuilder();
+            for (int d = 1; d >= 0; d--) {
+                if (d == 0)
+                    b.append(", ");
+                b.append(DIRECTIONS[d]).append(' ');
+                b.append(String.format("%.1f KB/s",
+                        g.bytes[d] / (1024d * Math.max(steadyState, 1))));
+                long configured = 0l;
+                for (int[] speed : g.speeds.values()) {
+                    if (speed[d] <= 0) {
+                        configured = -1l;
+                        break;
+                    }
+                    configured += speed[d];
+                }
+                if (configured > 0l)
+                    b.append(" of ").append(configured).append(" KB/s");
+                else
+                    b.append(" unlimited");
+            }
+            e[i] = new Element();
+            e[i].description = entry.getKey() + " (" + g.users + " users)";
+            e[i].result = b.toString();
+            ++i;
+        }
+        return e;
+    }
+}
@@ -0,0 +1,152 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+import java.util.HashMap;
+
+/**
+ * A DataPool holds workload data generated ahead of the run, so the
+ * operations can fetch realistic data without generating it on the
+ * critical path. Pools are built once per agent and shared by all its
+ * threads, by name. The first thread asking for a pool, normally from the
+ * driver constructor, builds it; all others get the same pool. The content
+ * only depends on the seed, so runs are reproducible.<p>
+ *
+ * Pools are read-only once built. Each thread walks a pool with its own
+ * cursor, so fetching data needs neither locks nor allocation.
+ *
+ * @see StringPool
+ * @see KeyPool
+ */
+public abstract class DataPool {
+
+    private static final HashMap<String, DataPool> pools =
+            new HashMap<String, DataPool>();
+
+    final int size;
+
+    /**
+     * Constructs a pool.
+     * @param size The number of entries
+     */
+    DataPool(int size) {
+        if (size <= 0)
+            throw new IllegalArgumentException("Pool size must be positive");
+        this.size = size;
+    }
+
+    /**
+     * Obtains the number of entries in this pool.
+     * @return The number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Creates a cursor walking this pool. Each thread should have its own
+     * cursor. Cursors with different seeds start at different entries and
+     * walk the pool in different orders. All entries are visited before
+     * any entry is repeated.
+     * @param seed The seed, e.g. the thread id
+     * @return The cursor
+     */
+    public Cursor cursor(long seed) {
+        return new Cursor(size, seed);
+    }
+
+    /**
+     * Obtains a named pool of this agent.
+     * @param name The pool name
+     * @return The pool, or null if not yet built
+     */
+    static DataPool lookup(String name) {
+        synchronized (pools) {
+            return pools.get(name);
+        }
+    }
+
+    /**
+     * Registers a pool just built.
+     * @param name The pool name
+     * @param pool The pool
+     */
+    static void register(String name, DataPool pool) {
+        synchronized (pools) {
+            pools.put(name, pool);
+        }
+    }
+
+    /**
+     * Removes all pools of this agent, releasing their memory.
+     */
+    public static void clear() {
+        synchronized (pools) {
+            pools.clear();
+        }
+    }
+
+    /**
+     * A cursor walks through a pool with a fixed stride prime to the pool
+     * size, so it visits each entry once per round. A cursor is used by
+     * one thread only and is not thread-safe.
+     */
+    public static class Cursor {
+
+        private final int size;
+        private final int stride;
+        private int position;
+
+        Cursor(int size, long seed) {
+            this.size = size;
+            java.util.Random r = new java.util.Random(seed);
+            position = r.nextInt(size);
+            int s = size > 1 ? 1 + r.nextInt(size - 1) : 1;
+            while (gcd(s, size) != 1)
+                ++s;
+            stride = s % size == 0 ? 1 : s;
+        }
+
+        private static int gcd(int a, int b) {
+            while (b != 0) {
+                int t = a % b;
+                a = b;
+                b = t;
+            }
+            return a;
+        }
+
+        /**
+         * Obtains the index of the next entry.
+         * @return The entry index
+         */
+        public int next() {
+            int index = position;
+            position += stride;
+            if (position >= size || position < 0)
+                position -= size;
+            return index;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+/**
+ * A KeyPool holds pre-generated integer keys, such as the NURand
+ * distributed customer and item ids of TPC-style workloads.
+ *
+ * @see DataPool
+ */
+public class KeyPool extends DataPool {
+
+    private final int[] keys;
+
+    private KeyPool(int[] keys) {
+        super(keys.length);
+        this.keys = keys;
+    }
+
+    /**
+     * Obtains a named pool of NURand distributed keys, building it if
+     * needed.
+     * @param name The pool name, unique in the agent
+     * @param size The number of keys
+     * @param A The A value
+     * @param x The minimum key
+     * @param y The maximum key
+     * @param seed The seed of the random value generator
+     * @return The pool
+     * @see Random#NURand(int, int, int)
+     */
+    public static KeyPool getNURand(String name, int size, int A, int x,
+                                    int y, long seed) {
+        synchronized (KeyPool.class) {
+            KeyPool pool = (KeyPool) lookup(name);
+            if (pool == null) {
+                Random random = new Random(seed);
+                int[] keys = new int[size];
+                for (int i = 0; i < size; i++)
+                    keys[i] = random.NURand(A, x, y);
+                pool = new KeyPool(keys);
+                register(name, pool);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * Obtains a named pool of uniformly distributed keys, building it if
+     * needed.
+     * @param name The pool name, unique in the agent
+     * @param size The number of keys
+     * @param x The minimum key
+     * @param y The maximum key
+     * @param seed The seed of the random value generator
+     * @return The pool
+     * @see Random#random(int, int)
+     */
+    public static KeyPool getUniform(String name, int size, int x, int y,
+                                     long seed) {
+        synchronized (KeyPool.class) {
+            KeyPool pool = (KeyPool) lookup(name);
+            if (pool == null) {
+                Random random = new Random(seed);
+                int[] keys = new int[size];
+                for (int i = 0; i < size; i++)
+                    keys[i] = random.random(x, y);
+                pool = new KeyPool(keys);
+                register(name, pool);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * Obtains a key of the pool.
+     * @param index The index of the key
+     * @return The key
+     */
+    public int get(int index) {
+        return keys[index];
+    }
+}
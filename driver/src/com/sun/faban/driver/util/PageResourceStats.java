@@ -0,0 +1,128 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+import com.sun.faban.driver.CustomMetrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The PageResourceStats collects the size and latency of the resources
+ * embedded in pages fetched with HttpTransport.fetchURL(URL, URL[], String).
+ * Resources are keyed by host and path, ignoring the query. Past
+ * MAX_RESOURCES different resources, the rest are counted as other
+ * resources.
+ */
+public class PageResourceStats implements CustomMetrics {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The maximum number of resources reported individually. */
+    public static final int MAX_RESOURCES = 100;
+
+    private static final String OTHER = "Other resources";
+
+    /**
+     * The stats for each resource: count, bytes, sum and max latency in ns.
+     */
+    private LinkedHashMap<String, long[]> stats =
+            new LinkedHashMap<String, long[]>();
+
+    /**
+     * Records one fetch of a resource.
+     * @param resource The resource, as host and path
+     * @param bytes The size of the resource
+     * @param latency The time to fetch the resource, in nanosecs
+     */
+    public void record(String resource, int bytes, long latency) {
+        long[] s = stats.get(resource);
+        if (s == null) {
+            if (stats.size() >= MAX_RESOURCES)
+                resource = OTHER;
+            s = stats.get(resource);
+            if (s == null) {
+                s = new long[4];
+                stats.put(resource, s);
+            }
+        }
+        ++s[0];
+        s[1] += bytes;
+        s[2] += latency;
+        if (latency > s[3])
+            s[3] = latency;
+    }
+
+    /**
+     * Aggregates the PageResourceStats from another source or thread with
+     * the current one.
+     * @param other The stats from another source
+     */
+    public void add(CustomMetrics other) {
+        PageResourceStats o = (PageResourceStats) other;
+        for (Map.Entry<String, long[]> entry : o.stats.entrySet()) {
+            long[] os = entry.getValue();
+            long[] s = stats.get(entry.getKey());
+            if (s == null) {
+                stats.put(entry.getKey(), os.clone());
+            } else {
+                s[0] += os[0];
+                s[1] += os[1];
+                s[2] += os[2];
+                if (os[3] > s[3])
+                    s[3] = os[3];
+            }
+        }
+    }
+
+    /**
+     * The metrics need to be cloneable and not throw any exceptions.
+     * @return The PageResourceStats clone
+     */
+    public Object clone() {
+        PageResourceStats o = new PageResourceStats();
+        for (Map.Entry<String, long[]> entry : stats.entrySet())
+            o.stats.put(entry.getKey(), entry.getValue().clone());
+        return o;
+    }
+
+    /**
+     * Obtains the results of this PageResourceStats as to be reported.
+     * @return The result elements for each resource.
+     */
+    public Element[] getResults() {
+        Element[] e = new Element[stats.size()];
+        int i = 0;
+        for (Map.Entry<String, long[]> entry : stats.entrySet()) {
+            long[] s = entry.getValue();
+            e[i] = new Element();
+            e[i].description = entry.getKey();
+            e[i].result = String.format("%d fetches, avg size %.0f bytes, " +
+                    "avg latency %.3f s, max latency %.3f s", s[0],
+                    s[1] / (double) s[0], s[2] / (s[0] * 1e9d), s[3] / 1e9d);
+            ++i;
+        }
+        return e;
+    }
+}
@@ -0,0 +1,99 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+import com.sun.faban.driver.CustomMetrics;
+
+/**
+ * The RoundTripStats collects the round trip times of the requests made
+ * through an asynchronous transport, from sending the request to the
+ * arrival of the correlated response. Requests not answered in time are
+ * counted as timeouts.
+ *
+ * @see com.sun.faban.driver.transport.asynchronous.CorrelationTraceRegistry
+ */
+public class RoundTripStats implements CustomMetrics {
+
+    private static final long serialVersionUID = 1L;
+
+    private long count;
+    private long sum; // ns
+    private long max; // ns
+    private long timeouts;
+
+    /**
+     * Records the round trip of a request.
+     * @param time The round trip time, in nanosecs
+     */
+    public void record(long time) {
+        ++count;
+        sum += time;
+        if (time > max)
+            max = time;
+    }
+
+    /**
+     * Records a request not answered in time.
+     */
+    public void recordTimeout() {
+        ++timeouts;
+    }
+
+    /**
+     * Aggregates the RoundTripStats from another source or thread with
+     * the current one.
+     * @param other The stats from another source
+     */
+    public void add(CustomMetrics other) {
+        RoundTripStats o = (RoundTripStats) other;
+        count += o.count;
+        sum += o.sum;
+        if (o.max > max)
+            max = o.max;
+        timeouts += o.timeouts;
+    }
+
+    /**
+     * The metrics need to be cloneable and not throw any exceptions.
+     * @return The RoundTripStats clone
+     */
+    public Object clone() {
+        RoundTripStats o = new RoundTripStats();
+        o.add(this);
+        return o;
+    }
+
+    /**
+     * Obtains the results of this RoundTripStats as to be reported.
+     * @return The result element.
+     */
+    public Element[] getResults() {
+        Element e = new Element();
+        e.description = "Round trips";
+        e.result = String.format("%d responses, avg %.3f s, max %.3f s, " +
+                "%d timeouts", count, count == 0 ? 0d : sum / (count * 1e9d),
+                max / 1e9d, timeouts);
+        return new Element[] { e };
+    }
+}
@@ -0,0 +1,211 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+/**
+ * A StringPool holds pre-generated strings, stored compactly as one byte
+ * per character. Fetching a string just copies it from the pool. The
+ * appendTo method does not even allocate. Characters must be within
+ * ISO-8859-1, which all built-in generators are.
+ *
+ * @see DataPool
+ */
+public class StringPool extends DataPool {
+
+    private final byte[] data;
+    private final int[] offsets;
+
+    /**
+     * The generator of the strings in a pool.
+     */
+    public interface Generator {
+
+        /**
+         * Generates a string.
+         * @param random The random value generator of the pool
+         * @param index The index of the string in the pool
+         * @return The string
+         */
+        String generate(Random random, int index);
+    }
+
+    private StringPool(int size, long seed, Generator generator) {
+        super(size);
+        Random random = new Random(seed);
+        String[] strings = new String[size];
+        int length = 0;
+        for (int i = 0; i < size; i++) {
+            strings[i] = generator.generate(random, i);
+            length += strings[i].length();
+        }
+        data = new byte[length];
+        offsets = new int[size + 1];
+        int offset = 0;
+        for (int i = 0; i < size; i++) {
+            String s = strings[i];
+            strings[i] = null;
+            offsets[i] = offset;
+            for (int j = 0; j < s.length(); j++) {
+                char c = s.charAt(j);
+                if (c > 0xFF)
+                    throw new IllegalArgumentException("Character '" + c +
+                            "' at index " + i + " not in ISO-8859-1");
+                data[offset++] = (byte) c;
+            }
+        }
+        offsets[size] = offset;
+    }
+
+    /**
+     * Obtains a named string pool, building it if needed.
+     * @param name The pool name, unique in the agent
+     * @param size The number of strings
+     * @param seed The seed of the random value generator
+     * @param generator The string generator
+     * @return The pool
+     */
+    public static StringPool getInstance(String name, int size, long seed,
+                                         Generator generator) {
+        synchronized (StringPool.class) {
+            StringPool pool = (StringPool) lookup(name);
+            if (pool == null) {
+                pool = new StringPool(size, seed, generator);
+                register(name, pool);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * Obtains a named pool of alphanumeric strings.
+     * @param name The pool name, unique in the agent
+     * @param size The number of strings
+     * @param x The minimum length
+     * @param y The maximum length
+     * @param seed The seed of the random value generator
+     * @return The pool
+     * @see Random#makeAString(int, int)
+     */
+    public static StringPool getAStrings(String name, int size,
+                                         final int x, final int y,
+                                         long seed) {
+        return getInstance(name, size, seed, new Generator() {
+            public String generate(Random random, int index) {
+                return random.makeAString(x, y);
+            }
+        });
+    }
+
+    /**
+     * Obtains a named pool of lower case strings.
+     * @param name The pool name, unique in the agent
+     * @param size The number of strings
+     * @param x The minimum length
+     * @param y The maximum length
+     * @param seed The seed of the random value generator
+     * @return The pool
+     * @see Random#makeCString(int, int)
+     */
+    public static StringPool getCStrings(String name, int size,
+                                         final int x, final int y,
+                                         long seed) {
+        return getInstance(name, size, seed, new Generator() {
+            public String generate(Random random, int index) {
+                return random.makeCString(x, y);
+            }
+        });
+    }
+
+    /**
+     * Obtains a named pool of numeric strings.
+     * @param name The pool name, unique in the agent
+     * @param size The number of strings
+     * @param x The minimum length
+     * @param y The maximum length
+     * @param seed The seed of the random value generator
+     * @return The pool
+     * @see Random#makeNString(int, int)
+     */
+    public static StringPool getNStrings(String name, int size,
+                                         final int x, final int y,
+                                         long seed) {
+        return getInstance(name, size, seed, new Generator() {
+            public String generate(Random random, int index) {
+                return random.makeNString(x, y);
+            }
+        });
+    }
+
+    /**
+     * Obtains a named pool of user names. Entry i holds the user name of
+     * id firstId + i.
+     * @param name The pool name, unique in the agent
+     * @param firstId The first user id
+     * @param count The number of users
+     * @return The pool
+     * @see User#getUserName(long)
+     */
+    public static StringPool getUserNames(String name, final long firstId,
+                                          int count) {
+        return getInstance(name, count, 0l, new Generator() {
+            public String generate(Random random, int index) {
+                return User.getUserName(firstId + index);
+            }
+        });
+    }
+
+    /**
+     * Obtains a string of the pool.
+     * @param index The index of the string
+     * @return The string
+     */
+    @SuppressWarnings("deprecation")
+    public String get(int index) {
+        int offset = offsets[index];
+        return new String(data, 0, offset, offsets[index + 1] - offset);
+    }
+
+    /**
+     * Obtains the length of a string of the pool.
+     * @param index The index of the string
+     * @return The length
+     */
+    public int length(int index) {
+        return offsets[index + 1] - offsets[index];
+    }
+
+    /**
+     * Appends a string of the pool to a builder, without allocating the
+     * string.
+     * @param index The index of the string
+     * @param builder The builder
+     * @return The builder
+     */
+    public StringBuilder appendTo(int index, StringBuilder builder) {
+        int end = offsets[index + 1];
+        for (int i = offsets[index]; i < end; i++)
+            builder.append((char) (data[i] & 0xFF));
+        return builder;
+    }
+}
@@ -23,6 +23,7 @@
  */
 package com.sun.faban.driver.util;
 
+import com.sun.faban.common.ClockOffset;
 import com.sun.faban.driver.FatalException;
 import com.sun.faban.driver.util.timermeter.TimerMeter;
 
@@ -41,6 +42,9 @@ public class Timer implements Serializable {
     /** The nanosec epoch time of this benchmark. */
     transient long epochNanos; // This has no meaning on a different system.
 
+    /** The nanosec epoch time on the master, for aligning the agents. */
+    private long masterEpochNanos;
+
     transient long diffms; // The epoch difference, millisec part
     transient int diffns; // The epoch difference, nanosec part
 
@@ -49,6 +53,9 @@ public class Timer implements Serializable {
     private long compensation = 5000000l;  // Some pretty good starting numbers
     private double deviation = 5000000d; // for both fields.
     private Boolean debug = null;
+    private transient volatile TimerWheel wheel;
+    private transient boolean shutdown = false;
+    private transient Boolean sleep = null;
 
     /**
      * Default Constructor which saves the current time
@@ -69,6 +76,7 @@ public class Timer implements Serializable {
         // The value of the nano timer may be very close to Long.MIN_VALUE.
         epochMillis = System.currentTimeMillis() + 10l;
         epochNanos = calibrateNanos(epochMillis);
+        masterEpochNanos = epochNanos;
 
         logger.fine("Timer: baseTime ms: " + epochMillis +
                          ", ns: " + epochNanos);
@@ -384,28 +392,79 @@ public class Timer implements Serializable {
         return deviation;
     }
 
+    /**
+     * Obtains the timer wheel serving the wake-ups in this JVM. The wheel
+     * is created on first use, but not after the timer is shut down.
+     * @return The timer wheel, or null if the timer is shut down
+     */
+    public TimerWheel getWheel() {
+        TimerWheel w = wheel;
+        if (w == null)
+            synchronized (this) {
+                w = wheel;
+                if (w == null && !shutdown)
+                    wheel = w = new TimerWheel("TimerWheel");
+            }
+        return w;
+    }
+
+    /**
+     * Obtains the timer wheel serving the wake-ups in this JVM, without
+     * creating it.
+     * @return The timer wheel, or null if none has been created
+     */
+    public TimerWheel peekWheel() {
+        return wheel;
+    }
+
+    /**
+     * Stops the timer wheel, if any. Threads still waiting on the wheel
+     * sleep for the remaining time instead. The shutdown is final, later
+     * wake-ups use the compensated sleep and create no new wheel.
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        if (wheel != null) {
+            wheel.shutdown();
+            wheel = null;
+        }
+    }
+
     /**
      * Causes this thread to sleep until the wakeup time as referenced
-     * by this timer. Timer.sleep is not a minimum sleep time as in
-     * Thread.sleep, but rather a calibrated and compensated sleep
-     * time which gives the best statistical opportunity to wake up
-     * at the required time. The actual wakeup can be slightly before
-     * or slightly after the wakeup time but the average discrepancy
-     * should be close to zero.
+     * by this timer. Unlike Thread.sleep, the thread is parked on the
+     * timer wheel and woken up by the wheel's dispatcher which spins for
+     * the last few microseconds. So the wake up happens at the required
+     * time with microsecond accuracy without compensating for sleep
+     * deviations.<p>
+     *
+     * On a single CPU system, if the system property faban.timer.sleep
+     * is set to true, or once the timer is shut down, the thread does a
+     * calibrated and compensated Thread.sleep instead. The actual
+     * wakeup can then be slightly before or slightly after the wakeup
+     * time but the average discrepancy should be close to zero.
      * @param wakeupTime The time this thread is supposed to wakeup.
      */
     public void wakeupAt(long wakeupTime) {
-        long currentTime;
-        if ((currentTime = System.nanoTime()) < wakeupTime - compensation)
-            try {
-                long sleepTime = wakeupTime - currentTime - compensation;
-                Thread.sleep(sleepTime / 1000000l, (int) (sleepTime % 1000000l));
-            } catch (InterruptedException e) {
-                throw new RuntimeException(
-                        "Sleep interrupted. Run terminating.");
-                // If we get an interrupt, the run is killed/terminated.
-                // Just stop sleeping.
+        try {
+            TimerWheel w = isSleep() ? null : getWheel();
+            if (w == null) {
+                long currentTime;
+                if ((currentTime = System.nanoTime()) <
+                        wakeupTime - compensation) {
+                    long sleepTime = wakeupTime - currentTime - compensation;
+                    Thread.sleep(sleepTime / 1000000l,
+                            (int) (sleepTime % 1000000l));
+                }
+            } else {
+                w.wakeupAt(wakeupTime);
             }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(
+                    "Sleep interrupted. Run terminating.");
+            // If we get an interrupt, the run is killed/terminated.
+            // Just stop sleeping.
+        }
     }
 
     public void idleTimerCheck(String id) {
@@ -441,13 +500,14 @@ public class Timer implements Serializable {
     }
 
     /**
-     * Adjusts the base time based on the clock differences of this JVM to
-     * the master's JVM. This is done at the millisecond accuracy. Since
-     * remote calls are usually not much faster than a millisec, it does
-     * not make much sense to be too ideological about accuracy here.
-     * @param offset The millisec offset between systems
+     * Adjusts the base time based on the clock offset of this JVM to the
+     * master's JVM. The base time is aligned once, before the run starts,
+     * and stays fixed for the run. The run's phase boundaries are derived
+     * from it, so moving it later would not move them. No system clock
+     * gets set.
+     * @param master The clock offset of the master to this JVM
      */
-    public void adjustBaseTime(int offset) {
+    public void adjustBaseTime(ClockOffset master) {
 
         // This is just a fake setting of the epochNanos. The call
         // into System.nanoTime() ensures initialization of the nano timer
@@ -456,12 +516,10 @@ public class Timer implements Serializable {
         // Long.MIN_VALUE.
         epochNanos = System.nanoTime();
 
-        // We use the provided offset to calculate the millis
-        // representing the same timestamp on a remote system.
-        epochMillis += offset;
-
-        // And then calibrate the nanos based on the new millis.
-        epochNanos = calibrateNanos(epochMillis);
+        // Calibrate the local millis to nanos difference, then align.
+        calibrateNanos(epochMillis);
+        epochNanos = master.toLocal(masterEpochNanos);
+        epochMillis = (epochNanos - diffns) / 1000000l + diffms;
     }
 
     /**
@@ -482,6 +540,26 @@ public class Timer implements Serializable {
         return debug.booleanValue();
     }
 
+    /**
+     * Check whether we use plain sleeps instead of the timer wheel.
+     * This is set by passing a system property -Dfaban.timer.sleep=true
+     * or false to the JVM at startup. By default, sleeps are used on
+     * single CPU systems where the wheel's dispatcher just competes with
+     * the threads it wakes up.
+     * @return true if sleeps are used.
+     */
+    boolean isSleep() {
+        if (sleep == null) {
+            String sleepSwitch = System.getProperty("faban.timer.sleep");
+            if (sleepSwitch != null)
+                sleep = Boolean.valueOf(sleepSwitch);
+            else
+                sleep = Boolean.valueOf(
+                        Runtime.getRuntime().availableProcessors() == 1);
+        }
+        return sleep.booleanValue();
+    }
+
     /**
      * The busy timer meter waits till the right time in the middle of ramp
      * up when the driver threads are busy and calls and reports the timer
@@ -0,0 +1,408 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The TimerWheel is a hierarchical timing wheel serving all wake-ups
+ * of an agent from a single dispatcher thread. Threads waiting for a
+ * wake-up just park and get unparked by the dispatcher. Tasks get
+ * handed to their executor at the wake-up time.<p>
+ *
+ * The wheel has 4 levels of 64 slots each with ticks of about 1ms,
+ * covering close to 5 hours. Wake-ups further out are cascaded down
+ * the levels as time progresses. Once a wake-up is in the current
+ * tick, it is kept in a small priority queue. The dispatcher parks
+ * until shortly before the next wake-up and spins for the remaining
+ * time. The spin time adapts to the observed park overshoot of the
+ * system. On a single CPU system the dispatcher does not spin. This
+ * gives wake-ups in the microsecond range instead of the millisecond
+ * range of individual sleeps.<p>
+ *
+ * The dispatcher keeps track of the lateness of the wake-ups it
+ * dispatches for instrumentation purposes.
+ */
+public class TimerWheel {
+
+    private static final int TICK_SHIFT = 20; // 2^20ns, about 1ms
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+
+    private static final long MIN_SPIN = 10000l; // 10 micros
+    private static final long MAX_SPIN = 1000000l; // 1 ms
+    private static final long MAX_PARK = 1000000000l; // 1 sec
+
+    // Spinning on a single CPU only takes the CPU from the woken threads.
+    private static final boolean SPIN =
+            Runtime.getRuntime().availableProcessors() > 1;
+
+    private static Logger logger =
+            Logger.getLogger(TimerWheel.class.getName());
+
+    // The wheel and the imminent queue are only accessed by the dispatcher.
+    private Entry[][] wheel = new Entry[LEVELS][WHEEL_SIZE];
+    private int wheelCount = 0;
+    private long currentTick;
+    private PriorityQueue<Entry> imminent = new PriorityQueue<Entry>(64,
+            new Comparator<Entry>() {
+                public int compare(Entry e1, Entry e2) {
+                    long diff = e1.time - e2.time;
+                    return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+                }
+            });
+
+    private ConcurrentLinkedQueue<Entry> inbox =
+            new ConcurrentLinkedQueue<Entry>();
+    private Thread dispatcher;
+    private volatile boolean running = true;
+    private volatile boolean parking = false;
+    private volatile long parkUntil;
+    private long parkLatency = MIN_SPIN;
+
+    private volatile long wakeups = 0l;
+    private volatile long lateSum = 0l;
+    private volatile long lateMax = 0l;
+
+    /**
+     * Constructs and starts a timer wheel.
+     * @param name The name of the dispatcher thread
+     */
+    public TimerWheel(String name) {
+        currentTick = System.nanoTime() >> TICK_SHIFT;
+        dispatcher = new Thread(name) {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        };
+        dispatcher.setDaemon(true);
+        dispatcher.setPriority(Thread.MAX_PRIORITY);
+        dispatcher.start();
+    }
+
+    /**
+     * Parks the calling thread until the given wake-up time.
+     * @param time The wake-up time, in System.nanoTime() base
+     * @throws InterruptedException If the thread got interrupted
+     */
+    public void wakeupAt(long time) throws InterruptedException {
+        if (time - System.nanoTime() <= 0)
+            return;
+        Entry entry = new Entry(time);
+        entry.thread = Thread.currentThread();
+        submit(entry);
+        while (!entry.fired) {
+            if (running) {
+                LockSupport.park();
+            } else { // Nobody serves the wheel anymore, just sleep.
+                entry.cancelled = true;
+                long sleepTime;
+                while ((sleepTime = time - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(sleepTime);
+                    if (Thread.interrupted())
+                        throw new InterruptedException();
+                }
+                return;
+            }
+            if (Thread.interrupted()) {
+                entry.cancelled = true;
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * Schedules a task to be handed to the executor at the given time.
+     * If the executor rejects the task, the task is dropped.
+     * @param time The wake-up time, in System.nanoTime() base
+     * @param task The task to run
+     * @param executor The executor running the task
+     */
+    public void schedule(long time, Runnable task, Executor executor) {
+        if (time - System.nanoTime() <= 0) {
+            executor.execute(task);
+            return;
+        }
+        Entry entry = new Entry(time);
+        entry.task = task;
+        entry.executor = executor;
+        submit(entry);
+    }
+
+    /**
+     * Stops the dispatcher. Pending task wake-ups are dropped. Threads
+     * waiting for their wake-up sleep for the remaining time instead.
+     */
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(dispatcher);
+    }
+
+    /**
+     * Obtains the number of wake-ups dispatched so far.
+     * @return The wake-up count
+     */
+    public long getWakeups() {
+        return wakeups;
+    }
+
+    /**
+     * Obtains the average lateness of the wake-ups dispatched.
+     * @return The average lateness, in nanosecs
+     */
+    public double getAvgLateness() {
+        long count = wakeups;
+        if (count == 0)
+            return 0d;
+        return (double) lateSum / count;
+    }
+
+    /**
+     * Obtains the maximum lateness of the wake-ups dispatched.
+     * @return The maximum lateness, in nanosecs
+     */
+    public long getMaxLateness() {
+        return lateMax;
+    }
+
+    private void submit(Entry entry) {
+        inbox.offer(entry);
+        if (parking && entry.time - parkUntil < 0)
+            LockSupport.unpark(dispatcher);
+    }
+
+    private void dispatch() {
+        while (running) {
+            try {
+                Entry entry;
+                while ((entry = inbox.poll()) != null)
+                    add(entry);
+
+                long now = System.nanoTime();
+                advance(now);
+
+                while ((entry = imminent.peek()) != null &&
+                        entry.time - now <= 0) {
+                    imminent.poll();
+                    fire(entry, now);
+                    now = System.nanoTime();
+                }
+
+                long target = nextWakeup(now);
+                long wait = target - now;
+                if (wait <= 0)
+                    continue;
+
+                long spin = 0l;
+                if (SPIN) {
+                    spin = parkLatency << 1;
+                    if (spin > MAX_SPIN)
+                        spin = MAX_SPIN;
+                }
+                if (wait > spin) {
+                    long parkTime = wait - spin;
+                    if (parkTime > MAX_PARK)
+                        parkTime = MAX_PARK;
+                    long parkEnd = now + parkTime;
+                    parkUntil = target;
+                    parking = true;
+                    if (inbox.isEmpty())
+                        LockSupport.parkNanos(parkTime);
+                    parking = false;
+                    long overshoot = System.nanoTime() - parkEnd;
+                    if (overshoot > 0) {
+                        parkLatency = (parkLatency * 7 + overshoot) >> 3;
+                        if (parkLatency < MIN_SPIN)
+                            parkLatency = MIN_SPIN;
+                    }
+                } else {
+                    while (System.nanoTime() - target < 0 && inbox.isEmpty())
+                        ; // Spin for the last few micros
+                }
+            } catch (Throwable t) {
+                logger.log(Level.SEVERE, "Error dispatching wake-ups.", t);
+            }
+        }
+        release();
+    }
+
+    /**
+     * Unparks all threads still waiting on the wheel after shutdown, so
+     * they can sleep the remaining time on their own.
+     */
+    private void release() {
+        Entry entry;
+        while ((entry = inbox.poll()) != null)
+            unpark(entry);
+        while ((entry = imminent.poll()) != null)
+            unpark(entry);
+        for (int level = 0; level < LEVELS; level++)
+            for (int slot = 0; slot < WHEEL_SIZE; slot++) {
+                entry = wheel[level][slot];
+                wheel[level][slot] = null;
+                while (entry != null) {
+                    unpark(entry);
+                    entry = entry.next;
+                }
+            }
+        wheelCount = 0;
+    }
+
+    private static void unpark(Entry entry) {
+        if (entry.thread != null)
+            LockSupport.unpark(entry.thread);
+    }
+
+    /**
+     * Adds an entry to the wheel or to the imminent queue if it is due
+     * within the current tick.
+     */
+    private void add(Entry entry) {
+        long tick = entry.time >> TICK_SHIFT;
+        long delta = tick - currentTick;
+        if (delta <= 0) {
+            imminent.offer(entry);
+            return;
+        }
+        int level = 0;
+        while (level < LEVELS - 1 &&
+                delta >= 1l << (WHEEL_BITS * (level + 1)))
+            ++level;
+        if (delta >= 1l << (WHEEL_BITS * LEVELS)) // Out of range
+            tick = currentTick + (1l << (WHEEL_BITS * LEVELS)) - 1;
+        int slot = (int) ((tick >> (WHEEL_BITS * level)) & WHEEL_MASK);
+        entry.next = wheel[level][slot];
+        wheel[level][slot] = entry;
+        ++wheelCount;
+    }
+
+    /**
+     * Advances the wheel tick by tick up to the current time.
+     */
+    private void advance(long now) {
+        long nowTick = now >> TICK_SHIFT;
+        while (currentTick - nowTick < 0) {
+            if (wheelCount == 0) {
+                currentTick = nowTick;
+                break;
+            }
+            long tick = ++currentTick;
+
+            // Cascade the higher levels as the lower levels wrap.
+            for (int level = 1; level < LEVELS; level++) {
+                int shift = WHEEL_BITS * level;
+                if ((tick & ((1l << shift) - 1)) != 0)
+                    break;
+                int slot = (int) ((tick >> shift) & WHEEL_MASK);
+                Entry entry = wheel[level][slot];
+                wheel[level][slot] = null;
+                while (entry != null) {
+                    Entry next = entry.next;
+                    --wheelCount;
+                    add(entry);
+                    entry = next;
+                }
+            }
+
+            int slot = (int) (tick & WHEEL_MASK);
+            Entry entry = wheel[0][slot];
+            wheel[0][slot] = null;
+            while (entry != null) {
+                Entry next = entry.next;
+                --wheelCount;
+                entry.next = null;
+                imminent.offer(entry);
+                entry = next;
+            }
+        }
+    }
+
+    /**
+     * Finds the time the dispatcher needs to act next.
+     */
+    private long nextWakeup(long now) {
+        Entry head = imminent.peek();
+        long target = now + MAX_PARK;
+        if (head != null && head.time - target < 0)
+            target = head.time;
+        if (wheelCount > 0) {
+            long tick = currentTick + 1;
+            long wrapTick = (currentTick | WHEEL_MASK) + 1;
+            for (; tick - wrapTick < 0; tick++)
+                if (wheel[0][(int) (tick & WHEEL_MASK)] != null)
+                    break;
+            long tickTime = tick << TICK_SHIFT;
+            if (tickTime - target < 0)
+                target = tickTime;
+        }
+        return target;
+    }
+
+    private void fire(Entry entry, long now) {
+        if (entry.cancelled)
+            return;
+        long late = now - entry.time;
+        lateSum += late;
+        if (late > lateMax)
+            lateMax = late;
+        ++wakeups;
+        entry.fired = true;
+        if (entry.thread != null) {
+            LockSupport.unpark(entry.thread);
+        } else {
+            try {
+                entry.executor.execute(entry.task);
+            } catch (RejectedExecutionException e) {
+                logger.log(Level.FINE, "Wake-up task rejected.", e);
+            }
+        }
+    }
+
+    /**
+     * A wake-up entry in the wheel.
+     */
+    static class Entry {
+        long time;
+        Thread thread;
+        Runnable task;
+        Executor executor;
+        volatile boolean fired = false;
+        volatile boolean cancelled = false;
+        Entry next;
+
+        Entry(long time) {
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import com.sun.faban.driver.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test class for the alias tables selecting the operations of the mixes.
+ */
+public class AliasTableTest {
+
+    /**
+     * Tests the selections follow the mix, and operations with a zero
+     * ratio are never selected.
+     */
+    @Test
+    public void testSelection() {
+        double[] mix = { 0d, 50d, 0d, 25d, 12.5d, 12.5d, 0d };
+        AliasTable table = new AliasTable(mix);
+        assertEquals(4, table.size());
+        Random random = new Random(4711l);
+        int selections = 1000000;
+        int[] counts = new int[mix.length];
+        for (int i = 0; i < selections; i++)
+            ++counts[table.op(table.next(random))];
+        for (int i = 0; i < mix.length; i++)
+            assertEquals("Op " + i, mix[i] / 100d,
+                    (double) counts[i] / selections, 0.002d);
+    }
+
+    /**
+     * Tests a dense mix of many operations with uneven ratios.
+     */
+    @Test
+    public void testDenseSelection() {
+        double[] mix = new double[300];
+        double total = 0d;
+        for (int i = 0; i < mix.length; i++)
+            total += mix[i] = 1d + i % 7;
+        AliasTable table = new AliasTable(mix);
+        assertEquals(mix.length, table.size());
+        Random random = new Random(42l);
+        int selections = 3000000;
+        int[] counts = new int[mix.length];
+        for (int i = 0; i < selections; i++)
+            ++counts[table.op(table.next(random))];
+        for (int i = 0; i < mix.length; i++) {
+            assertEquals(mix[i] / total, table.weight(i), 1e-12d);
+            assertEquals("Op " + i, mix[i] / total,
+                    (double) counts[i] / selections, 0.0005d);
+        }
+    }
+}
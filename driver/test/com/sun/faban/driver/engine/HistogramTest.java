@@ -0,0 +1,118 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test class for the response time histograms.
+ */
+public class HistogramTest {
+
+    /**
+     * Tests the percentiles of the log-linear histogram stay within
+     * the relative error of the significant digits.
+     */
+    @Test
+    public void testLogLinearPercentile() {
+        LogLinearHistogram h = new LogLinearHistogram(2);
+        // 1 micro to 10 secs, log-uniform.
+        for (int i = 0; i < 10000; i++)
+            h.record((long) Math.pow(10d, 3d + 7d * i / 10000d));
+        assertEquals(10000l, h.getCount());
+        double[] pcts = { 50d, 90d, 99d, 99.9d };
+        for (double pct : pcts) {
+            double expected = Math.pow(10d, 3d + 7d * pct / 100d);
+            long value = h.getPercentile(pct, null);
+            assertEquals("p" + pct, 1d, value / expected, 0.02d);
+        }
+    }
+
+    /**
+     * Tests the percentiles of values recorded since a base histogram.
+     */
+    @Test
+    public void testPercentileBase() {
+        Histogram[] hists = { new FixedHistogram(1000000000l),
+                              new LogLinearHistogram(3) };
+        for (Histogram h : hists) {
+            for (int i = 0; i < 1000; i++)
+                h.record(1000000l);
+            Histogram base = (Histogram) h.clone();
+            for (int i = 0; i < 1000; i++)
+                h.record(100000000l);
+            long all = h.getPercentile(90d, null);
+            long current = h.getPercentile(90d, base);
+            assertTrue(all >= 100000000l);
+            assertEquals(current, all);
+            assertTrue(base.getPercentile(90d, null) <= 5000000l);
+        }
+    }
+
+    /**
+     * Tests values beyond the trackable range end up in the overflow.
+     */
+    @Test
+    public void testOverflow() {
+        FixedHistogram h = new FixedHistogram(1000000000l);
+        for (int i = 0; i < 10; i++)
+            h.record(h.getMaxValue() * 2);
+        assertTrue(h.getPercentile(90d, null) > h.getMaxValue());
+        LogLinearHistogram l = new LogLinearHistogram(2);
+        for (int i = 0; i < 10; i++)
+            l.record(Long.MAX_VALUE);
+        assertTrue(l.getPercentile(90d, null) > l.getMaxValue());
+        assertTrue(l.getMaxValue() >= LogLinearHistogram.HIGHEST_VALUE);
+    }
+
+    /**
+     * Tests the serialization, copy, and add round trips.
+     * @throws Exception If the test fails
+     */
+    @Test
+    public void testSerialization() throws Exception {
+        LogLinearHistogram h = new LogLinearHistogram(2);
+        for (int i = 0; i < 5000; i++)
+            h.record(i * 7919l);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(h);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()));
+        Histogram r = (Histogram) in.readObject();
+        assertEquals(h.toString(), r.toString());
+
+        LogLinearHistogram c = new LogLinearHistogram(2);
+        c.copy(r);
+        c.add(h);
+        assertEquals(2 * h.getCount(), c.getCount());
+        assertEquals(h.getPercentile(50d, null), c.getPercentile(50d, null));
+    }
+}
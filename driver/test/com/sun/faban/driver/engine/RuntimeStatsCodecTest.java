@@ -0,0 +1,129 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test class for the runtime stats delta encoding.
+ */
+public class RuntimeStatsCodecTest {
+
+    private static RuntimeMetrics newMetrics(Histogram h0, Histogram h1) {
+        RuntimeMetrics m = new RuntimeMetrics();
+        m.init(1, 2);
+        m.respHist = new Histogram[] { h0, h1 };
+        return m;
+    }
+
+    private static void record(RuntimeMetrics m, int tx, long resp) {
+        m.sumSquaresTotal[tx] = Metrics.addSumSquare(m.sumSquaresTotal[tx],
+                m.txCntTotal[tx], m.respSumTotal[tx], 0d, 1, resp);
+        ++m.txCntTotal[tx];
+        m.respSumTotal[tx] += resp;
+        m.respHist[tx].record(resp);
+    }
+
+    private static void transfer(RuntimeStatsCodec codec, RuntimeMetrics m,
+                                 RuntimeMetrics prev, RuntimeMetrics agent) {
+        ByteBuffer frame = codec.encode(3, m, prev);
+        assertEquals(frame.remaining() - 4, frame.getInt());
+        assertEquals(1l, RuntimeStatsCodec.getVarint(frame));
+        assertEquals(3l, RuntimeStatsCodec.getVarint(frame));
+        assertEquals((long) m.sequence, RuntimeStatsCodec.getVarint(frame));
+        assertEquals(m.timestamp, RuntimeStatsCodec.getSignedVarint(frame));
+        assertEquals(2l, RuntimeStatsCodec.getVarint(frame));
+        RuntimeStatsCodec.decode(frame, agent);
+        assertFalse(frame.hasRemaining());
+    }
+
+    /**
+     * Tests the deltas applied on the master rebuild the agent stats.
+     */
+    @Test
+    public void testRoundTrip() {
+        RuntimeMetrics m = newMetrics(new LogLinearHistogram(2),
+                                      new FixedHistogram(1000000000l));
+        RuntimeMetrics agent = newMetrics(new LogLinearHistogram(2),
+                                          new FixedHistogram(1000000000l));
+        Histogram[] hists = agent.respHist;
+        RuntimeStatsCodec codec = new RuntimeStatsCodec();
+
+        for (int i = 0; i < 1000; i++)
+            record(m, 0, i * 100003l);
+        record(m, 1, Long.MAX_VALUE / 4); // Overflow
+        m.phaseSumTotal = new double[2][DriverContext.PHASES];
+        m.phaseSumTotal[0][DriverContext.PHASE_TTFB] = 123456789d;
+        m.timestamp = -5;
+        transfer(codec, m, null, agent);
+
+        RuntimeMetrics prev = newMetrics(
+                (Histogram) m.respHist[0].clone(),
+                (Histogram) m.respHist[1].clone());
+        prev.copy(m);
+        for (int i = 0; i < 500; i++)
+            record(m, 1, i * 1000003l);
+        ++m.errCntTotal[0];
+        m.phaseSumTotal[1][DriverContext.PHASE_CONNECT] = 4567d;
+        m.sequence = 1;
+        m.timestamp = 1000;
+        transfer(codec, m, prev, agent);
+
+        for (int i = 0; i < 2; i++) {
+            assertEquals(m.txCntTotal[i], agent.txCntTotal[i]);
+            assertEquals(m.errCntTotal[i], agent.errCntTotal[i]);
+            assertEquals(m.respSumTotal[i], agent.respSumTotal[i], 0d);
+            assertEquals(m.sumSquaresTotal[i], agent.sumSquaresTotal[i], 0d);
+            for (int j = 0; j < DriverContext.PHASES; j++)
+                assertEquals(m.phaseSumTotal[i][j], agent.phaseSumTotal[i][j],
+                             0d);
+            assertEquals(m.respHist[i].toString(), hists[i].toString());
+            assertEquals(m.respHist[i].getPercentile(90d, null),
+                         hists[i].getPercentile(90d, null));
+            assertEquals(m.respHist[i].getSumDeviation2(0d, null),
+                         hists[i].getSumDeviation2(0d, null), 0d);
+        }
+    }
+
+    /**
+     * Tests the handshake identifies the run and the agent.
+     */
+    @Test
+    public void testHandshake() {
+        RuntimeStatsCodec codec = new RuntimeStatsCodec();
+        ByteBuffer frame = codec.encodeHandshake("app.1A", -42l, 1, 300);
+        assertEquals(frame.remaining() - 4, frame.getInt());
+        assertEquals("app.1A", RuntimeStatsCodec.getString(frame));
+        assertEquals(-42l, frame.getLong());
+        assertEquals(1l, RuntimeStatsCodec.getVarint(frame));
+        assertEquals(300l, RuntimeStatsCodec.getVarint(frame));
+        assertFalse(frame.hasRemaining());
+
+        frame = codec.encodeHandshake(null, 0l, 0, 0);
+        frame.getInt();
+        assertNull(RuntimeStatsCodec.getString(frame));
+    }
+}
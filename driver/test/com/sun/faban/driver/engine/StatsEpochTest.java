@@ -0,0 +1,109 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Stress test for the consistency of the stats snapshots.
+ */
+public class StatsEpochTest {
+
+    private static final int THREADS = 10000;
+    private static final int BUCKETS = 16;
+    private static final int UPDATES = 2000; // per thread
+
+    /** The stats of one thread, always updated in several steps. */
+    private static class Stats {
+        StatsEpoch epoch = new StatsEpoch();
+        int count;
+        double sum;
+        int[] hist = new int[BUCKETS];
+    }
+
+    /**
+     * Tests the snapshots of 10k updating threads are all consistent.
+     * Snapshots are taken until all threads finished updating.
+     * @throws Exception If the test fails
+     */
+    @Test
+    public void testConsistentSnapshots() throws Exception {
+        final Stats[] stats = new Stats[THREADS];
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final Stats s = new Stats();
+            stats[i] = s;
+            threads[i] = new Thread(null, new Runnable() {
+                public void run() {
+                    int value = 0;
+                    for (int j = 0; j < UPDATES; j++) {
+                        s.epoch.beginUpdate();
+                        ++s.count;
+                        s.sum += value;
+                        ++s.hist[value];
+                        s.epoch.endUpdate();
+                        value = (value + 1) % BUCKETS;
+                        if (value == 0)
+                            Thread.yield();
+                    }
+                }
+            }, "Writer-" + i, 65536l);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+
+        int[] hist = new int[BUCKETS];
+        long snapshots = 0l;
+        long updates;
+        do {
+            updates = 0l;
+            for (Stats s : stats) {
+                int count;
+                double sum;
+                int epoch;
+                do {
+                    epoch = s.epoch.beginRead();
+                    count = s.count;
+                    sum = s.sum;
+                    System.arraycopy(s.hist, 0, hist, 0, BUCKETS);
+                } while (!s.epoch.validate(epoch));
+
+                // The hist and sum follow from the count alone.
+                int full = count / BUCKETS;
+                int rest = count % BUCKETS;
+                double expectedSum = full * (BUCKETS * (BUCKETS - 1) / 2) +
+                        rest * (rest - 1) / 2;
+                assertEquals(expectedSum, sum, 0d);
+                for (int j = 0; j < BUCKETS; j++)
+                    assertEquals(j < rest ? full + 1 : full, hist[j]);
+                updates += count;
+                ++snapshots;
+            }
+        } while (updates < (long) THREADS * UPDATES);
+        for (Thread t : threads)
+            t.join();
+        assertTrue(snapshots > THREADS);
+    }
+}
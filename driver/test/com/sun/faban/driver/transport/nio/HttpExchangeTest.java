@@ -0,0 +1,147 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.nio;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import junit.framework.TestCase;
+
+/**
+ * Test class for the HttpExchange response parser.
+ */
+public class HttpExchangeTest extends TestCase {
+
+    private static HttpExchange newExchange() {
+        HttpExchange exchange = new HttpExchange(16);
+        exchange.request = ByteBuffer.allocate(0);
+        exchange.textTypes = Collections.<String>emptySet();
+        exchange.reset();
+        return exchange;
+    }
+
+    /**
+     * Feeds the response to the exchange in pieces of the given size.
+     * @return True if the response completed
+     */
+    private static boolean parse(HttpExchange exchange, String response,
+                                 int pieceSize) throws Exception {
+        byte[] bytes = response.getBytes("ISO-8859-1");
+        boolean complete = false;
+        for (int i = 0; i < bytes.length; i += pieceSize) {
+            assertFalse("Complete before the last byte", complete);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, i,
+                                Math.min(pieceSize, bytes.length - i));
+            complete = exchange.parse(buffer);
+            if (!complete)
+                assertFalse(buffer.hasRemaining());
+        }
+        return complete;
+    }
+
+    /**
+     * Tests a chunked body split at every possible position.
+     * @throws Exception If the test fails
+     */
+    public void testChunked() throws Exception {
+        String response = "HTTP/1.1 200 OK\r\n" +
+                "Content-Type: text/html; charset=UTF-8\r\n" +
+                "Transfer-Encoding: chunked\r\n\r\n" +
+                "5\r\nHello\r\n" +
+                "8;ext=1\r\n, world!\r\n" +
+                "0\r\nX-Trailer: 1\r\n\r\n";
+        for (int pieceSize = 1; pieceSize <= response.length(); pieceSize++) {
+            HttpExchange exchange = newExchange();
+            assertTrue(parse(exchange, response, pieceSize));
+            assertEquals(200, exchange.responseCode);
+            assertEquals("text/html", exchange.contentType);
+            assertEquals("UTF-8", exchange.charset);
+            assertTrue(exchange.keepAlive);
+            assertTrue(exchange.textBody);
+            assertEquals("Hello, world!", new String(exchange.body, 0,
+                         exchange.bodyLength, "UTF-8"));
+            assertEquals(response.length(), exchange.responseBytes);
+        }
+    }
+
+    /**
+     * Tests the responses that never have a body complete at the end
+     * of the headers, even with a Content-Length.
+     * @throws Exception If the test fails
+     */
+    public void testNoBody() throws Exception {
+        HttpExchange exchange = newExchange();
+        assertTrue(parse(exchange, "HTTP/1.1 204 No Content\r\n\r\n", 64));
+        assertEquals(204, exchange.responseCode);
+        assertEquals(0, exchange.bodyLength);
+        assertTrue(exchange.keepAlive);
+
+        exchange = newExchange();
+        assertTrue(parse(exchange, "HTTP/1.1 304 Not Modified\r\n" +
+                "Content-Length: 1234\r\n\r\n", 64));
+        assertEquals(304, exchange.responseCode);
+        assertEquals(0, exchange.bodyLength);
+        assertTrue(exchange.keepAlive);
+    }
+
+    /**
+     * Tests HTTP/1.0 connections are only kept alive if asked for, and
+     * responses without a length end with the stream.
+     * @throws Exception If the test fails
+     */
+    public void testHttp10KeepAlive() throws Exception {
+        HttpExchange exchange = newExchange();
+        assertTrue(parse(exchange, "HTTP/1.0 200 OK\r\n" +
+                "Connection: Keep-Alive\r\nContent-Length: 3\r\n\r\nabc", 7));
+        assertTrue(exchange.keepAlive);
+        assertEquals(3, exchange.bodyLength);
+        assertFalse(exchange.textBody);
+
+        exchange = newExchange();
+        assertTrue(parse(exchange, "HTTP/1.0 200 OK\r\n" +
+                "Content-Length: 3\r\n\r\nabc", 7));
+        assertFalse(exchange.keepAlive);
+
+        exchange = newExchange();
+        assertFalse(parse(exchange, "HTTP/1.0 200 OK\r\n" +
+                "Connection: keep-alive\r\n\r\nabcdef", 7));
+        assertTrue(exchange.endOfStream());
+        assertFalse(exchange.keepAlive);
+        assertEquals(6, exchange.bodyLength);
+    }
+
+    /**
+     * Tests interim responses are skipped and headers are parsed
+     * case-insensitively, folded lines included.
+     * @throws Exception If the test fails
+     */
+    public void testHeaders() throws Exception {
+        HttpExchange exchange = newExchange();
+        assertTrue(parse(exchange, "HTTP/1.1 100 Continue\r\n\r\n" +
+                "HTTP/1.1 404 Not Found\r\nX-Folded: a\r\n b\r\n" +
+                "content-length: 0\r\nConnection: close\r\n\r\n", 5));
+        assertEquals(404, exchange.responseCode);
+        assertEquals("a b", exchange.headers.get("x-folded").get(0));
+        assertFalse(exchange.keepAlive);
+    }
+}
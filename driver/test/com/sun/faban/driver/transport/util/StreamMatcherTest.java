@@ -0,0 +1,125 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.regex.Pattern;
+import junit.framework.TestCase;
+
+/**
+ * Test class for the StreamMatcher.
+ */
+public class StreamMatcherTest extends TestCase {
+
+    /** A stream returning at most a few bytes per read. */
+    static class TrickleStream extends ByteArrayInputStream {
+        Random random;
+
+        TrickleStream(byte[] content, long seed) {
+            super(content);
+            random = new Random(seed);
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, 1 + random.nextInt(7)));
+        }
+    }
+
+    private void check(String text, String regex, String encoding)
+            throws IOException {
+        byte[] content = text.getBytes(encoding);
+        boolean expected = Pattern.compile(regex).matcher(text).find();
+        StreamMatcher matcher = new StreamMatcher(new byte[16]);
+        InputStream in = new TrickleStream(content, text.hashCode());
+        assertEquals(text + " ~ " + regex, expected,
+                     matcher.match(in, regex, encoding));
+        assertEquals(content.length, matcher.getContentSize());
+        assertEquals(-1, in.read());
+    }
+
+    /**
+     * Tests which expressions are matched as literals.
+     */
+    public void testParseLiterals() {
+        assertEquals(3, StreamMatcher.parseLiterals("he|she|hers").length);
+        assertEquals("a.b", StreamMatcher.parseLiterals("a\\.b")[0]);
+        assertEquals("x*y", StreamMatcher.parseLiterals("\\Qx*y\\E")[0]);
+        assertNull(StreamMatcher.parseLiterals("a.b"));
+        assertNull(StreamMatcher.parseLiterals("a|"));
+        assertNull(StreamMatcher.parseLiterals("\\d+"));
+        assertNull(StreamMatcher.parseLiterals("(?i)abc"));
+        Charset utf8 = Charset.forName("UTF-8");
+        assertTrue(StreamMatcher.compile("Welcome|Logout", utf8)
+                   instanceof StreamMatcher.Literals);
+        assertTrue(StreamMatcher.compile("Welcome|Logout",
+                   Charset.forName("UTF-16")) instanceof Pattern);
+    }
+
+    /**
+     * Tests literal and regular expression matches against random text
+     * read in small pieces, compared to matching the whole text.
+     * @throws IOException If the test fails
+     */
+    public void testMatch() throws IOException {
+        String[] regexes = { "he|she|hers", "abab", "aab|ba", "\u00e9t\u00e9",
+                             "\u20ac1", "b[ae]+h", "\\x{20ac}\\d", "a.{3}b" };
+        String alphabet = "abehrs\u00e9t\u20ac1 ";
+        Random random = new Random(20090601l);
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder b = new StringBuilder();
+            int length = random.nextInt(40);
+            for (int j = 0; j < length; j++)
+                b.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            String text = b.toString();
+            for (String regex : regexes) {
+                check(text, regex, "UTF-8");
+                check(text, regex, "UTF-16");
+            }
+            check(text, "he|she|hers", "ISO-8859-1");
+        }
+    }
+
+    /**
+     * Tests regular expression matches spanning many reads.
+     * @throws IOException If the test fails
+     */
+    public void testWindow() throws IOException {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < 3 * StreamMatcher.WINDOW; i++)
+            b.append((char) ('a' + i % 7));
+        b.append("<title>Home</title>");
+        for (int i = 0; i < 100; i++)
+            b.append('x');
+        String text = b.toString();
+        check(text, "<title>[^<]*</title>", "UTF-8");
+        check(text, "<title>Away</title>|<title>Home", "UTF-8");
+        check(text, "<title>Away</title>", "UTF-8");
+        check(text, "x{100}$", "UTF-8");
+    }
+}
@@ -0,0 +1,89 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test class for the pre-generated data pools.
+ */
+public class DataPoolTest {
+
+    /**
+     * Tests pools built with the same seed hold the same strings, and
+     * named pools are built only once.
+     */
+    @Test
+    public void testStringPool() {
+        StringPool a = StringPool.getAStrings("test.a1", 1000, 5, 20, 42l);
+        assertSame(a, StringPool.getAStrings("test.a1", 1000, 5, 20, 42l));
+        StringPool b = StringPool.getAStrings("test.a2", 1000, 5, 20, 42l);
+        assertTrue(a != b);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < a.size(); i++) {
+            String s = a.get(i);
+            assertEquals(s, b.get(i));
+            assertEquals(s.length(), a.length(i));
+            assertTrue(s.length() >= 5 && s.length() <= 20);
+            builder.setLength(0);
+            assertEquals(s, a.appendTo(i, builder).toString());
+        }
+        StringPool users = StringPool.getUserNames("test.users", 100l, 50);
+        for (int i = 0; i < users.size(); i++)
+            assertEquals(User.getUserName(100l + i), users.get(i));
+    }
+
+    /**
+     * Tests the NURand keys stay within range.
+     */
+    @Test
+    public void testKeyPool() {
+        KeyPool keys = KeyPool.getNURand("test.nurand", 10000, 1023, 1,
+                                         3000, 7l);
+        for (int i = 0; i < keys.size(); i++) {
+            int key = keys.get(i);
+            assertTrue(key >= 1 && key <= 3000);
+        }
+    }
+
+    /**
+     * Tests cursors visit every entry once per round.
+     */
+    @Test
+    public void testCursor() {
+        int[] sizes = { 1, 2, 12, 97, 1000 };
+        for (int size : sizes)
+            for (long seed = 0; seed < 20; seed++) {
+                DataPool.Cursor cursor = new DataPool.Cursor(size, seed);
+                boolean[] visited = new boolean[size];
+                for (int i = 0; i < size; i++) {
+                    int index = cursor.next();
+                    assertFalse(visited[index]);
+                    visited[index] = true;
+                }
+            }
+        DataPool.clear();
+    }
+}
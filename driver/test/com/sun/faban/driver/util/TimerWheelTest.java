@@ -0,0 +1,121 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import junit.framework.TestCase;
+
+/**
+ * Test class for the TimerWheel.
+ */
+public class TimerWheelTest extends TestCase {
+
+    static final Executor DIRECT = new Executor() {
+        public void execute(Runnable task) {
+            task.run();
+        }
+    };
+
+    /**
+     * Tests that a parked thread never wakes up early.
+     * @throws Exception If the test fails
+     */
+    public void testWakeupAt() throws Exception {
+        TimerWheel wheel = new TimerWheel("TimerWheelTest");
+        try {
+            for (int i = 0; i < 20; i++) {
+                long time = System.nanoTime() + i * 500000l;
+                wheel.wakeupAt(time);
+                assertTrue(System.nanoTime() - time >= 0);
+            }
+        } finally {
+            wheel.shutdown();
+        }
+    }
+
+    /**
+     * Tests that tasks spread over several wheel levels all get run
+     * no earlier than their scheduled time.
+     * @throws Exception If the test fails
+     */
+    public void testSchedule() throws Exception {
+        TimerWheel wheel = new TimerWheel("TimerWheelTest");
+        try {
+            long base = System.nanoTime();
+            long[] delays = { 300000l, 2000000l, 70000000l, 5000000l,
+                              150000000l, 1000l, 90000000l };
+            final long[] times = new long[delays.length];
+            final long[] fired = new long[delays.length];
+            final CountDownLatch done = new CountDownLatch(delays.length);
+            for (int i = 0; i < delays.length; i++) {
+                times[i] = base + delays[i];
+                final int idx = i;
+                wheel.schedule(times[i], new Runnable() {
+                    public void run() {
+                        fired[idx] = System.nanoTime();
+                        done.countDown();
+                    }
+                }, DIRECT);
+            }
+            done.await();
+            for (int i = 0; i < delays.length; i++)
+                assertTrue("Task " + i + " early",
+                        fired[i] - times[i] >= 0);
+        } finally {
+            wheel.shutdown();
+        }
+    }
+
+    /**
+     * Tests that threads parked on the wheel still wake up on time after
+     * the wheel got shut down.
+     * @throws Exception If the test fails
+     */
+    public void testShutdown() throws Exception {
+        final TimerWheel wheel = new TimerWheel("TimerWheelTest");
+        final long time = System.nanoTime() + 200000000l;
+        final long[] woken = new long[1];
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    wheel.wakeupAt(time);
+                    woken[0] = System.nanoTime();
+                } catch (InterruptedException e) {
+                }
+            }
+        };
+        t.start();
+        Thread.sleep(50);
+        wheel.shutdown();
+        t.join(5000);
+        assertFalse(t.isAlive());
+        assertTrue(woken[0] - time >= 0);
+
+        // Wake-ups after shutdown just sleep.
+        long later = System.nanoTime() + 1000000l;
+        wheel.wakeupAt(later);
+        assertTrue(System.nanoTime() - later >= 0);
+    }
+}
@@ -0,0 +1,55 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness;
+
+/**
+ * A file to copy between the master and a host. File copies are used to
+ * transfer many files from or to many hosts concurrently.
+ *
+ * @see RunContext#getFiles(java.util.List)
+ * @see RunContext#pushFiles(java.util.List)
+ */
+public class FileCopy {
+
+    /** The host. */
+    public final String host;
+
+    /** The file name on the host. */
+    public final String remoteFile;
+
+    /** The file name on the master. */
+    public final String localFile;
+
+    /**
+     * Constructs a file copy.
+     * @param host The host
+     * @param remoteFile The file name on the host
+     * @param localFile The file name on the master
+     */
+    public FileCopy(String host, String remoteFile, String localFile) {
+        this.host = host;
+        this.remoteFile = remoteFile;
+        this.localFile = localFile;
+    }
+}
@@ -35,6 +35,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -405,6 +406,39 @@ public class RunContext {
         return CmdService.getHandle().get(hostName, fileName, localFileName);
     }
 
+    /**
+     * Gets/copies files from remote hosts, concurrently. Relative local
+     * file names are placed in the current run output directory. The
+     * transfers are compressed, as they are mostly logs.
+     * @param copies The files to get
+     * @return true if all files got copied, false otherwise
+     */
+    public static boolean getFiles(List<FileCopy> copies) {
+        return CmdService.getHandle().getAll(resolveLocal(copies), true);
+    }
+
+    /**
+     * Pushes local files on the Faban master to remote hosts, concurrently.
+     * Relative local file names are looked up in the run directory.
+     * @param copies The files to push
+     * @return true if all files got copied, false otherwise
+     */
+    public static boolean pushFiles(List<FileCopy> copies) {
+        return CmdService.getHandle().pushAll(resolveLocal(copies), false);
+    }
+
+    private static List<FileCopy> resolveLocal(List<FileCopy> copies) {
+        ArrayList<FileCopy> resolved = new ArrayList<FileCopy>(copies.size());
+        for (FileCopy copy : copies) {
+            if (new File(copy.localFile).isAbsolute())
+                resolved.add(copy);
+            else
+                resolved.add(new FileCopy(copy.host, copy.remoteFile,
+                                          getOutDir() + copy.localFile));
+        }
+        return resolved;
+    }
+
     /**
      * Checks whether the given remote file exists.
      * @param hostName The host name to check.
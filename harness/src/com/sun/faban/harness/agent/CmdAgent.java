@@ -155,16 +155,26 @@ public interface CmdAgent extends Remote {
     public void kill() throws RemoteException;
 
     /**
-     * Sets the time on the agent host, in GMT.
-     * @param gmtTimeString
-     * @throws IOException A I/O error occurred
+     * Gets the time on the agent host, in millis.
+     * @return The time on the remote system.
+     * @throws RemoteException A communications error occurred
      */
-    public void setTime(String gmtTimeString) throws IOException;
+    long getTime() throws RemoteException;
 
     /**
-     * Gets the time on the agent host, in millis.
+     * Gets the time on the agent host, in nanosecs. This is the wall clock
+     * with the resolution of System.nanoTime.
      * @return The time on the remote system.
      * @throws RemoteException A communications error occurred
      */
-    long getTime() throws RemoteException;
+    long currentTimeNanos() throws RemoteException;
+
+    /**
+     * Sets the offset of the master's clock to the agent host's clock. The
+     * agent adjusts the timestamps of the log records it sends to the
+     * master by this offset. The agent host's clock is not changed.
+     * @param offset The master's time minus the agent's time, in nanosecs
+     * @throws RemoteException A communications error occurred
+     */
+    void setClockOffset(long offset) throws RemoteException;
 }
\ No newline at end of file
@@ -670,38 +670,30 @@ public class CmdAgentImpl extends UnicastRemoteObject
     }
 
     /**
-     * Sets the time on the agent host, in GMT. The time string
-     * must be in the format MMddHHmmyyyy.ss according to Unix date specs
-     * and must be in GMT time.
+     * Gets the time on the agent host, in millis.
      *
-     * @param gmtTimeString Time string in format
-     * @throws IOException An I/O error occurred
+     * @return The time on the remote system.
      */
-    public void setTime(String gmtTimeString) throws IOException {
-        Command c = new Command("date", "-u", gmtTimeString);
-        c.setLogLevel(Command.STDOUT, Level.FINER);
-        c.setLogLevel(Command.STDERR, Level.WARNING);
-        try {
-            int exitValue = c.execute(this, null).exitValue();
-            if (exitValue != 0)
-                logger.log(Level.WARNING, "Error on \"" + c +
-                        "\" command trying to set the date. Exit value: " +
-                        exitValue);
-        } catch (IOException e) {
-            logger.log(Level.WARNING, "Error setting date.", e);
-            throw e;
-        } catch (InterruptedException e) {
-            logger.log(Level.WARNING, "Interrupted setting date.", e);
-        }
+    public long getTime() {
+        return System.currentTimeMillis();
     }
 
     /**
-     * Gets the time on the agent host, in millis.
+     * Gets the time on the agent host, in nanosecs.
      *
      * @return The time on the remote system.
      */
-    public long getTime() {
-        return System.currentTimeMillis();
+    public long currentTimeNanos() {
+        return ClockOffset.currentTimeNanos();
+    }
+
+    /**
+     * Sets the offset of the master's clock to the agent host's clock.
+     *
+     * @param offset The master's time minus the agent's time, in nanosecs
+     */
+    public void setClockOffset(long offset) {
+        RemoteLogFormatter.setClockOffset(offset);
     }
 
     /**
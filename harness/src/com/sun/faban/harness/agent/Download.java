@@ -24,6 +24,7 @@
 package com.sun.faban.harness.agent;
 
 import com.sun.faban.harness.common.Config;
+import com.sun.faban.harness.util.ContentManifest;
 import com.sun.faban.harness.util.FileHelper;
 
 import java.io.File;
@@ -31,11 +32,19 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.StringRequestEntity;
 
 /**
  * The benchmark loader is called by the command agent to download benchmarks
@@ -48,6 +57,16 @@ public class Download {
 
     static Logger logger = Logger.getLogger(Download.class.getName());
     byte[] buffer = new byte[8192];
+    HttpClient client;
+
+    /**
+     * Constructs a Download.
+     */
+    public Download() {
+        client = new HttpClient();
+        client.getHttpConnectionManager().getParams().
+                setConnectionTimeout(2000);
+    }
 
     /**
      * Downloads benchmark.
@@ -102,11 +121,159 @@ public class Download {
                     runIdFile.lastModified()) <= 60000)
                 return; // Recent RunID file means the directory is shared.
                         // Don't download.
-
-            FileHelper.recursiveDelete(dir);
         }
         URL url = new URL(context + src + name + '/');
-        downloadDir(url, dir);
+        ContentManifest manifest = getManifest(url);
+        if (manifest != null) {
+            sync(url, dir, manifest);
+        } else {
+            if (dir.exists())
+                FileHelper.recursiveDelete(dir);
+            downloadDir(url, dir);
+        }
+    }
+
+    /**
+     * Fetches the content manifest from the master.
+     * @param url The URL of the deployed directory
+     * @return The manifest, or null if the master does not provide one
+     * @throws IOException Error fetching the manifest
+     */
+    private ContentManifest getManifest(URL url) throws IOException {
+        GetMethod get = new GetMethod(
+                            new URL(url, ContentManifest.PATH).toString());
+        try {
+            int status = client.executeMethod(get);
+            if (status != HttpStatus.SC_OK) {
+                logger.fine("No content manifest at " + url + ", status " +
+                            status);
+                return null;
+            }
+            return ContentManifest.read(get.getResponseBodyAsStream());
+        } finally {
+            get.releaseConnection();
+        }
+    }
+
+    /**
+     * Brings a local directory up to date with the manifest from the
+     * master. Files listed in the manifest of the last download and not
+     * touched since are trusted. Other files of the right size are
+     * digested. Only missing or different files get fetched. Files no
+     * longer deployed are removed.
+     * @param url The URL of the deployed directory
+     * @param dir The local directory
+     * @param manifest The manifest from the master
+     * @throws IOException Error synchronizing the directory
+     */
+    private void sync(URL url, File dir, ContentManifest manifest)
+            throws IOException {
+        File manifestFile = new File(dir, ContentManifest.PATH);
+        ContentManifest local = ContentManifest.read(manifestFile);
+        long synced = manifestFile.lastModified();
+
+        // Remove the old manifest first. An interrupted sync must never
+        // leave a manifest not matching the files.
+        if (local != null && !manifestFile.delete())
+            throw new IOException("Cannot delete " + manifestFile);
+
+        TreeMap<String, File> files = new TreeMap<String, File>();
+        ContentManifest.list(dir, "", files);
+        ArrayList<String> fetchList = new ArrayList<String>();
+        for (ContentManifest.Entry entry : manifest.getEntries()) {
+            File file = files.remove(entry.path);
+            if (file == null || file.length() != entry.size) {
+                fetchList.add(entry.path);
+            } else if (local != null && entry.sameContent(
+                    local.get(entry.path)) && file.lastModified() <= synced) {
+                continue;
+            } else if (!entry.digest.equals(
+                    ContentManifest.digest(file, buffer))) {
+                fetchList.add(entry.path);
+            }
+        }
+
+        // Files left over are no longer deployed.
+        HashSet<File> dirs = new HashSet<File>();
+        for (Map.Entry<String, File> file : files.entrySet()) {
+            logger.finer("Removing " + file.getKey());
+            if (!file.getValue().delete())
+                throw new IOException("Cannot delete " + file.getValue());
+            dirs.add(file.getValue().getParentFile());
+        }
+        for (File d : dirs)
+            while (!d.equals(dir) && d.delete()) // Only deletes empty dirs.
+                d = d.getParentFile();
+
+        logger.fine("Downloading " + fetchList.size() + " of " +
+                manifest.getEntries().size() + " files from " + url);
+        if (fetchList.size() > 0)
+            fetch(url, dir, manifest, fetchList);
+        manifest.write(manifestFile);
+    }
+
+    /**
+     * Fetches a list of files from the master in one zip stream. The
+     * content of each file is checked against the manifest.
+     * @param url The URL of the deployed directory
+     * @param dir The local directory
+     * @param manifest The manifest from the master
+     * @param fetchList The paths of the files to fetch
+     * @throws IOException Error fetching the files
+     */
+    private void fetch(URL url, File dir, ContentManifest manifest,
+                       ArrayList<String> fetchList) throws IOException {
+        StringBuilder body = new StringBuilder();
+        for (String path : fetchList)
+            body.append(path).append('\n');
+        PostMethod post = new PostMethod(url.toString());
+        post.setRequestEntity(new StringRequestEntity(body.toString(),
+                                                      "text/plain", "UTF-8"));
+        try {
+            int status = client.executeMethod(post);
+            if (status != HttpStatus.SC_OK)
+                throw new IOException("Download request for " + url +
+                        " returned " + HttpStatus.getStatusText(status) + '.');
+            ZipInputStream in = new ZipInputStream(
+                                            post.getResponseBodyAsStream());
+            int count = 0;
+            ZipEntry zipEntry;
+            while ((zipEntry = in.getNextEntry()) != null) {
+                ContentManifest.Entry entry =
+                                        manifest.get(zipEntry.getName());
+                if (entry == null)
+                    throw new IOException("Unexpected file " +
+                            zipEntry.getName() + " from " + url);
+                File file = new File(dir, entry.path);
+                File parent = file.getParentFile();
+                if (!parent.isDirectory() && !parent.mkdirs())
+                    throw new IOException("Cannot create directory " + parent);
+                logger.finer("Downloading file " + entry.path);
+                MessageDigest md = ContentManifest.newDigest();
+                FileOutputStream out = new FileOutputStream(file);
+                try {
+                    int length;
+                    while ((length = in.read(buffer)) != -1) {
+                        md.update(buffer, 0, length);
+                        out.write(buffer, 0, length);
+                    }
+                } finally {
+                    out.close();
+                }
+                if (!entry.digest.equals(ContentManifest.toHex(md.digest())))
+                    throw new IOException("Downloaded file " + entry.path +
+                            " does not match the content manifest. Was it " +
+                            "changed on the master during the download?");
+                ++count;
+            }
+            in.close();
+            if (count != fetchList.size())
+                throw new IOException("Download from " + url + " incomplete, " +
+                        "received " + count + " of " + fetchList.size() +
+                        " files.");
+        } finally {
+            post.releaseConnection();
+        }
     }
 
     private void downloadDir(URL url, File dir) throws IOException {
@@ -116,9 +283,6 @@ public class Download {
         dir.mkdir();
 
         GetMethod get = new GetMethod(url.toString());
-        HttpClient client = new HttpClient();
-        client.getHttpConnectionManager().getParams().
-                setConnectionTimeout(2000);
         int status = client.executeMethod(get);
         if (status != HttpStatus.SC_OK)
             throw new IOException("Download request for " + url + " returned " +
@@ -142,6 +306,7 @@ public class Download {
             }
         }
         stream.close();
+        get.releaseConnection();
 
         String[] entries = parser.getEntries();
         for (int i = 0; i < entries.length; i++) {
@@ -161,9 +326,6 @@ public class Download {
     private void downloadFile(URL url, File file) throws IOException {
         logger.finer("Downloading file " + url.toString());
         GetMethod get = new GetMethod(url.toString());
-        HttpClient client = new HttpClient();
-        client.getHttpConnectionManager().getParams().
-                setConnectionTimeout(2000);
         int status = client.executeMethod(get);
         if (status != HttpStatus.SC_OK)
             throw new IOException("Download request for " + url + " returned " +
@@ -179,6 +341,7 @@ public class Download {
         out.flush();
         out.close();
         in.close();
+        get.releaseConnection();
     }
 
     static class DirectoryParser {
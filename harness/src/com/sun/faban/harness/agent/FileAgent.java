@@ -157,4 +157,16 @@ public interface FileAgent extends Remote {
      */
     FileTransfer get(String srcFile, String destFile)
             throws IOException;
+
+    /**
+     * Gets a file from the local system to the master, optionally
+     * compressing the content on the wire.
+     * @param srcFile The source file on the host the agent is running on
+     * @param destFile The destination file on the master
+     * @param compress Whether to compress the transfer
+     * @return The FileTransfer causing this transfer
+     * @throws IOException If there is an error reading or transferring
+     */
+    FileTransfer get(String srcFile, String destFile, boolean compress)
+            throws IOException;
 }
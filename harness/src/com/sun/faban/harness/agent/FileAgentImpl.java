@@ -308,11 +308,27 @@ public class FileAgentImpl extends UnicastRemoteObject
      */
     public FileTransfer get(String srcFile, String destFile)
             throws IOException {
+        return get(srcFile, destFile, false);
+    }
+
+    /**
+     * Gets a file from the local system to the master, optionally
+     * compressing the content on the wire.
+     *
+     * @param srcFile  The source file on the host the agent is running on
+     * @param destFile The destination file on the master
+     * @param compress Whether to compress the transfer
+     * @return The FileTransfer causing this transfer
+     * @throws RemoteException If there is an error reading or transferring
+     */
+    public FileTransfer get(String srcFile, String destFile, boolean compress)
+            throws IOException {
         // Copying happens in FileTransfer.writeObject and
         // FileTransfer.readObject. This is the most memory-efficient way
         // to transfer large files over RMI.
         srcFile = Utilities.convertPath(srcFile);
         FileTransfer t = new FileTransfer(srcFile, destFile);
+        t.setCompressed(compress);
         logger.fine("Transferring " + t.getSource() + "->" + t.getDest() +
                     " size " + t.getTransferSize() + " bytes.");
         return t;
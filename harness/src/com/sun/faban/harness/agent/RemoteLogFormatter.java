@@ -30,9 +30,13 @@ import java.util.logging.XMLFormatter;
 
 /**
  * Formatter for formatting the logs to be sent to a log server.
- * It adds a host name to the XML.
+ * It adds a host name to the XML and adjusts the time to the master's clock.
  */
 public class RemoteLogFormatter extends XMLFormatter {
+
+    // The master's time minus the local time, in millisecs.
+    private static volatile long clockOffset = 0l;
+
     private String ident;
 
     /**
@@ -58,12 +62,33 @@ public class RemoteLogFormatter extends XMLFormatter {
      * @return The log record with the host added to the log record.
      */
     public String format(LogRecord record) {
-        String log = super.format(record);
+        String log;
+        long offset = clockOffset;
+        if (offset == 0l) {
+            log = super.format(record);
+        } else {
+            // Other handlers see the same record, so restore the time.
+            long millis = record.getMillis();
+            record.setMillis(millis + offset);
+            try {
+                log = super.format(record);
+            } finally {
+                record.setMillis(millis);
+            }
+        }
 
         log = log.replaceFirst("<record>", ident);
         return log;
     }
 
+    /**
+     * Sets the offset of the master's clock to the local clock. The
+     * timestamps of all log records formatted afterwards get adjusted.
+     * @param offset The master's time minus the local time, in nanosecs
+     */
+    static void setClockOffset(long offset) {
+        clockOffset = Math.round(offset / 1e6d);
+    }
 
     /**
      * Return the header string for a set of XML formatted records.
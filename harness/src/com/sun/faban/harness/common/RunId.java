@@ -24,6 +24,7 @@
 package com.sun.faban.harness.common;
 
 import java.io.File;
+import java.io.Serializable;
 
 
 /**
@@ -32,7 +33,9 @@ import java.io.File;
  *
  * @author Akara Sucharitakul
  */
-public class RunId implements Comparable {
+public class RunId implements Comparable, Serializable {
+
+    private static final long serialVersionUID = 20090601L;
 
     private String host;
     private String benchName;
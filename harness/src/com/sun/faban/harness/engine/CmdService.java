@@ -25,6 +25,7 @@ package com.sun.faban.harness.engine;
 
 import com.sun.faban.common.*;
 import com.sun.faban.harness.FabanHostUnknownException;
+import com.sun.faban.harness.FileCopy;
 import com.sun.faban.harness.RemoteCallable;
 import com.sun.faban.harness.ParamRepository;
 import com.sun.faban.harness.ConfigurationException;
@@ -40,12 +41,13 @@ import com.sun.faban.harness.util.InterfaceProbe;
 import java.io.*;
 import java.net.*;
 import java.rmi.RemoteException;
-import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -88,6 +90,18 @@ final public class CmdService { 	// The final keyword prevents clones
     public static final int PARALLEL = 2;
 
     private static Logger logger = Logger.getLogger(CmdService.class.getName());
+
+    // Bootstrap timeouts, in ms.
+    private static final long REGISTRY_TIMEOUT = 30000l;
+    private static final long CMD_AGENT_TIMEOUT = 120000l;
+    private static final long FILE_AGENT_TIMEOUT = 100000l;
+
+    // Clock offset estimation, samples and background interval in ms.
+    private static final int CLOCK_SAMPLES = 16;
+    private static final long CLOCK_INTERVAL = 10000l;
+
+    private static final int TRANSFER_THREADS =
+            Integer.getInteger("faban.transfer.threads", 16);
     private static CmdService cmds;
 
     private ArrayList<CmdAgent> cmdp = new ArrayList<CmdAgent>();
@@ -107,6 +121,8 @@ final public class CmdService { 	// The final keyword prevents clones
     private Map<String, String> ifMap;
     private List<String> rsh,  agent;
     private HostRoles hostRoles;
+    private volatile Map<String, ClockOffset> clocks =
+            new HashMap<String, ClockOffset>();
 
     CmdService() {
 
@@ -316,19 +332,30 @@ final public class CmdService { 	// The final keyword prevents clones
             usrOpts.add(disableEGC);
         jvmOptions.addAll(usrOpts);
 
-        // RMI registry takes a bit of time to startup. So sleep for some time
-        try {
-            logger.fine("Waiting for RMI registry and Registry to startup");
-            Thread.sleep(10000);
-        } catch (InterruptedException e) {
-        }
-
-        try {
-            registry = RegistryLocator.getRegistry(Config.RMI_PORT);
-        } catch (Exception e) {
-            logger.log(Level.SEVERE, "Unable to connect to Registry.", e);
-            return false;
+        // RMI registry takes a bit of time to startup. Poll until it is up.
+        logger.fine("Waiting for RMI registry and Registry to startup");
+        long registryStart = System.currentTimeMillis();
+        for (;;) {
+            try {
+                registry = RegistryLocator.getRegistry(Config.RMI_PORT);
+                break;
+            } catch (Exception e) {
+                if (System.currentTimeMillis() - registryStart >
+                        REGISTRY_TIMEOUT) {
+                    logger.log(Level.SEVERE, "Unable to connect to Registry.",
+                            e);
+                    return false;
+                }
+            }
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                logger.severe("Interrupted waiting for Registry.");
+                return false;
+            }
         }
+        logger.fine("Registry up after " +
+                (System.currentTimeMillis() - registryStart) + " ms.");
 
         // an agent needs to be started on the master machine
         // first since configuration of agents on other machines
@@ -410,16 +437,29 @@ final public class CmdService { 	// The final keyword prevents clones
             rsh.add("rsh");
         }
 
+        LinkedHashMap<String, HostBootstrap> bootstraps =
+                new LinkedHashMap<String, HostBootstrap>();
+
         //only case in which interfaceAddress is not an address but
         //the hostname of the master machine.  used in CmdAgentImpl
         //the cmdagent on the master machine is registered under 2
         // names, Config.CMD_AGENT@master as well as just Config.CMD_AGENT
         if (!machinesList.contains(master)) {
+            HostBootstrap bootstrap = new HostBootstrap(master);
+            long startTime = System.currentTimeMillis();
             if (!startCmdAgent(benchName, master, master)) {
                 return false;
             }
+            bootstrap.started = System.currentTimeMillis();
+            bootstrap.startTime = bootstrap.started - startTime;
+            bootstraps.put(master, bootstrap);
             machinesList.add(master);
         }
+        for (ParamRepository.HostConfig hostConfig : hostConfigs)
+            for (String machine : hostConfig.hosts)
+                if (!machinesList.contains(machine) &&
+                        !bootstraps.containsKey(machine))
+                    bootstraps.put(machine, new HostBootstrap(machine));
 
         // this is necessary in case you are on a private network
         // where the machine's private ip address is not the same as it's
@@ -442,7 +482,8 @@ final public class CmdService { 	// The final keyword prevents clones
         boolean ifMapComplete = false;
 
         if (ifScript.exists()) {
-            ifMapComplete = getIfMap(remoteMachines, ifScript, ifMap);
+            ifMapComplete = getIfMap(remoteMachines, ifScript, ifMap,
+                                     bootstraps);
         } else {
             logger.finer("Could not find interface script at " +
                     ifScript.getAbsolutePath());
@@ -469,44 +510,64 @@ final public class CmdService { 	// The final keyword prevents clones
             }
         }
 
+        // Fail before starting any agent if a host cannot be reached.
+        for (HostBootstrap bootstrap : bootstraps.values()) {
+            if (machinesList.contains(bootstrap.host))
+                continue;
+            String interfaceAddress = ifMap.get(bootstrap.host);
+            if (interfaceAddress == null || interfaceAddress.length() == 0) {
+                logger.severe("Cannot find the interface to reach " +
+                        bootstrap.host + ". Terminating run!");
+                return false;
+            }
+        }
 
-        // cycles through benchmark machines starting up agents and
-        // configuring them
-        for (ParamRepository.HostConfig hostConfig : hostConfigs) {
-            String[] machines = hostConfig.hosts;
-            for (int i = 0; i < machines.length; i++) {
-                // Do not start duplicate Cmd agent
-                if (machinesList.contains(machines[i])) {
-                    continue;
-                }
-
-                String interfaceAddress = ifMap.get(machines[i]);
-
-                if (interfaceAddress == null || interfaceAddress.length() == 0) {
-                    return false;
-                }
+        // Start all the other agents in parallel.
+        ArrayList<StartAgentTask> tasks = new ArrayList<StartAgentTask>();
+        for (HostBootstrap bootstrap : bootstraps.values()) {
+            // Do not start duplicate Cmd agent
+            if (machinesList.contains(bootstrap.host))
+                continue;
+            tasks.add(new StartAgentTask(benchName, bootstrap,
+                    ifMap.get(bootstrap.host)));
 
-                if (!startCmdAgent(benchName, machines[i], interfaceAddress)) {
-                    return false;
+            // By adding the mach to the list we prevent multiple
+            // agents being started on the same server
+            machinesList.add(bootstrap.host);
+        }
+        if (!tasks.isEmpty()) {
+            // One thread per host, the shared thread pool is too small.
+            ExecutorService executor =
+                    Executors.newFixedThreadPool(tasks.size());
+            try {
+                ExecutorCompletionService<Boolean> completionService =
+                        new ExecutorCompletionService<Boolean>(executor);
+                for (StartAgentTask task : tasks)
+                    completionService.submit(task);
+                for (int i = 0; i < tasks.size(); i++) {
+                    boolean started = false;
+                    try {
+                        started = completionService.take().get();
+                    } catch (InterruptedException e) {
+                        logger.severe("Interrupted starting agents.");
+                    } catch (ExecutionException e) {
+                        logger.log(Level.SEVERE, "Error starting agent.",
+                                   e.getCause());
+                    }
+                    if (!started) // Fail fast, don't wait for the others.
+                        return false;
                 }
-
-                // By adding the mach to the list we prevent multiple
-                // agents being started on the same server
-                machinesList.add(machines[i]);
+            } finally {
+                executor.shutdownNow();
             }
         }
-        try {
-            Thread.sleep(20000);
-        } catch (InterruptedException e) {
-        }
-        for (int i = 0; i < machinesList.size(); i++) {
-            if (!getCmdAgent((String) machinesList.get(i))) {
-                return false;
-            }
+
+        if (!connectAgents(bootstraps)) {
+            return false;
         }
 
         if (par.getBooleanValue("fa:runConfig/fh:timeSync", true)) {
-            setClocks();
+            estimateClocks();
         }
 
         return true;
@@ -535,12 +596,66 @@ final public class CmdService { 	// The final keyword prevents clones
     }
 
     private boolean getIfMap(Collection<String> hosts, File ifScript,
-            Map<String, String> ifMap) {
-        boolean complete = true;
+            Map<String, String> ifMap, Map<String, HostBootstrap> bootstraps) {
+        if (hosts.isEmpty())
+            return true;
 
-        for (String host : hosts) {
-            String interfaceAddress = null;
+        // One thread per host, the shared thread pool is too small.
+        ExecutorService executor = Executors.newFixedThreadPool(hosts.size());
+        try {
+            ExecutorCompletionService<String> completionService =
+                    new ExecutorCompletionService<String>(executor);
+            HashMap<Future<String>, String> tasks =
+                    new HashMap<Future<String>, String>();
+            for (String host : hosts)
+                tasks.put(completionService.submit(new InterfaceTask(
+                        ifScript, host, bootstraps.get(host))), host);
+            for (int i = 0; i < tasks.size(); i++) {
+                Future<String> future = completionService.take();
+                String host = tasks.get(future);
+                String interfaceAddress = null;
+                try {
+                    interfaceAddress = future.get();
+                } catch (ExecutionException e) {
+                    logger.log(Level.SEVERE, "Error detecting interface to " +
+                            host, e.getCause());
+                }
+
+                // Fail fast, the probe takes care of the remaining hosts.
+                if (interfaceAddress == null ||
+                        interfaceAddress.length() == 0)
+                    return false;
+                ifMap.put(host, interfaceAddress);
+            }
+        } catch (InterruptedException e) {
+            logger.severe("Interrupted detecting interfaces.");
+            return false;
+        } finally {
+            executor.shutdownNow();
+        }
+        return true;
+    }
+
+    /**
+     * Runs the interface script for one host. The task returns the
+     * interface address, an empty string if the script could not find a
+     * usable interface, or null if the script failed.
+     */
+    static class InterfaceTask implements Callable<String> {
 
+        File ifScript;
+        String host;
+        HostBootstrap bootstrap;
+
+        InterfaceTask(File ifScript, String host, HostBootstrap bootstrap) {
+            this.ifScript = ifScript;
+            this.host = host;
+            this.bootstrap = bootstrap;
+        }
+
+        public String call() {
+            long startTime = System.currentTimeMillis();
+            String interfaceAddress = null;
             String ifCommand = ifScript.getAbsolutePath() + ' ' + host;
 
             logger.fine("Detecting interface: " + ifCommand);
@@ -552,99 +667,182 @@ final public class CmdService { 	// The final keyword prevents clones
                 interfaceAddress = bufR.readLine();
                 if (interfaceAddress != null) {
                     interfaceAddress = interfaceAddress.trim();
-                    if ("127.0.0.1".equals(interfaceAddress)) {
-                        complete = false;
-                        ifMap.put(host, "");
-                    } else {
-                        ifMap.put(host, interfaceAddress);
-                    }
+                    if ("127.0.0.1".equals(interfaceAddress))
+                        return "";
                 }
 
-                int exitValue = -1;
-
                 if (interfaceAddress != null &&
                         interfaceAddress.length() > 0) { //Read something...
 
-                    exitValue = p.waitFor();
+                    int exitValue = p.waitFor();
                     if (exitValue != 0) {
                         logger.warning("interface: Cannot reach system " +
                                 host);
-                        complete = false;
-                        ifMap.put(host, "");
-                        continue;
+                        return "";
                     }
                 } else { // Nothing read, check stderr
                     bufR = new BufferedReader(
                             new InputStreamReader(p.getErrorStream()));
                     logger.severe(host + ": " + bufR.readLine());
-                    ifMap.put(host, "");
-                    continue;
+                    return "";
                 }
             } catch (Exception e) {
                 logger.log(Level.SEVERE,
                         "Error in executing the interface program: " +
                         ifCommand, e);
-                break;
+                return null;
+            } finally {
+                if (bootstrap != null)
+                    bootstrap.ifTime = System.currentTimeMillis() - startTime;
             }
 
             logger.config("Interface Address = " + interfaceAddress);
+            return interfaceAddress;
         }
-        return complete;
     }
 
-    private boolean getCmdAgent(String mach) {
+    /**
+     * Waits for the agents to register. The command agent registers first.
+     * It then downloads the benchmark and registers the file agent. The
+     * registry notifies us on each registration, so there is no need to
+     * sleep. We fail on the first agent not registering in time.
+     * @param bootstraps The bootstrap state of the hosts started
+     * @return true if all agents registered, false otherwise
+     */
+    private boolean connectAgents(Map<String, HostBootstrap> bootstraps) {
+        HashMap<String, CmdAgent> cmdAgents = new HashMap<String, CmdAgent>();
+        HashMap<String, FileAgent> fileAgents =
+                new HashMap<String, FileAgent>();
+        HashMap<String, Long> deadlines = new HashMap<String, Long>();
+        String cmdPrefix = Config.CMD_AGENT + "@";
+        for (HostBootstrap bootstrap : bootstraps.values()) {
+            String s = cmdPrefix + bootstrap.host;
+            logger.fine("CmdService: Connecting to " + s);
+            deadlines.put(s, bootstrap.started + CMD_AGENT_TIMEOUT);
+        }
 
         try {
-            String s = Config.CMD_AGENT + "@" + mach;
-            logger.fine("CmdService: Connecting to " + s);
-            int retry = 1;
-            CmdAgent c = (CmdAgent) registry.getService(s);
-            for (; c == null && retry <= 10; retry++) {
-                Thread.sleep(10000);
-                logger.warning("Retry connecting to " + s + ", count " +
-                        retry + '.');
-                c = (CmdAgent) registry.getService(s);
-            }
-            if (c == null) {
-                logger.severe("Could not connect to " + s);
-                return (false);
+            while (!deadlines.isEmpty()) {
+                long now = System.currentTimeMillis();
+                long nextDeadline = Long.MAX_VALUE;
+                for (Map.Entry<String, Long> deadline : deadlines.entrySet()) {
+                    if (deadline.getValue() <= now) {
+                        logger.severe("Timed out waiting for " +
+                                deadline.getKey() + " to register.");
+                        return false;
+                    }
+                    if (deadline.getValue() < nextDeadline)
+                        nextDeadline = deadline.getValue();
+                }
+                String[] registered = registry.waitForServices(
+                        deadlines.keySet().toArray(new String[0]),
+                        nextDeadline - now);
+                now = System.currentTimeMillis();
+                for (String s : registered) {
+                    deadlines.remove(s);
+                    String mach = s.substring(s.indexOf('@') + 1);
+                    HostBootstrap bootstrap = bootstraps.get(mach);
+                    if (s.startsWith(cmdPrefix)) {
+                        cmdAgents.put(mach,
+                                (CmdAgent) registry.getService(s));
+                        bootstrap.cmdAgentTime = now - bootstrap.started;
+
+                        /* Note the agent registration process:
+                         * 1. Create and register the command agent.
+                         * 2. Download benchmark code
+                         * 3. Create the lib classpath
+                         * 4. Create and register file agent
+                         * So it may take quite some time between the
+                         * registration of the command agent and the file
+                         * agent. But we can be pretty sure it'll happen.
+                         */
+                        s = Config.FILE_AGENT + "@" + mach;
+                        logger.fine("FileService: Connecting to " + s);
+                        deadlines.put(s, now + FILE_AGENT_TIMEOUT);
+                    } else {
+                        fileAgents.put(mach,
+                                (FileAgent) registry.getService(s));
+                        bootstrap.fileAgentTime = now - bootstrap.started;
+
+                        // Added by Ramesh to get the real hostnames of the
+                        // servers
+                        logger.info("CmdService: Configured " + s +
+                                " on server " +
+                                cmdAgents.get(mach).getHostName());
+                        logger.info(bootstrap.toString());
+                    }
+                }
             }
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Error accessing agents.", e);
+            return false;
+        }
 
-            cmdp.add(c);
-
-            /* Note the agent registration process:
-             * 1. Create and register the command agent.
-             * 2. Download benchmark code
-             * 3. Create the lib classpath
-             * 4. Create and register file agent
-             * So it may take quite some time between the registration of
-             * the command agent and the file agent. But we can be pretty
-             * sure it'll happen. So just wait. Timeout after 100 retries.             
-             */
-            s = Config.FILE_AGENT + "@" + mach;
-            logger.fine("FileService: Connecting to " + s);
-            retry = 1;
-            FileAgent f = (FileAgent) registry.getService(s);
-            for (; f == null && retry <= 100; retry++) {
-                Thread.sleep(1000);
-                logger.fine("Retry obtaining file service from " + s +
-                        ", count " + retry + '.');
-                f = (FileAgent) registry.getService(s);
-            }
-            if (f == null) {
-                logger.severe("Timed out obtaining file service from " + s);
-                return (false);
+        // Keep the agents in the order of the machines list.
+        for (String mach : machinesList) {
+            if (bootstraps.containsKey(mach)) {
+                cmdp.add(cmdAgents.get(mach));
+                filep.add(fileAgents.get(mach));
             }
-            filep.add(f);
+        }
+        return true;
+    }
 
-            // Added by Ramesh to get the real hostnames of the servers
-            logger.info("CmdService: Configured " + s + " on server " +
-                    c.getHostName());
-            return true;
+    /**
+     * Starts the agent on one host.
+     */
+    class StartAgentTask implements Callable<Boolean> {
 
-        } catch (Exception e) {
-            logger.log(Level.SEVERE, "Error accessing command agent on system " + mach, e);
-            return (false);
+        String benchName;
+        HostBootstrap bootstrap;
+        String interfaceAddress;
+
+        StartAgentTask(String benchName, HostBootstrap bootstrap,
+                       String interfaceAddress) {
+            this.benchName = benchName;
+            this.bootstrap = bootstrap;
+            this.interfaceAddress = interfaceAddress;
+        }
+
+        public Boolean call() {
+            long startTime = System.currentTimeMillis();
+            boolean started = startCmdAgent(benchName, bootstrap.host,
+                                            interfaceAddress);
+            bootstrap.started = System.currentTimeMillis();
+            bootstrap.startTime = bootstrap.started - startTime;
+            return started;
+        }
+    }
+
+    /**
+     * The timing of the bootstrap phases of a host, logged so slow hosts
+     * can be spotted. All times are in ms, the agent times are counted
+     * from the start of the agent.
+     */
+    static class HostBootstrap {
+
+        final String host;
+        volatile long ifTime = -1l;
+        volatile long startTime;
+        volatile long started;
+        volatile long cmdAgentTime;
+        volatile long fileAgentTime;
+
+        HostBootstrap(String host) {
+            this.host = host;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder b = new StringBuilder("Bootstrap of ");
+            b.append(host).append(':');
+            if (ifTime >= 0)
+                b.append(" interface ").append(ifTime).append(" ms,");
+            b.append(" start ").append(startTime).append(" ms, ");
+            b.append(Config.CMD_AGENT).append(' ').append(cmdAgentTime);
+            b.append(" ms, ").append(Config.FILE_AGENT).append(' ');
+            b.append(fileAgentTime).append(" ms.");
+            return b.toString();
         }
     }
 
@@ -773,180 +971,81 @@ final public class CmdService { 	// The final keyword prevents clones
         return false;
     }
 
-    private void setClocks() {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("MMddHHmmyyyy.ss");
-        dateFormat.setTimeZone(new SimpleTimeZone(0, "GMT")); // Use GMT.
-        HashSet<String> hostSet = new HashSet<String>();
-        ArrayList<NameValuePair<Future<Boolean>>> tasks =
-                new ArrayList<NameValuePair<Future<Boolean>>>();
-        hostSet.add(master); // Don't try to set clock for master.
-        for (Object o : cmdp) {
-            CmdAgent agent = (CmdAgent) o;
-            String hostName = null;
+    /**
+     * Estimates the clock offsets of all agent hosts to the master. No clock
+     * gets set. The offsets keep being sampled in the background and the
+     * agents adjust the timestamps of their logs to the master's clock.
+     */
+    private void estimateClocks() {
+        HashMap<String, ClockOffset> hostClocks =
+                new HashMap<String, ClockOffset>();
+        ArrayList<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+        for (int i = 0; i < cmdp.size(); i++) {
+            final CmdAgent agent = cmdp.get(i);
+            final String hostName;
             try {
                 hostName = agent.getHostName();
-                if (hostSet.add(hostName)) {
-                    NameValuePair<Future<Boolean>> future =
-                            new NameValuePair<Future<Boolean>>();
-                    future.name = hostName;
-                    future.value = Config.THREADPOOL.submit(
-                            new setClockTask(agent, hostName, dateFormat));
-                    tasks.add(future);
-                }
             } catch (RemoteException e) {
-                logger.log(Level.WARNING,
-                        "Cannot communicate to agent to set time.", e);
+                logger.log(Level.WARNING, "Cannot communicate to agent on " +
+                        machinesList.get(i) + " to estimate clock offset.", e);
+                continue;
             }
-        }
-        for (NameValuePair<Future<Boolean>> future : tasks) {
-            try {
-                future.value.get(300, TimeUnit.SECONDS);
-            } catch (TimeoutException e) {
-                logger.log(Level.WARNING, "Timed out setting clock for " +
-                        future.name);
-            } catch (Throwable t) {
-                Throwable cause = t.getCause();
-                while (cause != null) {
-                    t = cause;
-                    cause = t.getCause();
+            // Master's clock is the reference.
+            if (master.equals(hostName) || hostClocks.containsKey(hostName))
+                continue;
+            ClockOffset clock = new ClockOffset(new ClockOffset.Source() {
+                public long currentTimeNanos() throws IOException {
+                    return agent.currentTimeNanos();
                 }
-                logger.log(Level.WARNING, t.getMessage(), t);
-            }
+            }, true);
+            hostClocks.put(hostName, clock);
+            tasks.add(new EstimateClockTask(agent, hostName, clock));
         }
+        runConcurrently(tasks);
+        clocks = hostClocks;
     }
 
-    static class setClockTask implements Callable<Boolean> {
+    /**
+     * Estimates the clock offset of one host and keeps the agent's log
+     * timestamps adjusted.
+     */
+    static class EstimateClockTask implements Callable<Boolean>,
+                                              ClockOffset.Listener {
 
-        public static final long ACCURACY = 10l; // plus-minus 10ms.
         CmdAgent agent;
         String hostName;
-        SimpleDateFormat dateFormat;
+        ClockOffset clock;
 
-        setClockTask(CmdAgent agent, String hostName,
-                SimpleDateFormat dateFormat) {
+        EstimateClockTask(CmdAgent agent, String hostName, ClockOffset clock) {
             this.agent = agent;
             this.hostName = hostName;
-            this.dateFormat = dateFormat;
+            this.clock = clock;
         }
 
-        public Boolean call() throws IOException, InterruptedException {
-
-            // 1. If we're within accuracy, don't set the clock
-            long ms = System.currentTimeMillis();
-            long timeDiff = -agent.getTime() +
-                    ms + (System.currentTimeMillis() - ms) / 2;
-            if (timeDiff < ACCURACY && timeDiff > -ACCURACY) {
-                logger.fine("Time difference of " + timeDiff +
-                        " ms already in range. No need to set clock.");
-                return true;
+        public Boolean call() throws InterruptedException {
+            try {
+                clock.sample(CLOCK_SAMPLES, 10);
+                agent.setClockOffset(-clock.getOffset());
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Cannot estimate clock offset of " +
+                        hostName + '.', e);
+                return false;
             }
+            logger.info(String.format("Clock offset of %s is %.3f ms, " +
+                    "min roundtrip %.3f ms.", hostName,
+                    clock.getOffset() / 1e6d, clock.getRoundTrip() / 1e6d));
+            clock.setListener(this);
+            clock.start(CLOCK_INTERVAL);
+            return true;
+        }
 
-            logger.info("Time difference to host " + hostName + " is " +
-                    timeDiff + " ms. Attempting to set clock.");
-
-            int lag = 100; // Start with 100ms latency.
-            int wakeBefore = 20;
-
-            // 2. Wait till we're latency/2 from second boundary
-            // Find next second boundary.
-            long nextSec;
-            String nextSecString = "";
-            long callTime;
-
-            for (int i = 0;; i++) {
-                if (i >= 20) {
-                    logger.warning(hostName + " cannot accurately set remote " +
-                            "time after " + i + " attempts. There is still a " +
-                            "difference of " + timeDiff + " ms. Giving up.");
-                    return false;
-                }
-                findBoundaryLoop:
-                for (int j = 0;; j++) {
-                    if (j >= 20) {
-                        logger.warning(hostName + " cannot scan time to set " +
-                                "clock after " + j + " retries. Giving up " +
-                                "setting clock. System may be overloaded or " +
-                                "JVM doing too much garbage collections.");
-                        return false;
-                    }
-                    logger.finer("Lag time: " + lag + "ms");
-                    for (;;) {
-                        ms = System.currentTimeMillis();
-                        nextSec = (long) Math.ceil(ms / 1000d);
-                        // We should be 100 ms from the boundary, at least.
-                        if (nextSec * 1000 - ms < 100) {
-                            ++nextSec; // If not, we go to the next sec.
-                        }
-                        // Convert nextSec back to millis
-                        nextSec *= 1000l;
-                        callTime = nextSec - lag;
-
-                        // DateFormat got passed to us and gets shared between
-                        // multiple threads. So we need to sync.
-                        synchronized (dateFormat) {
-                            nextSecString = dateFormat.format(
-                                    new Date(nextSec));
-                        }
-
-                        // Now, sleep and wake up 20ms before the wanted second
-                        // boundary. This is to avoid late calls as sleep may
-                        // have up to 10ms wakeup delay.
-                        long sleepTime = callTime - wakeBefore -
-                                System.currentTimeMillis();
-                        if (sleepTime > 0) {
-                            Thread.sleep(sleepTime);
-                        }
-
-                        if (System.currentTimeMillis() >= callTime - 2) {
-                            wakeBefore += wakeBefore;
-                            if (wakeBefore > 700) {
-                                logger.warning(hostName + " wakeup-before " +
-                                        "time reached 700ms limit. System is " +
-                                        "too busy. Giving up.");
-                                return false;
-                            }
-                            continue;
-                        }
-                        break;
-                    }
-
-                    // Now within 20ms from the call, wait in a tight loop.
-                    for (;;) {
-                        long currentTime = System.currentTimeMillis();
-                        if (currentTime == callTime) {
-                            break findBoundaryLoop;
-                        } else if (currentTime > callTime) {
-                            logger.finer(hostName + "missed preset callTime " +
-                                    "of " + callTime + ". Current time is " +
-                                    currentTime + ".");
-                            continue findBoundaryLoop; // Missed second boundary
-                        }
-                    }
-                }
-
-                // 3. Call agent to set time
-                ms = System.currentTimeMillis();
-                agent.setTime(nextSecString);
-                logger.finer("Actual setTime took " +
-                        (System.currentTimeMillis() - ms) + " ms.");
-
-                // 4. Verify that time has been set properly.
-                ms = System.currentTimeMillis();
-                timeDiff = -agent.getTime() +
-                        ms + (System.currentTimeMillis() - ms) / 2;
-                if (timeDiff < ACCURACY && timeDiff > -ACCURACY) {
-                    logger.info("Setting time succeeded for " + hostName +
-                            " after " + i + " retries. Time difference is " +
-                            timeDiff + " ms.");
-                    break;
-                } else {
-                    logger.finer("Too large time difference of " + timeDiff +
-                            " ms to " + hostName + ". Only " + ACCURACY +
-                            " ms are allowed.");
-                    lag += timeDiff;
-                }
+        public void offsetChanged(ClockOffset clock) {
+            try {
+                agent.setClockOffset(-clock.getOffset());
+            } catch (RemoteException e) {
+                logger.log(Level.FINE, "Cannot update clock offset of " +
+                        hostName + '.', e);
             }
-            return true;
         }
     }
 
@@ -1267,6 +1366,9 @@ final public class CmdService { 	// The final keyword prevents clones
      * or at the end of a benchmark run.
      */
     public void kill() {
+        for (ClockOffset clock : clocks.values())
+            clock.stop();
+        clocks = new HashMap<String, ClockOffset>();
         int i = 0;
         try {
             for (i = 0; i < cmdp.size(); i++) {
@@ -1320,8 +1422,22 @@ final public class CmdService { 	// The final keyword prevents clones
      * @param destfile The destination file name
      * @return true if successful, false otherwise
      */
-    public synchronized boolean push(String srcfile,
-            String destmachine, String destfile) {
+    public boolean push(String srcfile, String destmachine,
+                        String destfile) {
+        return push(srcfile, destmachine, destfile, false);
+    }
+
+    /**
+     * Pushes a local file on the Faban master to the remote host,
+     * optionally compressing the content on the wire.
+     * @param srcfile The source file name, relative to the out dir
+     * @param destmachine The destination machine
+     * @param destfile The destination file name
+     * @param compress Whether to compress the transfer
+     * @return true if successful, false otherwise
+     */
+    public boolean push(String srcfile, String destmachine, String destfile,
+                        boolean compress) {
         int didx = machinesList.indexOf(destmachine);
         if (didx == -1) {
             throw new FabanHostUnknownException(
@@ -1353,6 +1469,7 @@ final public class CmdService { 	// The final keyword prevents clones
         FileAgent destf = filep.get(didx);
         try {
             FileTransfer transfer = new FileTransfer(srcfile, destfile);
+            transfer.setCompressed(compress);
             logger.fine("Transferring " + transfer.getSource() + "->" +
                     transfer.getDest() + " size " +
                     transfer.getSize() + " bytes.");
@@ -1364,6 +1481,7 @@ final public class CmdService { 	// The final keyword prevents clones
             Throwable cause = t.getCause();
             while (cause != null) {
                 t = cause;
+                cause = t.getCause();
             }
 
             logger.log(Level.SEVERE, "CmdService: Pushing - " +
@@ -1384,8 +1502,21 @@ final public class CmdService { 	// The final keyword prevents clones
      * @param destfile The destination file name, always full path
      * @return true if successful, false otherwise
      */
-    public synchronized boolean get(String srcmachine, String srcfile,
-            String destfile) {
+    public boolean get(String srcmachine, String srcfile, String destfile) {
+        return get(srcmachine, srcfile, destfile, false);
+    }
+
+    /**
+     * Gets a remote file to the Faban master, optionally compressing the
+     * content on the wire.
+     * @param srcmachine The source machine
+     * @param srcfile The source file name
+     * @param destfile The destination file name, always full path
+     * @param compress Whether to compress the transfer
+     * @return true if successful, false otherwise
+     */
+    public boolean get(String srcmachine, String srcfile, String destfile,
+                       boolean compress) {
         int sidx = machinesList.indexOf(srcmachine);
         if (sidx == -1) {
             throw new FabanHostUnknownException(
@@ -1409,7 +1540,7 @@ final public class CmdService { 	// The final keyword prevents clones
 
         FileAgent srcf = filep.get(sidx);
         try {
-            FileTransfer transfer = srcf.get(srcfile, destfile);
+            FileTransfer transfer = srcf.get(srcfile, destfile, compress);
             if (transfer.getSize() != transfer.getTransferSize()) {
                 throw new IOException("Received " + transfer.getSource() +
                         "->" + transfer.getDest() + ", " +
@@ -1421,6 +1552,7 @@ final public class CmdService { 	// The final keyword prevents clones
             Throwable cause = t.getCause();
             while (cause != null) {
                 t = cause;
+                cause = t.getCause();
             }
 
             logger.log(Level.SEVERE, "CmdService: Getting - " +
@@ -1434,6 +1566,83 @@ final public class CmdService { 	// The final keyword prevents clones
         return true;
     }
 
+    /**
+     * Pushes files from the master to many hosts concurrently.
+     * @param copies The files to push, the local file relative to the
+     *        out dir
+     * @param compress Whether to compress the transfers
+     * @return true if all pushes succeeded, false otherwise
+     */
+    public boolean pushAll(List<FileCopy> copies, final boolean compress) {
+        ArrayList<Callable<Boolean>> tasks =
+                new ArrayList<Callable<Boolean>>(copies.size());
+        for (final FileCopy copy : copies)
+            tasks.add(new Callable<Boolean>() {
+                public Boolean call() {
+                    return push(copy.localFile, copy.host, copy.remoteFile,
+                                compress);
+                }
+            });
+        return runConcurrently(tasks);
+    }
+
+    /**
+     * Gets files from many hosts to the master concurrently.
+     * @param copies The files to get, the local file being the full path
+     * @param compress Whether to compress the transfers
+     * @return true if all gets succeeded, false otherwise
+     */
+    public boolean getAll(List<FileCopy> copies, final boolean compress) {
+        ArrayList<Callable<Boolean>> tasks =
+                new ArrayList<Callable<Boolean>>(copies.size());
+        for (final FileCopy copy : copies)
+            tasks.add(new Callable<Boolean>() {
+                public Boolean call() {
+                    return get(copy.host, copy.remoteFile, copy.localFile,
+                               compress);
+                }
+            });
+        return runConcurrently(tasks);
+    }
+
+    /**
+     * Runs tasks concurrently, usually one or more per host, and waits for
+     * all of them to finish. At most faban.transfer.threads tasks, 16 by
+     * default, run at a time. The tasks run on their own threads rather than
+     * the shared thread pool, as transfers may take long.
+     * @param tasks The tasks
+     * @return true if all tasks returned true, false otherwise
+     */
+    public boolean runConcurrently(List<? extends Callable<Boolean>> tasks) {
+        if (tasks.isEmpty())
+            return true;
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(tasks.size(), TRANSFER_THREADS));
+        boolean success = true;
+        try {
+            ArrayList<Future<Boolean>> futures =
+                    new ArrayList<Future<Boolean>>(tasks.size());
+            for (Callable<Boolean> task : tasks)
+                futures.add(executor.submit(task));
+            for (Future<Boolean> future : futures)
+                try {
+                    if (!future.get())
+                        success = false;
+                } catch (ExecutionException e) {
+                    logger.log(Level.SEVERE, "CmdService: Concurrent task " +
+                            "failed.", e.getCause());
+                    success = false;
+                }
+        } catch (InterruptedException e) {
+            logger.log(Level.WARNING, "CmdService: Interrupted waiting for " +
+                    "concurrent tasks.", e);
+            success = false;
+        } finally {
+            executor.shutdown();
+        }
+        return success;
+    }
+
     /**
      * Copy a file from one remote machine to another
      * This method essentially does the work of 'rcp'
@@ -1545,7 +1754,7 @@ final public class CmdService { 	// The final keyword prevents clones
      * @param srcfile The file name
      * @return true if the file has been deleted, false otherwise
      */
-    public synchronized boolean delete(String srcmachine, String srcfile) {
+    public boolean delete(String srcmachine, String srcfile) {
         try {
             return findFileAgent(srcmachine).removeFile(srcfile);
         } catch (Exception ie) {
@@ -1564,7 +1773,7 @@ final public class CmdService { 	// The final keyword prevents clones
      * @param filter The file filter to use
      * @return true if akk files selected by the filter has been removed
      */
-    public synchronized boolean delete(String srcmachine, String dir,
+    public boolean delete(String srcmachine, String dir,
             com.sun.faban.harness.FileFilter filter) {
         try {
             return findFileAgent(srcmachine).removeFiles(dir, filter);
@@ -1582,7 +1791,7 @@ final public class CmdService { 	// The final keyword prevents clones
      * @param srcfile The file name
      * @return true if the file has been deleted, false otherwise
      */
-    public synchronized boolean truncate(String srcmachine, String srcfile) {
+    public boolean truncate(String srcmachine, String srcfile) {
         try {
             return findFileAgent(srcmachine).truncateFile(srcfile);
         } catch (Exception ie) {
@@ -1603,8 +1812,8 @@ final public class CmdService { 	// The final keyword prevents clones
      * @param stream The stream to copy the content to
      * @return true/false if copy was successful/failed
      */
-    public synchronized boolean copyToStream(String srcmachine, String srcfile,
-            OutputStream stream) {
+    public boolean copyToStream(String srcmachine, String srcfile,
+                                OutputStream stream) {
         FileService srcfilep = null;
         byte[] buf = null;
 
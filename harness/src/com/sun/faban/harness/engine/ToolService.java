@@ -33,6 +33,7 @@ import com.sun.faban.harness.tools.MasterToolContext;
 
 import java.rmi.RemoteException;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -287,16 +288,29 @@ final public class ToolService {
                         "machine " + hostNames[i] + ".", e);
             }
         }
+
+        // Post-processing transfers the tool output, do all hosts at once.
+        ArrayList<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
         for (int i = 0; i < toolAgents.length; i++) {
-            try {
-                if (toolAgents[i] != null)
-                    logger.fine("Post-processing tools on " + hostNames[i]);
-                    toolAgents[i].postprocess();
-            } catch (Exception e) {
-                logger.log(Level.WARNING, "Error in post-processing tools on " +
-                        "machine " + hostNames[i] + ".", e);
-            }
+            if (toolAgents[i] == null)
+                continue;
+            final ToolAgent toolAgent = toolAgents[i];
+            final String hostName = hostNames[i];
+            tasks.add(new Callable<Boolean>() {
+                public Boolean call() {
+                    try {
+                        logger.fine("Post-processing tools on " + hostName);
+                        toolAgent.postprocess();
+                        return true;
+                    } catch (Exception e) {
+                        logger.log(Level.WARNING, "Error in post-processing " +
+                                "tools on machine " + hostName + ".", e);
+                        return false;
+                    }
+                }
+            });
         }
+        CmdService.getHandle().runConcurrently(tasks);
     }
 
     /**
@@ -74,6 +74,15 @@ public class LogConfig {
     /** The read buffer size. */
     public int readBufferSize = 2048;
 
+    /** The size of the buffer queueing records for the log writer. */
+    public int writeBufferSize = 1048576;
+
+    /** The interval between syncs of the log file, in seconds. */
+    public int syncInterval = 1;
+
+    /** The log writer. */
+    public LogWriter logWriter = null;
+
     /**
      * Constructs the log server configuration.
      */
@@ -121,6 +130,14 @@ public class LogConfig {
                 if (v != null && v.length() > 0)
                     readBufferSize = Integer.parseInt(v);
 
+                v = xPath.evaluate("writeBufferSize", logServer);
+                if (v != null && v.length() > 0)
+                    writeBufferSize = Integer.parseInt(v);
+
+                v = xPath.evaluate("syncInterval", logServer);
+                if (v != null && v.length() > 0)
+                    syncInterval = Integer.parseInt(v);
+
             } catch (Exception e) {
                 logger.log(Level.WARNING, "Error reading harness " +
                                             "configuration file. " +
@@ -25,7 +25,6 @@ package com.sun.faban.harness.logging;
 
 import com.sun.faban.harness.common.Config;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
@@ -37,7 +36,7 @@ import java.nio.channels.SelectionKey;
 public class LogHandler implements ProtocolHandler {
 
     private FlexBuffer xBuffer;
-    private byte[] writeBuffer;
+    private LogWriter writer;
 
     /**
      * Sets the config object.
@@ -45,6 +44,7 @@ public class LogHandler implements ProtocolHandler {
      */
     public void setConfig(LogConfig config) {
         xBuffer = new FlexBuffer(config.readBufferSize);
+        writer = config.logWriter;
    }
 
     /**
@@ -83,32 +83,17 @@ public class LogHandler implements ProtocolHandler {
                 //debug.println(xBuffer.toString() + " {end of partial read}");
                 return true;
             }
-            try {
-                /*
-                debug.println(xBuffer.toString() + " {end of read}");
-                debug.flush();
-                debug.close();
-                */
-
-                // Copy out the whole record in one piece
-                int writeSize = xBuffer.size();
-                if (writeBuffer == null || writeBuffer.length < writeSize)
-                    writeBuffer = new byte[(int) (writeSize * 1.25)];
-
-                xBuffer.getBytes(0, writeBuffer, 0, writeSize);
+            /*
+            debug.println(xBuffer.toString() + " {end of read}");
+            debug.flush();
+            debug.close();
+            */
 
-                //Open the log file and dump the record/s
-                String logFile = System.getProperty("faban.log.file");
-                if(logFile == null)
-                    logFile = Config.TMP_DIR + "log.xml";
-                FileOutputStream logStream = new FileOutputStream(logFile, true);
-                logStream.write(writeBuffer, 0, writeSize);
-                logStream.flush();
-                logStream.close();
-            } catch(IOException e) {
-                // if (debug != null)
-                //    e.printStackTrace(debug);
-            }
+            // Queue the whole record/s in one piece for the log writer.
+            String logFile = System.getProperty("faban.log.file");
+            if(logFile == null)
+                logFile = Config.TMP_DIR + "log.xml";
+            writer.append(logFile, xBuffer, xBuffer.size());
             xBuffer.clear();
         }
         // Return false as we don't care which instance of Handler writes the
@@ -64,6 +64,9 @@ public class LogServer extends Thread {
         ConcurrentLinkedQueue<SocketChannel> acceptQueue =
                 new ConcurrentLinkedQueue<SocketChannel>();
 
+        config.logWriter = new LogWriter(config);
+        logger.finer("Log writer created.");
+
         selector = Selector.open();
         logger.finer("Selector created");
 
@@ -148,6 +151,9 @@ public class LogServer extends Thread {
 
         config.threadPool.shutdown();
 
+        config.logWriter.close();
+        logger.fine("Log writer closed.");
+
         logger.info("LogServer Shutdown Complete");
     }
 
@@ -0,0 +1,313 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness.logging;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The single writer of the log records received by the log server.
+ * The protocol handlers append complete records to a bounded ring
+ * buffer and return right away. The writer thread appends everything
+ * queued in one write to the log file, which is kept open until the
+ * log file of the run changes. The file is synced periodically.
+ * Handlers only block if the ring is full, so no records get lost.
+ */
+public class LogWriter extends Thread {
+
+    private Logger logger;
+    private long syncInterval; // ns
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    // Ring buffer of the queued bytes, all guarded by the lock.
+    private byte[] ring;
+    private int head = 0;
+    private int used = 0;
+    private String ringFile;
+    private boolean closed = false;
+
+    // The open log file, only accessed by the writer thread.
+    private String openFile;
+    private FileOutputStream stream;
+    private FileChannel channel;
+    private boolean dirty = false;
+    private long lastSync;
+
+    // Statistics for the open log file.
+    private volatile long openTime = 0l; // 0 if no file is open.
+    private volatile long bytesWritten;
+    private long writes;
+    private int maxDepth;
+
+    /**
+     * Constructs and starts the log writer.
+     * @param config The log configuration
+     */
+    public LogWriter(LogConfig config) {
+        logger = Logger.getLogger(getClass().getName());
+        ring = new byte[config.writeBufferSize];
+        syncInterval = config.syncInterval * 1000000000l;
+        setName("LogWriter");
+        setDaemon(true);
+        start();
+    }
+
+    /**
+     * Queues the first bytes of a buffer to be appended to a log file.
+     * The bytes must hold complete log records.
+     * @param file The log file
+     * @param buffer The buffer holding the records
+     * @param length The number of bytes to append
+     */
+    public void append(String file, FlexBuffer buffer, int length) {
+        lock.lock();
+        try {
+            // Queued records of the previous log file go first.
+            // So do records not fitting the ring at all.
+            while (used > 0 && (!file.equals(ringFile) ||
+                    length > ring.length))
+                notFull.awaitUninterruptibly();
+            if (length > ring.length)
+                ring = new byte[length];
+            ringFile = file;
+
+            while (ring.length - used < length)
+                notFull.awaitUninterruptibly();
+
+            int tail = (head + used) % ring.length;
+            int first = Math.min(length, ring.length - tail);
+            buffer.getBytes(0, ring, tail, first);
+            if (first < length)
+                buffer.getBytes(first, ring, 0, length - first);
+            used += length;
+            if (used > maxDepth)
+                maxDepth = used;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Obtains the number of bytes currently queued for writing.
+     * @return The queue depth, in bytes
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return used;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Obtains the largest number of bytes queued for the current log file.
+     * @return The max queue depth, in bytes
+     */
+    public int getMaxQueueDepth() {
+        lock.lock();
+        try {
+            return maxDepth;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Obtains the write throughput to the current log file.
+     * @return The bytes written per second since opening the file
+     */
+    public double getBytesPerSecond() {
+        long start = openTime;
+        long elapsed = System.nanoTime() - start;
+        if (start == 0l || elapsed <= 0l)
+            return 0d;
+        return bytesWritten * 1e9d / elapsed;
+    }
+
+    /**
+     * The writer loop, appending the queued bytes to the log file.
+     */
+    @Override
+    public void run() {
+        for (;;) {
+            int start, length;
+            String file;
+            lock.lock();
+            try {
+                while (used == 0 && !closed) {
+                    if (!dirty) {
+                        notEmpty.awaitUninterruptibly();
+                        continue;
+                    }
+                    long wait = lastSync + syncInterval - System.nanoTime();
+                    if (wait <= 0l)
+                        break;
+                    try {
+                        notEmpty.awaitNanos(wait);
+                    } catch (InterruptedException e) {
+                        logger.log(Level.FINE, "LogWriter interrupted.", e);
+                    }
+                }
+                if (used == 0 && closed)
+                    break;
+                start = head;
+                length = used;
+                file = ringFile;
+            } finally {
+                lock.unlock();
+            }
+
+            if (length > 0)
+                write(file, start, length);
+
+            lock.lock();
+            try {
+                head = (head + length) % ring.length;
+                used -= length;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            if (dirty && System.nanoTime() - lastSync >= syncInterval)
+                sync();
+        }
+        closeFile();
+    }
+
+    /**
+     * Writes the queued bytes. The bytes are not touched by the handlers
+     * until they are removed from the ring.
+     * @param file The log file
+     * @param start The start of the bytes in the ring
+     * @param length The number of bytes
+     */
+    private void write(String file, int start, int length) {
+        if (!file.equals(openFile)) {
+            closeFile();
+            try {
+                stream = new FileOutputStream(file, true);
+                channel = stream.getChannel();
+                openFile = file;
+                openTime = System.nanoTime();
+                lastSync = openTime;
+                bytesWritten = 0l;
+                writes = 0l;
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Cannot open log file " + file +
+                        ". Dropping " + length + " bytes of log records.", e);
+                return;
+            }
+        }
+        int first = Math.min(length, ring.length - start);
+        ByteBuffer[] buffers;
+        if (first < length)
+            buffers = new ByteBuffer[] { ByteBuffer.wrap(ring, start, first),
+                                    ByteBuffer.wrap(ring, 0, length - first) };
+        else
+            buffers = new ByteBuffer[] { ByteBuffer.wrap(ring, start, first) };
+        try {
+            long remaining = length;
+            while (remaining > 0)
+                remaining -= channel.write(buffers);
+            bytesWritten += length;
+            ++writes;
+            dirty = true;
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Error writing log file " + file + '.',
+                    e);
+        }
+    }
+
+    private void sync() {
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error syncing log file " + openFile +
+                    '.', e);
+        }
+        dirty = false;
+        lastSync = System.nanoTime();
+    }
+
+    private void closeFile() {
+        if (openFile == null)
+            return;
+        if (dirty)
+            sync();
+        if (logger.isLoggable(Level.FINE)) {
+            double elapsed = (System.nanoTime() - openTime) / 1e9d;
+            logger.fine("Wrote " + bytesWritten + " bytes in " + writes +
+                    " writes to " + openFile + ", " +
+                    Math.round(bytesWritten / elapsed) + " bytes/sec, max " +
+                    "queue depth " + getMaxQueueDepth() + " bytes.");
+        }
+        try {
+            stream.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error closing log file " + openFile +
+                    '.', e);
+        }
+        lock.lock();
+        try {
+            maxDepth = used;
+        } finally {
+            lock.unlock();
+        }
+        openFile = null;
+        openTime = 0l;
+        stream = null;
+        channel = null;
+    }
+
+    /**
+     * Writes all queued records, closes the log file, and terminates
+     * the writer thread.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            join();
+        } catch (InterruptedException e) {
+            logger.log(Level.FINE, "Interrupted closing LogWriter.", e);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness.services;
+
+import com.sun.faban.harness.engine.CmdService;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The lifecycle executor runs a lifecycle step, such as startup, on all
+ * services of a run. Services not ordered run the step concurrently. A
+ * service is ordered after the services it depends on, and after the
+ * services listed before it that share a host with it. Steps stopping
+ * services run in the reverse order. The time each service takes for each
+ * step is logged.
+ */
+class LifecycleExecutor {
+
+    private static Logger logger =
+            Logger.getLogger(LifecycleExecutor.class.getName());
+
+    /**
+     * A lifecycle step of a service.
+     */
+    interface Step {
+
+        /**
+         * Runs the step on one service.
+         * @param service The service
+         */
+        void run(ServiceWrapper service);
+    }
+
+    private final List<ServiceWrapper> services;
+
+    // The services each service runs after and before, by index.
+    private final List<List<Integer>> predecessors;
+    private final List<List<Integer>> successors;
+
+    /**
+     * Constructs the executor, ordering the services.
+     * @param services The services of the run, in configuration order
+     */
+    LifecycleExecutor(List<ServiceWrapper> services) {
+        this.services = services;
+        int count = services.size();
+        predecessors = new ArrayList<List<Integer>>(count);
+        successors = new ArrayList<List<Integer>>(count);
+        for (int i = 0; i < count; i++) {
+            predecessors.add(new ArrayList<Integer>());
+            successors.add(new ArrayList<Integer>());
+        }
+
+        // The declared dependencies.
+        boolean[][] edges = new boolean[count][count];
+        for (int i = 0; i < count; i++) {
+            ServiceDescription desc = services.get(i).ctx.desc;
+            List<String> dependsOn = Arrays.asList(desc.dependsOn);
+            for (int j = 0; j < count; j++) {
+                String id = services.get(j).ctx.desc.id;
+                if (!id.equals(desc.id) && dependsOn.contains(id))
+                    edges[j][i] = true;
+            }
+        }
+
+        // Sort the services by dependencies, keeping the configuration
+        // order where there are none. All edges added later follow this
+        // order, so they can never introduce a cycle.
+        int[] order = sort(edges);
+        if (order == null) {
+            logger.severe("Circular service dependencies found, running " +
+                          "the services one by one in configuration order.");
+            order = new int[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+                Arrays.fill(edges[i], false);
+                if (i > 0)
+                    edges[i - 1][i] = true;
+            }
+        }
+
+        // Services sharing a host keep their order.
+        ArrayList<HashSet<String>> hosts =
+                new ArrayList<HashSet<String>>(count);
+        CmdService cmds = CmdService.getHandle();
+        for (ServiceWrapper service : services) {
+            HashSet<String> hostSet = new HashSet<String>();
+            for (String host : service.ctx.getUniqueHosts())
+                hostSet.add(cmds.getHostName(host));
+            hosts.add(hostSet);
+        }
+        for (int i = 0; i < count; i++)
+            for (int j = i + 1; j < count; j++) {
+                int first = order[i];
+                int second = order[j];
+                for (String host : hosts.get(first))
+                    if (hosts.get(second).contains(host)) {
+                        edges[first][second] = true;
+                        break;
+                    }
+            }
+
+        for (int i = 0; i < count; i++)
+            for (int j = 0; j < count; j++)
+                if (edges[i][j]) {
+                    successors.get(i).add(j);
+                    predecessors.get(j).add(i);
+                }
+    }
+
+    /**
+     * Sorts the services topologically. Of the services ready at any time,
+     * the first configured comes first.
+     * @param edges The ordering edges, from predecessor to successor
+     * @return The service indexes in order, or null if there is a cycle
+     */
+    private static int[] sort(boolean[][] edges) {
+        int count = edges.length;
+        int[] pending = new int[count];
+        for (int i = 0; i < count; i++)
+            for (int j = 0; j < count; j++)
+                if (edges[i][j])
+                    ++pending[j];
+        int[] order = new int[count];
+        boolean[] done = new boolean[count];
+        for (int idx = 0; idx < count; idx++) {
+            int next = -1;
+            for (int i = 0; i < count && next < 0; i++)
+                if (!done[i] && pending[i] == 0)
+                    next = i;
+            if (next < 0)
+                return null;
+            done[next] = true;
+            order[idx] = next;
+            for (int j = 0; j < count; j++)
+                if (edges[next][j])
+                    --pending[j];
+        }
+        return order;
+    }
+
+    /**
+     * Runs a step on all services, as concurrent as the ordering allows,
+     * and waits for all services to finish the step.
+     * @param name The step name, for logging
+     * @param step The step
+     * @param reverse Whether to run in reverse order, for stopping services
+     */
+    void run(final String name, final Step step, boolean reverse) {
+        int count = services.size();
+        if (count == 0)
+            return;
+        List<List<Integer>> waitFor = reverse ? successors : predecessors;
+        List<List<Integer>> release = reverse ? predecessors : successors;
+        int[] pending = new int[count];
+        for (int i = 0; i < count; i++)
+            pending[i] = waitFor.get(i).size();
+
+        ExecutorService executor = Executors.newFixedThreadPool(count);
+        CompletionService<Integer> completionService =
+                new ExecutorCompletionService<Integer>(executor);
+        int running = 0;
+        try {
+            for (int i = 0; i < count; i++)
+                if (pending[i] == 0) {
+                    completionService.submit(newTask(name, step, i));
+                    ++running;
+                }
+            while (running > 0) {
+                int done = completionService.take().get();
+                --running;
+                for (int next : release.get(done))
+                    if (--pending[next] == 0) {
+                        completionService.submit(newTask(name, step, next));
+                        ++running;
+                    }
+            }
+        } catch (InterruptedException e) {
+            logger.log(Level.WARNING, "Interrupted waiting for services to " +
+                    name + '.', e);
+        } catch (ExecutionException e) {
+            logger.log(Level.WARNING, "Error waiting for services to " +
+                    name + '.', e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private Callable<Integer> newTask(final String name, final Step step,
+                                      final int index) {
+        return new Callable<Integer>() {
+            public Integer call() {
+                ServiceWrapper service = services.get(index);
+                long start = System.currentTimeMillis();
+                try {
+                    step.run(service);
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Failed to " + name +
+                            " service " + service.ctx.desc.id, e);
+                }
+                logger.info("Service " + service.ctx.desc.id + ' ' + name +
+                        " took " + (System.currentTimeMillis() - start) +
+                        " ms.");
+                return index;
+            }
+        };
+    }
+}
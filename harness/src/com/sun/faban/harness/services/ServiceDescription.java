@@ -45,6 +45,13 @@ public class ServiceDescription implements Serializable {
     /** The deploy location. The name of the deploy jar. */
     public String location;
 
+    /**
+     * The ids of the services this service depends on, as listed by the
+     * depends elements in services-tools.xml. The service gets started
+     * after and stopped before the services it depends on.
+     */
+    public String[] dependsOn = new String[0];
+
     /**
      * Constructs a service description.
      * @param id The service identifier
@@ -80,6 +80,8 @@ public class ServiceManager {
 
     private Run run;
 
+    private LifecycleExecutor lifecycle;
+
     /**
      * Obtains the set of active services and tools deployments used in the
      * current run.
@@ -123,6 +125,7 @@ public class ServiceManager {
         this.loadedServicesList = Collections.unmodifiableList(
                                                             loadedServicesList);
         this.ctxList = Collections.unmodifiableList(ctxList);
+        lifecycle = new LifecycleExecutor(this.loadedServicesList);
 
         instance = this;
     }
@@ -203,6 +206,14 @@ public class ServiceManager {
                                 ServiceDescription desc =
                                         new ServiceDescription(id,
                                                 loadableClass, type, dir);
+                                NodeList dependsNodes =
+                                        se.getElementsByTagName("depends");
+                                desc.dependsOn =
+                                        new String[dependsNodes.getLength()];
+                                for (int k = 0; k < desc.dependsOn.length;
+                                     k++)
+                                    desc.dependsOn[k] = dependsNodes.item(k).
+                                            getTextContent().trim();
                                 serviceMap.put(id, desc);
                             }
                         }
@@ -620,24 +631,33 @@ public class ServiceManager {
      * Configures the service.
      */
     public void configure() {
-        for(ServiceWrapper sw : loadedServicesList)
-            sw.configure();
+        lifecycle.run("configure", new LifecycleExecutor.Step() {
+            public void run(ServiceWrapper sw) {
+                sw.configure();
+            }
+        }, false);
     }
 
     /**
      * Obtains the configuration of a service.
      */
     public void getConfig() {
-        for(ServiceWrapper sw : loadedServicesList)
-            sw.getConfig();
+        lifecycle.run("getConfig", new LifecycleExecutor.Step() {
+            public void run(ServiceWrapper sw) {
+                sw.getConfig();
+            }
+        }, false);
     }
 
     /**
-     * Obtains the logs of a service.
+     * Obtains the logs of all services.
      */
     public void getLogs() {
-        for(ServiceWrapper sw : loadedServicesList)
-            sw.getLogs();
+        lifecycle.run("getLogs", new LifecycleExecutor.Step() {
+            public void run(ServiceWrapper sw) {
+                sw.getLogs();
+            }
+        }, false);
     }
 
     /**
@@ -645,18 +665,23 @@ public class ServiceManager {
      * this will shutdown the service and restart it.
      */
     public void startup() {
-        // Use two separate loops to leave some time
-        // between shutdown and startup.
-        for(ServiceWrapper sw : loadedServicesList) {
-            if (sw.ctx.restart)
-                sw.shutdown();
-            sw.clearLogs();
-        }
+        // Use two separate phases to leave some time
+        // between shutdown and startup. Services get stopped before
+        // and started after the services they depend on.
+        lifecycle.run("shutdown", new LifecycleExecutor.Step() {
+            public void run(ServiceWrapper sw) {
+                if (sw.ctx.restart)
+                    sw.shutdown();
+                sw.clearLogs();
+            }
+        }, true);
 
-        for(ServiceWrapper sw : loadedServicesList) {
-            if (sw.ctx.restart)
-                sw.startup();
-        }
+        lifecycle.run("startup", new LifecycleExecutor.Step() {
+            public void run(ServiceWrapper sw) {
+                if (sw.ctx.restart)
+                    sw.startup();
+            }
+        }, false);
     }
 
     /**
@@ -672,10 +697,12 @@ public class ServiceManager {
                     runIdFile.delete();
             }
         }
-        for(ServiceWrapper sw : loadedServicesList){
-            if (sw.ctx.restart)
-                sw.shutdown();
-        }
+        lifecycle.run("shutdown", new LifecycleExecutor.Step() {
+            public void run(ServiceWrapper sw) {
+                if (sw.ctx.restart)
+                    sw.shutdown();
+            }
+        }, true);
         instance = null;
     }
 }
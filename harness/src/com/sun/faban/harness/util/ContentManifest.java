@@ -0,0 +1,318 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/**
+ * The content manifest lists all files of a deployed benchmark or service
+ * with their sizes and SHA-1 digests. The master builds the manifest at
+ * deploy time and saves it as META-INF/faban.manifest. The agents compare
+ * it to the manifest of their last download, so only changed files get
+ * transferred. The META-INF directory itself is not part of the content.
+ */
+public class ContentManifest {
+
+    /** The path of the manifest, relative to the deployed directory. */
+    public static final String PATH = "META-INF/faban.manifest";
+
+    private static final String HEADER = "# Faban content manifest";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static Logger logger =
+            Logger.getLogger(ContentManifest.class.getName());
+
+    private TreeMap<String, Entry> entries = new TreeMap<String, Entry>();
+
+    /**
+     * A file listed in the manifest.
+     */
+    public static class Entry {
+
+        /** The path relative to the deployed directory, '/' separated. */
+        public final String path;
+
+        /** The file size. */
+        public final long size;
+
+        /** The SHA-1 digest, in hex. */
+        public final String digest;
+
+        Entry(String path, long size, String digest) {
+            this.path = path;
+            this.size = size;
+            this.digest = digest;
+        }
+
+        /**
+         * Checks whether this entry has the same content as another.
+         * @param other The other entry, may be null
+         * @return True if size and digest are the same
+         */
+        public boolean sameContent(Entry other) {
+            return other != null && size == other.size &&
+                    digest.equals(other.digest);
+        }
+    }
+
+    /**
+     * Builds the manifest of a directory, digesting all files.
+     * @param dir The deployed directory
+     * @return The manifest
+     * @throws IOException Error reading the files
+     */
+    public static ContentManifest build(File dir) throws IOException {
+        ContentManifest manifest = new ContentManifest();
+        TreeMap<String, File> files = new TreeMap<String, File>();
+        list(dir, "", files);
+        byte[] buffer = new byte[8192];
+        for (Map.Entry<String, File> file : files.entrySet()) {
+            File f = file.getValue();
+            manifest.add(new Entry(file.getKey(), f.length(),
+                                   digest(f, buffer)));
+        }
+        return manifest;
+    }
+
+    /**
+     * Obtains the manifest of a deployed directory, as kept on the master.
+     * The manifest is rebuilt and saved if missing, or if files were added,
+     * removed, or modified since it was saved.
+     * @param dir The deployed directory
+     * @return The manifest
+     * @throws IOException Error reading the files or saving the manifest
+     */
+    public static synchronized ContentManifest getInstance(File dir)
+            throws IOException {
+        File file = new File(dir, PATH);
+        ContentManifest manifest = read(file);
+        if (manifest != null) {
+            TreeMap<String, File> files = new TreeMap<String, File>();
+            list(dir, "", files);
+            long saved = file.lastModified();
+            boolean stale = files.size() != manifest.entries.size();
+            for (Map.Entry<String, File> f : files.entrySet()) {
+                if (stale)
+                    break;
+                Entry entry = manifest.get(f.getKey());
+                File content = f.getValue();
+                stale = entry == null || entry.size != content.length() ||
+                        content.lastModified() > saved;
+            }
+            if (!stale)
+                return manifest;
+        }
+        logger.fine("Building content manifest of " + dir);
+        manifest = build(dir);
+        manifest.write(file);
+        return manifest;
+    }
+
+    /**
+     * Reads a saved manifest.
+     * @param file The manifest file
+     * @return The manifest, or null if the file does not exist
+     * @throws IOException Error reading the file
+     */
+    public static ContentManifest read(File file) throws IOException {
+        if (!file.isFile())
+            return null;
+        FileInputStream in = new FileInputStream(file);
+        try {
+            return read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads a manifest from a stream.
+     * @param in The stream
+     * @return The manifest
+     * @throws IOException Error reading or parsing the stream
+     */
+    public static ContentManifest read(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(
+                                        new InputStreamReader(in, "UTF-8"));
+        ContentManifest manifest = new ContentManifest();
+        String line = reader.readLine();
+        if (!HEADER.equals(line))
+            throw new IOException("Not a content manifest: " + line);
+        while ((line = reader.readLine()) != null) {
+            if (line.length() == 0)
+                continue;
+            int idx1 = line.indexOf(' ');
+            int idx2 = idx1 < 0 ? -1 : line.indexOf(' ', idx1 + 1);
+            if (idx2 < 0)
+                throw new IOException("Bad content manifest line: " + line);
+            try {
+                manifest.add(new Entry(line.substring(idx2 + 1),
+                        Long.parseLong(line.substring(idx1 + 1, idx2)),
+                        line.substring(0, idx1)));
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad content manifest line: " + line);
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Saves this manifest. The file is replaced as a whole, so readers
+     * never see a partial manifest.
+     * @param file The manifest file
+     * @throws IOException Error writing the file
+     */
+    public void write(File file) throws IOException {
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs())
+            throw new IOException("Cannot create directory " + parent);
+        File tmpFile = new File(parent, file.getName() + ".tmp");
+        Writer out = new OutputStreamWriter(new FileOutputStream(tmpFile),
+                                            "UTF-8");
+        try {
+            out.write(HEADER);
+            out.write('\n');
+            for (Entry entry : entries.values()) {
+                out.write(entry.digest);
+                out.write(' ');
+                out.write(String.valueOf(entry.size));
+                out.write(' ');
+                out.write(entry.path);
+                out.write('\n');
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmpFile.renameTo(file)) {
+            file.delete();
+            if (!tmpFile.renameTo(file))
+                throw new IOException("Cannot rename " + tmpFile);
+        }
+    }
+
+    private void add(Entry entry) {
+        entries.put(entry.path, entry);
+    }
+
+    /**
+     * Obtains the entry of a path.
+     * @param path The path relative to the deployed directory
+     * @return The entry, or null if the path is not listed
+     */
+    public Entry get(String path) {
+        return entries.get(path);
+    }
+
+    /**
+     * Obtains all entries, ordered by path.
+     * @return The entries
+     */
+    public Collection<Entry> getEntries() {
+        return entries.values();
+    }
+
+    /**
+     * Lists all content files of a directory, recursively.
+     * @param dir The directory
+     * @param prefix The path of the directory relative to the deployed
+     *        directory, empty or ending with '/'
+     * @param files The map of relative paths to files to fill
+     */
+    public static void list(File dir, String prefix,
+                            Map<String, File> files) {
+        File[] list = dir.listFiles();
+        if (list == null)
+            return;
+        for (File f : list) {
+            String path = prefix + f.getName();
+            if (f.isDirectory()) {
+                if (!"META-INF".equals(path))
+                    list(f, path + '/', files);
+            } else if (f.isFile()) {
+                files.put(path, f);
+            }
+        }
+    }
+
+    /**
+     * Creates the SHA-1 digest object.
+     * @return The message digest
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e); // SHA-1 is always there.
+        }
+    }
+
+    /**
+     * Formats a digest in hex, as listed in the manifest.
+     * @param digest The digest
+     * @return The hex string
+     */
+    public static String toHex(byte[] digest) {
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[2 * i] = HEX[(digest[i] >> 4) & 0xF];
+            hex[2 * i + 1] = HEX[digest[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Digests a file.
+     * @param file The file
+     * @param buffer The buffer to use
+     * @return The SHA-1 digest of the file, in hex
+     * @throws IOException Error reading the file
+     */
+    public static String digest(File file, byte[] buffer)
+            throws IOException {
+        MessageDigest md = newDigest();
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int length;
+            while ((length = in.read(buffer)) != -1)
+                md.update(buffer, 0, length);
+        } finally {
+            in.close();
+        }
+        return toHex(md.digest());
+    }
+}
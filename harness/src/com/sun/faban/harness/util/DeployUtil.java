@@ -127,6 +127,7 @@ public class DeployUtil {
             FileHelper.recursiveCopy(dir, dir1);
             FileHelper.recursiveDelete(dir);
             FileHelper.recursiveDelete(new File(Config.BENCHMARK_DIR + jarName));
+            generateManifest(dir1);
             /*String[] leftoverFiles = dir.list();
 
             if(leftoverFiles != null && leftoverFiles.length > 0){
@@ -143,6 +144,7 @@ public class DeployUtil {
                     throw new DeployException(
                             "Missing META-INF directory in benchmark deployment.");
                 generateXform(deployName);
+                generateManifest(dir);
             } catch (Exception e) { // Clean up if we run into errors.
                 FileHelper.recursiveDelete(dir);
                 throw e;
@@ -285,6 +287,24 @@ public class DeployUtil {
 
     }
 
+    /**
+     * Generates the content manifest of a deployed benchmark or service,
+     * so the agents only download the files changed since their last
+     * download. Failures are not fatal, the manifest then gets built on
+     * the first download instead.
+     * @param dir The deployed directory
+     * @see ContentManifest
+     */
+    public static void generateManifest(File dir) {
+        try {
+            ContentManifest.build(dir).write(
+                                    new File(dir, ContentManifest.PATH));
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Cannot generate content manifest " +
+                    "for " + dir.getName(), e);
+        }
+    }
+
     /**
      * Checks if benchmark can be deployed.
      * @param benchName
@@ -404,6 +424,7 @@ public class DeployUtil {
                 unjar(jarFile, benchName);
                 generateDD(benchName);
                 generateXform(benchName);
+                generateManifest(new File(BENCHMARKDIR, benchName));
             } catch (Exception e) {
                 logger.log(Level.SEVERE, "Error deploying benchmark \"" +
                         benchName + "\"", e);
@@ -422,6 +443,7 @@ public class DeployUtil {
         if (canDeployService(serviceBundleName))
             try {
                 unjar(jarFile, serviceBundleName);
+                generateManifest(new File(SERVICEDIR, serviceBundleName));
             } catch (Exception e) {
                 logger.log(Level.SEVERE, "Error deploying service bundle \"" +
                         serviceBundleName + "\"", e);
@@ -60,6 +60,9 @@ public class CLIServlet extends HttpServlet {
     static final int TAIL = 0;
     static final int FOLLOW = 1;
 
+    /** The number of records shown by tail. */
+    static final int TAIL_SIZE = 10;
+
     static Logger logger = Logger.getLogger(CLIServlet.class.getName());
 
     String[] getPathComponents(HttpServletRequest request) {
@@ -267,11 +270,27 @@ public class CLIServlet extends HttpServlet {
 
         LogOutputHandler handler = new LogOutputHandler(response, options);
         InputStream logInput;
+
+        // Seek to the tail using the log index.
+        LogIndex index = null;
+        int tailStart = 0;
+        if (options[TAIL]) {
+            index = LogIndex.getInstance(logFile);
+            tailStart = Math.max(index.size() - TAIL_SIZE, 0);
+        }
         if (options[FOLLOW]) {
             // The XMLInputStream reads streaming XML and does not EOF.
-            XMLInputStream input = new XMLInputStream(logFile);
+            XMLInputStream input;
+            if (tailStart > 0)
+                input = new XMLInputStream(logFile, index.getPrologEnd(),
+                                           index.getStart(tailStart));
+            else
+                input = new XMLInputStream(logFile);
             input.addEOFListener(handler);
             logInput = input;
+        } else if (index != null) {
+            logInput = index.openRecords(
+                    index.select(tailStart, null, TAIL_SIZE));
         } else {
             logInput = new FileInputStream(logFile);
         }
@@ -556,7 +575,7 @@ public class CLIServlet extends HttpServlet {
             this.writer = writer;
             this.options = options;
             if (options[TAIL])
-                recordBuffer = new CircularBuffer<LogRecord>(10);
+                recordBuffer = new CircularBuffer<LogRecord>(TAIL_SIZE);
         }
 
         LogOutputHandler(ServletResponse response, boolean[] options)
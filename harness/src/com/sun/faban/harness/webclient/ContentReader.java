@@ -22,16 +22,23 @@
 package com.sun.faban.harness.webclient;
 
 import com.sun.faban.harness.common.Config;
+import com.sun.faban.harness.util.ContentManifest;
 
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.ServletException;
 import javax.servlet.ServletOutputStream;
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 /**
  * The content reader reads requests for output files from the actual file
@@ -41,6 +48,10 @@ import java.util.ArrayList;
  * @author Akara Sucharitakul
  */
 public class ContentReader extends HttpServlet {
+
+    private static Logger logger =
+            Logger.getLogger(ContentReader.class.getName());
+
     ObjectPool bufferPool = new ObjectPool();
 
     @Override public void doGet(HttpServletRequest request,
@@ -82,9 +93,11 @@ public class ContentReader extends HttpServlet {
             resource = Config.ANALYSIS_DIR + resource;
         } else if ("/bench_downloads".equals(path)) {
             resource = Config.BENCHMARK_DIR + resource;
+            checkManifest(resource);
         } else if ("/service_downloads".equals(path)) {
             resource = Config.SERVICE_DIR + resource;
-        }else if ("/benchmarks".equals(path)) {
+            checkManifest(resource);
+        } else if ("/benchmarks".equals(path)) {
             // This is the form /benchmarks/<bench_name>/resource
             // It maps to public_html under the benchmark.
             int idx1 = resource.indexOf('/');
@@ -164,6 +177,96 @@ public class ContentReader extends HttpServlet {
         out.close();
     }
 
+    /**
+     * Makes sure a requested content manifest is up to date with the
+     * deployed files before it is sent.
+     * @param resource The requested resource
+     */
+    private void checkManifest(String resource) {
+        String suffix = '/' + ContentManifest.PATH;
+        if (resource.endsWith(suffix))
+            try {
+                ContentManifest.getInstance(new File(resource.substring(0,
+                                    resource.length() - suffix.length())));
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Cannot update " + resource, e);
+            }
+    }
+
+    /**
+     * Sends a set of files of a deployed benchmark or service as one zip
+     * stream. The request URI names the deployed directory, i.e.
+     * /bench_downloads/&lt;bench_name&gt;/ and the request body lists the
+     * paths of the files relative to that directory, one per line. This is
+     * used by the agents to download all changed files in one request.
+     * @param request The servlet request
+     * @param response The servlet response
+     * @throws ServletException If the servlet fails
+     * @throws IOException If the files cannot be read or sent
+     */
+    @Override public void doPost(HttpServletRequest request,
+                                 HttpServletResponse response)
+            throws ServletException, IOException {
+        String path = request.getRequestURI().substring(
+                                        request.getContextPath().length());
+        File dir;
+        if (path.startsWith("/bench_downloads/")) {
+            dir = new File(Config.BENCHMARK_DIR, path.substring(17));
+        } else if (path.startsWith("/service_downloads/")) {
+            dir = new File(Config.SERVICE_DIR, path.substring(19));
+        } else {
+            response.sendError(HttpServletResponse.SC_NOT_IMPLEMENTED,
+                    "Routing of path " + path + " not implemented.");
+            return;
+        }
+        if (path.indexOf("..") != -1 || !dir.isDirectory()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND,
+                    "Resource " + path + " not found.");
+            return;
+        }
+
+        // Check all files before we start streaming.
+        ArrayList<String> names = new ArrayList<String>();
+        BufferedReader reader = request.getReader();
+        String name;
+        while ((name = reader.readLine()) != null) {
+            if (name.length() == 0)
+                continue;
+            if (name.startsWith("/") || name.indexOf("..") != -1 ||
+                    !new File(dir, name).isFile()) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND,
+                        "Resource " + path + name + " not found.");
+                return;
+            }
+            names.add(name);
+        }
+
+        byte[] buffer = (byte[]) bufferPool.get();
+        if (buffer == null)
+            buffer = new byte[8192];
+
+        response.setContentType("application/zip");
+        ZipOutputStream out = new ZipOutputStream(response.getOutputStream());
+        // Most of the volume is jar files, already compressed.
+        out.setLevel(Deflater.BEST_SPEED);
+        for (String n : names) {
+            out.putNextEntry(new ZipEntry(n));
+            FileInputStream fIn = new FileInputStream(new File(dir, n));
+            try {
+                int length;
+                while ((length = fIn.read(buffer)) != -1)
+                    out.write(buffer, 0, length);
+            } finally {
+                fIn.close();
+            }
+            out.closeEntry();
+        }
+        bufferPool.put(buffer);
+        out.finish();
+        out.flush();
+        out.close();
+    }
+
     static class ObjectPool {
 
         ArrayList backingList = new ArrayList();
@@ -0,0 +1,657 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness.webclient;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The LogIndex keeps the byte offsets, level, time, and logger of each
+ * record in a run log so the log views can seek right to the records they
+ * show instead of parsing the whole log. The index is built the first time
+ * a log is viewed and saved into a sidecar file next to the log. Records
+ * logged since are scanned and appended to the index on each access. Only
+ * the tail of a log still being written is ever scanned again.<p>
+ *
+ * The scanner assumes an ASCII compatible encoding, as used by the
+ * harness for all run logs.
+ */
+class LogIndex {
+
+    /** The suffix of the sidecar file. */
+    static final String SUFFIX = ".idx";
+
+    /** The max number of indexes kept in memory. */
+    private static final int CACHE_SIZE = 8;
+
+    private static final int MAGIC = 0x464c4958; // "FLIX"
+    private static final int VERSION = 1;
+
+    private static final byte[] TRAILER = "</log>\n".getBytes();
+
+    private static Logger logger = Logger.getLogger(LogIndex.class.getName());
+
+    private static final Map<String, LogIndex> cache =
+            new LinkedHashMap<String, LogIndex>(16, 0.75f, true) {
+                protected boolean removeEldestEntry(
+                        Map.Entry<String, LogIndex> eldest) {
+                    if (size() <= CACHE_SIZE)
+                        return false;
+                    eldest.getValue().close();
+                    return true;
+                }
+            };
+
+    private File logFile;
+    private File indexFile;
+    private DataOutputStream indexOut;
+    private Charset charset = Charset.forName("UTF-8");
+    private boolean complete = false;
+    private boolean closed = false;
+    private HashMap<String, String> loggerNames =
+            new HashMap<String, String>();
+
+    // The index entries, one per record.
+    private int size = 0;
+    private long[] starts = new long[1024];
+    private long[] ends = new long[1024];
+    private long[] millis = new long[1024];
+    private int[] levels = new int[1024];
+    private boolean[] exceptions = new boolean[1024];
+    private String[] loggers = new String[1024];
+
+    /**
+     * Obtains the index of a log file, bringing it up to date with
+     * the records logged so far.
+     * @param logFile The log file
+     * @return The up to date index
+     * @throws IOException If the log cannot be read
+     */
+    static LogIndex getInstance(File logFile) throws IOException {
+        LogIndex index;
+        String key = logFile.getAbsolutePath();
+        synchronized (cache) {
+            index = cache.get(key);
+            if (index == null) {
+                index = new LogIndex(logFile);
+                cache.put(key, index);
+            }
+        }
+        index.update();
+        return index;
+    }
+
+    private LogIndex(File logFile) {
+        this.logFile = logFile;
+        indexFile = new File(logFile.getPath() + SUFFIX);
+    }
+
+    /**
+     * Indexes the records logged since the last update. Loads the
+     * sidecar file first if this index is new.
+     * @throws IOException If the log cannot be read
+     */
+    synchronized void update() throws IOException {
+        long length = logFile.length();
+        if (size > 0 && (length < ends[size - 1] || !isRecord(0))) {
+            // The log got replaced. Start over.
+            logger.fine("Rebuilding index of replaced log " + logFile);
+            reset();
+        }
+        if (indexOut == null) {
+            load();
+            length = logFile.length();
+        }
+        long resume = size == 0 ? 0l : ends[size - 1];
+        if (length > resume || size == 0)
+            scan(resume);
+    }
+
+    /**
+     * Obtains the number of records indexed.
+     * @return The number of records
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Checks whether the log is properly closed, meaning no more records
+     * will be logged.
+     * @return True if the log is complete, false otherwise
+     */
+    synchronized boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Obtains the offset of the first record, where the log prolog ends.
+     * @return The prolog length, in bytes
+     */
+    synchronized long getPrologEnd() {
+        if (size == 0)
+            return 0l;
+        return starts[0];
+    }
+
+    /**
+     * Obtains the byte offset of a record.
+     * @param id The record id
+     * @return The offset of the record in the log
+     */
+    synchronized long getStart(int id) {
+        return starts[id];
+    }
+
+    /**
+     * Obtains the level of a record.
+     * @param id The record id
+     * @return The level value
+     */
+    synchronized int getLevel(int id) {
+        return levels[id];
+    }
+
+    /**
+     * Obtains the time of a record.
+     * @param id The record id
+     * @return The time the record was logged, in ms
+     */
+    synchronized long getMillis(int id) {
+        return millis[id];
+    }
+
+    /**
+     * Obtains the logger name of a record.
+     * @param id The record id
+     * @return The logger name, or null if the record has none
+     */
+    synchronized String getLogger(int id) {
+        return loggers[id];
+    }
+
+    /**
+     * Checks whether a record carries an exception.
+     * @param id The record id
+     * @return True if the record has an exception, false otherwise
+     */
+    synchronized boolean hasException(int id) {
+        return exceptions[id];
+    }
+
+    /**
+     * Selects the records from a given record on, at or above a level.
+     * @param start The first record id to consider
+     * @param level The minimum level, or null for all levels
+     * @param count The max number of records to select
+     * @return The ids of the selected records
+     */
+    synchronized int[] select(int start, Level level, int count) {
+        int min = level == null ? Integer.MIN_VALUE : level.intValue();
+        int[] ids = new int[Math.min(count, Math.max(size - start, 0))];
+        int n = 0;
+        for (int i = Math.max(start, 0); i < size && n < ids.length; i++)
+            if (levels[i] >= min)
+                ids[n++] = i;
+        return trim(ids, n);
+    }
+
+    /**
+     * Selects the last records before a given record, at or above a level.
+     * @param end The record id to select up to, exclusive
+     * @param level The minimum level, or null for all levels
+     * @param count The max number of records to select
+     * @return The ids of the selected records, in log order
+     */
+    synchronized int[] selectBefore(int end, Level level, int count) {
+        int min = level == null ? Integer.MIN_VALUE : level.intValue();
+        end = Math.min(end, size);
+        int[] ids = new int[Math.min(count, Math.max(end, 0))];
+        int n = ids.length;
+        for (int i = end - 1; i >= 0 && n > 0; i--)
+            if (levels[i] >= min)
+                ids[--n] = i;
+        if (n == 0)
+            return ids;
+        int[] selected = new int[ids.length - n];
+        System.arraycopy(ids, n, selected, 0, selected.length);
+        return selected;
+    }
+
+    private static int[] trim(int[] ids, int n) {
+        if (n == ids.length)
+            return ids;
+        int[] selected = new int[n];
+        System.arraycopy(ids, 0, selected, 0, n);
+        return selected;
+    }
+
+    /**
+     * Opens a stream reading only the selected records from the log,
+     * enclosed in the log prolog and closing tag. The stream is a
+     * well-formed log document.
+     * @param ids The record ids, in log order
+     * @return The stream
+     * @throws IOException If the log cannot be opened
+     */
+    synchronized InputStream openRecords(int[] ids) throws IOException {
+        // Contiguous records are read as one range.
+        long[] ranges = new long[ids.length * 2 + 2];
+        int n = 0;
+        ranges[n++] = 0l;
+        ranges[n++] = getPrologEnd();
+        for (int id : ids) {
+            if (ranges[n - 1] == starts[id]) {
+                ranges[n - 1] = ends[id];
+            } else {
+                ranges[n++] = starts[id];
+                ranges[n++] = ends[id];
+            }
+        }
+        return new RecordStream(logFile, ranges, n);
+    }
+
+    /**
+     * Closes the sidecar file when the index gets dropped from the cache.
+     * Readers still holding the index can use it, but it no longer saves
+     * to the sidecar file, as a new index may append to it by now.
+     */
+    private synchronized void close() {
+        closed = true;
+        if (indexOut != null)
+            try {
+                indexOut.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Error closing " + indexFile, e);
+            }
+        indexOut = new DataOutputStream(new NullOutputStream());
+    }
+
+    private boolean isRecord(int id) throws IOException {
+        byte[] tag = new byte[8];
+        RandomAccessFile f = new RandomAccessFile(logFile, "r");
+        try {
+            f.seek(starts[id]);
+            f.readFully(tag);
+        } catch (EOFException e) {
+            return false;
+        } finally {
+            f.close();
+        }
+        return "<record>".equals(new String(tag, "ISO-8859-1"));
+    }
+
+    private void reset() {
+        if (indexOut != null)
+            try {
+                indexOut.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Error closing " + indexFile, e);
+            }
+        if (closed) { // Keep off the sidecar file, see close().
+            indexOut = new DataOutputStream(new NullOutputStream());
+        } else {
+            indexOut = null;
+            indexFile.delete();
+        }
+        size = 0;
+        complete = false;
+        loggerNames.clear();
+    }
+
+    /**
+     * Loads the sidecar file and opens it for appending. A truncated
+     * entry at the end, if any, is cut off. If the sidecar does not match
+     * the log, it is discarded.
+     */
+    private void load() {
+        long good = 0l;
+        if (indexFile.length() > 0l)
+            try {
+                DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(
+                        new FileInputStream(indexFile)));
+                try {
+                    if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                        throw new IOException("Bad index header");
+                    good = 8l;
+                    for (;;) {
+                        long start = in.readLong();
+                        long end = in.readLong();
+                        long ms = in.readLong();
+                        int level = in.readInt();
+                        boolean ex = in.readBoolean();
+                        String lg = in.readUTF();
+                        add(start, end, ms, level, ex, lg.length() == 0 ?
+                                null : lg);
+                        good += 29 + 2 + lg.getBytes("UTF-8").length;
+                    }
+                } catch (EOFException e) {
+                    // Done. Any incomplete entry is cut off.
+                } finally {
+                    in.close();
+                }
+                if (size > 0 && (ends[size - 1] > logFile.length() ||
+                        !isRecord(0) || !isRecord(size - 1)))
+                    throw new IOException("Index does not match log");
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Discarding index " + indexFile, e);
+                size = 0;
+                good = 0l;
+                loggerNames.clear();
+            }
+
+        if (size > 0)
+            charset = readCharset(starts[0]);
+        try {
+            if (good == 0l) {
+                indexOut = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(indexFile)));
+                indexOut.writeInt(MAGIC);
+                indexOut.writeInt(VERSION);
+            } else {
+                RandomAccessFile f = new RandomAccessFile(indexFile, "rw");
+                try {
+                    f.setLength(good);
+                } finally {
+                    f.close();
+                }
+                indexOut = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(indexFile, true)));
+            }
+        } catch (IOException e) {
+            // The index still works, it just cannot be saved.
+            logger.log(Level.FINE, "Cannot write index " + indexFile, e);
+            indexOut = new DataOutputStream(new NullOutputStream());
+        }
+    }
+
+    /**
+     * Scans the log from the given offset, indexing all complete records.
+     * @param offset The offset to scan from, at a record boundary
+     * @throws IOException If the log cannot be read
+     */
+    private void scan(long offset) throws IOException {
+        InputStream in = new BufferedInputStream(
+                new FileInputStream(logFile), 65536);
+        try {
+            long skipped = 0;
+            while (skipped < offset) {
+                long s = in.skip(offset - skipped);
+                if (s <= 0)
+                    return;
+                skipped += s;
+            }
+            Scanner s = new Scanner(in, offset);
+            s.run();
+        } finally {
+            in.close();
+        }
+        indexOut.flush();
+    }
+
+    private void add(long start, long end, long ms, int level,
+                     boolean exception, String loggerName) {
+        if (size == starts.length) {
+            int capacity = size * 2;
+            starts = grow(starts, capacity);
+            ends = grow(ends, capacity);
+            millis = grow(millis, capacity);
+            int[] l = new int[capacity];
+            System.arraycopy(levels, 0, l, 0, size);
+            levels = l;
+            boolean[] e = new boolean[capacity];
+            System.arraycopy(exceptions, 0, e, 0, size);
+            exceptions = e;
+            String[] lg = new String[capacity];
+            System.arraycopy(loggers, 0, lg, 0, size);
+            loggers = lg;
+        }
+        if (loggerName != null) {
+            String name = loggerNames.get(loggerName);
+            if (name == null)
+                loggerNames.put(loggerName, loggerName);
+            else
+                loggerName = name;
+        }
+        starts[size] = start;
+        ends[size] = end;
+        millis[size] = ms;
+        levels[size] = level;
+        exceptions[size] = exception;
+        loggers[size] = loggerName;
+        ++size;
+    }
+
+    private static long[] grow(long[] a, int capacity) {
+        long[] n = new long[capacity];
+        System.arraycopy(a, 0, n, 0, a.length);
+        return n;
+    }
+
+    /**
+     * Reads the encoding from the xml declaration of the log.
+     * @param prologEnd The offset of the first record
+     * @return The log charset
+     */
+    private Charset readCharset(long prologEnd) {
+        try {
+            byte[] prolog = new byte[(int) Math.min(prologEnd, 256l)];
+            RandomAccessFile f = new RandomAccessFile(logFile, "r");
+            try {
+                f.readFully(prolog);
+            } finally {
+                f.close();
+            }
+            String decl = new String(prolog, "ISO-8859-1");
+            int idx = decl.indexOf("encoding=\"");
+            if (idx >= 0) {
+                idx += 10;
+                return Charset.forName(
+                        decl.substring(idx, decl.indexOf('"', idx)));
+            }
+        } catch (Exception e) {
+            logger.log(Level.FINE, "Cannot read encoding of " + logFile, e);
+        }
+        return Charset.forName("UTF-8");
+    }
+
+    private static int parseLevel(String name) {
+        try {
+            return Level.parse(name).intValue();
+        } catch (IllegalArgumentException e) {
+            // Never filter out records of unknown levels.
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * The scanner picks the indexed fields from the records. Records in
+     * the log are flat enough to be found by their tags alone. Markup
+     * inside the text is always escaped.
+     */
+    private class Scanner {
+
+        private InputStream in;
+        private long position;
+        private ByteArrayOutputStream text = new ByteArrayOutputStream(256);
+        private StringBuilder tag = new StringBuilder(16);
+
+        private long start = -1l;
+        private String capture;
+        private long ms;
+        private int level;
+        private boolean exception;
+        private String loggerName;
+
+        Scanner(InputStream in, long position) {
+            this.in = in;
+            this.position = position;
+        }
+
+        void run() throws IOException {
+            int b;
+            while ((b = in.read()) != -1) {
+                ++position;
+                if (b != '<') {
+                    if (capture != null)
+                        text.write(b);
+                    continue;
+                }
+                long tagStart = position - 1;
+                tag.setLength(0);
+                boolean named = true;
+                while ((b = in.read()) != -1) {
+                    ++position;
+                    if (b == '>')
+                        break;
+                    if (b == ' ' || b == '\t' || b == '\r' || b == '\n')
+                        named = false;
+                    else if (named)
+                        tag.append((char) b);
+                }
+                if (b == -1)
+                    break;
+                element(tag.toString(), tagStart);
+            }
+        }
+
+        private void element(String name, long tagStart) throws IOException {
+            if ("record".equals(name)) {
+                start = tagStart;
+                ms = 0l;
+                level = Integer.MAX_VALUE;
+                exception = false;
+                loggerName = null;
+                if (size == 0)
+                    charset = readCharset(tagStart);
+            } else if ("/record".equals(name)) {
+                if (start < 0)
+                    return;
+                add(start, position, ms, level, exception, loggerName);
+                indexOut.writeLong(start);
+                indexOut.writeLong(position);
+                indexOut.writeLong(ms);
+                indexOut.writeInt(level);
+                indexOut.writeBoolean(exception);
+                indexOut.writeUTF(loggerName == null ? "" : loggerName);
+                start = -1l;
+            } else if (start < 0) {
+                if ("/log".equals(name))
+                    complete = true;
+            } else if ("millis".equals(name) || "level".equals(name) ||
+                    "logger".equals(name)) {
+                capture = name;
+                text.reset();
+            } else if (capture != null && name.equals('/' + capture)) {
+                String value = text.toString(charset.name()).trim();
+                if ("millis".equals(capture))
+                    try {
+                        ms = Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        ms = 0l;
+                    }
+                else if ("level".equals(capture))
+                    level = parseLevel(value);
+                else
+                    loggerName = value;
+                capture = null;
+            } else if ("exception".equals(name)) {
+                exception = true;
+            }
+        }
+    }
+
+    /**
+     * Reads the byte ranges of the log, followed by the closing tag.
+     */
+    private static class RecordStream extends InputStream {
+
+        private RandomAccessFile file;
+        private long[] ranges;
+        private int count;
+        private int range = 0;
+        private long position;
+        private int trailer = 0;
+
+        RecordStream(File logFile, long[] ranges, int count)
+                throws IOException {
+            file = new RandomAccessFile(logFile, "r");
+            this.ranges = ranges;
+            this.count = count;
+            position = ranges[0];
+        }
+
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return n == -1 ? -1 : b[0] & 0xff;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            while (range < count && position >= ranges[range + 1]) {
+                range += 2;
+                if (range < count)
+                    position = ranges[range];
+            }
+            if (range >= count) {
+                if (trailer >= TRAILER.length)
+                    return -1;
+                int n = Math.min(len, TRAILER.length - trailer);
+                System.arraycopy(TRAILER, trailer, b, off, n);
+                trailer += n;
+                return n;
+            }
+            int n = (int) Math.min(len, ranges[range + 1] - position);
+            file.seek(position);
+            n = file.read(b, off, n);
+            if (n == -1)
+                throw new EOFException("Log truncated at " + position);
+            position += n;
+            return n;
+        }
+
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+
+    /**
+     * Discards the index entries if the sidecar cannot be written.
+     */
+    private static class NullOutputStream extends OutputStream {
+        public void write(int b) {
+        }
+
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
@@ -25,6 +25,7 @@ abstract class LogParseHandler extends DefaultHandler {
     long recordCount = 0;
     long begin = 0;
     long end = Long.MAX_VALUE;
+    int[] recordIds; // The ids of the parsed records, if not all records.
 
     ArrayList stack = new ArrayList();
     StringBuffer buffer = new StringBuffer();
@@ -105,7 +106,10 @@ abstract class LogParseHandler extends DefaultHandler {
         if (!stack.remove(depth - 1).equals(qName))
             throw new SAXException("endElement mismatch: " + qName);
         if ("record".equals(qName)) {
-            logRecord.id = recordCount;
+            if (recordIds == null)
+                logRecord.id = recordCount;
+            else
+                logRecord.id = recordIds[(int) recordCount];
             if (recordCount >= begin)
                 try {
                     processRecord();
@@ -37,14 +37,15 @@ import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.logging.Level;
 
 /**
  * A servlet to read the sometimes incomplete log file, complete it, and
- * translate it into readable html format. This servlet does not currntly
- * contain any log filtering options but these can be added in the future.
+ * translate it into readable html format. The records are read through
+ * the log index so only the records displayed get parsed. The log can
+ * be filtered by the minimum level using the level parameter.
  *
  * @author Akara Sucharitakul
  */
@@ -75,12 +76,10 @@ public class LogReader extends HttpServlet {
             return;
         }
 
-        String logFilePath = Config.OUT_DIR + runId +
-                File.separator + Config.LOG_FILE;
-        InputStream is = new FileInputStream(logFilePath);
-        if (is == null) {
+        File logFile = new File(Config.OUT_DIR + runId, Config.LOG_FILE);
+        if (!logFile.isFile()) {
             response.sendError(HttpServletResponse.SC_NOT_FOUND,
-                    "Logfile " + logFilePath + " not found");
+                    "Logfile " + logFile + " not found");
             return;
         }
 
@@ -98,8 +97,28 @@ public class LogReader extends HttpServlet {
             showException = true;
         }
 
+        // Check the level to filter
+        Level level = null;
+        String levelString = request.getParameter("level");
+        if (levelString != null && levelString.length() > 0)
+            try {
+                level = Level.parse(levelString);
+            } catch (IllegalArgumentException e) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                        "Invalid level " + levelString);
+                return;
+            }
+
+        LogIndex index = LogIndex.getInstance(logFile);
+        if (showException && (start < 0 || start >= index.size())) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND,
+                    "Log record " + start + " not found");
+            return;
+        }
+
         ServletOutputStream out = response.getOutputStream();
         LogParseHandler handler = null;
+        InputStream is = null;
 
         try {
             SAXParserFactory sFact = SAXParserFactory.newInstance();
@@ -112,11 +131,12 @@ public class LogReader extends HttpServlet {
                     "load-external-dtd", false);
             SAXParser parser = sFact.newSAXParser();
             if (!showException)
-                handler = new TableHandler(start, request, out, runId);
+                handler = new TableHandler(index, start, level, request, out,
+                                           runId);
             else
                 handler = new RecordHandler(start, request, out, runId);
+            is = index.openRecords(handler.recordIds);
             parser.parse(is, handler);
-            handler.xmlComplete = true; // If we get here, the XML is good.
         } catch (ParserConfigurationException e) {
             throw new ServletException(e);
         } catch (SAXParseException e) {
@@ -124,11 +144,14 @@ public class LogReader extends HttpServlet {
             // If it is caused by an IOException, we'll just throw it.
             if (t != null && t instanceof IOException)
                 throw (IOException) t;
-            // Otherwise if the XML enclosure is missing, we'll just ignore.
-            handler.xmlComplete = false;
+            // Otherwise the record range ended, we'll just ignore.
         } catch (SAXException e) {
             throw new ServletException(e);
+        } finally {
+            if (is != null)
+                is.close();
         }
+        handler.xmlComplete = index.isComplete();
 
         response.setContentType("text/html");
         handler.printHtml();
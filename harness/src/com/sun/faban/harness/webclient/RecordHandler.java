@@ -42,7 +42,8 @@ class RecordHandler extends LogParseHandler {
     ArrayList<StackFrame> stackFrames = new ArrayList<StackFrame>();
 
     /**
-     * Handles the records.
+     * Handles the records. The log stream parsed only contains the
+     * requested record, as read from the log index.
      * @param recordId The record id
      * @param request The request object
      * @param out The output stream
@@ -51,8 +52,9 @@ class RecordHandler extends LogParseHandler {
     public RecordHandler(long recordId, HttpServletRequest request, 
                                 ServletOutputStream out, String runId) {
         super(request, out, runId);
-        begin = recordId;
-        end = recordId + 1;
+        recordIds = new int[] { (int) recordId };
+        begin = 0;
+        end = 1;
     }
 
     /**
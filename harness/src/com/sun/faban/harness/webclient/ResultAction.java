@@ -503,7 +503,7 @@ public class ResultAction {
     }
 
     /**
-     * Edit run.xml file.
+     * Edit run.xml file and save the edited result to the result index.
      * @param result The run result object to edit
      */
     public static void editXML(RunResult result){
@@ -522,6 +522,7 @@ public class ResultAction {
             Logger.getLogger(ResultAction.class.getName()).
                     log(Level.SEVERE, null, ex);
         }
+        ResultIndex.getInstance().update(result);
     }
 
     /**
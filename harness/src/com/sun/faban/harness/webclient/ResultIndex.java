@@ -0,0 +1,230 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness.webclient;
+
+import com.sun.faban.harness.common.Config;
+import com.sun.faban.harness.common.RunId;
+import com.sun.faban.harness.security.AccessController;
+
+import javax.security.auth.Subject;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The result index keeps the results of all runs in the output directory,
+ * so the result lists do not need to read each run. The index is saved to
+ * $FABAN/config/resultindex.ser and kept up to date incrementally. Runs
+ * get added or removed when the output directory changes. Runs that did
+ * not end yet get refreshed on each access. Edited runs get saved by
+ * the editor. Removing the file rebuilds the index from all runs.
+ */
+public class ResultIndex implements Serializable {
+
+    private static final long serialVersionUID = 20090601L;
+
+    private static Logger logger =
+            Logger.getLogger(ResultIndex.class.getName());
+    private static ResultIndex instance = null;
+
+    private ConcurrentHashMap<String, RunResult> results =
+            new ConcurrentHashMap<String, RunResult>(1024);
+    private long outDirModTime = 0l;
+    private transient boolean dirty = false;
+
+    /**
+     * Private constructor. Nobody should ever construct ResultIndex.
+     */
+    private ResultIndex() {
+    }
+
+    /**
+     * Obtains the singleton instance of the result index. The index is read
+     * from the serialized file if available. Otherwise all runs are read.
+     * @return The singleton instance of the result index
+     */
+    public static synchronized ResultIndex getInstance() {
+        if (instance == null) {
+            File serFile = new File(Config.CONFIG_DIR + "/resultindex.ser");
+            if (serFile.exists()) {
+                try {
+                    ObjectInputStream in = new ObjectInputStream(
+                                                new FileInputStream(serFile));
+                    try {
+                        instance = (ResultIndex) in.readObject();
+                    } finally {
+                        in.close();
+                    }
+                } catch (Exception e) {
+                    logger.log(Level.WARNING, "Cannot read " + serFile +
+                            ", rebuilding result index.", e);
+                }
+            }
+            if (instance == null)
+                instance = new ResultIndex();
+        }
+        instance.sync();
+        return instance;
+    }
+
+    /**
+     * Brings the index up to date with the output directory. The runs are
+     * listed only if the output directory changed. The runs still in
+     * progress are refreshed.
+     */
+    private synchronized void sync() {
+        File outDir = new File(Config.OUT_DIR);
+        long modTime = outDir.lastModified();
+        if (modTime != outDirModTime) {
+            String[] names = outDir.list();
+            if (names == null)
+                names = new String[0];
+            HashSet<String> runIds = new HashSet<String>(names.length);
+            for (String name : names) {
+                runIds.add(name);
+                if (!results.containsKey(name) &&
+                        new File(outDir, name).isDirectory())
+                    try {
+                        get(new RunId(name));
+                    } catch (RuntimeException e) {
+                        logger.log(Level.WARNING,
+                                "Cannot read result dir " + name, e);
+                    }
+            }
+            if (results.keySet().retainAll(runIds))
+                dirty = true;
+            outDirModTime = modTime;
+        }
+        for (RunResult result : results.values())
+            if (!result.isEnded() && result.refresh())
+                dirty = true;
+        if (dirty)
+            save();
+    }
+
+    /**
+     * Obtains the result of a run, reading it if not yet indexed or if
+     * changed on disk.
+     * @param runId The run id
+     * @return The result
+     */
+    RunResult get(RunId runId) {
+        RunResult result = RunResult.newInstance(runId);
+        RunResult oldResult = results.putIfAbsent(runId.toString(), result);
+        if (oldResult != null)
+            result = oldResult;
+        if (result.refresh())
+            dirty = true;
+        return result;
+    }
+
+    /**
+     * Obtains the indexed result of a run without checking the run.
+     * @param runId The run id
+     * @return The result, or null if the run is not indexed
+     */
+    RunResult peek(String runId) {
+        return results.get(runId);
+    }
+
+    /**
+     * Lists the indexed results the user is allowed to view.
+     * @param user The authenticated subject, if any
+     * @param runIds The run ids to list, or null for all runs
+     * @return The list of results
+     */
+    List<RunResult> list(Subject user, Collection<String> runIds) {
+        Collection<RunResult> candidates;
+        if (runIds == null) {
+            candidates = results.values();
+        } else {
+            candidates = new ArrayList<RunResult>(runIds.size());
+            for (String runId : runIds) {
+                RunResult result = results.get(runId);
+                if (result != null)
+                    candidates.add(result);
+            }
+        }
+        ArrayList<RunResult> list =
+                new ArrayList<RunResult>(candidates.size());
+        for (RunResult result : candidates)
+            if (AccessController.isViewAllowed(user, result.runId.toString()))
+                list.add(result);
+        return list;
+    }
+
+    /**
+     * Records changes to a result made by the harness, such as editing
+     * the description or tags, and saves the index.
+     * @param result The changed result
+     */
+    public synchronized void update(RunResult result) {
+        results.put(result.runId.toString(), result);
+        save();
+    }
+
+    /**
+     * Serializes the result index to file. It is located at
+     * $FABAN/config/resultindex.ser.
+     */
+    public synchronized void save() {
+        File filename = new File(Config.CONFIG_DIR + "/resultindex.ser");
+        File tmpFile = new File(Config.CONFIG_DIR + "/resultindex.ser.tmp");
+        ObjectOutputStream out = null;
+        try {
+            out = new ObjectOutputStream(new FileOutputStream(tmpFile));
+            out.writeObject(this);
+            out.close();
+            out = null;
+            // Never leave a partial index behind.
+            if (!tmpFile.renameTo(filename)) {
+                filename.delete();
+                if (!tmpFile.renameTo(filename))
+                    throw new IOException("Cannot rename " + tmpFile);
+            }
+            dirty = false;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error saving result index.", e);
+        } finally {
+            if (out != null)
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Error closing result index " +
+                            "file " + tmpFile, e);
+                }
+        }
+    }
+}
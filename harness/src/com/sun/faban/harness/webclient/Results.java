@@ -224,11 +224,36 @@ public class Results {
                 tagSearch = true;
             }
         }
+        // Optional paging, offset and limit are row numbers.
+        int offset = 0;
+        int limit = Integer.MAX_VALUE;
+        String limitParam = req.getParameter("limit");
+        if (limitParam != null && !"".equals(limitParam)) {
+            // Malformed or non-positive limits just show all rows.
+            try {
+                limit = Integer.parseInt(limitParam.trim());
+                String offsetParam = req.getParameter("offset");
+                if (offsetParam != null && !"".equals(offsetParam))
+                    offset = Math.max(Integer.parseInt(offsetParam.trim()),
+                                      0);
+            } catch (NumberFormatException e) {
+                limit = 0;
+            }
+            if (limit > 0) {
+                req.setAttribute("offset", offset);
+                req.setAttribute("limit", limit);
+            } else {
+                offset = 0;
+                limit = Integer.MAX_VALUE;
+            }
+        }
+        if (col < 0 || col >= 8) {
+            col = 5;
+            sortDirection = "DESCENDING";
+        }
         if (tagSearch) {
-            if (col >= 0 && col < 8)
-                resultTable = RunResult.getResultTable(usrEnv.getSubject(), tag, col, sortDirection.trim());
-            else     
-                resultTable = RunResult.getResultTable(usrEnv.getSubject(), tag, 5, "DESCENDING");
+            resultTable = RunResult.getResultTable(usrEnv.getSubject(), tag,
+                                col, sortDirection.trim(), offset, limit);
             StringTokenizer t = new StringTokenizer(tag, " ,;:");
             StringBuilder b = new StringBuilder(tag.length());
             b.append(feedURL);
@@ -240,10 +265,9 @@ public class Results {
             }
             feedURL = b.toString();
             req.setAttribute("tagInSearch", tag);
-        } else if (col >= 0 && col < 8) {
-            resultTable = RunResult.getResultTable(usrEnv.getSubject(), col, sortDirection.trim());
         } else {
-            resultTable = RunResult.getResultTable(usrEnv.getSubject(), 5, "DESCENDING");
+            resultTable = RunResult.getResultTable(usrEnv.getSubject(), null,
+                                col, sortDirection.trim(), offset, limit);
         }
 
         req.setAttribute("feedURL", feedURL );
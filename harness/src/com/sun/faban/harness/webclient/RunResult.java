@@ -42,7 +42,6 @@ import java.io.Serializable;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.w3c.dom.Element;
@@ -50,10 +49,12 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 /**
- * Result class scans through the output directory and compiles a list of run
- * results. Enhance this to enable the user to sort it using different options.
+ * Result class compiles a list of run results from the result index and
+ * allows sorting it using different options.
  */
-public class RunResult {
+public class RunResult implements Serializable {
+
+    private static final long serialVersionUID = 20090601L;
 
     /**
      * Status and result values when they are not available. The
@@ -65,12 +66,6 @@ public class RunResult {
     private static final int FEED_LIMIT = 25;
 
     private static Logger logger = Logger.getLogger(RunResult.class.getName());
-    private static ConcurrentHashMap<String, RunResult> resultCache =
-            new ConcurrentHashMap<String, RunResult>(1024);
-
-    // The format in the result file
-    private SimpleDateFormat parseFormat = new SimpleDateFormat(
-                              "EEE MMM dd HH:mm:ss z yyyy");
 
     private static SimpleDateFormat dateFormatOrig = new SimpleDateFormat(
                                     "MM/dd/yy EEE'&#160;'HH:mm:ss'&#160;'z");
@@ -128,18 +123,16 @@ public class RunResult {
      * @return A result instance.
      */
     private static RunResult getInstance0(RunId runId) {
-        RunResult result = new RunResult(runId);
-        RunResult oldResult = resultCache.putIfAbsent(runId.toString(), result);
-        if (oldResult != null)
-            result = oldResult;
-        try {
-            result.refresh();
-        } catch (RuntimeException e) {
-            logger.log(Level.WARNING, runId.toString() +
-                    ": Error reading run.", e);
-            result.description = "Error reading this result";
-        }
-        return result;
+        return ResultIndex.getInstance().get(runId);
+    }
+
+    /**
+     * Creates a new, not yet read result. Only used by the result index.
+     * @param runId The run id of the run
+     * @return A result instance
+     */
+    static RunResult newInstance(RunId runId) {
+        return new RunResult(runId);
     }
 
     /**
@@ -157,17 +150,46 @@ public class RunResult {
         this.runId = runId;
     }
 
-    private synchronized void refresh() {
+    /**
+     * Re-reads the result if the run changed on disk.
+     * @return Whether the result was re-read
+     */
+    synchronized boolean refresh() {
 
         File resultDir = runId.getResultDir();
 
         long modTime = resultDir.lastModified();
         if (modTime <= this.modTime) {
             logger.finer("Run " + runId + " already cached.");
-            return;
+            return false;
         }
         logger.finer("Fetching run " + runId + " from disk.");
         this.modTime = modTime;
+        try {
+            read(resultDir);
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, runId.toString() +
+                    ": Error reading run.", e);
+            description = "Error reading this result";
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the run has ended, so its result no longer changes
+     * unless edited.
+     * @return True if the run ended, false otherwise
+     */
+    boolean isEnded() {
+        return "COMPLETED".equals(status) || "FAILED".equals(status) ||
+               "KILLED".equals(status);
+    }
+
+    private void read(File resultDir) {
+
+        // The format in the result file
+        SimpleDateFormat parseFormat = new SimpleDateFormat(
+                                  "EEE MMM dd HH:mm:ss z yyyy");
 
         String shortName = runId.getBenchName();        
 
@@ -380,36 +402,40 @@ public class RunResult {
     public static SortableTableModel getResultTable(Subject user, String tags,
             int column, String sortDirection)
             throws IOException {
-        TagEngine tagEngine;
-        try {
-            tagEngine = TagEngine.getInstance();
-        } catch (ClassNotFoundException ex) {
-            logger.log(Level.SEVERE, "Cannot find tag engine class", ex);
-            throw new IOException("Cannot find tag engine class", ex);
-        }
-        Set<String> runIds = tagEngine.search(tags);
-        ArrayList<RunResult> resultList =
-                new ArrayList<RunResult>(runIds.size());
-        for (String runid : runIds) {
+        return getResultTable(user, tags, column, sortDirection, 0,
+                              Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns one page of the SortableTableModel with tag search. The page
+     * is taken from the sorted table.
+     * @param user The authenticated subject, if any
+     * @param tags The tags to search for, or null for all runs
+     * @param column The sort column id
+     * @param sortDirection The sort direction
+     * @param offset The first row of the page
+     * @param limit The max number of rows on the page
+     * @return The SortableTableModel representing the page
+     * @throws java.io.IOException Error reading the tag engine
+     */
+    public static SortableTableModel getResultTable(Subject user, String tags,
+            int column, String sortDirection, int offset, int limit)
+            throws IOException {
+        ResultIndex index = ResultIndex.getInstance();
+        Set<String> runIds = null;
+        if (tags != null) {
+            TagEngine tagEngine;
             try {
-                RunId runId = new RunId(runid);
-                if (!AccessController.isViewAllowed(user, runid))
-                    continue;
-                RunResult res = getInstance(runId);
-                if (res == null){
-                    try{                        
-                        tagEngine.removeRun(runid);
-                        tagEngine.save();
-                    } catch (Exception e) {
-                        logger.log(Level.WARNING, "Cannot remove run " + runid, e);
-                    }
-                }
-                resultList.add(res);
-            } catch (Exception e) {
-                logger.log(Level.WARNING, "Cannot read result dir " + runid, e);
+                tagEngine = TagEngine.getInstance();
+            } catch (ClassNotFoundException ex) {
+                logger.log(Level.SEVERE, "Cannot find tag engine class", ex);
+                throw new IOException("Cannot find tag engine class", ex);
             }
+            runIds = tagEngine.search(tags);
+            removeStaleRuns(tagEngine, index, runIds);
         }
-        return generateTable(resultList, column, sortDirection);
+        return generateTable(index.list(user, runIds), column, sortDirection,
+                             offset, limit);
     }
 
     /**
@@ -421,30 +447,57 @@ public class RunResult {
      */
     public static SortableTableModel getResultTable(Subject user, int column,
                                                     String sortDirection) {
+        List<RunResult> runs = ResultIndex.getInstance().list(user, null);
+        return generateTable(runs, column, sortDirection);
+    }
 
-        File[] dirs = new File(Config.OUT_DIR).listFiles();
-        ArrayList<RunResult> runs = new ArrayList<RunResult>(dirs.length);
-        for (File runDir : dirs) {
-            if (!runDir.isDirectory()) {
-                continue;
-            }
-            String runIdS = runDir.getName();
-            try {
-                if (!AccessController.isViewAllowed(user, runIdS)) {
-                    continue;
-                }
-                RunId runId = new RunId(runIdS);
-                RunResult result = getInstance0(runId);
-                if (result == null) {
-                    continue;
+    /**
+     * Removes the runs no longer in the result index from the tag engine.
+     * @param tagEngine The tag engine
+     * @param index The result index
+     * @param runIds The run ids found by the tag engine
+     */
+    private static void removeStaleRuns(TagEngine tagEngine,
+                                        ResultIndex index, Set<String> runIds) {
+        boolean runRemoved = false;
+        for (String runId : runIds)
+            if (index.peek(runId) == null)
+                try {
+                    tagEngine.removeRun(runId);
+                    runRemoved = true;
+                } catch (Exception e) {
+                    logger.log(Level.WARNING, "Cannot remove run " + runId, e);
                 }
-                runs.add(result);
-            } catch (Exception e) {
-                logger.log(Level.WARNING, "Cannot read result dir " + runIdS, 
-                                                                            e);
-            }
+        if (runRemoved)
+            tagEngine.save();
+    }
+
+    /**
+     * Generates one page of the table.
+     * @param runs The runs to include in the table
+     * @param column The sort column
+     * @param sortDirection The sort direction
+     * @param offset The first row of the page
+     * @param limit The max number of rows on the page
+     * @return The SortableTableModel
+     */
+    static SortableTableModel generateTable(List<RunResult> runs, int column,
+            String sortDirection, int offset, int limit) {
+        SortableTableModel table = generateTable(runs, column, sortDirection);
+        if (table == null || (offset <= 0 && limit >= table.rows()))
+            return table;
+        int end = (int) Math.min((long) offset + limit, table.rows());
+        SortableTableModel page = new SortableTableModel(table.columns(),
+                                                Math.max(end - offset, 0));
+        for (int i = 0; i < table.columns(); i++)
+            page.setHeader(i, table.getHeader(i));
+        for (int i = offset; i < end; i++) {
+            Comparable[] row = table.getRow(i);
+            System.arraycopy(row, 0, page.newRow(), 0, row.length);
         }
-        return generateTable(runs, column, sortDirection);
+        // Rows are sorted already, this just keeps the sort settings.
+        page.sort(column, table.getSortDirection());
+        return page;
     }
 
     /**
@@ -710,13 +763,14 @@ public class RunResult {
             throw new IOException("Cannot find tag engine class", ex);
         }
         Set<String> runIds = tagEngine.search(tags);
+        ResultIndex index = ResultIndex.getInstance();
         Double achievedMetric = 0.0;
         String achievedMetricUnit = " ";
         for (String runid : runIds) {
             try {
-                RunId runId = new RunId(runid);
-                RunResult res = getInstance(runId);
-                if (res != null && achievedMetric < res.metric.value){
+                RunResult res = index.peek(runid);
+                if (res != null && res.metric.value != null &&
+                        achievedMetric < res.metric.value){
                     achievedMetric = res.metric.value;
                     achievedMetricUnit = res.metricUnit;
                 }
@@ -917,7 +971,9 @@ public class RunResult {
      * sorting, and the text representation of the value.
      */
     public static class ResultField<T extends Comparable>
-            implements Comparable {
+            implements Comparable, Serializable {
+
+        private static final long serialVersionUID = 20090601L;
 
         String text;
         T value;
@@ -992,27 +1048,7 @@ public class RunResult {
      * @return List<FeedRecord>.
      */
     public static List<FeedRecord> getFeeds(Subject user) {
-
-        File[] dirs = new File(Config.OUT_DIR).listFiles();
-        ArrayList<FeedRecord> feedList = new ArrayList<FeedRecord>(dirs.length);
-        RunResult result0 = null;
-        for (File runDir : dirs) {
-            if (!runDir.isDirectory())
-                continue;
-            String runIdS = runDir.getName();
-            try {
-                RunId runId = new RunId(runIdS);
-                if (!AccessController.isViewAllowed(user, runIdS))
-                    continue;
-                result0 = getInstance0(runId);
-                FeedRecord feedRecord = new FeedRecord(runId, result0);
-                feedList.add(feedRecord);
-            } catch (Exception e) {
-                logger.log(Level.WARNING, "Cannot read result dir " + runIdS,
-                                                                            e);
-            }
-        }
-        return sortAndLimit(feedList);
+        return getFeeds(ResultIndex.getInstance().list(user, null));
     }
 
     /**
@@ -1033,28 +1069,22 @@ public class RunResult {
             throw new IOException("Cannot find tag engine class", ex);
         }
         Set<String> runIds = tagEngine.search(tags);
+        ResultIndex index = ResultIndex.getInstance();
+        removeStaleRuns(tagEngine, index, runIds);
+        return getFeeds(index.list(user, runIds));
+    }
+
+    private static List<FeedRecord> getFeeds(List<RunResult> results) {
         ArrayList<FeedRecord> feedList =
-                                new ArrayList<FeedRecord>(runIds.size());
-        RunResult res = null;
-        boolean runRemoved = false;
-        for (String runid : runIds) {
+                                new ArrayList<FeedRecord>(results.size());
+        for (RunResult result : results) {
             try {
-                RunId runId = new RunId(runid);
-                if (!AccessController.isViewAllowed(user, runid))
-                    continue;
-                res = getInstance(runId);
-                if (res == null){
-                    tagEngine.removeRun(runid);
-                    runRemoved = true;
-                }
-                FeedRecord feedRecord = new FeedRecord(runId, res);
-                feedList.add(feedRecord);
+                feedList.add(new FeedRecord(result.runId, result));
             } catch (Exception e) {
-                logger.log(Level.WARNING, "Cannot read result dir " + runid, e);
+                logger.log(Level.WARNING, "Cannot read result dir " +
+                                                            result.runId, e);
             }
         }
-        if (runRemoved)
-            tagEngine.save();
         return sortAndLimit(feedList);
     }
 
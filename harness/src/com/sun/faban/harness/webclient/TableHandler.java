@@ -28,35 +28,67 @@ import com.sun.faban.harness.common.Config;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
+import java.util.logging.Level;
 
 /**
  * Handler for parsing the log and displaying a log record in a
  * table format showing the essential fields of each log record.
+ * Only the records of the displayed page are read from the log,
+ * as selected from the log index.
  *
  * @author Akara Sucharitakul
  */
 class TableHandler extends LogParseHandler {
+
+    /** The levels offered for filtering the log. */
+    private static final Level[] LEVELS = { Level.SEVERE, Level.WARNING,
+                                            Level.INFO, Level.CONFIG,
+                                            Level.FINE };
+
     boolean displayEnd = false;
     boolean headerWritten = false;
     String requestBase;
     LogBuffer logBuffer;
+    LogIndex index;
+    Level level;
+    int first;
 
-    public TableHandler(long start, HttpServletRequest request,
-                                ServletOutputStream out, String runId) {        
+    /**
+     * Constructs the handler and selects the records to display from
+     * the log index.
+     * @param index The log index
+     * @param start The first record to display, or -1 for the last page
+     * @param level The minimum level to display, or null for all levels
+     * @param request The servlet request
+     * @param out The servlet output stream
+     * @param runId The run id
+     */
+    public TableHandler(LogIndex index, long start, Level level,
+                        HttpServletRequest request, ServletOutputStream out,
+                        String runId) {
         super(request, out, runId);
+        this.index = index;
+        this.level = level;
         requestBase = request.getRequestURI() + "?runId=" + runId;
+        if (level != null)
+            requestBase += "&level=" + level.getName();
+        int capacity = Integer.MAX_VALUE;
         if (Config.LOG_VIEW_BUFFER_SIZE > 0){
             logBuffer = new LogBuffer(Config.LOG_VIEW_BUFFER_SIZE);
+            capacity = logBuffer.capacity();
         }
         if (start == -1) {
             displayEnd = true;
-        } else if (logBuffer == null){
-            begin = start;
-            end = Long.MAX_VALUE;
+            recordIds = index.selectBefore(index.size(), level, capacity);
         } else {
-            begin = start;
-            end = start + logBuffer.capacity();
+            recordIds = index.select((int) Math.min(start, index.size()),
+                                     level, capacity);
         }
+        first = recordIds.length > 0 ? recordIds[0] :
+                (int) Math.min(displayEnd ? index.size() : start,
+                               index.size());
+        begin = 0;
+        end = recordIds.length;
     }
 
     /**
@@ -77,10 +109,10 @@ class TableHandler extends LogParseHandler {
             }
         }else{
             if (!headerWritten) {
-                printHeader(null);
+                printHeader(levelBar());
                 headerWritten = true;
             }
-            printRow(begin + recordCount++, logRecord, requestBase);
+            printRow(recordCount, logRecord, requestBase);
             logRecord.clear();
         }
     }
@@ -105,48 +137,70 @@ class TableHandler extends LogParseHandler {
         
         if (logBuffer != null) {
 
-            // Recalculate the real begin based on the parser.
-            begin = recordCount - logBuffer.size();
-            if (begin < 0l) {
-                begin = 0l;
-            }
-
             // Prepare the navigation links
             StringBuilder naviBuffer = new StringBuilder(256);
-            if (begin > 0l) {
+            int[] prevIds = index.selectBefore(first, level,
+                                               logBuffer.capacity() / 2);
+            if (prevIds.length > 0) {
                 naviBuffer.append("<a href=\"").append(requestBase).
                         append("\">Top</a>\n");
-                long prevPage = begin - logBuffer.capacity() / 2l;
-                if (prevPage < 0l) {
-                    prevPage = 0l;
-                }
                 naviBuffer.append("<a href=\"").append(requestBase).
-                        append("&startId=").append(prevPage).
+                        append("&startId=").append(prevIds[0]).
                         append("\">PgUp</a>\n");
             } else {
                 naviBuffer.append("Top PgUp ");
             }
 
-            long nextPage = begin + logBuffer.size() / 2l;
+            int size = logBuffer.size();
+            long nextPage = size > 0 ? recordIds[size / 2] : first;
             naviBuffer.append("<a href=\"").append(requestBase).
                     append("&startId=").append(nextPage).
                     append("\">PgDn</a>\n");
 
             naviBuffer.append("<a href=\"").append(requestBase).
-                    append("&startId=end#end\">Bottom</a>");
+                    append("&startId=end#end\">Bottom</a>\n");
+            naviBuffer.append(levelBar());
             naviBar = naviBuffer.toString();
 
             printHeader(naviBar);
 
             // Write the records.
-            int size = logBuffer.size();
             for (int i = 0; i < size; i++) {
-                printRow(begin + i, logBuffer.get(i), requestBase);
+                printRow(i, logBuffer.get(i), requestBase);
             }
+        } else if (!headerWritten) {
+            printHeader(levelBar());
         }
         printTrailer(naviBar);
     }
-    
+
+    /**
+     * Prepares the links filtering the log by level. The links keep the
+     * current position in the log.
+     * @return The level links
+     */
+    private String levelBar() {
+        String base = request.getRequestURI() + "?runId=" + runId;
+        String position = displayEnd ? "&startId=end#end" :
+                                       "&startId=" + first;
+        StringBuilder b = new StringBuilder(256);
+        b.append("&nbsp;&nbsp;Level: ");
+        if (level == null)
+            b.append("<b>ALL</b>\n");
+        else
+            b.append("<a href=\"").append(base).append(position).
+                    append("\">ALL</a>\n");
+        for (Level l : LEVELS) {
+            if (l.equals(level))
+                b.append("<b>").append(l.getName()).append("</b>\n");
+            else
+                b.append("<a href=\"").append(base).append("&level=").
+                        append(l.getName()).append(position).append("\">").
+                        append(l.getName()).append("</a>\n");
+        }
+        return b.toString();
+    }
+
     private void printHeader(String naviBar) throws IOException {
         // Write the header.
         out.println("<!DOCTYPE HTML PUBLIC \"-//W3C//DTD HTML 4.01//EN\">");
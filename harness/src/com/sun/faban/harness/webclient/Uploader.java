@@ -162,6 +162,7 @@ public class Uploader {
                 }
                 FileHelper.writeContentToFile(formattedTags.toString(), runTagFile);
                 result.tags = tagList.toArray(new String[tagList.size()]);
+                ResultIndex.getInstance().update(result);
             }
             try {
                 uploadTags(runId);
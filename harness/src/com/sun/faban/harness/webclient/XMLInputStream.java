@@ -53,6 +53,10 @@ public class XMLInputStream extends FilterInputStream {
 
     private long savedPosition = -1;
 
+    // The range of the file to skip, if any.
+    private long gapStart = -1;
+    private long gapEnd = -1;
+
     private ArrayList<EOFListener> listeners;
 
     // SKIP_BUFFER_SIZE is used to determine the size of skipBuffer
@@ -149,6 +153,55 @@ public class XMLInputStream extends FilterInputStream {
         originator = fdObj;
     }
 
+    /**
+     * Creates a <code>XMLInputStream</code> reading a file but skipping
+     * a range of it. The range must hold complete elements, such as
+     * complete log records, so the skipped elements are balanced. This
+     * allows seeking to a later element while still reading the
+     * document start.
+     *
+     * @param file the file to be opened for reading.
+     * @param gapStart the offset of the first byte to skip.
+     * @param gapEnd the offset to continue reading from.
+     * @throws java.io.FileNotFoundException if the file does not exist,
+     *                                       is a directory rather than a regular file,
+     *                                       or for some other reason cannot be opened for
+     *                                       reading.
+     */
+    public XMLInputStream(File file, long gapStart, long gapEnd)
+            throws FileNotFoundException {
+        this(file);
+        if (gapEnd > gapStart) {
+            this.gapStart = gapStart;
+            this.gapEnd = gapEnd;
+        }
+    }
+
+    /**
+     * Skips the gap when reaching it, or limits a read to not go past it.
+     * @param len The number of bytes to read
+     * @return The number of bytes to read before the gap
+     * @throws IOException If an I/O error occurs.
+     */
+    private int checkGap(int len) throws IOException {
+        if (gapStart < 0)
+            return len;
+        if (position == gapStart) {
+            long remaining = gapEnd - gapStart;
+            while (remaining > 0) {
+                long skipped = in.skip(remaining);
+                if (skipped <= 0)
+                    throw new EOFException("Cannot skip to " + gapEnd);
+                remaining -= skipped;
+            }
+            position = gapEnd;
+            gapStart = -1;
+        } else if (position + len > gapStart) {
+            len = (int) (gapStart - position);
+        }
+        return len;
+    }
+
     private void reopen() throws IOException {
         eofEvent();
         in.close();
@@ -203,6 +256,7 @@ public class XMLInputStream extends FilterInputStream {
      * @throws java.io.IOException if an I/O error occurs.
      */
     @Override public int read() throws IOException {
+        checkGap(1);
         int r = in.read();
         if (r != -1) {
             ++position;
@@ -268,6 +322,7 @@ public class XMLInputStream extends FilterInputStream {
      * @throws java.io.IOException       if an I/O error occurs.
      */
     @Override public int read(byte b[], int off, int len) throws IOException {
+        len = checkGap(len);
         int size = in.read(b, off, len);
         if (size != -1) {
             for (int i = off; i < size; i++)
@@ -149,6 +149,26 @@
     <%      } %>
      </tbody>
      </table>
+    <%
+            Integer limit = (Integer) request.getAttribute("limit");
+            if (limit != null) {
+                int offset = (Integer) request.getAttribute("offset");
+                String pageLink = "/controller/results/list?limit=" + limit;
+                if (tagInSearch != null && tagInSearch.length() > 0)
+                    pageLink += "&inputtag=" + URLEncoder.encode(tagInSearch.trim(), "UTF-8");
+                if (resultTable.getSortColumn() >= 0)
+                    pageLink += "&sortColumn=" + resultTable.getSortColumn() +
+                                "&sortDirection=" + resultTable.getSortDirection();
+    %>
+     <center>
+    <%          if (offset > 0) { %>
+       <a href="<%= pageLink + "&offset=" + Math.max(offset - limit, 0) %>" target="main">Previous</a>&nbsp;&nbsp;
+    <%          }
+                if (rows >= limit) { %>
+       <a href="<%= pageLink + "&offset=" + (offset + limit) %>" target="main">Next</a>
+    <%          } %>
+     </center>
+    <%      } %>
      <br/>
      <br/>
      <center>
@@ -252,6 +252,94 @@
                         </tbody>
                     </table><br></br>
                     </xsl:if>
+                    <xsl:if test="intendedResponseTimes">
+                    <h3>Response Times from Intended Start
+                        <xsl:if test="intendedResponseTimes/@unit">
+                            (<xsl:value-of select="intendedResponseTimes/@unit"/>)
+                        </xsl:if>
+                    </h3>
+                    <table border="0" cellpadding="4" cellspacing="3"
+                        style="padding: 2px; border: 2px solid #cccccc; text-align: center; width: 100%;">
+                        <tbody>
+                            <tr style="vertical-align: top;">
+                                <th class="header" style="text-align: left;">Type</th>
+                                <th class="header">Avg</th>
+                                <th class="header">Max</th>
+                                <xsl:for-each select="intendedResponseTimes/operation[1]/percentile">
+                                    <th class="header"><xsl:value-of select="@nth"/><xsl:value-of select="@suffix"/>%</th>
+                                </xsl:for-each>
+                                <xsl:if test="intendedResponseTimes/operation[1]/p90th">
+                                    <th class="header">90th%</th>
+                                    <th class="header">99th%</th>
+                                </xsl:if>
+                                <th class="header">Late Starts</th>
+                                <th class="header">Total Drift (seconds)</th>
+                            </tr>
+                            <xsl:for-each select="intendedResponseTimes/operation">
+                                <tr>
+                                    <xsl:choose>
+                                        <xsl:when test="(position() mod 2 = 1)">
+                                            <xsl:attribute name="class">even</xsl:attribute>
+                                        </xsl:when>
+                                        <xsl:otherwise>
+                                            <xsl:attribute name="class">odd</xsl:attribute>
+                                        </xsl:otherwise>
+                                    </xsl:choose>
+                                    <td class="tablecell" style="text-align: left;"><xsl:value-of select="@name"/></td>
+                                    <td class="tablecell"><xsl:value-of select="avg"/></td>
+                                    <td class="tablecell"><xsl:value-of select="max"/></td>
+                                    <xsl:for-each select="percentile">
+                                        <td class="tablecell"><xsl:value-of select="."/></td>
+                                    </xsl:for-each>
+                                    <xsl:if test="p90th">
+                                        <td class="tablecell"><xsl:value-of select="p90th"/></td>
+                                        <td class="tablecell"><xsl:value-of select="p99th"/></td>
+                                    </xsl:if>
+                                    <td class="tablecell"><xsl:value-of select="lateStarts"/></td>
+                                    <td class="tablecell"><xsl:value-of select="drift"/></td>
+                                </tr>
+                            </xsl:for-each>
+                        </tbody>
+                    </table><br></br>
+                    </xsl:if>
+                    <xsl:if test="requestPhases">
+                    <h3>Request Phase Times
+                        <xsl:if test="requestPhases/@unit">
+                            (<xsl:value-of select="requestPhases/@unit"/>)
+                        </xsl:if>
+                    </h3>
+                    <table border="0" cellpadding="4" cellspacing="3"
+                        style="padding: 2px; border: 2px solid #cccccc; text-align: center; width: 100%;">
+                        <tbody>
+                            <tr style="vertical-align: top;">
+                                <th class="header" style="text-align: left;">Type</th>
+                                <th class="header" style="text-align: left;">Phase</th>
+                                <th class="header">Count</th>
+                                <th class="header">Avg</th>
+                                <th class="header">90th%</th>
+                                <th class="header">Max</th>
+                            </tr>
+                            <xsl:for-each select="requestPhases/operation/phase">
+                                <tr>
+                                    <xsl:choose>
+                                        <xsl:when test="(position() mod 2 = 1)">
+                                            <xsl:attribute name="class">even</xsl:attribute>
+                                        </xsl:when>
+                                        <xsl:otherwise>
+                                            <xsl:attribute name="class">odd</xsl:attribute>
+                                        </xsl:otherwise>
+                                    </xsl:choose>
+                                    <td class="tablecell" style="text-align: left;"><xsl:value-of select="../@name"/></td>
+                                    <td class="tablecell" style="text-align: left;"><xsl:value-of select="@name"/></td>
+                                    <td class="tablecell"><xsl:value-of select="@count"/></td>
+                                    <td class="tablecell"><xsl:value-of select="avg"/></td>
+                                    <td class="tablecell"><xsl:value-of select="p90th"/></td>
+                                    <td class="tablecell"><xsl:value-of select="max"/></td>
+                                </tr>
+                            </xsl:for-each>
+                        </tbody>
+                    </table><br></br>
+                    </xsl:if>
                     <xsl:if test="delayTimes">
                     <h3>Cycle/Think Times (seconds)</h3>
                     <table border="0" cellpadding="4" cellspacing="3"
@@ -296,6 +384,30 @@
                         </tbody>
                     </table><br></br>
                     </xsl:if>
+                    <xsl:if test="arrivals">
+                    <h3>Arrivals (ops/sec)</h3>
+                    <table border="0" cellpadding="4" cellspacing="3"
+                        style="padding: 2px; border: 2px solid #cccccc; text-align: center; width: 100%;">
+                        <tbody>
+                            <tr style="vertical-align: top;">
+                                <th class="header">Target Rate</th>
+                                <th class="header">Offered Rate</th>
+                                <th class="header">Achieved Rate</th>
+                                <th class="header">Dropped</th>
+                                <th class="header">Queued</th>
+                                <th class="header">Max Queue</th>
+                            </tr>
+                            <tr class="even">
+                                <td class="tablecell"><xsl:value-of select="arrivals/targetRate"/></td>
+                                <td class="tablecell"><xsl:value-of select="arrivals/offeredRate"/></td>
+                                <td class="tablecell"><xsl:value-of select="arrivals/achievedRate"/></td>
+                                <td class="tablecell"><xsl:value-of select="arrivals/dropped"/></td>
+                                <td class="tablecell"><xsl:value-of select="arrivals/queued"/></td>
+                                <td class="tablecell"><xsl:value-of select="arrivals/maxQueue"/></td>
+                            </tr>
+                        </tbody>
+                    </table><br></br>
+                    </xsl:if>
                     <xsl:if test="miscStats">
                     <h3>Miscellaneous Statistics</h3>
                     <table border="0" cellpadding="4" cellspacing="3"
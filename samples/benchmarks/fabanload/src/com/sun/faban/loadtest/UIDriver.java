@@ -64,7 +64,8 @@ public class UIDriver {
     Logger logger;
     Random random;
     String baseURL;
-    String[] homePageGets;
+    String homePage;
+    String[] homePageFrames;
     String resultList;
     String[] submitRuns;
     String pendingList;
@@ -85,11 +86,11 @@ public class UIDriver {
         String port = ctx.getXPathValue("/fabanLoad/serverConfig/port");
         realSubmit = Boolean.parseBoolean(ctx.getProperty("realSubmit"));
         baseURL = "http://" + host + ':' + port + '/';
-        homePageGets = new String[4];
-        homePageGets[0] = baseURL;
-        homePageGets[1] = baseURL + "banner.jsp";
-        homePageGets[2] = baseURL + "welcome.jsp";
-        homePageGets[3] = baseURL + "menu.jsp";
+        homePage = baseURL;
+        homePageFrames = new String[3];
+        homePageFrames[0] = baseURL + "banner.jsp";
+        homePageFrames[1] = baseURL + "welcome.jsp";
+        homePageFrames[2] = baseURL + "menu.jsp";
         resultList = baseURL + "resultlist.jsp";
         submitRuns = new String[3];
         submitRuns[0] = baseURL + "selectprofile.jsp";
@@ -117,10 +118,9 @@ public class UIDriver {
         timing  = Timing.AUTO
     )
     public void homePage() throws IOException {
-        for (String get : homePageGets) {
-            logger.finest("Accessing " + get);
-            http.readURL(get);
-        }
+        logger.finest("Accessing " + homePage);
+        // The frames are fetched in parallel, like a browser does.
+        http.fetchPage(homePage, homePageFrames, null);
     }
 
     /**